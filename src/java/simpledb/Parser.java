@@ -12,6 +12,7 @@ import simpledb.optimizer.LogicalPlan;
 import simpledb.optimizer.TableStats;
 import simpledb.storage.IntField;
 import simpledb.storage.StringField;
+import simpledb.storage.VarcharField;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.Transaction;
@@ -21,11 +22,17 @@ import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class Parser {
 
     // final static Logger logger = LoggerFactory.getLogger(Parser.class);
     static boolean explain = false;
+    /* whether queries run a batch at a time where they can, see Vectorizer */
+    static boolean vectorize = false;
+    /* whether scans, filters and projections are compiled, see QueryCompiler */
+    static boolean compile = false;
 
     public static Predicate.Op getOp(String s) throws simpledb.ParsingException {
         if (s.equals("="))
@@ -256,22 +263,61 @@ public class Parser {
         if (q.getOrderBy() != null) {
             @SuppressWarnings("unchecked")
             List<ZOrderBy> obys = q.getOrderBy();
-            if (obys.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "Multi-attribute ORDER BY is not supported.");
-            }
-            ZOrderBy oby = obys.get(0);
-            if (!(oby.getExpression() instanceof ZConstant f)) {
-                throw new simpledb.ParsingException(
-                        "Complex ORDER BY's are not supported");
-            }
+            for (ZOrderBy oby : obys) {
+                if (!(oby.getExpression() instanceof ZConstant f)) {
+                    throw new simpledb.ParsingException(
+                            "Complex ORDER BY's are not supported");
+                }
 
-            lp.addOrderBy(f.getValue(), oby.getAscOrder());
+                lp.addOrderBy(f.getValue(), oby.getAscOrder());
+            }
 
         }
         return lp;
     }
 
+    /* a LIMIT just before the ';' that ends a statement, which ZQL does not parse */
+    private static final Pattern LIMIT = Pattern.compile("(?i)\\s+LIMIT\\s+(\\d{1,9})(?=\\s*;\\s*$)");
+
+    /* the LIMIT of the statement being processed, or -1 */
+    private int limit = -1;
+
+    /**
+     * Take the LIMIT off the end of a statement, if it has one, and keep
+     * its number for the statement's plan.
+     *
+     * @return the statement without its LIMIT
+     */
+    private String stripLimit(String statement) {
+        Matcher m = LIMIT.matcher(statement);
+        if (!m.find()) {
+            limit = -1;
+            return statement;
+        }
+        limit = Integer.parseInt(m.group(1));
+        return statement.substring(0, m.start()) + statement.substring(m.end());
+    }
+
+    /**
+     * Read the next statement from a stream: everything up to and including
+     * the first ';' outside a quoted string.  The rest of the stream is left
+     * for the statements after it.
+     */
+    private static String readStatement(InputStream is) throws IOException {
+        ByteArrayOutputStream statement = new ByteArrayOutputStream();
+        boolean quoted = false;
+        int c;
+        while ((c = is.read()) != -1) {
+            statement.write(c);
+            if (c == '\'') {
+                quoted = !quoted;
+            } else if (c == ';' && !quoted) {
+                break;
+            }
+        }
+        return statement.toString(StandardCharsets.UTF_8);
+    }
+
     private Transaction curtrans = null;
     private boolean inUserTrans = false;
 
@@ -281,6 +327,7 @@ public class Parser {
         Query query = new Query(tId);
 
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        lp.setLimit(limit);
         OpIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
         query.setPhysicalPlan(physicalPlan);
@@ -308,6 +355,11 @@ public class Parser {
             } catch (NoSuchMethodException | InstantiationException | InvocationTargetException | IllegalAccessException | IllegalArgumentException e) {
                 // logger.error(e.getMessage());
             }
+            if (vectorize) {
+                query.setPhysicalPlan(Vectorizer.vectorize(physicalPlan));
+            } else if (compile) {
+                query.setPhysicalPlan(QueryCompiler.compile(physicalPlan));
+            }
         }
 
         return query;
@@ -357,13 +409,14 @@ public class Parser {
                     IntField f = new IntField(Integer.parseInt(zc.getValue()));
                     t.setField(i, f);
                 } else if (zc.getType() == ZConstant.STRING) {
-                    if (td.getFieldType(i) != Type.STRING_TYPE) {
+                    if (td.getFieldType(i) == Type.INT_TYPE) {
                         throw new simpledb.ParsingException("Value "
                                 + zc.getValue()
                                 + " is a string, expected an integer.");
                     }
-                    StringField f = new StringField(zc.getValue(),
-                            Type.STRING_LEN);
+                    StringField f = td.getFieldType(i) == Type.VARCHAR_TYPE
+                            ? new VarcharField(zc.getValue())
+                            : new StringField(zc.getValue(), Type.STRING_LEN);
                     t.setField(i, f);
                 } else {
                     throw new simpledb.ParsingException(
@@ -459,12 +512,14 @@ public class Parser {
 
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException, IOException {
-        ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
+        ByteArrayInputStream bis = new ByteArrayInputStream(stripLimit(s).getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
             ZStatement stmt = p.readStatement();
             if (stmt instanceof ZQuery) {
-                return parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                lp.setLimit(limit);
+                return lp;
             }
         } catch (Zql.ParseException e) {
             throw new simpledb.ParsingException(
@@ -489,8 +544,12 @@ public class Parser {
 
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
+            String statement = stripLimit(readStatement(is));
+            ZqlParser p = new ZqlParser(new ByteArrayInputStream(statement.getBytes(StandardCharsets.UTF_8)));
             ZStatement s = p.readStatement();
+            if (limit >= 0 && !(s instanceof ZQuery))
+                throw new simpledb.ParsingException(
+                        "LIMIT is only supported on SELECT statements");
 
             Query query = null;
             if (s instanceof ZTransactStmt)
@@ -575,7 +634,9 @@ public class Parser {
         p.start(argv);
     }
 
-    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
+    static final String usage = "Usage: parser catalogFile [-explain] [-vectorize] [-compile] [-f queryFile]\n"
+            + "At the prompt, lockstats; prints the lock counters and lockstats reset; clears them;\n"
+            + "prefetchstats; and prefetchstats reset; do the same for the read-ahead counters";
     static final int SLEEP_TIME = 1000;
 
     protected void shutdown() {
@@ -596,6 +657,12 @@ public class Parser {
                 if (argv[i].equals("-explain")) {
                     explain = true;
                     System.out.println("Explain mode enabled.");
+                } else if (argv[i].equals("-vectorize")) {
+                    vectorize = true;
+                    System.out.println("Vectorized execution enabled.");
+                } else if (argv[i].equals("-compile")) {
+                    compile = true;
+                    System.out.println("Query compilation enabled.");
                 } else if (argv[i].equals("-f")) {
                     interactive = false;
                     if (i++ == argv.length) {
@@ -662,12 +729,22 @@ public class Parser {
                         break;
                     }
 
-                    long startTime = System.currentTimeMillis();
-                    processNextStatement(new ByteArrayInputStream(
-                            statementBytes));
-                    long time = System.currentTimeMillis() - startTime;
-                    System.out.printf("----------------\n%.2f seconds\n\n",
-                            ((double) time / 1000.0));
+                    if (cmd.equalsIgnoreCase("lockstats;")) {
+                        System.out.print(Database.getBufferPool().getLockStats());
+                    } else if (cmd.equalsIgnoreCase("lockstats reset;")) {
+                        Database.getBufferPool().getLockStats().reset();
+                    } else if (cmd.equalsIgnoreCase("prefetchstats;")) {
+                        System.out.print(Database.getBufferPool().getPrefetchStats());
+                    } else if (cmd.equalsIgnoreCase("prefetchstats reset;")) {
+                        Database.getBufferPool().getPrefetchStats().reset();
+                    } else {
+                        long startTime = System.currentTimeMillis();
+                        processNextStatement(new ByteArrayInputStream(
+                                statementBytes));
+                        long time = System.currentTimeMillis() - startTime;
+                        System.out.printf("----------------\n%.2f seconds\n\n",
+                                ((double) time / 1000.0));
+                    }
 
                     // Grab the remainder of the line
                     line = line.substring(split + 1);
@@ -130,7 +130,18 @@ public class Catalog {
 
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
-     *
+     * Each line describes a table, optionally followed by table options:
+     * <pre>
+     * name (field type [pk], field type, ...) [mmap]
+     * </pre>
+     * <tt>mmap</tt> reads the table's pages through a memory mapping of its
+     * file, see {@link HeapFile#setMemoryMapped}.  <tt>pax</tt> stores the
+     * table column by column within each page, see {@link PaxFile}.
+     * <tt>slotted</tt> stores tuples of variable length on slotted pages,
+     * see {@link SlottedHeapFile}; tables with <tt>varchar</tt> fields are
+     * always slotted, and slotted tables take neither of the other options.
+     * <tt>compressed</tt> reads a read-only table written by
+     * {@link BulkLoader#loadCompressedFile}, and takes no other option.
      */
     public void loadSchema(String catalogFile) {
         String line = "";
@@ -154,6 +165,8 @@ public class Catalog {
                         types.add(Type.INT_TYPE);
                     else if (els2[1].trim().equalsIgnoreCase("string"))
                         types.add(Type.STRING_TYPE);
+                    else if (els2[1].trim().equalsIgnoreCase("varchar"))
+                        types.add(Type.VARCHAR_TYPE);
                     else {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
@@ -170,8 +183,47 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder + "/" + name + ".dat"), t);
-                addTable(tabHf, name, primaryKey);
+                boolean mmap = false;
+                boolean pax = false;
+                boolean slotted = !t.isFixedLength();
+                boolean compressed = false;
+                String options = line.substring(line.indexOf(")") + 1).trim();
+                for (String option : options.split("\\s+")) {
+                    if (option.equalsIgnoreCase("mmap"))
+                        mmap = true;
+                    else if (option.equalsIgnoreCase("pax"))
+                        pax = true;
+                    else if (option.equalsIgnoreCase("slotted"))
+                        slotted = true;
+                    else if (option.equalsIgnoreCase("compressed"))
+                        compressed = true;
+                    else if (!option.isEmpty()) {
+                        System.out.println("Unknown table option " + option);
+                        System.exit(0);
+                    }
+                }
+                File dataFile = new File(baseFolder + "/" + name + ".dat");
+                DbFile tabFile;
+                if (compressed) {
+                    if (mmap || pax || slotted) {
+                        System.out.println("Table " + name + " is compressed, which cannot be combined "
+                                + "with mmap, pax, slotted or varchar fields");
+                        System.exit(0);
+                    }
+                    tabFile = new CompressedHeapFile(dataFile, t);
+                } else if (slotted) {
+                    if (mmap || pax) {
+                        System.out.println("Table " + name + " has varchar fields or is slotted, "
+                                + "which cannot be combined with mmap or pax");
+                        System.exit(0);
+                    }
+                    tabFile = new SlottedHeapFile(dataFile, t);
+                } else {
+                    HeapFile tabHf = pax ? new PaxFile(dataFile, t) : new HeapFile(dataFile, t);
+                    tabHf.setMemoryMapped(mmap);
+                    tabFile = tabHf;
+                }
+                addTable(tabFile, name, primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
         } catch (IOException e) {
@@ -4,154 +4,303 @@ import simpledb.storage.PageId;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * LockManager implements page-level shared/exclusive locking for strict
+ * two-phase locking.
+ * <p>
+ * Every locked page has its own lock queue with its own latch: the granted
+ * locks, and the waiting requests in FIFO order, except that lock upgrades
+ * go ahead of plain requests.  A waiting thread sleeps on a condition of its
+ * own and is woken exactly when its request is granted or its transaction is
+ * chosen as a deadlock victim, so there is no polling and no global monitor.
+ * <p>
+ * While anybody waits, a background thread periodically builds the
+ * waits-for graph and breaks every cycle in it by aborting one transaction
+ * of the cycle, chosen by the {@link VictimPolicy}.
+ * <p>
+ * Besides the lock table keyed by page, the pages each transaction holds
+ * locks on are indexed by transaction, so that completing a transaction
+ * only visits its own pages rather than every locked page.
+ * <p>
+ * Counters are kept in a {@link LockStats}; tracing goes through
+ * {@link Debug} at {@link #TRACE_LEVEL} and costs nothing when disabled.
+ */
 public class LockManager {
-    /* 记录某个页面是否被加锁了,如果被加锁了,那么是哪些事务加的锁 */
-    private final Map<PageId, Map<TransactionId, PageLock>> pageLockMap;
+
+    /** How a deadlock victim is chosen among the transactions of a cycle. */
+    public enum VictimPolicy {
+        /** abort the transaction that started last */
+        YOUNGEST,
+        /** abort the transaction holding the fewest locks, the youngest on ties */
+        LEAST_WORK
+    }
+
+    /** How often the deadlock detector looks for cycles while anybody waits. */
+    static final long DETECTION_INTERVAL_MILLIS = 50;
+
+    /** Debug level of the lock tracing: run with -Dsimpledb.common.Debug=1 to see it. */
+    public static final int TRACE_LEVEL = 1;
+
+    /* a waiting lock request; guarded by the latch of its queue */
+    private static class LockRequest {
+        final TransactionId tid;
+        final int type;
+        final boolean upgrade;
+        final Condition wakeup;
+        boolean granted;
+        boolean aborted;
+        /* why it was aborted, for the statistics */
+        boolean victim;
+        boolean timedOut;
+
+        LockRequest(TransactionId tid, int type, boolean upgrade, Condition wakeup) {
+            this.tid = tid;
+            this.type = type;
+            this.upgrade = upgrade;
+            this.wakeup = wakeup;
+        }
+    }
+
+    /* the locks of one page */
+    private static class LockQueue {
+        final ReentrantLock latch = new ReentrantLock();
+        final Map<TransactionId, PageLock> holders = new LinkedHashMap<>();
+        final LinkedList<LockRequest> waiters = new LinkedList<>();
+        /* set once the queue is empty and dropped from the lock table */
+        boolean retired;
+    }
+
+    private final Map<PageId, LockQueue> lockTable;
+    /* the pages each transaction holds a lock on; updated under the latch of the page */
+    private final Map<TransactionId, Set<PageId>> heldLocks;
+    private final VictimPolicy victimPolicy;
+    private final AtomicInteger waiting;
+    private final AtomicBoolean detectorRunning;
+    private final LockStats stats;
+    private volatile long lockWaitTimeoutMillis;
 
     public LockManager() {
-        pageLockMap = new ConcurrentHashMap<>();
-    }
-
-    // TODO: rewrite comments
-    public synchronized boolean acquireLock(PageId pageId, TransactionId tid, int acquireType) throws TransactionAbortedException, InterruptedException {
-        final String lockTypeStr = PageLock.lockTypeString(acquireType);
-        final String threadName = Thread.currentThread().getName();
-
-        // 获取当前页面上已经添加的锁
-        Map<TransactionId, PageLock> transactionPageLockMap = pageLockMap.get(pageId);
-
-        // 1. 页面A上没有锁 -> 事物1直接加锁
-        if (transactionPageLockMap== null || transactionPageLockMap.isEmpty()) {
-            PageLock pageLock = new PageLock(acquireType, tid);
-            transactionPageLockMap = new ConcurrentHashMap<>();
-            transactionPageLockMap.put(tid, pageLock);
-            pageLockMap.put(pageId, transactionPageLockMap);
-            System.out.println(threadName + ": the " + pageId + "has no lock, transaction require" + lockTypeStr + "successfully");
-            return true;
-        }
-
-        // 2. 页面A有加过锁
-        // 获取当前事务在当前页面上加的锁
-        PageLock transactionLock = transactionPageLockMap.get(tid);
-        // 2.1 有事物1的锁
-        if (transactionLock != null) {
-            // 2.1.1 事物1请求的是Read Lock -》 事物1直接获取锁
-            if (acquireType == PageLock.READ) {
-                System.out.println(threadName + ": the" + pageId + "have read lock with the same tid, transaction " + tid + " require" + lockTypeStr + " success");
-                return true;
-            }
-
-            // 2.1.2 事物1请求的是Write Lock
-            if (acquireType == PageLock.WRITE) {
-                // 存在其他事务在页面1上加了读锁 --> 直接抛出异常,防止等待锁升级产生死锁问题
-                if (transactionPageLockMap.size() > 1) {
-                    System.out.println(threadName + ": the" + pageId + "have many read locks, transaction " + tid + " require" + lockTypeStr + " fail");
-                    throw new TransactionAbortedException();
+        this(VictimPolicy.YOUNGEST);
+    }
+
+    public LockManager(VictimPolicy victimPolicy) {
+        this.lockTable = new ConcurrentHashMap<>();
+        this.heldLocks = new ConcurrentHashMap<>();
+        this.victimPolicy = victimPolicy;
+        this.waiting = new AtomicInteger();
+        this.detectorRunning = new AtomicBoolean();
+        this.stats = new LockStats();
+        this.lockWaitTimeoutMillis = 0;
+    }
+
+    /** @return the lock counters of this lock manager */
+    public LockStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Give up on lock requests that have waited for longer than the given
+     * time, aborting their transaction.  0 (the default) waits until the lock
+     * is granted or the transaction is chosen as a deadlock victim.
+     */
+    public void setLockWaitTimeout(long millis) {
+        this.lockWaitTimeoutMillis = millis;
+    }
+
+    private static boolean conflicts(int held, int requested) {
+        return held == PageLock.WRITE || requested == PageLock.WRITE;
+    }
+
+    /* can tid be granted a lock of the given type, looking only at the granted locks */
+    private static boolean compatible(LockQueue q, TransactionId tid, int type) {
+        for (Map.Entry<TransactionId, PageLock> e : q.holders.entrySet()) {
+            if (!e.getKey().equals(tid) && conflicts(e.getValue().getType(), type)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void grant(PageId pageId, LockQueue q, TransactionId tid, int type) {
+        PageLock held = q.holders.get(tid);
+        if (held == null) {
+            q.holders.put(tid, new PageLock(type, tid));
+            heldLocks.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add(pageId);
+        } else if (type == PageLock.WRITE) {
+            held.setType(PageLock.WRITE);
+        }
+    }
+
+    /**
+     * Grant waiting requests in queue order until one cannot be granted.
+     * Must hold the latch of q.
+     */
+    private void grantWaiters(PageId pageId, LockQueue q) {
+        Iterator<LockRequest> it = q.waiters.iterator();
+        while (it.hasNext()) {
+            LockRequest r = it.next();
+            if (!compatible(q, r.tid, r.type)) {
+                break;
+            }
+            it.remove();
+            grant(pageId, q, r.tid, r.type);
+            r.granted = true;
+            r.wakeup.signal();
+        }
+    }
+
+    /**
+     * Acquire a lock on a page on behalf of a transaction, blocking until the
+     * lock is granted.  A transaction that already holds a read lock asking
+     * for a write lock upgrades its lock.
+     *
+     * @param pageId      the page to lock
+     * @param tid         the transaction requesting the lock
+     * @param acquireType {@link PageLock#READ} or {@link PageLock#WRITE}
+     * @throws TransactionAbortedException if the transaction was chosen as
+     *         a deadlock victim, timed out, or the waiting thread was
+     *         interrupted
+     */
+    public void acquireLock(PageId pageId, TransactionId tid, int acquireType)
+            throws TransactionAbortedException {
+        while (true) {
+            LockQueue q = lockTable.computeIfAbsent(pageId, k -> new LockQueue());
+            q.latch.lock();
+            try {
+                if (q.retired) {
+                    continue;
                 }
-                // 页面1只存在事务A的读锁 --> 进行锁升级为写锁
-                if (transactionPageLockMap.size() == 1 && transactionLock.getType() == PageLock.READ) {
-                    transactionLock.setType(PageLock.WRITE);
-                    transactionPageLockMap.put(tid, transactionLock);
-                    pageLockMap.put(pageId, transactionPageLockMap);
-                    System.out.println(threadName + ": the" + pageId + "have read lock with the same tid, transaction " +
-                            tid + " require" + lockTypeStr + " success and upgrade");
-                    return true;
+                PageLock held = q.holders.get(tid);
+                if (held != null && (held.getType() == PageLock.WRITE || acquireType == PageLock.READ)) {
+                    return;
                 }
-                //  当前事务在当前页面上已经加了写锁
-                if (transactionPageLockMap.size() == 1 && transactionLock.getType() == PageLock.WRITE) {
-                    System.out.println(threadName + ": the" + pageId + "have write lock with the same tid, transaction " + tid + " require" + lockTypeStr + " success");
-                    return true;
+                boolean upgrade = held != null;
+                // an upgrade only waits for the other holders; anybody else also waits for the queue
+                if ((upgrade || q.waiters.isEmpty()) && compatible(q, tid, acquireType)) {
+                    grant(pageId, q, tid, acquireType);
+                    stats.recordAcquire(pageId.getTableId(), upgrade);
+                    if (Debug.isEnabled(TRACE_LEVEL)) {
+                        Debug.log(TRACE_LEVEL, "lock: %s granted %s on %s", tid.getId(),
+                                PageLock.lockTypeString(acquireType), pageId);
+                    }
+                    return;
                 }
+                waitForLock(pageId, q, new LockRequest(tid, acquireType, upgrade, q.latch.newCondition()));
+                stats.recordAcquire(pageId.getTableId(), upgrade);
+                return;
+            } finally {
+                q.latch.unlock();
             }
         }
+    }
 
-        // 没有事物1的锁
-        if (transactionLock == null) {
-            // 页面A上的锁大于1
-            if (transactionPageLockMap.size() > 1) {
-                // 事物1 请求读锁
-                if (acquireType == PageLock.READ) {
-                    PageLock tranLock = new PageLock(PageLock.READ, tid);
-                    transactionPageLockMap.put(tid, tranLock);
-                    pageLockMap.put(pageId, transactionPageLockMap);
-                    System.out.println(threadName + ": the " + pageId + " have many read locks, transaction" + tid + " require " + lockTypeStr + ", accept and add a new read lock");
-                    return true;
-                }
-                // 事物1请求写锁 -》 事物1 wait
-                if (acquireType == PageLock.WRITE) {
-                    wait(20);
-                    System.out.println(threadName + ": the " + pageId + " have lock with diff txid, transaction" + tid + " require write lock, await...");
-                    return false;
-                }
+    /* enqueue r and sleep until it is granted or aborted; must hold the latch of q */
+    private void waitForLock(PageId pageId, LockQueue q, LockRequest r) throws TransactionAbortedException {
+        if (r.upgrade) {
+            // upgrades go ahead of plain requests, after earlier upgrades
+            int pos = 0;
+            while (pos < q.waiters.size() && q.waiters.get(pos).upgrade) {
+                pos++;
             }
-                // 页面A上的锁等于1
-            if (transactionPageLockMap.size() == 1) {
-                PageLock curLock = transactionPageLockMap.entrySet().iterator().next().getValue();
-
-                // 页面A上的锁是读锁
-                if (curLock.getType() == PageLock.READ) {
-                    // 事物1 请求读锁 -》 事物1 获取页面A上的读锁
-                    if (acquireType == PageLock.READ) {
-                        PageLock tranLock = new PageLock(PageLock.READ, tid);
-                        transactionPageLockMap.put(tid, tranLock);
-                        pageLockMap.put(pageId, transactionPageLockMap);
-                        System.out.println(threadName + ": the " + pageId + " have one read lock with diff txid, transaction" + tid + " require read lock, accept and add a new read lock");
-                        return true;
-                    }
+            q.waiters.add(pos, r);
+        } else {
+            q.waiters.addLast(r);
+        }
 
-                    // 事物1 请求写锁 -》 事物1等待
-                    if (acquireType == PageLock.WRITE) {
-                        wait(10);
-                        System.out.println(threadName + ": the " + pageId + " have lock with diff txid, transaction" + tid + " require write lock, await...");
-                        return false;
+        if (Debug.isEnabled(TRACE_LEVEL)) {
+            Debug.log(TRACE_LEVEL, "lock: %s waits for %s on %s", r.tid.getId(),
+                    PageLock.lockTypeString(r.type), pageId);
+        }
+        waiting.incrementAndGet();
+        startDetector();
+        long waitStart = System.nanoTime();
+        long timeout = lockWaitTimeoutMillis;
+        long remaining = TimeUnit.MILLISECONDS.toNanos(timeout);
+        try {
+            while (!r.granted && !r.aborted) {
+                if (timeout > 0) {
+                    if (remaining <= 0) {
+                        r.aborted = true;
+                        r.timedOut = true;
+                        break;
                     }
+                    remaining = r.wakeup.awaitNanos(remaining);
+                } else {
+                    r.wakeup.await();
                 }
+            }
+        } catch (InterruptedException e) {
+            // interrupting a waiting thread aborts its transaction; the flag is
+            // not restored, so that the abort itself can still do channel I/O
+            r.aborted = true;
+        } finally {
+            waiting.decrementAndGet();
+        }
+        int tableId = pageId.getTableId();
+        stats.recordWait(tableId, System.nanoTime() - waitStart);
 
-                // 页面A上的锁是写锁
-                if (curLock.getType() == PageLock.WRITE) {
-                    // 如果是写锁
-                    wait(10);
-                    System.out.println(threadName + ": the " + pageId + " have one write lock with diff txid, transaction" + tid + " require read lock, await...");
-                    return false;
-                }
+        if (!r.granted) {
+            if (r.victim) {
+                stats.recordDeadlockAbort(tableId);
+            } else if (r.timedOut) {
+                stats.recordTimeout(tableId);
             }
+            if (Debug.isEnabled(TRACE_LEVEL)) {
+                Debug.log(TRACE_LEVEL, "lock: %s aborted waiting for %s on %s%s", r.tid.getId(),
+                        PageLock.lockTypeString(r.type), pageId,
+                        r.victim ? " (deadlock victim)" : r.timedOut ? " (timeout)" : "");
+            }
+            q.waiters.remove(r);
+            // whoever queued behind us may be able to go now
+            grantWaiters(pageId, q);
+            throw new TransactionAbortedException();
+        }
+        if (Debug.isEnabled(TRACE_LEVEL)) {
+            Debug.log(TRACE_LEVEL, "lock: %s granted %s on %s after waiting", r.tid.getId(),
+                    PageLock.lockTypeString(r.type), pageId);
         }
-        System.out.println("---------------------");
-        return false;
     }
 
-
-
-
     /**
      * 释放指定页面的指定事务加的锁
      *
      * @param pageId 页id
      * @param tid    事务id
      */
-    public synchronized void releaseLock(PageId pageId, TransactionId tid) {
+    public void releaseLock(PageId pageId, TransactionId tid) {
         if (tid == null) return;
 
-        Map<TransactionId, PageLock> transactionIdPageLockMap = pageLockMap.get(pageId);
-        if (transactionIdPageLockMap == null) return;
-
-        PageLock transactionLock = transactionIdPageLockMap.get(tid);
-        if (transactionLock == null) return;
-
-        final String threadName = Thread.currentThread().getName();
-        final String lockTypeStr = PageLock.lockTypeString(transactionLock.getType());
+        LockQueue q = lockTable.get(pageId);
+        if (q == null) return;
 
-        transactionIdPageLockMap.remove(tid);
-        System.out.println(threadName + " release " + lockTypeStr + " in " + pageId + ", the tid lock size is " + transactionIdPageLockMap.size());
-        if (transactionIdPageLockMap.isEmpty()) {
-            pageLockMap.remove(pageId);
-            System.out.println(threadName + "release last lock, the page " + pageId + " have no lock, the page locks size is " + pageLockMap.size());
+        q.latch.lock();
+        try {
+            if (q.holders.remove(tid) == null) {
+                return;
+            }
+            Set<PageId> pages = heldLocks.get(tid);
+            if (pages != null) {
+                pages.remove(pageId);
+            }
+            if (Debug.isEnabled(TRACE_LEVEL)) {
+                Debug.log(TRACE_LEVEL, "lock: %s released %s", tid.getId(), pageId);
+            }
+            grantWaiters(pageId, q);
+            if (q.holders.isEmpty() && q.waiters.isEmpty()) {
+                q.retired = true;
+                lockTable.remove(pageId, q);
+            }
+        } finally {
+            q.latch.unlock();
         }
-        this.notifyAll();
     }
 
     /**
@@ -161,16 +310,221 @@ public class LockManager {
      * @param tid    事务id
      * @return 事务是否持有对应页的锁
      */
-    public synchronized boolean isHoldLock(PageId pageId, TransactionId tid) {
-        Map<TransactionId, PageLock> transactionIdPageLockMap = pageLockMap.get(pageId);
-        if (transactionIdPageLockMap == null)  return false;
-        return transactionIdPageLockMap.get(tid) != null;
+    public boolean isHoldLock(PageId pageId, TransactionId tid) {
+        LockQueue q = lockTable.get(pageId);
+        if (q == null) return false;
+        q.latch.lock();
+        try {
+            return q.holders.containsKey(tid);
+        } finally {
+            q.latch.unlock();
+        }
     }
 
-    public synchronized void completeTransaction(TransactionId tid) {
-        Set<PageId> pageIdSet = pageLockMap.keySet();
-        for (PageId pageId : pageIdSet) {
+    /**
+     * Release all locks held by a transaction.  Only the pages the
+     * transaction holds locks on are visited.
+     *
+     * @param tid 事务id
+     */
+    public void completeTransaction(TransactionId tid) {
+        Set<PageId> pages = heldLocks.remove(tid);
+        if (pages == null) return;
+        for (PageId pageId : pages) {
             releaseLock(pageId, tid);
         }
     }
+
+    /* start the deadlock detector unless it is already running */
+    private void startDetector() {
+        if (detectorRunning.compareAndSet(false, true)) {
+            Thread detector = new Thread(this::runDetector, "LockManager deadlock detector");
+            detector.setDaemon(true);
+            detector.start();
+        }
+    }
+
+    /* look for deadlocks for as long as anybody waits */
+    private void runDetector() {
+        try {
+            while (true) {
+                Thread.sleep(DETECTION_INTERVAL_MILLIS);
+                if (waiting.get() == 0) {
+                    detectorRunning.set(false);
+                    // a new waiter may have come in after the check and found us still running
+                    if (waiting.get() == 0 || !detectorRunning.compareAndSet(false, true)) {
+                        return;
+                    }
+                }
+                detectDeadlocks();
+            }
+        } catch (InterruptedException e) {
+            detectorRunning.set(false);
+        }
+    }
+
+    /**
+     * Build the waits-for graph and abort one victim per cycle.  The graph
+     * is read one queue at a time, so a cycle in it may be made of edges
+     * that never existed together; each edge of a cycle is checked again
+     * under its queue's latch before the victim is aborted, and a cycle
+     * with an edge that is gone is dropped.
+     *
+     * @return the transactions that were aborted
+     */
+    synchronized Set<TransactionId> detectDeadlocks() {
+        Map<TransactionId, Set<TransactionId>> waitsFor = new HashMap<>();
+        Map<TransactionId, Integer> locksHeld = new HashMap<>();
+        Map<TransactionId, List<PageId>> waitingOn = new HashMap<>();
+
+        for (Map.Entry<PageId, LockQueue> entry : lockTable.entrySet()) {
+            LockQueue q = entry.getValue();
+            q.latch.lock();
+            try {
+                for (TransactionId holder : q.holders.keySet()) {
+                    locksHeld.merge(holder, 1, Integer::sum);
+                }
+                List<LockRequest> ahead = new ArrayList<>();
+                for (LockRequest r : q.waiters) {
+                    Set<TransactionId> edges = waitsFor.computeIfAbsent(r.tid, k -> new HashSet<>());
+                    waitingOn.computeIfAbsent(r.tid, k -> new ArrayList<>()).add(entry.getKey());
+                    for (Map.Entry<TransactionId, PageLock> h : q.holders.entrySet()) {
+                        if (!h.getKey().equals(r.tid) && conflicts(h.getValue().getType(), r.type)) {
+                            edges.add(h.getKey());
+                        }
+                    }
+                    for (LockRequest w : ahead) {
+                        if (!w.tid.equals(r.tid) && conflicts(w.type, r.type)) {
+                            edges.add(w.tid);
+                        }
+                    }
+                    ahead.add(r);
+                }
+            } finally {
+                q.latch.unlock();
+            }
+        }
+
+        Set<TransactionId> victims = new HashSet<>();
+        List<TransactionId> cycle;
+        while ((cycle = findCycle(waitsFor)) != null) {
+            TransactionId gone = null;
+            for (int i = 0; i < cycle.size() && gone == null; i++) {
+                TransactionId next = cycle.get((i + 1) % cycle.size());
+                if (!stillWaitsFor(cycle.get(i), next, waitingOn.getOrDefault(cycle.get(i), Collections.emptyList()))) {
+                    gone = cycle.get(i);
+                    waitsFor.get(gone).remove(next);
+                }
+            }
+            if (gone != null) {
+                continue;
+            }
+            TransactionId victim = chooseVictim(cycle, locksHeld);
+            if (Debug.isEnabled(TRACE_LEVEL)) {
+                Debug.log(TRACE_LEVEL, "lock: deadlock among %s, aborting %s", cycle, victim.getId());
+            }
+            victims.add(victim);
+            abortWaiting(victim, waitingOn.getOrDefault(victim, Collections.emptyList()));
+            // once aborted the victim waits for nobody, which breaks the cycle
+            waitsFor.remove(victim);
+        }
+        return victims;
+    }
+
+    /* whether tid still waits on one of the pages for a lock that blocker holds or asked for first */
+    private boolean stillWaitsFor(TransactionId tid, TransactionId blocker, List<PageId> pages) {
+        for (PageId pid : pages) {
+            LockQueue q = lockTable.get(pid);
+            if (q == null) continue;
+            q.latch.lock();
+            try {
+                List<LockRequest> ahead = new ArrayList<>();
+                for (LockRequest r : q.waiters) {
+                    if (r.tid.equals(tid) && !r.granted && !r.aborted) {
+                        PageLock held = q.holders.get(blocker);
+                        if (held != null && conflicts(held.getType(), r.type)) {
+                            return true;
+                        }
+                        for (LockRequest w : ahead) {
+                            if (w.tid.equals(blocker) && !w.aborted && conflicts(w.type, r.type)) {
+                                return true;
+                            }
+                        }
+                    }
+                    ahead.add(r);
+                }
+            } finally {
+                q.latch.unlock();
+            }
+        }
+        return false;
+    }
+
+    private TransactionId chooseVictim(List<TransactionId> cycle, Map<TransactionId, Integer> locksHeld) {
+        Comparator<TransactionId> youngestFirst =
+                Comparator.comparingLong(TransactionId::getId).reversed();
+        Comparator<TransactionId> order = victimPolicy == VictimPolicy.LEAST_WORK
+                ? Comparator.<TransactionId>comparingInt(t -> locksHeld.getOrDefault(t, 0)).thenComparing(youngestFirst)
+                : youngestFirst;
+        return Collections.min(cycle, order);
+    }
+
+    /* abort the requests tid is waiting on, if they are still waiting */
+    private void abortWaiting(TransactionId tid, List<PageId> pages) {
+        for (PageId pid : pages) {
+            LockQueue q = lockTable.get(pid);
+            if (q == null) continue;
+            q.latch.lock();
+            try {
+                for (LockRequest r : q.waiters) {
+                    if (r.tid.equals(tid) && !r.granted) {
+                        r.aborted = true;
+                        r.victim = true;
+                        r.wakeup.signal();
+                    }
+                }
+            } finally {
+                q.latch.unlock();
+            }
+        }
+    }
+
+    /**
+     * @return the transactions of one cycle in the graph, or null if it has none
+     */
+    private static List<TransactionId> findCycle(Map<TransactionId, Set<TransactionId>> waitsFor) {
+        Set<TransactionId> done = new HashSet<>();
+        for (TransactionId start : waitsFor.keySet()) {
+            if (done.contains(start)) continue;
+            List<TransactionId> path = new ArrayList<>();
+            Set<TransactionId> onPath = new HashSet<>();
+            List<TransactionId> cycle = findCycle(start, waitsFor, done, path, onPath);
+            if (cycle != null) {
+                return cycle;
+            }
+        }
+        return null;
+    }
+
+    private static List<TransactionId> findCycle(TransactionId tid, Map<TransactionId, Set<TransactionId>> waitsFor,
+                                                 Set<TransactionId> done, List<TransactionId> path,
+                                                 Set<TransactionId> onPath) {
+        path.add(tid);
+        onPath.add(tid);
+        for (TransactionId next : waitsFor.getOrDefault(tid, Collections.emptySet())) {
+            if (onPath.contains(next)) {
+                return new ArrayList<>(path.subList(path.indexOf(next), path.size()));
+            }
+            if (!done.contains(next)) {
+                List<TransactionId> cycle = findCycle(next, waitsFor, done, path, onPath);
+                if (cycle != null) {
+                    return cycle;
+                }
+            }
+        }
+        path.remove(path.size() - 1);
+        onPath.remove(tid);
+        done.add(tid);
+        return null;
+    }
 }
@@ -0,0 +1,163 @@
+package simpledb.common;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LockStats collects lock manager counters per table: acquisitions, waits,
+ * a histogram of wait times, upgrades, timeouts and deadlock aborts.
+ * <p>
+ * Recording is a few atomic increments, so it stays on all the time.
+ * {@link #forTable(int)} and {@link #total()} return snapshots; toString()
+ * prints a report with one row per table, which is what the
+ * <tt>lockstats;</tt> command of the Parser console shows.
+ */
+public class LockStats {
+
+    /** Wait times are bucketed by powers of two microseconds: bucket b holds waits < 2^b us. */
+    public static final int NUM_BUCKETS = 32;
+
+    /** A point-in-time copy of the counters of one table, or of all tables. */
+    public static class Counters {
+        public long acquisitions;
+        public long waits;
+        public long upgrades;
+        public long timeouts;
+        public long deadlockAborts;
+        /** total time spent waiting, in nanoseconds */
+        public long waitNanos;
+        public final long[] waitHistogram = new long[NUM_BUCKETS];
+
+        void add(Counters other) {
+            acquisitions += other.acquisitions;
+            waits += other.waits;
+            upgrades += other.upgrades;
+            timeouts += other.timeouts;
+            deadlockAborts += other.deadlockAborts;
+            waitNanos += other.waitNanos;
+            for (int b = 0; b < NUM_BUCKETS; b++) {
+                waitHistogram[b] += other.waitHistogram[b];
+            }
+        }
+
+        /**
+         * @param p a percentile between 0 and 100
+         * @return an upper bound, in microseconds, on the p-th percentile of
+         *         the wait times, or 0 if nobody waited
+         */
+        public long waitPercentileMicros(double p) {
+            long rank = (long) Math.ceil(waits * p / 100.0);
+            long seen = 0;
+            for (int b = 0; b < NUM_BUCKETS; b++) {
+                seen += waitHistogram[b];
+                if (seen >= Math.max(rank, 1)) {
+                    return 1L << b;
+                }
+            }
+            return 0;
+        }
+    }
+
+    /* live counters of one table */
+    private static class TableCounters {
+        final LongAdder acquisitions = new LongAdder();
+        final LongAdder waits = new LongAdder();
+        final LongAdder upgrades = new LongAdder();
+        final LongAdder timeouts = new LongAdder();
+        final LongAdder deadlockAborts = new LongAdder();
+        final LongAdder waitNanos = new LongAdder();
+        final AtomicLongArray waitHistogram = new AtomicLongArray(NUM_BUCKETS);
+
+        Counters snapshot() {
+            Counters c = new Counters();
+            c.acquisitions = acquisitions.sum();
+            c.waits = waits.sum();
+            c.upgrades = upgrades.sum();
+            c.timeouts = timeouts.sum();
+            c.deadlockAborts = deadlockAborts.sum();
+            c.waitNanos = waitNanos.sum();
+            for (int b = 0; b < NUM_BUCKETS; b++) {
+                c.waitHistogram[b] = waitHistogram.get(b);
+            }
+            return c;
+        }
+    }
+
+    private final Map<Integer, TableCounters> tables = new ConcurrentHashMap<>();
+
+    private TableCounters table(int tableId) {
+        return tables.computeIfAbsent(tableId, k -> new TableCounters());
+    }
+
+    static int bucket(long waitNanos) {
+        long micros = waitNanos / 1000;
+        int b = 64 - Long.numberOfLeadingZeros(micros);
+        return Math.min(b, NUM_BUCKETS - 1);
+    }
+
+    void recordAcquire(int tableId, boolean upgrade) {
+        TableCounters t = table(tableId);
+        t.acquisitions.increment();
+        if (upgrade) {
+            t.upgrades.increment();
+        }
+    }
+
+    void recordWait(int tableId, long waitNanos) {
+        TableCounters t = table(tableId);
+        t.waits.increment();
+        t.waitNanos.add(waitNanos);
+        t.waitHistogram.incrementAndGet(bucket(waitNanos));
+    }
+
+    void recordTimeout(int tableId) {
+        table(tableId).timeouts.increment();
+    }
+
+    void recordDeadlockAbort(int tableId) {
+        table(tableId).deadlockAborts.increment();
+    }
+
+    /** @return the counters of the given table; all zero if it was never locked */
+    public Counters forTable(int tableId) {
+        TableCounters t = tables.get(tableId);
+        return t == null ? new Counters() : t.snapshot();
+    }
+
+    /** @return the counters summed over all tables */
+    public Counters total() {
+        Counters total = new Counters();
+        for (TableCounters t : tables.values()) {
+            total.add(t.snapshot());
+        }
+        return total;
+    }
+
+    /** Forget everything recorded so far. */
+    public void reset() {
+        tables.clear();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-20s %10s %8s %10s %10s %10s %8s %9s %9s%n", "table", "acquired", "waits",
+                "p50(us)", "p99(us)", "max(us)", "upgrades", "timeouts", "deadlocks"));
+        Map<Integer, TableCounters> sorted = new TreeMap<>(tables);
+        for (Map.Entry<Integer, TableCounters> e : sorted.entrySet()) {
+            String name = Database.getCatalog().getTableName(e.getKey());
+            appendRow(sb, name == null ? String.valueOf(e.getKey()) : name, e.getValue().snapshot());
+        }
+        appendRow(sb, "total", total());
+        return sb.toString();
+    }
+
+    private static void appendRow(StringBuilder sb, String name, Counters c) {
+        sb.append(String.format("%-20s %10d %8d %10d %10d %10d %8d %9d %9d%n", name,
+                c.acquisitions, c.waits, c.waitPercentileMicros(50), c.waitPercentileMicros(99),
+                c.waitPercentileMicros(100), c.upgrades, c.timeouts, c.deadlockAborts));
+    }
+}
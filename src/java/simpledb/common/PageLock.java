@@ -15,7 +15,7 @@ public class PageLock {
     }
 
     public static String lockTypeString(int acquireType) {
-        return acquireType == 0 ? "Read lock" : "Write Type";
+        return acquireType == READ ? "read lock" : "write lock";
     }
 
     public int getType() {
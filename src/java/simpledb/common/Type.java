@@ -3,7 +3,10 @@ package simpledb.common;
 import simpledb.storage.StringField;
 import simpledb.storage.Field;
 import simpledb.storage.IntField;
+import simpledb.storage.VarcharField;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.io.*;
 
@@ -28,6 +31,15 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer buf, int index) throws ParseException {
+            try {
+                return new IntField(buf.getInt(index));
+            } catch (IndexOutOfBoundsException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -46,15 +58,74 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(ByteBuffer buf, int index) throws ParseException {
+            try {
+                int strLen = buf.getInt(index);
+                byte[] bs = new byte[strLen];
+                buf.get(index + 4, bs);
+                return new StringField(new String(bs), STRING_LEN);
+            } catch (IndexOutOfBoundsException | NegativeArraySizeException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+    }, VARCHAR_TYPE() {
+        /** An estimate: the length of a VARCHAR of {@link #VARCHAR_AVG_LEN} bytes. */
+        @Override
+        public int getLen() {
+            return VARCHAR_AVG_LEN+4;
+        }
+
+        @Override
+        public boolean isFixedLength() {
+            return false;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                byte[] bs = new byte[dis.readInt()];
+                dis.readFully(bs);
+                return new VarcharField(new String(bs, StandardCharsets.UTF_8));
+            } catch (IOException | NegativeArraySizeException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public Field parse(ByteBuffer buf, int index) throws ParseException {
+            try {
+                byte[] bs = new byte[buf.getInt(index)];
+                buf.get(index + 4, bs);
+                return new VarcharField(new String(bs, StandardCharsets.UTF_8));
+            } catch (IndexOutOfBoundsException | NegativeArraySizeException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
     };
     
     public static final int STRING_LEN = 128;
+    /** The longest VARCHAR, in characters. */
+    public static final int VARCHAR_LEN = 65535;
+    /** The length, in bytes, the average VARCHAR is assumed to have. */
+    public static final int VARCHAR_AVG_LEN = 32;
 
   /**
-   * @return the number of bytes required to store a field of this type.
+   * @return the number of bytes required to store a field of this type; for
+   *   a type that is not of fixed length, the number of bytes the average
+   *   field is assumed to take.
    */
     public abstract int getLen();
 
+  /**
+   * @return true if every field of this type takes {@link #getLen()} bytes;
+   *   only fixed-length types can be stored in HeapFiles and BTreeFiles.
+   */
+    public boolean isFixedLength() {
+        return true;
+    }
+
   /**
    * @return a Field object of the same type as this object that has contents
    *   read from the specified DataInputStream.
@@ -64,4 +135,15 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object that has contents
+   *   read from the specified buffer at the given index.  The buffer's
+   *   position is not used or changed, so threads can share the buffer.
+   * @param buf The buffer to read from
+   * @param index The index of the field's first byte in the buffer
+   * @throws ParseException if the data read from the buffer is not
+   *   of the appropriate type.
+   */
+    public abstract Field parse(ByteBuffer buf, int index) throws ParseException;
+
 }
@@ -109,6 +109,7 @@ public class Aggregate extends Operator {
         op = aop;
 
         opIterator = child;
+        opIterator.setNeededFields(neededFields());
         gbTD = getGbTD();
         gbFieldType = getGBFieldType();
         aggFieldType = getAGGFieldType();
@@ -200,6 +201,11 @@ public class Aggregate extends Operator {
         executor = null;
     }
 
+    /* the fields of the child's tuples that are aggregated or grouped by */
+    private int[] neededFields() {
+        return gfield == Aggregator.NO_GROUPING ? new int[] { afield } : new int[] { gfield, afield };
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[] {this.opIterator};
@@ -208,6 +214,7 @@ public class Aggregate extends Operator {
     @Override
     public void setChildren(OpIterator[] children) {
         opIterator = children[0];
+        opIterator.setNeededFields(neededFields());
         constructAggregator();
     }
 
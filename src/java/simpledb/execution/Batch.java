@@ -0,0 +1,110 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.VarcharField;
+
+/**
+ * A Batch is what {@link BatchIterator}s pass between each other instead of
+ * tuples: up to {@link #SIZE} rows stored a column at a time.  An INT column
+ * is an int[] of its values; a STRING or VARCHAR column is an int[] of codes
+ * in a {@link StringDictionary}.
+ * <p>
+ * Only the rows listed in the selection vector are in the batch; a filter
+ * drops rows by shortening the list rather than moving the columns.  Rows
+ * are listed in increasing order.
+ * <p>
+ * A batch belongs to the operator that returned it and is valid only until
+ * the next call to that operator's nextBatch; an operator that keeps rows
+ * for longer copies them.
+ */
+public class Batch {
+
+    /** The number of rows a batch holds at most. */
+    public static final int SIZE = 1024;
+
+    private final TupleDesc td;
+    /* the values or codes of each column, by row */
+    final int[][] columns;
+    /* the dictionary of each string column; null for INT columns */
+    final StringDictionary[] dictionaries;
+    /* the rows in the batch, and how many there are */
+    int[] selection;
+    int selected;
+
+    /**
+     * Create a batch with room for {@link #SIZE} rows of each column.
+     */
+    public Batch(TupleDesc td) {
+        this.td = td;
+        int n = td.numFields();
+        columns = new int[n][SIZE];
+        dictionaries = new StringDictionary[n];
+        selection = new int[SIZE];
+    }
+
+    /* a batch whose columns are set by its producer, see BatchProject */
+    Batch(TupleDesc td, int[][] columns, StringDictionary[] dictionaries) {
+        this.td = td;
+        this.columns = columns;
+        this.dictionaries = dictionaries;
+    }
+
+    /** Select the first n rows. */
+    void selectAll(int n) {
+        for (int i = 0; i < n; i++) {
+            selection[i] = i;
+        }
+        selected = n;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the number of rows in the batch
+     */
+    public int size() {
+        return selected;
+    }
+
+    /**
+     * @return the row the k-th row of the batch is stored at
+     */
+    public int row(int k) {
+        return selection[k];
+    }
+
+    /**
+     * @return the value of an INT column at a row
+     */
+    public int getInt(int field, int row) {
+        return columns[field][row];
+    }
+
+    /**
+     * @return the value of a string column at a row
+     */
+    public String getString(int field, int row) {
+        return dictionaries[field].value(columns[field][row]);
+    }
+
+    /**
+     * @return the value of a column at a row as a Field, the way a tuple
+     *         would hold it
+     */
+    public Field getField(int field, int row) {
+        Type type = td.getFieldType(field);
+        if (type == Type.INT_TYPE) {
+            return new IntField(getInt(field, row));
+        }
+        if (type == Type.VARCHAR_TYPE) {
+            return new VarcharField(getString(field, row));
+        }
+        return new StringField(getString(field, row), Type.STRING_LEN);
+    }
+}
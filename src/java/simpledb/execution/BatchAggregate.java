@@ -0,0 +1,260 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.Arrays;
+
+/**
+ * BatchAggregate is the batch version of {@link Aggregate}, for the MIN,
+ * MAX, SUM, AVG and COUNT of an INT field and the COUNT of a string field,
+ * grouped by at most one field.  Like Aggregate it reads all of its
+ * child's rows when opened.  Each batch is aggregated in two loops: one
+ * that finds the group of each row, in an open addressing table keyed by
+ * the INT value or string code of the group field, and one that folds the
+ * values into their groups' totals.
+ */
+public class BatchAggregate implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchIterator child;
+    private final int afield;
+    private final int gfield;
+    private final Aggregator.Op op;
+    private final TupleDesc td;
+    private final boolean stringGroup;
+
+    /* the number of groups, and the key and totals of each */
+    private transient int groups;
+    private transient int[] groupKeys;
+    private transient int[] totals;
+    private transient int[] counts;
+    /* the group of each key plus 1, by the key's hash, or 0 for none */
+    private transient int[] table;
+    private transient StringDictionary groupDictionary;
+    private transient StringDictionary.Translation groupTranslation;
+    private transient int[] rowGroups;
+
+    private transient Batch out;
+    /* the next group to return */
+    private transient int nextGroup;
+
+    /**
+     * @param child  the iterator that is feeding us rows
+     * @param afield the column over which we are computing an aggregate
+     * @param gfield the column over which we are grouping the result, or
+     *               {@link Aggregator#NO_GROUPING}
+     * @param aop    the aggregation operator to use
+     * @throws IllegalArgumentException if the operator is not supported
+     *         for the type of the aggregated field
+     */
+    public BatchAggregate(BatchIterator child, int afield, int gfield, Aggregator.Op aop) {
+        TupleDesc childTd = child.getTupleDesc();
+        boolean intField = childTd.getFieldType(afield) == Type.INT_TYPE;
+        if (!supports(aop, intField)) {
+            throw new IllegalArgumentException("unsupported aggregate " + aop + " of a "
+                    + childTd.getFieldType(afield) + " field");
+        }
+        this.child = child;
+        this.afield = afield;
+        this.gfield = gfield;
+        this.op = aop;
+        child.setNeededFields(gfield == Aggregator.NO_GROUPING ? new int[] { afield } : new int[] { gfield, afield });
+        if (gfield == Aggregator.NO_GROUPING) {
+            td = new TupleDesc(new Type[] { Type.INT_TYPE }, new String[] { childTd.getFieldName(afield) });
+            stringGroup = false;
+        } else {
+            td = new TupleDesc(new Type[] { childTd.getFieldType(gfield), Type.INT_TYPE },
+                    new String[] { childTd.getFieldName(gfield), childTd.getFieldName(afield) });
+            stringGroup = childTd.getFieldType(gfield) != Type.INT_TYPE;
+        }
+    }
+
+    /**
+     * @return whether a BatchAggregate computes the given aggregate of an
+     *         INT field, or of a string field if intField is false
+     */
+    public static boolean supports(Aggregator.Op aop, boolean intField) {
+        switch (aop) {
+            case COUNT:
+                return true;
+            case MIN:
+            case MAX:
+            case SUM:
+            case AVG:
+                return intField;
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        groups = 0;
+        groupKeys = new int[16];
+        totals = new int[16];
+        counts = new int[16];
+        table = new int[32];
+        rowGroups = new int[Batch.SIZE];
+        if (stringGroup) {
+            groupDictionary = new StringDictionary();
+            groupTranslation = groupDictionary.new Translation(true);
+        }
+        Batch batch;
+        while ((batch = child.nextBatch()) != null) {
+            merge(batch);
+        }
+        child.close();
+        out = new Batch(td);
+        nextGroup = 0;
+    }
+
+    @Override
+    public void rewind() {
+        nextGroup = 0;
+    }
+
+    @Override
+    public void close() {
+        groupKeys = totals = counts = table = rowGroups = null;
+        groupDictionary = null;
+        groupTranslation = null;
+        out = null;
+    }
+
+    private void merge(Batch batch) {
+        int n = batch.size();
+        int[] selection = batch.selection;
+        if (gfield == Aggregator.NO_GROUPING) {
+            if (groups == 0 && n > 0) {
+                newGroup(0);
+            }
+            Arrays.fill(rowGroups, 0, n, 0);
+        } else {
+            int[] keys = batch.columns[gfield];
+            StringDictionary dictionary = batch.dictionaries[gfield];
+            for (int k = 0; k < n; k++) {
+                int key = keys[selection[k]];
+                if (stringGroup) {
+                    key = groupTranslation.translate(dictionary, key);
+                }
+                rowGroups[k] = group(key);
+            }
+        }
+
+        for (int k = 0; k < n; k++) {
+            counts[rowGroups[k]]++;
+        }
+        if (op == Aggregator.Op.COUNT) {
+            return;
+        }
+        int[] values = batch.columns[afield];
+        switch (op) {
+            case SUM:
+            case AVG:
+                for (int k = 0; k < n; k++) {
+                    totals[rowGroups[k]] += values[selection[k]];
+                }
+                break;
+            case MIN:
+                for (int k = 0; k < n; k++) {
+                    int g = rowGroups[k];
+                    totals[g] = Math.min(totals[g], values[selection[k]]);
+                }
+                break;
+            case MAX:
+                for (int k = 0; k < n; k++) {
+                    int g = rowGroups[k];
+                    totals[g] = Math.max(totals[g], values[selection[k]]);
+                }
+                break;
+        }
+    }
+
+    /* the group of a key, made if it is new */
+    private int group(int key) {
+        int mask = table.length - 1;
+        for (int h = slot(key); ; h = (h + 1) & mask) {
+            int g = table[h] - 1;
+            if (g < 0) {
+                g = newGroup(key);
+                table[h] = g + 1;
+                if (groups * 2 > table.length) {
+                    rehash();
+                }
+                return g;
+            }
+            if (groupKeys[g] == key) {
+                return g;
+            }
+        }
+    }
+
+    private int newGroup(int key) {
+        if (groups == groupKeys.length) {
+            groupKeys = Arrays.copyOf(groupKeys, groups * 2);
+            totals = Arrays.copyOf(totals, groups * 2);
+            counts = Arrays.copyOf(counts, groups * 2);
+        }
+        groupKeys[groups] = key;
+        totals[groups] = op == Aggregator.Op.MIN ? Integer.MAX_VALUE
+                : op == Aggregator.Op.MAX ? Integer.MIN_VALUE : 0;
+        counts[groups] = 0;
+        return groups++;
+    }
+
+    /* the slot of the table a key goes in first, from the high bits of its hash */
+    private int slot(int key) {
+        return (key * 0x9E3779B9) >>> (Integer.numberOfLeadingZeros(table.length) + 1);
+    }
+
+    private void rehash() {
+        table = new int[table.length * 2];
+        int mask = table.length - 1;
+        for (int g = 0; g < groups; g++) {
+            int h = slot(groupKeys[g]);
+            while (table[h] != 0) {
+                h = (h + 1) & mask;
+            }
+            table[h] = g + 1;
+        }
+    }
+
+    @Override
+    public Batch nextBatch() {
+        int n = Math.min(Batch.SIZE, groups - nextGroup);
+        if (n == 0) {
+            return null;
+        }
+        int result = gfield == Aggregator.NO_GROUPING ? 0 : 1;
+        for (int k = 0; k < n; k++) {
+            int g = nextGroup + k;
+            switch (op) {
+                case COUNT:
+                    out.columns[result][k] = counts[g];
+                    break;
+                case AVG:
+                    out.columns[result][k] = totals[g] / counts[g];
+                    break;
+                default:
+                    out.columns[result][k] = totals[g];
+            }
+            if (result == 1) {
+                out.columns[0][k] = groupKeys[g];
+            }
+        }
+        out.dictionaries[0] = groupDictionary;
+        nextGroup += n;
+        out.selectAll(n);
+        return out;
+    }
+}
@@ -0,0 +1,71 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.Arrays;
+
+/**
+ * BatchFilter is the batch version of {@link Filter}.  It drops the rows of
+ * its child's batches that fail the predicate from their selection vector,
+ * see {@link BatchPredicate}.
+ */
+public class BatchFilter implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Predicate predicate;
+    private final BatchIterator child;
+    private transient BatchPredicate filter;
+
+    public BatchFilter(Predicate p, BatchIterator child) {
+        this.predicate = p;
+        this.child = child;
+    }
+
+    public Predicate getPredicate() {
+        return predicate;
+    }
+
+    @Override
+    public void setNeededFields(int[] fields) {
+        int[] needed = Arrays.copyOf(fields, fields.length + 1);
+        needed[fields.length] = predicate.field();
+        child.setNeededFields(needed);
+    }
+
+    @Override
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        filter = new BatchPredicate(predicate, getTupleDesc().getFieldType(predicate.field()));
+    }
+
+    @Override
+    public void close() {
+        child.close();
+        filter = null;
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    @Override
+    public Batch nextBatch() throws DbException, TransactionAbortedException {
+        Batch batch = child.nextBatch();
+        if (batch == null) {
+            return null;
+        }
+        int field = predicate.field();
+        batch.selected = filter.filter(batch.dictionaries[field], batch.columns[field], batch.selection,
+                batch.selected);
+        return batch;
+    }
+}
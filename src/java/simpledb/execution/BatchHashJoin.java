@@ -0,0 +1,319 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.BufferPool;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.Arrays;
+
+/**
+ * BatchHashJoin is the batch version of {@link HashEquiJoin}.  It reads its
+ * left child into a hash table, and joins the rows of its right child with
+ * them, returning the columns of both rows of each match.
+ * <p>
+ * The hash table is held to the work memory of the buffer pool.  A left
+ * child that does not fit is joined by a {@link HashEquiJoin} instead,
+ * between a {@link BatchToRow} and a {@link RowToBatch}, which partitions
+ * both children to disk rather than reading the right child once per
+ * table full of left rows.
+ * <p>
+ * The rows read are copied into a column per field, and the hash table
+ * chains them by an int array, so building it and looking up a batch
+ * allocates nothing per row.  Strings are hashed by their code, after the
+ * codes of the right child's dictionary are translated to the left's.
+ */
+public class BatchHashJoin implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate pred;
+    private final BatchIterator child1, child2;
+    private final TupleDesc comboTD;
+    private final int leftFields;
+    private final boolean stringKey;
+
+    /* the most left rows in the hash table */
+    private transient int memoryRows;
+    /* the join of the children when the left one does not fit in the hash table, null otherwise */
+    private transient BatchIterator spilled;
+    /* the left rows, a column per field */
+    private transient int[][] buildColumns;
+    private transient StringDictionary[] buildDictionaries;
+    private transient StringDictionary.Translation[] buildTranslations;
+    private transient int rows;
+    /* the first row of each bucket, and the next row of each row's bucket; -1 ends a chain */
+    private transient int[] head;
+    private transient int[] next;
+    private transient int shift;
+    /* the codes of the right child's join field in the left's dictionary */
+    private transient StringDictionary.Translation probeTranslation;
+
+    /* the left batch being read, and its next row */
+    private transient Batch left;
+    private transient int leftK;
+    /* the right batch being probed, its next row and the next left row of that row's chain */
+    private transient Batch right;
+    private transient int rightK;
+    private transient int chain;
+    private transient boolean done;
+
+    private transient Batch out;
+    private transient int[] leftRows;
+    private transient int[] rightRows;
+
+    /**
+     * @param p      the predicate to join the children on; its operator
+     *               must be EQUALS
+     * @param child1 the left relation, read into the hash table
+     * @param child2 the right relation
+     */
+    public BatchHashJoin(JoinPredicate p, BatchIterator child1, BatchIterator child2) {
+        if (p.getOperator() != Predicate.Op.EQUALS) {
+            throw new IllegalArgumentException("BatchHashJoin joins on equality only, not " + p.getOperator());
+        }
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        leftFields = child1.getTupleDesc().numFields();
+        stringKey = child1.getTupleDesc().getFieldType(p.getField1()) != Type.INT_TYPE;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    @Override
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+        child1.open();
+        child2.open();
+        int pages = Database.getBufferPool().getWorkMemory();
+        memoryRows = (int) Math.max(1, Math.min(Integer.MAX_VALUE,
+                (long) pages * BufferPool.getPageSize() / child1.getTupleDesc().getSize()));
+        buildColumns = new int[leftFields][16];
+        buildDictionaries = new StringDictionary[leftFields];
+        buildTranslations = new StringDictionary.Translation[leftFields];
+        out = new Batch(comboTD);
+        leftRows = new int[Batch.SIZE];
+        rightRows = new int[Batch.SIZE];
+        start();
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (spilled != null) {
+            spilled.rewind();
+            return;
+        }
+        // the hash table holds the whole left child: only the right one is read again
+        child2.rewind();
+        right = null;
+        done = rows == 0;
+    }
+
+    private void start() throws DbException, TransactionAbortedException {
+        left = null;
+        right = null;
+        if (loadLeft()) {
+            done = rows == 0;
+            return;
+        }
+        // the left child does not fit: hand both children over to a join that spills
+        buildColumns = null;
+        head = null;
+        next = null;
+        child2.close();
+        child1.close();
+        spilled = new RowToBatch(new HashEquiJoin(pred, new BatchToRow(child1), new BatchToRow(child2)));
+        spilled.open();
+    }
+
+    @Override
+    public void close() {
+        if (spilled != null) {
+            spilled.close();
+            spilled = null;
+        } else {
+            child2.close();
+            child1.close();
+        }
+        buildColumns = null;
+        buildDictionaries = null;
+        buildTranslations = null;
+        probeTranslation = null;
+        head = null;
+        next = null;
+        left = null;
+        right = null;
+        out = null;
+    }
+
+    /**
+     * Read the left rows and hash them.
+     * @return false if there are more of them than the hash table holds
+     */
+    private boolean loadLeft() throws DbException, TransactionAbortedException {
+        TupleDesc leftTd = child1.getTupleDesc();
+        for (int j = 0; j < leftFields; j++) {
+            if (leftTd.getFieldType(j) != Type.INT_TYPE) {
+                buildDictionaries[j] = new StringDictionary();
+                buildTranslations[j] = buildDictionaries[j].new Translation(true);
+            }
+        }
+        rows = 0;
+        while (true) {
+            if (left == null || leftK == left.size()) {
+                left = child1.nextBatch();
+                leftK = 0;
+                if (left == null) {
+                    break;
+                }
+                continue;
+            }
+            if (rows == memoryRows) {
+                return false;
+            }
+            int m = Math.min(left.size() - leftK, memoryRows - rows);
+            if (rows + m > buildColumns[0].length) {
+                int capacity = Math.max(rows + m, buildColumns[0].length * 2);
+                for (int j = 0; j < leftFields; j++) {
+                    buildColumns[j] = Arrays.copyOf(buildColumns[j], capacity);
+                }
+            }
+            for (int j = 0; j < leftFields; j++) {
+                int[] from = left.columns[j];
+                int[] to = buildColumns[j];
+                StringDictionary.Translation translation = buildTranslations[j];
+                if (translation == null) {
+                    for (int k = 0; k < m; k++) {
+                        to[rows + k] = from[left.selection[leftK + k]];
+                    }
+                } else {
+                    for (int k = 0; k < m; k++) {
+                        to[rows + k] = translation.translate(left.dictionaries[j], from[left.selection[leftK + k]]);
+                    }
+                }
+            }
+            leftK += m;
+            rows += m;
+        }
+        if (rows == 0) {
+            return true;
+        }
+
+        int buckets = Integer.highestOneBit(rows * 2 - 1) << 1;
+        shift = 32 - Integer.numberOfTrailingZeros(buckets);
+        head = new int[buckets];
+        Arrays.fill(head, -1);
+        next = new int[rows];
+        int[] keys = buildColumns[pred.getField1()];
+        for (int r = 0; r < rows; r++) {
+            int b = bucket(keys[r]);
+            next[r] = head[b];
+            head[b] = r;
+        }
+        if (stringKey) {
+            probeTranslation = buildDictionaries[pred.getField1()].new Translation(false);
+        }
+        return true;
+    }
+
+    private int bucket(int key) {
+        return (key * 0x9E3779B9) >>> shift;
+    }
+
+    @Override
+    public Batch nextBatch() throws DbException, TransactionAbortedException {
+        if (spilled != null) {
+            return spilled.nextBatch();
+        }
+        while (!done) {
+            if (right == null) {
+                right = child2.nextBatch();
+                rightK = 0;
+                chain = -1;
+                if (right == null) {
+                    done = true;
+                    break;
+                }
+            }
+            int n = probe();
+            if (n > 0) {
+                gather(n);
+            }
+            if (rightK == right.size()) {
+                right = null;
+            }
+            if (n > 0) {
+                out.selectAll(n);
+                return out;
+            }
+        }
+        return null;
+    }
+
+    /* finds the matches of the right batch's rows from rightK on, up to a batch of them */
+    private int probe() {
+        int[] keys = buildColumns[pred.getField1()];
+        int[] probeKeys = right.columns[pred.getField2()];
+        StringDictionary probeDictionary = right.dictionaries[pred.getField2()];
+        int n = 0;
+        while (rightK < right.size()) {
+            int i = right.row(rightK);
+            int key = probeKeys[i];
+            if (chain < 0) {
+                if (stringKey) {
+                    key = probeTranslation.translate(probeDictionary, key);
+                    if (key < 0) {
+                        rightK++;
+                        continue;
+                    }
+                }
+                chain = head[bucket(key)];
+            } else if (stringKey) {
+                key = probeTranslation.translate(probeDictionary, key);
+            }
+            for (; chain >= 0; chain = next[chain]) {
+                if (keys[chain] == key) {
+                    if (n == Batch.SIZE) {
+                        return n;
+                    }
+                    leftRows[n] = chain;
+                    rightRows[n] = i;
+                    n++;
+                }
+            }
+            chain = -1;
+            rightK++;
+        }
+        return n;
+    }
+
+    /* copies the columns of the n matches found into the output batch */
+    private void gather(int n) {
+        for (int j = 0; j < leftFields; j++) {
+            int[] from = buildColumns[j];
+            int[] to = out.columns[j];
+            for (int k = 0; k < n; k++) {
+                to[k] = from[leftRows[k]];
+            }
+            out.dictionaries[j] = buildDictionaries[j];
+        }
+        for (int j = 0; j < comboTD.numFields() - leftFields; j++) {
+            int[] from = right.columns[j];
+            int[] to = out.columns[leftFields + j];
+            for (int k = 0; k < n; k++) {
+                to[k] = from[rightRows[k]];
+            }
+            out.dictionaries[leftFields + j] = right.dictionaries[j];
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.Serializable;
+
+/**
+ * BatchIterator is the interface of operators that run a batch of rows at
+ * a time, in columns, instead of a tuple at a time like {@link OpIterator}s.
+ * Each call moves up to {@link Batch#SIZE} rows through the operator, and
+ * its loops run over primitive arrays, so queries over many rows spend far
+ * less time in calls and allocation.
+ * <p>
+ * {@link BatchToRow} and {@link RowToBatch} connect the two kinds of
+ * operators, so a plan can run part of its operators a batch at a time;
+ * {@link Vectorizer} does this for the operators that have batch versions.
+ * As with OpIterator, the methods other than getTupleDesc and
+ * setNeededFields work only while the iterator is open.
+ */
+public interface BatchIterator extends Serializable {
+
+    /**
+     * Opens the iterator, and the iterators it reads from.
+     */
+    void open() throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns the next rows.  The batch may hold no rows even if more
+     * follow, and is valid only until the next call.
+     *
+     * @return the next batch, or null if there are no more rows
+     */
+    Batch nextBatch() throws DbException, TransactionAbortedException;
+
+    /**
+     * Resets the iterator to the start.
+     */
+    void rewind() throws DbException, TransactionAbortedException;
+
+    /**
+     * @return the TupleDesc of the rows this iterator returns
+     */
+    TupleDesc getTupleDesc();
+
+    /**
+     * Closes the iterator, and the iterators it reads from.
+     */
+    void close();
+
+    /**
+     * Like {@link OpIterator#setNeededFields}: the consumer reads only the
+     * given columns of the batches returned, so the others may be left
+     * unset.  By default it is ignored.  Must be called before the iterator
+     * is opened.
+     * @param fields the indices of the columns that are read
+     */
+    default void setNeededFields(int[] fields) {
+    }
+}
@@ -0,0 +1,125 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.VarcharField;
+
+import java.util.Arrays;
+
+/**
+ * BatchPredicate applies a {@link Predicate} to a column of a batch,
+ * shortening a selection vector to the rows that pass.  An INT predicate
+ * runs as one loop over the column for each operator; a string predicate
+ * is evaluated once for each value of the dictionary.
+ */
+class BatchPredicate {
+
+    private static final byte UNKNOWN = 0, PASSES = 1, FAILS = 2;
+
+    private final Predicate predicate;
+    private final Type type;
+
+    /* whether each value of a dictionary passes the predicate, if known */
+    private StringDictionary memoDictionary;
+    private byte[] memo;
+
+    /**
+     * @param type the type of the field the predicate is on
+     */
+    BatchPredicate(Predicate predicate, Type type) {
+        this.predicate = predicate;
+        this.type = type;
+    }
+
+    Predicate getPredicate() {
+        return predicate;
+    }
+
+    /**
+     * Keeps the rows of the first n of the selection whose value in the
+     * column passes, in order.
+     * @param dictionary the dictionary of the column, for string columns
+     * @return the number of rows that pass
+     */
+    int filter(StringDictionary dictionary, int[] column, int[] selection, int n) {
+        return type == Type.INT_TYPE ? filterInts(column, selection, n)
+                : filterStrings(dictionary, column, selection, n);
+    }
+
+    /* keeps the selected rows of column that pass, returning how many do */
+    private int filterInts(int[] column, int[] selection, int n) {
+        int v = ((IntField) predicate.operand()).getValue();
+        int m = 0;
+        switch (predicate.op()) {
+            case EQUALS:
+            case LIKE:
+                for (int k = 0; k < n; k++) {
+                    int i = selection[k];
+                    selection[m] = i;
+                    m += column[i] == v ? 1 : 0;
+                }
+                break;
+            case NOT_EQUALS:
+                for (int k = 0; k < n; k++) {
+                    int i = selection[k];
+                    selection[m] = i;
+                    m += column[i] != v ? 1 : 0;
+                }
+                break;
+            case GREATER_THAN:
+                for (int k = 0; k < n; k++) {
+                    int i = selection[k];
+                    selection[m] = i;
+                    m += column[i] > v ? 1 : 0;
+                }
+                break;
+            case GREATER_THAN_OR_EQ:
+                for (int k = 0; k < n; k++) {
+                    int i = selection[k];
+                    selection[m] = i;
+                    m += column[i] >= v ? 1 : 0;
+                }
+                break;
+            case LESS_THAN:
+                for (int k = 0; k < n; k++) {
+                    int i = selection[k];
+                    selection[m] = i;
+                    m += column[i] < v ? 1 : 0;
+                }
+                break;
+            case LESS_THAN_OR_EQ:
+                for (int k = 0; k < n; k++) {
+                    int i = selection[k];
+                    selection[m] = i;
+                    m += column[i] <= v ? 1 : 0;
+                }
+                break;
+        }
+        return m;
+    }
+
+    private int filterStrings(StringDictionary dictionary, int[] codes, int[] selection, int n) {
+        if (dictionary != memoDictionary) {
+            memoDictionary = dictionary;
+            memo = new byte[Math.max(16, dictionary.size())];
+        } else if (memo.length < dictionary.size()) {
+            memo = Arrays.copyOf(memo, Math.max(dictionary.size(), memo.length * 2));
+        }
+        int m = 0;
+        for (int k = 0; k < n; k++) {
+            int i = selection[k];
+            int code = codes[i];
+            byte passes = memo[code];
+            if (passes == UNKNOWN) {
+                String s = dictionary.value(code);
+                StringField value = type == Type.VARCHAR_TYPE ? new VarcharField(s) : new StringField(s, Type.STRING_LEN);
+                passes = value.compare(predicate.op(), predicate.operand()) ? PASSES : FAILS;
+                memo[code] = passes;
+            }
+            selection[m] = i;
+            m += passes == PASSES ? 1 : 0;
+        }
+        return m;
+    }
+}
@@ -0,0 +1,77 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.List;
+
+/**
+ * BatchProject is the batch version of {@link Project}.  The batches it
+ * returns are views of its child's batches: they share their columns and
+ * selection vector, so nothing is copied.
+ */
+public class BatchProject implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchIterator child;
+    private final TupleDesc td;
+    private final int[] outFieldIds;
+    private transient Batch view;
+
+    /**
+     * @param fieldList the ids of the fields of the child's TupleDesc to
+     *                  project out
+     * @param types     the types of the fields in the projection
+     * @param child     the child operator
+     */
+    public BatchProject(List<Integer> fieldList, Type[] types, BatchIterator child) {
+        this.child = child;
+        outFieldIds = fieldList.stream().mapToInt(Integer::intValue).toArray();
+        child.setNeededFields(outFieldIds);
+        String[] names = new String[outFieldIds.length];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = child.getTupleDesc().getFieldName(outFieldIds[i]);
+        }
+        td = new TupleDesc(types, names);
+    }
+
+    @Override
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        view = new Batch(td, new int[outFieldIds.length][], new StringDictionary[outFieldIds.length]);
+    }
+
+    @Override
+    public void close() {
+        child.close();
+        view = null;
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    @Override
+    public Batch nextBatch() throws DbException, TransactionAbortedException {
+        Batch batch = child.nextBatch();
+        if (batch == null) {
+            return null;
+        }
+        for (int i = 0; i < outFieldIds.length; i++) {
+            view.columns[i] = batch.columns[outFieldIds[i]];
+            view.dictionaries[i] = batch.dictionaries[outFieldIds[i]];
+        }
+        view.selection = batch.selection;
+        view.selected = batch.selected;
+        return view;
+    }
+}
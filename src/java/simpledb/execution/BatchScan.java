@@ -0,0 +1,265 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.storage.DbFile;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.ReadAhead;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * BatchScan is the batch version of {@link SeqScan}.  It reads the columns
+ * of a heap table straight from its pages, a page's worth of slots at a
+ * time, without making tuples; tables of other kinds are read through
+ * their tuples.
+ * <p>
+ * Predicates pushed into the scan of a heap table are applied as the
+ * columns are read: a page's slots are narrowed down by the columns the
+ * predicates are on first, and the other columns are read only for the
+ * slots that pass.
+ */
+public class BatchScan implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+    /* a dictionary with more values than this is started over */
+    private static final int MAX_DICTIONARY = 1 << 16;
+
+    private final TransactionId tid;
+    private final int tableId;
+    private final TupleDesc td;
+    /* reads tables other than heap tables; null for heap tables */
+    private final RowToBatch rows;
+    private int[] neededFields;
+    private final List<Predicate> predicates = new ArrayList<>();
+
+    private transient Batch batch;
+    /* the fields with predicates, the predicates, and the other fields read */
+    private transient int[] predicateFields;
+    private transient BatchPredicate[] filters;
+    private transient int[] fields;
+    /* the used slots of the page rows are read from, and the rows that pass a predicate */
+    private transient int[] slots;
+    private transient int[] passed;
+    private transient ReadAhead readAhead;
+    private transient int numPages;
+    private transient int nextPage;
+    private transient HeapPage page;
+    private transient int slot;
+
+    /**
+     * @param tid        the transaction this scan is running as a part of
+     * @param tableId    the table to scan
+     * @param tableAlias the alias of the table, see {@link SeqScan}
+     */
+    public BatchScan(TransactionId tid, int tableId, String tableAlias) {
+        this.tid = tid;
+        this.tableId = tableId;
+        TupleDesc tableTd = Database.getCatalog().getTupleDesc(tableId);
+        int n = tableTd.numFields();
+        Type[] types = new Type[n];
+        String[] names = new String[n];
+        for (int i = 0; i < n; i++) {
+            types[i] = tableTd.getFieldType(i);
+            names[i] = tableAlias + "." + tableTd.getFieldName(i);
+        }
+        td = new TupleDesc(types, names);
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        rows = file instanceof HeapFile ? null : new RowToBatch(new SeqScan(tid, tableId, tableAlias));
+    }
+
+    public BatchScan(TransactionId tid, int tableId) {
+        this(tid, tableId, Database.getCatalog().getTableName(tableId));
+    }
+
+    /**
+     * Have the scan return only the rows that pass a predicate, as a
+     * {@link BatchFilter} over it would.  Must be called before the scan is
+     * opened.
+     * @return false if the scan can not apply predicates itself
+     */
+    public boolean pushPredicate(Predicate p) {
+        if (rows != null) {
+            return false;
+        }
+        predicates.add(p);
+        return true;
+    }
+
+    @Override
+    public void setNeededFields(int[] fields) {
+        neededFields = fields;
+        if (rows != null) {
+            rows.setNeededFields(fields);
+        }
+    }
+
+    @Override
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+        if (rows != null) {
+            rows.open();
+            return;
+        }
+        batch = new Batch(td);
+        boolean[] needed = new boolean[td.numFields()];
+        if (neededFields == null) {
+            Arrays.fill(needed, true);
+        } else {
+            for (int f : neededFields) {
+                needed[f] = true;
+            }
+        }
+        filters = new BatchPredicate[predicates.size()];
+        for (int i = 0; i < filters.length; i++) {
+            Predicate p = predicates.get(i);
+            filters[i] = new BatchPredicate(p, td.getFieldType(p.field()));
+        }
+        predicateFields = predicates.stream().mapToInt(Predicate::field).distinct().toArray();
+        for (int f : predicateFields) {
+            needed[f] = false;
+        }
+        fields = IntStream.range(0, needed.length).filter(i -> needed[i]).toArray();
+        slots = new int[Batch.SIZE];
+        passed = new int[Batch.SIZE];
+        HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(tableId);
+        numPages = file.numPages();
+        readAhead = new ReadAhead(tid, page -> {
+            int pgNo = page.getId().getPageNumber() + 1;
+            return pgNo < numPages ? new HeapPageId(tableId, pgNo) : null;
+        });
+        readAhead.hintSequential();
+        rewind();
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (rows != null) {
+            rows.rewind();
+            return;
+        }
+        readAhead.reset();
+        nextPage = 0;
+        page = null;
+    }
+
+    @Override
+    public Batch nextBatch() throws DbException, TransactionAbortedException {
+        if (rows != null) {
+            return rows.nextBatch();
+        }
+        for (int j = 0; j < td.numFields(); j++) {
+            StringDictionary dictionary = batch.dictionaries[j];
+            if (td.getFieldType(j) != Type.INT_TYPE && (dictionary == null || dictionary.size() > MAX_DICTIONARY)) {
+                batch.dictionaries[j] = new StringDictionary();
+            }
+        }
+        int n = 0;
+        while (n < Batch.SIZE) {
+            if (page == null) {
+                if (nextPage == numPages) {
+                    break;
+                }
+                page = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(tableId, nextPage++),
+                        Permissions.READ_ONLY);
+                readAhead.pageRead(page);
+                slot = page.nextUsedSlot(0);
+            }
+            // the used slots of the page that fit in the batch, those that
+            // pass the predicates, then their columns
+            int start = n;
+            while (slot >= 0 && n < Batch.SIZE) {
+                slots[n++] = slot;
+                slot = page.nextUsedSlot(slot + 1);
+            }
+            if (filters.length > 0) {
+                n = start + applyPredicates(start, n);
+            }
+            for (int j : fields) {
+                readColumn(j, start, n);
+            }
+            if (slot < 0) {
+                page = null;
+            }
+        }
+        if (n == 0) {
+            return null;
+        }
+        batch.selectAll(n);
+        return batch;
+    }
+
+    /* reads a column of the rows from start to end, from the slots they are in */
+    private void readColumn(int field, int start, int end) {
+        int[] column = batch.columns[field];
+        if (td.getFieldType(field) == Type.INT_TYPE) {
+            page.readInts(field, slots, start, end, column);
+        } else {
+            StringDictionary dictionary = batch.dictionaries[field];
+            for (int i = start; i < end; i++) {
+                column[i] = dictionary.code(page.getString(slots[i], field));
+            }
+        }
+    }
+
+    /*
+     * Reads the predicates' columns of the rows from start to end, and
+     * moves the rows that pass all predicates to the front.
+     * @return the number of rows that pass
+     */
+    private int applyPredicates(int start, int end) {
+        int m = end - start;
+        for (int i = 0; i < m; i++) {
+            passed[i] = start + i;
+        }
+        for (int f : predicateFields) {
+            readColumn(f, start, start + m);
+            for (BatchPredicate filter : filters) {
+                if (filter.getPredicate().field() == f) {
+                    m = filter.filter(batch.dictionaries[f], batch.columns[f], passed, m);
+                }
+            }
+            // the rows that passed so far, moved down for the next column
+            for (int i = 0; i < m; i++) {
+                slots[start + i] = slots[passed[i]];
+            }
+            for (int g : predicateFields) {
+                int[] column = batch.columns[g];
+                for (int i = 0; i < m; i++) {
+                    column[start + i] = column[passed[i]];
+                }
+                if (g == f) {
+                    break;
+                }
+            }
+            for (int i = 0; i < m; i++) {
+                passed[i] = start + i;
+            }
+        }
+        return m;
+    }
+
+    @Override
+    public void close() {
+        if (rows != null) {
+            rows.close();
+            return;
+        }
+        batch = null;
+        page = null;
+    }
+}
@@ -0,0 +1,104 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.NoSuchElementException;
+
+/**
+ * BatchToRow runs batch operators under tuple at a time operators: it
+ * returns the rows of the batches of its child as tuples.  The tuples have
+ * no RecordIds.
+ *
+ * @see RowToBatch
+ */
+public class BatchToRow extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchIterator child;
+    private int[] neededFields;
+    private transient Batch batch;
+    /* the next row of batch to return */
+    private transient int k;
+
+    public BatchToRow(BatchIterator child) {
+        this.child = child;
+    }
+
+    /**
+     * @return the batch operator this reads from
+     */
+    public BatchIterator getChild() {
+        return child;
+    }
+
+    @Override
+    public void setNeededFields(int[] fields) {
+        neededFields = fields;
+        child.setNeededFields(fields);
+    }
+
+    @Override
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    @Override
+    public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+        child.open();
+        super.open();
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        child.close();
+        batch = null;
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        batch = null;
+    }
+
+    @Override
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (batch == null || k == batch.size()) {
+            batch = child.nextBatch();
+            k = 0;
+            if (batch == null) {
+                return null;
+            }
+        }
+        TupleDesc td = batch.getTupleDesc();
+        int row = batch.row(k++);
+        Tuple t = new Tuple(td);
+        if (neededFields == null) {
+            for (int j = 0; j < td.numFields(); j++) {
+                t.setField(j, batch.getField(j, row));
+            }
+        } else {
+            for (int j : neededFields) {
+                t.setField(j, batch.getField(j, row));
+            }
+        }
+        return t;
+    }
+
+    /**
+     * @return no children: the operators under this one run a batch at a
+     *         time, see {@link #getChild}
+     */
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[0];
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+    }
+}
@@ -0,0 +1,104 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.ReadAhead;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * CompiledScan runs a scan of a heap table, with the filters and the
+ * projection above it, as one operator: the pages of the table are read in
+ * order, and a class {@link QueryCompiler} generated for the chain returns
+ * the tuples of each that pass.  The tuples keep their RecordIds.
+ */
+public class CompiledScan extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final int tableId;
+    private final TupleDesc td;
+    private final transient PageScanner scanner;
+
+    private transient ReadAhead readAhead;
+    private transient int numPages;
+    private transient int nextPage;
+    /* the tuples of the last page read, and the next one of them to return */
+    private transient List<Tuple> tuples;
+    private transient int k;
+
+    CompiledScan(TransactionId tid, int tableId, TupleDesc td, PageScanner scanner) {
+        this.tid = tid;
+        this.tableId = tableId;
+        this.td = td;
+        this.scanner = scanner;
+    }
+
+    @Override
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    @Override
+    public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+        numPages = ((HeapFile) Database.getCatalog().getDatabaseFile(tableId)).numPages();
+        readAhead = new ReadAhead(tid, page -> {
+            int pgNo = page.getId().getPageNumber() + 1;
+            return pgNo < numPages ? new HeapPageId(tableId, pgNo) : null;
+        });
+        readAhead.hintSequential();
+        tuples = new ArrayList<>();
+        rewind();
+        super.open();
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        tuples = null;
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        readAhead.reset();
+        nextPage = 0;
+        tuples.clear();
+        k = 0;
+    }
+
+    @Override
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (k == tuples.size()) {
+            if (nextPage == numPages) {
+                return null;
+            }
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(tableId, nextPage++),
+                    Permissions.READ_ONLY);
+            readAhead.pageRead(page);
+            tuples.clear();
+            k = 0;
+            scanner.scanPage(page, tuples);
+        }
+        return tuples.get(k++);
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[0];
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+    }
+}
@@ -34,6 +34,13 @@ public class Filter extends Operator {
         return predicate;
     }
 
+    @Override
+    public void setNeededFields(int[] fields) {
+        int[] needed = Arrays.copyOf(fields, fields.length + 1);
+        needed[fields.length] = predicate.field();
+        opIterator.setNeededFields(needed);
+    }
+
     public TupleDesc getTupleDesc() {
         return opIterator.getTupleDesc();
     }
@@ -1,14 +1,26 @@
 package simpledb.execution;
 
+import simpledb.common.Database;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
+import simpledb.storage.BufferPool;
+import simpledb.storage.SpillFile;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.*;
 
 /**
- * The Join operator implements the relational join operation.
+ * The HashEquiJoin operator implements an equality join as a hybrid hash
+ * join.  The left child is read into a hash table, and the right child
+ * probes it.  When the left child does not fit in the work memory of the
+ * buffer pool, both children are split into partitions by the hash of
+ * their join field: one partition of the left child stays in memory and is
+ * joined while the right child is read, and the others are spilled to
+ * temporary files on both sides and joined one after another, split again
+ * if they do not fit either.  Neither child is read more than once.
  */
 public class HashEquiJoin extends Operator {
 
@@ -54,29 +66,75 @@ public class HashEquiJoin extends Operator {
     {
 	return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
     }
+
+    /**
+     * @return the number of partitions tuples were spilled to since the join
+     *         was last opened or rewound; 0 if its left child fit in memory
+     */
+    public int getSpilledPartitions() {
+        return spilledPartitions;
+    }
     
     final Map<Object, List<Tuple>> map = new HashMap<>();
-    public final static int MAP_SIZE = 20000;
+    /* the most times tuples are partitioned before a partition is joined a part of its build side at a time */
+    static final int MAX_LEVELS = 3;
+    /** The most partitions tuples are split into at once. */
+    public static final int MAX_FANOUT = 32;
 
-    private boolean loadMap() throws DbException, TransactionAbortedException {
-        int cnt = 0;
-        map.clear();
-        while (child1.hasNext()) {
-            t1 = child1.next();
-            List<Tuple> list = map.computeIfAbsent(t1.getField(pred.getField1()), k -> new ArrayList<>());
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
-                return true;
+    /* reads the tuples of a child or of a spill file, and returns null after the last */
+    private interface TupleInput {
+        Tuple next() throws DbException, TransactionAbortedException;
+    }
+
+    /* the tuples of both sides that hash to one partition, joined after the tuples they were split from */
+    private static class Partition {
+        final SpillFile build;
+        final SpillFile probe;
+        final int level;
+
+        Partition(TupleDesc buildTd, TupleDesc probeTd, int level) {
+            this.build = new SpillFile(buildTd);
+            this.probe = new SpillFile(probeTd);
+            this.level = level;
         }
-        return cnt > 0;
 
+        void delete() {
+            try {
+                build.close();
+                probe.close();
+            } catch (IOException ignored) {
+            }
+        }
     }
 
+    /* the most build tuples in the hash table, and the partitions tuples are split into */
+    transient private int memoryTuples;
+    transient private int fanout;
+    /* the partition being joined, null for the children; its level, and its probe side */
+    transient private Partition current;
+    transient private int level;
+    transient private TupleInput probe;
+    /* the rest of the build side when it is joined a part at a time, null otherwise */
+    transient private TupleInput build;
+    /* the partitions of the part being joined, and the one among them kept in memory; -1 if none is */
+    transient private Partition[] partitions;
+    transient private int resident;
+    /* the partitions that are left to join */
+    transient private Deque<Partition> pending;
+    /* the partitions tuples were spilled to since the join was opened or rewound */
+    transient private int spilledPartitions;
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
         child2.open();
-        loadMap();
+        int pages = Database.getBufferPool().getWorkMemory();
+        memoryTuples = (int) Math.max(1, Math.min(Integer.MAX_VALUE,
+                (long) pages * BufferPool.getPageSize() / child1.getTupleDesc().getSize()));
+        fanout = Math.min(MAX_FANOUT, pages);
+        pending = new ArrayDeque<>();
+        spilledPartitions = 0;
+        join(input(child1), input(child2), 0, null);
         super.open();
     }
 
@@ -88,11 +146,180 @@ public class HashEquiJoin extends Operator {
         this.t2=null;
         this.listIt=null;
         this.map.clear();
+        deletePartitions();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
+        deletePartitions();
+        listIt = null;
         child1.rewind();
         child2.rewind();
+        spilledPartitions = 0;
+        join(input(child1), input(child2), 0, null);
+    }
+
+    private static TupleInput input(OpIterator child) {
+        return () -> child.hasNext() ? child.next() : null;
+    }
+
+    private static TupleInput input(SpillFile file) throws DbException {
+        Iterator<Tuple> it;
+        try {
+            it = file.iterator();
+        } catch (IOException e) {
+            throw new DbException("could not read a spilled join partition: " + e.getMessage());
+        }
+        return () -> {
+            try {
+                return it.hasNext() ? it.next() : null;
+            } catch (UncheckedIOException e) {
+                throw new DbException("could not read a spilled join partition: " + e.getMessage());
+            }
+        };
+    }
+
+    private static void spill(SpillFile file, Tuple t) throws DbException {
+        try {
+            file.add(t);
+        } catch (IOException e) {
+            throw new DbException("could not spill a join partition: " + e.getMessage());
+        }
+    }
+
+    /* the partition a join key goes to at the level being joined; each level hashes differently */
+    private int partition(Object key) {
+        int h = key.hashCode() * 0x9E3779B9 + level * 0x85EBCA6B;
+        h ^= h >>> 16;
+        h *= 0x7FEB352D;
+        h ^= h >>> 15;
+        return Math.floorMod(h, partitions.length);
+    }
+
+    /*
+     * Start joining a build side with a probe side: the build side is read
+     * into the hash table, as long as it fits.  If it does not, its tuples
+     * are split into partitions by their keys, one of which stays in the
+     * table while the others are spilled to disk, as is the partition in
+     * the table if it does not fit either.  Past MAX_LEVELS the build side
+     * is joined a table full at a time instead.
+     */
+    private void join(TupleInput buildInput, TupleInput probeInput, int level, Partition part)
+            throws DbException, TransactionAbortedException {
+        this.current = part;
+        this.level = level;
+        this.probe = probeInput;
+        this.build = null;
+        partitions = null;
+        resident = -1;
+        map.clear();
+        int n = 0;
+        Tuple t;
+        while ((t = buildInput.next()) != null) {
+            Object key = t.getField(pred.getField1());
+            if (partitions != null) {
+                int p = partition(key);
+                if (p != resident) {
+                    spill(partitions[p].build, t);
+                    continue;
+                }
+            }
+            map.computeIfAbsent(key, k -> new ArrayList<>()).add(t);
+            if (++n < memoryTuples) {
+                continue;
+            }
+            if (level == MAX_LEVELS) {
+                build = buildInput;
+                return;
+            }
+            if (partitions == null) {
+                partitions = new Partition[fanout];
+                for (int i = 0; i < fanout; i++) {
+                    partitions[i] = new Partition(child1.getTupleDesc(), child2.getTupleDesc(), level + 1);
+                }
+                spilledPartitions += fanout;
+                resident = 0;
+            } else {
+                resident = -1;
+            }
+            // move the tuples of the partitions not kept in memory out of the table
+            n = 0;
+            for (Iterator<Map.Entry<Object, List<Tuple>>> it = map.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<Object, List<Tuple>> e = it.next();
+                int p = partition(e.getKey());
+                if (p == resident) {
+                    n += e.getValue().size();
+                    continue;
+                }
+                for (Tuple s : e.getValue()) {
+                    spill(partitions[p].build, s);
+                }
+                it.remove();
+            }
+        }
+    }
+
+    /*
+     * The probe side of the part being joined is done: go on with the next
+     * table full of its build side, or with the next partition left.
+     * @return false if there is nothing left to join
+     */
+    private boolean nextPart() throws DbException, TransactionAbortedException {
+        if (build != null) {
+            map.clear();
+            Tuple t;
+            int n = 0;
+            while (n < memoryTuples && (t = build.next()) != null) {
+                map.computeIfAbsent(t.getField(pred.getField1()), k -> new ArrayList<>()).add(t);
+                n++;
+            }
+            if (n > 0) {
+                probe = input(current.probe);
+                return true;
+            }
+            build = null;
+        }
+        map.clear();
+        if (partitions != null) {
+            for (Partition p : partitions) {
+                // a partition with no tuples on either side has no matches
+                if (p.build.size() > 0 && p.probe.size() > 0) {
+                    pending.push(p);
+                } else {
+                    p.delete();
+                }
+            }
+            partitions = null;
+        }
+        if (current != null) {
+            current.delete();
+            current = null;
+        }
+        if (pending.isEmpty()) {
+            return false;
+        }
+        Partition p = pending.pop();
+        join(input(p.build), input(p.probe), p.level, p);
+        return true;
+    }
+
+    private void deletePartitions() {
+        if (partitions != null) {
+            for (Partition p : partitions) {
+                p.delete();
+            }
+            partitions = null;
+        }
+        if (current != null) {
+            current.delete();
+            current = null;
+        }
+        if (pending != null) {
+            for (Partition p : pending) {
+                p.delete();
+            }
+            pending.clear();
+        }
+        build = null;
     }
 
     transient Iterator<Tuple> listIt = null;
@@ -132,32 +359,37 @@ public class HashEquiJoin extends Operator {
     }
 
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
-            return processList();
-        }
+        while (true) {
+            if (listIt != null && listIt.hasNext()) {
+                return processList();
+            }
+            listIt = null;
 
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
+            // loop around the probe side
+            Tuple t = probe.next();
+            if (t == null) {
+                if (nextPart()) {
+                    continue;
+                }
+                return null;
+            }
+            Object key = t.getField(pred.getField2());
+            if (partitions != null) {
+                int p = partition(key);
+                if (p != resident) {
+                    spill(partitions[p].probe, t);
+                    continue;
+                }
+            }
 
             // if match, create a combined tuple and fill it with the values
             // from both tuples
-            List<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
-                continue;
-            listIt = l.iterator();
-
-            return processList();
-
-        }
-
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
+            List<Tuple> l = map.get(key);
+            if (l != null) {
+                t2 = t;
+                listIt = l.iterator();
+            }
         }
-
-        return null;
     }
 
     @Override
@@ -0,0 +1,86 @@
+package simpledb.execution;
+
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.util.*;
+
+/**
+ * Limit is an operator that returns the first tuples of its child, up to a
+ * number, and stops reading the child after them.  A LIMIT under an ORDER
+ * BY is done by {@link OrderBy} instead, which keeps only that many tuples.
+ */
+public class Limit extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private OpIterator child;
+    private final int limit;
+    private int returned;
+
+    /**
+     * @param limit the number of tuples to return at most
+     * @param child the operator to read tuples from
+     */
+    public Limit(int limit, OpIterator child) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("a limit can not be negative");
+        }
+        this.limit = limit;
+        this.child = child;
+    }
+
+    /**
+     * @return the number of tuples returned at most
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        returned = 0;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        returned = 0;
+    }
+
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (returned == limit || !child.hasNext()) {
+            return null;
+        }
+        returned++;
+        return child.next();
+    }
+
+    @Override
+    public void setNeededFields(int[] fields) {
+        child.setNeededFields(fields);
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+
+}
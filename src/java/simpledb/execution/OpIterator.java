@@ -58,4 +58,15 @@ public interface OpIterator extends Serializable{
    */
   void close();
 
+  /**
+   * Tells the iterator that its consumer reads only the given fields of the
+   * tuples it returns, so it may leave the others null.  Operators pass it
+   * on to their children when they can say which fields they read
+   * themselves; by default it is ignored and whole tuples are returned.
+   * Must be called before the iterator is opened.
+   * @param fields the indices of the fields that are read
+   */
+  default void setNeededFields(int[] fields) {
+  }
+
 }
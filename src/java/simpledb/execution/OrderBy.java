@@ -1,30 +1,47 @@
 package simpledb.execution;
 
+import simpledb.common.Database;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
-import simpledb.storage.Field;
+import simpledb.storage.BufferPool;
+import simpledb.storage.ExternalSort;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.*;
 
 /**
  * OrderBy is an operator that implements a relational ORDER BY.
+ * <p>
+ * The child's tuples are sorted by an {@link ExternalSort} in the work
+ * memory of the buffer pool, so a sort that does not fit spills runs to
+ * disk instead of holding every tuple.  With a limit, only that many
+ * tuples are returned.  If they fit in the work memory they are picked by
+ * a heap that holds no more than that many at a time; otherwise the child
+ * is sorted as without a limit and only the first ones are read.  Ties
+ * keep the child's order.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
     private OpIterator child;
     private final TupleDesc td;
-    private final List<Tuple> childTups = new ArrayList<>();
-    private final int orderByField;
+    private final int[] orderByFields;
+    private final boolean[] ascs;
+    private final int limit;
     private final String orderByFieldName;
-    private Iterator<Tuple> it;
-    private final boolean asc;
+    private final Comparator<Tuple> comparator;
+    /* the sorted tuples, when they are held in memory */
+    private transient List<Tuple> sorted;
+    /* the sort of the child's tuples, when it spilled runs to disk */
+    private transient ExternalSort sort;
+    private transient Iterator<Tuple> it;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
-     * 
+     *
      * @param orderbyField
      *            the field to which the sort is applied.
      * @param asc
@@ -33,28 +50,55 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, OpIterator child) {
+        this(new int[] { orderbyField }, new boolean[] { asc }, -1, child);
+    }
+
+    /**
+     * Creates a new OrderBy node over the tuples from the iterator.
+     *
+     * @param orderbyFields
+     *            the fields the sort is applied to, the most significant
+     *            first.
+     * @param asc
+     *            whether each field is sorted in ascending order.
+     * @param limit
+     *            the number of tuples to return, the first ones in the
+     *            order; -1 for all of them.
+     * @param child
+     *            the tuples to sort.
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, int limit, OpIterator child) {
         this.child = child;
         td = child.getTupleDesc();
-        this.orderByField = orderbyField;
-        this.orderByFieldName = td.getFieldName(orderbyField);
-        this.asc = asc;
+        this.orderByFields = orderbyFields;
+        this.ascs = asc;
+        this.limit = limit;
+        this.orderByFieldName = td.getFieldName(orderbyFields[0]);
+        this.comparator = new TupleComparator(td, orderbyFields, asc);
     }
-    
+
     public boolean isASC()
     {
-	return this.asc;
+	return this.ascs[0];
     }
-    
+
     public int getOrderByField()
     {
-        return this.orderByField;
+        return this.orderByFields[0];
     }
-    
+
     public String getOrderFieldName()
     {
 	return this.orderByFieldName;
     }
-    
+
+    /**
+     * @return the number of tuples returned, or -1 if all are
+     */
+    public int getLimit() {
+        return limit;
+    }
+
     public TupleDesc getTupleDesc() {
         return td;
     }
@@ -62,35 +106,147 @@ public class OrderBy extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add(child.next());
-        childTups.sort(new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        sortChild();
         super.open();
     }
 
     public void close() {
         super.close();
+        child.close();
+        closeSort();
         it = null;
     }
 
-    public void rewind() {
-        it = childTups.iterator();
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (sorted != null) {
+            it = sorted.iterator();
+            return;
+        }
+        // the runs of a spilled sort are gone once merged: sort again
+        closeSort();
+        child.rewind();
+        sortChild();
+    }
+
+    private void sortChild() throws DbException, TransactionAbortedException {
+        sorted = null;
+        int memoryPages = Database.getBufferPool().getWorkMemory();
+        if (limit >= 0 && (long) limit * td.getSize() <= (long) memoryPages * BufferPool.getPageSize()) {
+            sorted = topN();
+            it = sorted.iterator();
+            return;
+        }
+        sort = new ExternalSort(td, comparator, memoryPages);
+        try {
+            while (child.hasNext()) {
+                sort.add(child.next());
+            }
+            boolean spilled = sort.numRuns() > 0;
+            it = sort.sorted();
+            if (limit >= 0) {
+                it = first(it, limit);
+            }
+            if (!spilled) {
+                sorted = new ArrayList<>();
+                it.forEachRemaining(sorted::add);
+                it = sorted.iterator();
+                closeSort();
+            }
+        } catch (IOException e) {
+            throw new DbException("could not sort: " + e.getMessage());
+        }
+    }
+
+    /*
+     * The first limit tuples of the child in order: a heap holds the
+     * smallest ones seen so far, with the largest of them on top to be
+     * replaced; ties go to the tuple seen first.
+     */
+    private List<Tuple> topN() throws DbException, TransactionAbortedException {
+        Comparator<Ranked> order = (a, b) -> {
+            int c = comparator.compare(a.tuple, b.tuple);
+            return c != 0 ? c : Long.compare(a.arrival, b.arrival);
+        };
+        PriorityQueue<Ranked> heap = new PriorityQueue<>(Math.max(1, Math.min(limit, 1024)), order.reversed());
+        long arrival = 0;
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (limit == 0) {
+                continue;
+            }
+            if (heap.size() == limit) {
+                if (comparator.compare(t, heap.peek().tuple) >= 0) {
+                    continue;
+                }
+                heap.poll();
+            }
+            heap.add(new Ranked(t, arrival++));
+        }
+        List<Ranked> ranked = new ArrayList<>(heap);
+        ranked.sort(order);
+        List<Tuple> result = new ArrayList<>(ranked.size());
+        for (Ranked r : ranked) {
+            result.add(r.tuple);
+        }
+        return result;
+    }
+
+    /* the first n tuples of an iterator */
+    private static Iterator<Tuple> first(Iterator<Tuple> it, int n) {
+        return new Iterator<>() {
+            int left = n;
+
+            public boolean hasNext() {
+                return left > 0 && it.hasNext();
+            }
+
+            public Tuple next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                left--;
+                return it.next();
+            }
+        };
+    }
+
+    /* a tuple kept by topN, with its position in the child's output */
+    private static class Ranked {
+        final Tuple tuple;
+        final long arrival;
+
+        Ranked(Tuple tuple, long arrival) {
+            this.tuple = tuple;
+            this.arrival = arrival;
+        }
+    }
+
+    private void closeSort() {
+        if (sort != null) {
+            try {
+                sort.close();
+            } catch (IOException ignored) {
+            }
+            sort = null;
+        }
     }
 
     /**
      * Operator.fetchNext implementation. Returns tuples from the child operator
      * in order
-     * 
+     *
      * @return The next tuple in the ordering, or null if there are no more
      *         tuples
      */
-    protected Tuple fetchNext() throws NoSuchElementException {
-        if (it != null && it.hasNext()) {
-            return it.next();
-        } else
-            return null;
+    protected Tuple fetchNext() throws NoSuchElementException, DbException {
+        try {
+            if (it != null && it.hasNext()) {
+                return it.next();
+            } else
+                return null;
+        } catch (UncheckedIOException e) {
+            throw new DbException("could not read a sort run: " + e.getMessage());
+        }
     }
 
     @Override
@@ -104,25 +260,3 @@ public class OrderBy extends Operator {
     }
 
 }
-
-class TupleComparator implements Comparator<Tuple> {
-    final int field;
-    final boolean asc;
-
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
-    }
-
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
-    }
-    
-}
@@ -0,0 +1,35 @@
+package simpledb.execution;
+
+import simpledb.storage.HeapPage;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.util.List;
+
+/**
+ * PageScanner is the superclass of the classes {@link QueryCompiler}
+ * generates: each one runs a scan, filter and project chain of a given
+ * shape over the slots of a page.  The constants of the predicates are
+ * kept apart from the generated code, so that queries that only differ in
+ * them share a class.
+ */
+abstract class PageScanner {
+
+    /* the TupleDesc of the tuples returned */
+    protected TupleDesc td;
+    /* the operand of the i-th predicate, in ints[i] or strings[i] by its type */
+    protected int[] ints;
+    protected String[] strings;
+
+    void init(TupleDesc td, int[] ints, String[] strings) {
+        this.td = td;
+        this.ints = ints;
+        this.strings = strings;
+    }
+
+    /**
+     * Add the tuples of the used slots of a page that pass the predicates,
+     * projected, to out, in slot order.
+     */
+    abstract void scanPage(HeapPage page, List<Tuple> out);
+}
@@ -35,6 +35,7 @@ public class Project extends Operator {
                    OpIterator child) {
         this.child = child;
         outFieldIds = fieldList;
+        child.setNeededFields(neededFields());
         String[] fieldAr = new String[fieldList.size()];
         TupleDesc childtd = child.getTupleDesc();
 
@@ -44,6 +45,18 @@ public class Project extends Operator {
         td = new TupleDesc(types, fieldAr);
     }
 
+    /* the fields of the child's tuples that are projected out */
+    private int[] neededFields() {
+        return outFieldIds.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * @return the ids of the fields of the child's TupleDesc projected out
+     */
+    public List<Integer> getFieldList() {
+        return outFieldIds;
+    }
+
     public TupleDesc getTupleDesc() {
         return td;
     }
@@ -90,6 +103,7 @@ public class Project extends Operator {
     public void setChildren(OpIterator[] children) {
         if (this.child != children[0]) {
             this.child = children[0];
+            this.child.setNeededFields(neededFields());
         }
     }
 
@@ -0,0 +1,310 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.TupleDesc;
+
+import javax.tools.*;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.security.CodeSource;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * QueryCompiler replaces the chains of a projection over filters over a
+ * scan of a heap table in a plan with {@link CompiledScan}s.  For each
+ * chain it generates the source of a {@link PageScanner} with a loop over
+ * the used slots of a page, the comparisons of the predicates written out
+ * for the types of their fields, and the output tuples made straight from
+ * the page, and compiles it with the system Java compiler.
+ * <p>
+ * Generated classes are cached by the shape of the chain they run, that
+ * is its types, fields and operators but not its table or constants, so
+ * repeated queries reuse them.  Chains that can not be compiled, because
+ * there is no compiler, the table is not a heap table or a field is not
+ * an INT or a STRING, are left to run as they are.
+ */
+public final class QueryCompiler {
+
+    private static final String CLASS_NAME = "$CLASS$";
+    private static final JavaCompiler COMPILER = ToolProvider.getSystemJavaCompiler();
+
+    /* the generated classes by their source, and the sources that did not compile */
+    private static final Map<String, Class<? extends PageScanner>> classes = new ConcurrentHashMap<>();
+    private static final Set<String> failed = ConcurrentHashMap.newKeySet();
+    private static final AtomicInteger compiled = new AtomicInteger();
+
+    private QueryCompiler() {
+    }
+
+    /**
+     * @return true if chains can be compiled, false if there is no Java
+     *         compiler to compile them with
+     */
+    public static boolean isAvailable() {
+        return COMPILER != null;
+    }
+
+    /**
+     * @return the number of classes generated so far
+     */
+    public static int classesCompiled() {
+        return compiled.get();
+    }
+
+    /**
+     * @param plan a plan that has not been opened
+     * @return the plan, with the chains that could be compiled replaced;
+     *         the plan passed may have been changed
+     */
+    public static OpIterator compile(OpIterator plan) {
+        OpIterator scan = compileChain(plan);
+        if (scan != null) {
+            return scan;
+        }
+        if (plan instanceof Operator) {
+            Operator op = (Operator) plan;
+            OpIterator[] children = op.getChildren();
+            for (int i = 0; i < children.length; i++) {
+                children[i] = compile(children[i]);
+            }
+            op.setChildren(children);
+        }
+        return plan;
+    }
+
+    /* a CompiledScan for the chain at the root of the plan, or null if there is none or it can not be compiled */
+    private static CompiledScan compileChain(OpIterator plan) {
+        OpIterator op = plan;
+        List<Integer> fields = null;
+        if (op instanceof Project) {
+            fields = ((Project) op).getFieldList();
+            op = ((Project) op).getChildren()[0];
+        }
+        LinkedList<Predicate> predicates = new LinkedList<>();
+        while (op instanceof Filter) {
+            predicates.addFirst(((Filter) op).getPredicate());
+            op = ((Filter) op).getChildren()[0];
+        }
+        if (!(op instanceof SeqScan) || fields == null && predicates.isEmpty() || !isAvailable()) {
+            return null;
+        }
+        SeqScan scan = (SeqScan) op;
+        if (!(Database.getCatalog().getDatabaseFile(scan.getTableId()) instanceof HeapFile)) {
+            return null;
+        }
+        TupleDesc scanTd = scan.getTupleDesc();
+        TupleDesc td = plan.getTupleDesc();
+        if (fields == null) {
+            fields = new ArrayList<>();
+            for (int i = 0; i < scanTd.numFields(); i++) {
+                fields.add(i);
+            }
+        }
+        for (int i = 0; i < fields.size(); i++) {
+            if (td.getFieldType(i) != scanTd.getFieldType(fields.get(i))) {
+                return null;
+            }
+        }
+
+        int[] ints = new int[predicates.size()];
+        String[] strings = new String[predicates.size()];
+        String source = generate(scanTd, predicates, fields, ints, strings);
+        if (source == null) {
+            return null;
+        }
+        Class<? extends PageScanner> c = scannerClass(source);
+        if (c == null) {
+            return null;
+        }
+        try {
+            PageScanner scanner = c.getDeclaredConstructor().newInstance();
+            scanner.init(td, ints, strings);
+            return new CompiledScan(scan.getTransactionId(), scan.getTableId(), td, scanner);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /*
+     * The source of a PageScanner for the chain, named CLASS_NAME, with the
+     * operands of the predicates filled in to ints and strings; null if a
+     * field or an operand has a type that is not supported.
+     */
+    private static String generate(TupleDesc td, List<Predicate> predicates, List<Integer> fields,
+                                   int[] ints, String[] strings) {
+        StringBuilder constants = new StringBuilder();
+        StringBuilder loop = new StringBuilder();
+        boolean[] read = new boolean[td.numFields()];
+        for (int i = 0; i < predicates.size(); i++) {
+            Predicate p = predicates.get(i);
+            Type type = td.getFieldType(p.field());
+            String v = read(td, p.field(), read, loop);
+            String c = "c" + i;
+            String test;
+            if (type == Type.INT_TYPE && p.operand() instanceof IntField) {
+                ints[i] = ((IntField) p.operand()).getValue();
+                constants.append("        int ").append(c).append(" = ints[").append(i).append("];\n");
+                test = v + " " + operator(p.op()) + " " + c;
+            } else if (type == Type.STRING_TYPE && p.operand() instanceof StringField) {
+                strings[i] = ((StringField) p.operand()).getValue();
+                constants.append("        String ").append(c).append(" = strings[").append(i).append("];\n");
+                test = p.op() == Predicate.Op.LIKE ? v + ".contains(" + c + ")"
+                        : v + ".compareTo(" + c + ") " + operator(p.op()) + " 0";
+            } else {
+                return null;
+            }
+            loop.append("            if (!(").append(test).append(")) continue;\n");
+        }
+        for (int f : fields) {
+            Type type = td.getFieldType(f);
+            if (type != Type.INT_TYPE && type != Type.STRING_TYPE) {
+                return null;
+            }
+            read(td, f, read, loop);
+        }
+        loop.append("            Tuple t = new Tuple(td);\n");
+        loop.append("            t.setRecordId(new RecordId(pid, slot));\n");
+        for (int i = 0; i < fields.size(); i++) {
+            int f = fields.get(i);
+            String value = td.getFieldType(f) == Type.INT_TYPE ? "new IntField(f" + f + ")"
+                    : "new StringField(f" + f + ", Type.STRING_LEN)";
+            loop.append("            t.setField(").append(i).append(", ").append(value).append(");\n");
+        }
+        loop.append("            out.add(t);\n");
+
+        return "package simpledb.execution;\n\n"
+                + "import java.util.List;\n"
+                + "import simpledb.common.Type;\n"
+                + "import simpledb.storage.*;\n\n"
+                + "final class " + CLASS_NAME + " extends PageScanner {\n"
+                + "    @Override\n"
+                + "    void scanPage(HeapPage page, List<Tuple> out) {\n"
+                + "        HeapPageId pid = page.getId();\n"
+                + constants
+                + "        for (int slot = page.nextUsedSlot(0); slot >= 0; slot = page.nextUsedSlot(slot + 1)) {\n"
+                + loop
+                + "        }\n"
+                + "    }\n"
+                + "}\n";
+    }
+
+    /* the variable field f of the slot is read to, with the line that reads it added to loop the first time */
+    private static String read(TupleDesc td, int f, boolean[] read, StringBuilder loop) {
+        String v = "f" + f;
+        if (!read[f]) {
+            read[f] = true;
+            if (td.getFieldType(f) == Type.INT_TYPE) {
+                loop.append("            int ").append(v).append(" = page.getInt(slot, ").append(f).append(");\n");
+            } else {
+                loop.append("            String ").append(v).append(" = page.getString(slot, ").append(f).append(");\n");
+            }
+        }
+        return v;
+    }
+
+    private static String operator(Predicate.Op op) {
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return "==";
+            case NOT_EQUALS:
+                return "!=";
+            case GREATER_THAN:
+                return ">";
+            case GREATER_THAN_OR_EQ:
+                return ">=";
+            case LESS_THAN:
+                return "<";
+            case LESS_THAN_OR_EQ:
+                return "<=";
+            default:
+                throw new IllegalArgumentException("unknown operator " + op);
+        }
+    }
+
+    /* the class generated for the source, compiled the first time it is asked for; null if it does not compile */
+    private static Class<? extends PageScanner> scannerClass(String source) {
+        Class<? extends PageScanner> c = classes.get(source);
+        if (c != null || failed.contains(source)) {
+            return c;
+        }
+        synchronized (QueryCompiler.class) {
+            c = classes.get(source);
+            if (c == null && !failed.contains(source)) {
+                c = define(source.replace(CLASS_NAME, "GeneratedScanner" + compiled.get()));
+                if (c == null) {
+                    failed.add(source);
+                } else {
+                    classes.put(source, c);
+                    compiled.incrementAndGet();
+                }
+            }
+        }
+        return c;
+    }
+
+    /* compile the source in memory and define its class next to PageScanner; null if it does not compile */
+    private static Class<? extends PageScanner> define(String source) {
+        String name = source.substring(source.indexOf("final class ") + 12, source.indexOf(" extends"));
+        JavaFileObject file = new SimpleJavaFileObject(URI.create("string:///simpledb/execution/" + name
+                + JavaFileObject.Kind.SOURCE.extension), JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+        Map<String, ByteArrayOutputStream> output = new HashMap<>();
+        JavaFileManager files = new ForwardingJavaFileManager<>(COMPILER.getStandardFileManager(null, null, null)) {
+            @Override
+            public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind,
+                                                       FileObject sibling) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                output.put(className, bytes);
+                return new SimpleJavaFileObject(URI.create("bytes:///" + className.replace('.', '/')
+                        + kind.extension), kind) {
+                    @Override
+                    public OutputStream openOutputStream() {
+                        return bytes;
+                    }
+                };
+            }
+        };
+        List<String> options = Arrays.asList("-classpath", classPath(), "-proc:none", "-g:none");
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        if (!COMPILER.getTask(null, files, diagnostics, options, null, Collections.singletonList(file)).call()) {
+            return null;
+        }
+        ByteArrayOutputStream bytes = output.get("simpledb.execution." + name);
+        if (bytes == null) {
+            return null;
+        }
+        try {
+            return MethodHandles.lookup().defineClass(bytes.toByteArray()).asSubclass(PageScanner.class);
+        } catch (IllegalAccessException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /* the class path, with where the classes of SimpleDB were loaded from */
+    private static String classPath() {
+        String path = System.getProperty("java.class.path", "");
+        CodeSource source = QueryCompiler.class.getProtectionDomain().getCodeSource();
+        try {
+            if (source != null && "file".equals(source.getLocation().getProtocol())) {
+                path = new File(source.getLocation().toURI()).getPath() + File.pathSeparator + path;
+            }
+        } catch (URISyntaxException ignored) {
+        }
+        return path;
+    }
+}
@@ -0,0 +1,103 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * RowToBatch runs a tuple at a time operator under batch operators: it
+ * gathers the tuples of its child into batches.
+ *
+ * @see BatchToRow
+ */
+public class RowToBatch implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+    /* a dictionary with more values than this is started over */
+    private static final int MAX_DICTIONARY = 1 << 16;
+
+    private final OpIterator child;
+    private int[] neededFields;
+    private transient Batch batch;
+    private transient int[] fields;
+
+    public RowToBatch(OpIterator child) {
+        this.child = child;
+    }
+
+    /**
+     * @return the tuple at a time operator this reads from
+     */
+    public OpIterator getChild() {
+        return child;
+    }
+
+    @Override
+    public void setNeededFields(int[] fields) {
+        neededFields = fields;
+        child.setNeededFields(fields);
+    }
+
+    @Override
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        TupleDesc td = getTupleDesc();
+        batch = new Batch(td);
+        if (neededFields == null) {
+            fields = new int[td.numFields()];
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = i;
+            }
+        } else {
+            fields = neededFields.clone();
+        }
+    }
+
+    @Override
+    public Batch nextBatch() throws DbException, TransactionAbortedException {
+        TupleDesc td = getTupleDesc();
+        for (int j : fields) {
+            StringDictionary dictionary = batch.dictionaries[j];
+            if (td.getFieldType(j) != Type.INT_TYPE && (dictionary == null || dictionary.size() > MAX_DICTIONARY)) {
+                batch.dictionaries[j] = new StringDictionary();
+            }
+        }
+        int n = 0;
+        while (n < Batch.SIZE && child.hasNext()) {
+            Tuple t = child.next();
+            for (int j : fields) {
+                if (td.getFieldType(j) == Type.INT_TYPE) {
+                    batch.columns[j][n] = ((IntField) t.getField(j)).getValue();
+                } else {
+                    batch.columns[j][n] = batch.dictionaries[j].code(((StringField) t.getField(j)).getValue());
+                }
+            }
+            n++;
+        }
+        if (n == 0) {
+            return null;
+        }
+        batch.selectAll(n);
+        return batch;
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    @Override
+    public void close() {
+        child.close();
+        batch = null;
+    }
+}
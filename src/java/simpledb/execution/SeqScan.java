@@ -48,6 +48,13 @@ public class SeqScan implements OpIterator {
         this.tableId = tableId;
         this.tableAlias = tableAlias;
         dbFileIterator = Database.getCatalog().getDatabaseFile(tableId).iterator(tid);
+        // a scan reads the whole table
+        dbFileIterator.hintSequential();
+    }
+
+    @Override
+    public void setNeededFields(int[] fields) {
+        dbFileIterator.setNeededFields(fields);
     }
 
     /**
@@ -59,6 +66,20 @@ public class SeqScan implements OpIterator {
         return Database.getCatalog().getTableName(tableId);
     }
 
+    /**
+     * @return the id of the table the operator scans
+     */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the transaction the scan is running as a part of
+     */
+    public TransactionId getTransactionId() {
+        return tid;
+    }
+
     /**
      * @return Return the alias of the table this operator scans.
      * */
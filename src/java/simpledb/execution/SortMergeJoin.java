@@ -0,0 +1,377 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+
+/**
+ * The SortMergeJoin operator joins two children that are read in ascending
+ * order of their join fields.  A child that is not already in that order,
+ * because it does not come from the leaves of a B+ tree keyed on its join
+ * field or from another operator that keeps such an order, is sorted first
+ * by an {@link OrderBy}.
+ * <p>
+ * An equality join keeps a window of the right tuples whose keys are equal
+ * to the key of the left tuple being joined, and moves it forward with the
+ * left child.  A band join, made with a band greater than zero, joins INT
+ * keys that are at most the band apart the same way, with a wider window.
+ * <p>
+ * An inequality join reads the child on the greater side of the predicate
+ * as the outer one.  The inner tuples it matches are all those up to some
+ * key, which only grows as the outer child goes on, so they are read once
+ * and kept, in memory while they fit in the work memory of the buffer pool
+ * and in a temporary file after that.
+ * <p>
+ * The tuples returned are in ascending order of the outer child's join
+ * field: the left child's, except for &lt; and &lt;= joins.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private final JoinPredicate pred;
+    private final int band;
+    private OpIterator child1, child2;
+    private final TupleDesc comboTD;
+
+    /* the children in order of their join fields, and which is the outer one */
+    transient private OpIterator left, right;
+    transient private OpIterator outer, inner;
+    transient private boolean outerIsLeft;
+    /* the next inner tuple that has not been taken into the window or the store, or null */
+    transient private Tuple innerHead;
+    /* the inner tuples an equality or band join matches the current outer tuple with */
+    transient private Deque<Tuple> window;
+    /* the inner tuples an inequality join matches the current outer tuple with */
+    transient private List<Tuple> kept;
+    transient private SpillFile spilled;
+    transient private int memoryTuples;
+    transient private Tuple current;
+    transient private Iterator<Tuple> matches;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join
+     * them on
+     *
+     * @param p
+     *            The predicate to use to join the children; any operator
+     *            but NOT_EQUALS and LIKE
+     * @param child1
+     *            Iterator for the left relation to join
+     * @param child2
+     *            Iterator for the right relation to join
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, 0, child1, child2);
+    }
+
+    /**
+     * Constructor for a band join, which joins the tuples whose join fields
+     * are at most band apart.
+     *
+     * @param p
+     *            The predicate to use to join the children: an EQUALS on
+     *            INT fields if band is greater than zero
+     * @param band
+     *            how far apart joined keys can be
+     * @param child1
+     *            Iterator for the left relation to join
+     * @param child2
+     *            Iterator for the right relation to join
+     */
+    public SortMergeJoin(JoinPredicate p, int band, OpIterator child1, OpIterator child2) {
+        Predicate.Op op = p.getOperator();
+        if (op == Predicate.Op.NOT_EQUALS || op == Predicate.Op.LIKE) {
+            throw new IllegalArgumentException("a sort-merge join can not join on " + op);
+        }
+        if (band < 0 || band > 0 && (op != Predicate.Op.EQUALS
+                || child1.getTupleDesc().getFieldType(p.getField1()) != Type.INT_TYPE
+                || child2.getTupleDesc().getFieldType(p.getField2()) != Type.INT_TYPE)) {
+            throw new IllegalArgumentException("a band join needs a band of at least 0 and an EQUALS on INT fields");
+        }
+        this.pred = p;
+        this.band = band;
+        this.child1 = child1;
+        this.child2 = child2;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    /**
+     * @return how far apart joined keys can be; 0 unless this is a band join
+     */
+    public int getBand() {
+        return band;
+    }
+
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    /**
+     * @return true if the tuples of the iterator come in ascending order of
+     *         the field, without being sorted: they are read from the leaves
+     *         of a B+ tree keyed on it, or kept in such an order by the
+     *         operators above them
+     */
+    public static boolean isSortedOn(OpIterator it, int field) {
+        if (it instanceof Filter || it instanceof Limit) {
+            return isSortedOn(((Operator) it).getChildren()[0], field);
+        }
+        if (it instanceof OrderBy) {
+            return ((OrderBy) it).getOrderByField() == field && ((OrderBy) it).isASC();
+        }
+        if (it instanceof SeqScan) {
+            return isKeyOf(((SeqScan) it).getTableId(), field);
+        }
+        if (it instanceof BTreeScan) {
+            return isKeyOf(((BTreeScan) it).getTableId(), field);
+        }
+        if (it instanceof SortMergeJoin) {
+            SortMergeJoin j = (SortMergeJoin) it;
+            int leftFields = j.child1.getTupleDesc().numFields();
+            switch (j.pred.getOperator()) {
+                case LESS_THAN:
+                case LESS_THAN_OR_EQ:
+                    return field == leftFields + j.pred.getField2();
+                case EQUALS:
+                    return field == j.pred.getField1() || j.band == 0 && field == leftFields + j.pred.getField2();
+                default:
+                    return field == j.pred.getField1();
+            }
+        }
+        return false;
+    }
+
+    private static boolean isKeyOf(int tableId, int field) {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        return f instanceof BTreeFile && ((BTreeFile) f).keyField() == field;
+    }
+
+    private static OpIterator sorted(OpIterator child, int field) {
+        return isSortedOn(child, field) ? child : new OrderBy(field, true, child);
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        left = sorted(child1, pred.getField1());
+        right = sorted(child2, pred.getField2());
+        left.open();
+        right.open();
+        start();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        if (right != null) {
+            right.close();
+            left.close();
+        }
+        clear();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        clear();
+        left.rewind();
+        right.rewind();
+        start();
+    }
+
+    private void start() throws DbException, TransactionAbortedException {
+        Predicate.Op op = pred.getOperator();
+        outerIsLeft = op != Predicate.Op.LESS_THAN && op != Predicate.Op.LESS_THAN_OR_EQ;
+        outer = outerIsLeft ? left : right;
+        inner = outerIsLeft ? right : left;
+        if (op == Predicate.Op.EQUALS) {
+            window = new ArrayDeque<>();
+        } else {
+            kept = new ArrayList<>();
+            int pages = Database.getBufferPool().getWorkMemory();
+            memoryTuples = (int) Math.max(1, Math.min(Integer.MAX_VALUE,
+                    (long) pages * BufferPool.getPageSize() / inner.getTupleDesc().getSize()));
+        }
+        advanceInner();
+    }
+
+    private void clear() {
+        current = null;
+        matches = null;
+        innerHead = null;
+        window = null;
+        kept = null;
+        if (spilled != null) {
+            try {
+                spilled.close();
+            } catch (IOException ignored) {
+            }
+            spilled = null;
+        }
+    }
+
+    private void advanceInner() throws DbException, TransactionAbortedException {
+        innerHead = inner.hasNext() ? inner.next() : null;
+    }
+
+    /* the order of the join fields of a left and a right tuple */
+    private int compareKeys(Tuple l, Tuple r) {
+        Field a = l.getField(pred.getField1());
+        Field b = r.getField(pred.getField2());
+        if (a instanceof IntField) {
+            return Integer.compare(((IntField) a).getValue(), ((IntField) b).getValue());
+        }
+        return ((StringField) a).getValue().compareTo(((StringField) b).getValue());
+    }
+
+    /* whether keys in the given order satisfy the predicate's inequality */
+    private boolean satisfies(int c) {
+        switch (pred.getOperator()) {
+            case LESS_THAN:
+                return c < 0;
+            case LESS_THAN_OR_EQ:
+                return c <= 0;
+            case GREATER_THAN:
+                return c > 0;
+            default:
+                return c >= 0;
+        }
+    }
+
+    /* for an equality or band join: whether the right tuple's key is below the left tuple's band */
+    private boolean below(Tuple l, Tuple r) {
+        if (band == 0) {
+            return compareKeys(l, r) > 0;
+        }
+        return ((IntField) r.getField(pred.getField2())).getValue()
+                < (long) ((IntField) l.getField(pred.getField1())).getValue() - band;
+    }
+
+    /* for an equality or band join: whether the right tuple's key is within or below the left tuple's band */
+    private boolean notAbove(Tuple l, Tuple r) {
+        if (band == 0) {
+            return compareKeys(l, r) >= 0;
+        }
+        return ((IntField) r.getField(pred.getField2())).getValue()
+                <= (long) ((IntField) l.getField(pred.getField1())).getValue() + band;
+    }
+
+    /* the inner tuples the outer tuple joins with, after the window or the store was moved forward to it */
+    private Iterator<Tuple> matchesOf(Tuple t) throws DbException, TransactionAbortedException {
+        if (window != null) {
+            while (!window.isEmpty() && below(t, window.peekFirst())) {
+                window.pollFirst();
+            }
+            while (innerHead != null && notAbove(t, innerHead)) {
+                if (!below(t, innerHead)) {
+                    window.addLast(innerHead);
+                }
+                advanceInner();
+            }
+            return window.iterator();
+        }
+        while (innerHead != null && satisfies(outerIsLeft ? compareKeys(t, innerHead) : compareKeys(innerHead, t))) {
+            keep(innerHead);
+            advanceInner();
+        }
+        if (spilled == null) {
+            return kept.iterator();
+        }
+        Iterator<Tuple> more;
+        try {
+            more = spilled.iterator();
+        } catch (IOException e) {
+            throw new DbException("could not read the tuples of a sort-merge join: " + e.getMessage());
+        }
+        Iterator<Tuple> first = kept.iterator();
+        return new Iterator<>() {
+            public boolean hasNext() {
+                return first.hasNext() || more.hasNext();
+            }
+
+            public Tuple next() {
+                return first.hasNext() ? first.next() : more.next();
+            }
+        };
+    }
+
+    private void keep(Tuple t) throws DbException {
+        if (kept.size() < memoryTuples) {
+            kept.add(t);
+            return;
+        }
+        if (spilled == null) {
+            spilled = new SpillFile(inner.getTupleDesc());
+        }
+        try {
+            spilled.add(t);
+        } catch (IOException e) {
+            throw new DbException("could not spill the tuples of a sort-merge join: " + e.getMessage());
+        }
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        int td1n = t1.getTupleDesc().numFields();
+        int td2n = t2.getTupleDesc().numFields();
+        Tuple t = new Tuple(comboTD);
+        for (int i = 0; i < td1n; i++)
+            t.setField(i, t1.getField(i));
+        for (int i = 0; i < td2n; i++)
+            t.setField(td1n + i, t2.getField(i));
+        return t;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples: the next outer tuple joined with each inner tuple it
+     * matches, in the order they were read.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        try {
+            while (true) {
+                if (matches != null && matches.hasNext()) {
+                    Tuple m = matches.next();
+                    return outerIsLeft ? merge(current, m) : merge(m, current);
+                }
+                if (!outer.hasNext()) {
+                    return null;
+                }
+                current = outer.next();
+                matches = matchesOf(current);
+            }
+        } catch (UncheckedIOException e) {
+            throw new DbException("could not read the tuples of a sort-merge join: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child1, this.child2 };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+
+}
@@ -0,0 +1,92 @@
+package simpledb.execution;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * StringDictionary numbers the distinct strings of a column, so that a
+ * {@link Batch} holds a string column as an int code per row.  Codes are
+ * handed out from 0 in the order values are first seen and stay valid for
+ * as long as the dictionary is in use; a producer starts a new dictionary
+ * rather than forget codes of an old one.
+ */
+public class StringDictionary {
+
+    private final Map<String, Integer> codes = new HashMap<>();
+    private String[] values = new String[16];
+
+    /**
+     * @return the code of the given value, numbering it if it is new
+     */
+    public int code(String value) {
+        Integer code = codes.get(value);
+        if (code == null) {
+            code = codes.size();
+            if (code == values.length) {
+                values = Arrays.copyOf(values, code * 2);
+            }
+            values[code] = value;
+            codes.put(value, code);
+        }
+        return code;
+    }
+
+    /**
+     * @return the code of the given value, or -1 if it has none
+     */
+    public int find(String value) {
+        Integer code = codes.get(value);
+        return code == null ? -1 : code;
+    }
+
+    /**
+     * @return the value of the given code
+     */
+    public String value(int code) {
+        return values[code];
+    }
+
+    /**
+     * @return the number of values numbered so far
+     */
+    public int size() {
+        return codes.size();
+    }
+
+    /**
+     * Translates the codes of other dictionaries to the codes of this one,
+     * looking each up once.  Operators that keep strings from several
+     * batches use one to re-number them into a dictionary of their own.
+     */
+    class Translation {
+        private final boolean add;
+        private StringDictionary from;
+        /* the code of each code of from plus 2, or 0 if not looked up yet */
+        private int[] translated = new int[0];
+
+        /**
+         * @param add whether values missing from this dictionary are added,
+         *            or translated to -1
+         */
+        Translation(boolean add) {
+            this.add = add;
+        }
+
+        int translate(StringDictionary from, int code) {
+            if (from != this.from) {
+                this.from = from;
+                translated = new int[Math.max(16, from.size())];
+            } else if (code >= translated.length) {
+                translated = Arrays.copyOf(translated, Math.max(code + 1, translated.length * 2));
+            }
+            int t = translated[code];
+            if (t == 0) {
+                String value = from.value(code);
+                t = (add ? code(value) : find(value)) + 2;
+                translated[code] = t;
+            }
+            return t - 2;
+        }
+    }
+}
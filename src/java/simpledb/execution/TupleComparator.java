@@ -0,0 +1,59 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.util.Comparator;
+
+/**
+ * TupleComparator orders tuples by some of their fields, the most
+ * significant first, each ascending or descending.  The comparison of each
+ * field is chosen by its type when the comparator is made: INT fields are
+ * compared as ints, and STRING and VARCHAR fields by their values, so no
+ * comparison goes through {@link Field#compare}.
+ */
+public class TupleComparator implements Comparator<Tuple> {
+
+    private final Comparator<Tuple> order;
+
+    /**
+     * @param td     the tuples' description
+     * @param fields the fields to order by, the most significant first
+     * @param asc    whether each field is in ascending order
+     */
+    public TupleComparator(TupleDesc td, int[] fields, boolean[] asc) {
+        if (fields.length == 0 || fields.length != asc.length) {
+            throw new IllegalArgumentException("a sort needs a direction for each of at least one field");
+        }
+        Comparator<Tuple> order = null;
+        for (int i = 0; i < fields.length; i++) {
+            Comparator<Tuple> key = key(td.getFieldType(fields[i]), fields[i]);
+            if (!asc[i]) {
+                key = key.reversed();
+            }
+            order = order == null ? key : order.thenComparing(key);
+        }
+        this.order = order;
+    }
+
+    public TupleComparator(TupleDesc td, int field, boolean asc) {
+        this(td, new int[] { field }, new boolean[] { asc });
+    }
+
+    private static Comparator<Tuple> key(Type type, int field) {
+        if (type == Type.INT_TYPE) {
+            return Comparator.comparingInt(t -> ((IntField) t.getField(field)).getValue());
+        }
+        // STRING and VARCHAR fields
+        return Comparator.comparing(t -> ((StringField) t.getField(field)).getValue());
+    }
+
+    @Override
+    public int compare(Tuple t1, Tuple t2) {
+        return order.compare(t1, t2);
+    }
+}
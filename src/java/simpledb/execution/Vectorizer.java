@@ -0,0 +1,91 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.TupleDesc;
+
+/**
+ * Vectorizer turns a plan of tuple at a time operators into one that runs
+ * a batch at a time where it can.  Scans, filters, projections, equality
+ * joins and the aggregates {@link BatchAggregate} computes are replaced by
+ * their batch versions, and filters over a scan are pushed into it; other
+ * operators stay as they are, with {@link RowToBatch} and
+ * {@link BatchToRow} between them and the batch operators around them.
+ * The plan under a {@link Delete} is left alone, since it needs the
+ * RecordIds batches do not keep.
+ */
+public final class Vectorizer {
+
+    private Vectorizer() {
+    }
+
+    /**
+     * @param plan a plan that has not been opened
+     * @return the plan, with the operators that have batch versions
+     *         replaced by them; the plan passed may have been changed
+     */
+    public static OpIterator vectorize(OpIterator plan) {
+        BatchIterator batch = toBatch(plan);
+        if (batch != null) {
+            return new BatchToRow(batch);
+        }
+        if (plan instanceof Operator && !(plan instanceof Delete)) {
+            Operator op = (Operator) plan;
+            OpIterator[] children = op.getChildren();
+            for (int i = 0; i < children.length; i++) {
+                children[i] = vectorize(children[i]);
+            }
+            op.setChildren(children);
+        }
+        return plan;
+    }
+
+    /**
+     * @return the batch version of the plan, or null if the operator at its
+     *         root has none
+     */
+    private static BatchIterator toBatch(OpIterator plan) {
+        if (plan instanceof SeqScan) {
+            SeqScan scan = (SeqScan) plan;
+            return new BatchScan(scan.getTransactionId(), scan.getTableId(), scan.getAlias());
+        }
+        if (plan instanceof Filter) {
+            Filter filter = (Filter) plan;
+            BatchIterator child = childBatch(filter.getChildren()[0]);
+            if (child instanceof BatchScan && ((BatchScan) child).pushPredicate(filter.getPredicate())) {
+                return child;
+            }
+            return new BatchFilter(filter.getPredicate(), child);
+        }
+        if (plan instanceof Project) {
+            Project project = (Project) plan;
+            TupleDesc td = project.getTupleDesc();
+            Type[] types = new Type[td.numFields()];
+            for (int i = 0; i < types.length; i++) {
+                types[i] = td.getFieldType(i);
+            }
+            return new BatchProject(project.getFieldList(), types, childBatch(project.getChildren()[0]));
+        }
+        JoinPredicate p = plan instanceof HashEquiJoin ? ((HashEquiJoin) plan).getJoinPredicate()
+                : plan instanceof Join ? ((Join) plan).getJoinPredicate() : null;
+        if (p != null && p.getOperator() == Predicate.Op.EQUALS) {
+            OpIterator[] children = ((Operator) plan).getChildren();
+            return new BatchHashJoin(p, childBatch(children[0]), childBatch(children[1]));
+        }
+        if (plan instanceof Aggregate) {
+            Aggregate aggregate = (Aggregate) plan;
+            OpIterator child = aggregate.getChildren()[0];
+            boolean intField = child.getTupleDesc().getFieldType(aggregate.aggregateField()) == Type.INT_TYPE;
+            if (BatchAggregate.supports(aggregate.aggregateOp(), intField)) {
+                return new BatchAggregate(childBatch(child), aggregate.aggregateField(), aggregate.groupField(),
+                        aggregate.aggregateOp());
+            }
+        }
+        return null;
+    }
+
+    /* the batch version of a child plan, or the plan under a RowToBatch */
+    private static BatchIterator childBatch(OpIterator plan) {
+        BatchIterator batch = toBatch(plan);
+        return batch != null ? batch : new RowToBatch(vectorize(plan));
+    }
+}
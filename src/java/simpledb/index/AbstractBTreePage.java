@@ -4,10 +4,9 @@ import simpledb.common.Debug;
 import simpledb.storage.BufferPool;
 import simpledb.storage.Page;
 import simpledb.storage.PageId;
+import simpledb.storage.SlotBitmap;
 import simpledb.transaction.TransactionId;
 
-import java.util.function.Function;
-
 
 /**
  * AbstractBTreePage which extracts the common behaviour of all the BTreePages
@@ -23,7 +22,7 @@ public abstract class AbstractBTreePage implements Page {
     protected boolean dirty = false;
     protected TransactionId dirtier = null;
 
-    protected byte[] header;
+    protected SlotBitmap header;
     protected byte[] oldData;
 
     public AbstractBTreePage(BTreePageId pid) {
@@ -56,35 +55,18 @@ public abstract class AbstractBTreePage implements Page {
         if (dirty) this.dirtier = tid;
     }
 
-    /**
-     * Functional Programming Interface for calculating header offset
-     */
-    private final Function<Integer, int[]> calHeader = i -> new int[]{i % 8, (i - i % 8) / 8};
-
     /**
      * Returns true if associated slot on this page is filled.
      */
     public boolean isSlotUsed(int i) {
-//        int headerBit = i % 8;
-//        int headerByte = (i - headerBit) / 8;
-        int headerBit = calHeader.apply(i)[0];
-        int headerByte = calHeader.apply(i)[1];
-        return (header[headerByte] & (1 << headerBit)) != 0;
+        return header.isUsed(i);
     }
 
     /**
      * Abstraction to fill or clear a slot on this page.
      */
     public void markSlotUsed(int i, boolean value) {
-//        int headerBit = i % 8;
-//        int headerByte = (i - headerBit) / 8;
-        int headerBit = calHeader.apply(i)[0];
-        int headerByte = calHeader.apply(i)[1];
-
         Debug.log(1, "BTreePage.setSlot: setting slot %d to %b", i, value);
-        if (value)
-            header[headerByte] |= (byte) (1 << headerBit);
-        else
-            header[headerByte] &= (byte) (0xFF ^ (1 << headerBit));
+        header.set(i, value);
     }
 }
@@ -0,0 +1,200 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.*;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * BTreeBulkLoader builds a BTreeFile bottom-up from a stream of tuples,
+ * without going through the buffer pool or logging every page.
+ * <p>
+ * The tuples are first sorted on the key with an {@link ExternalSort}, in
+ * a bounded number of pages of memory.  Once their number is known, so is
+ * the shape of the whole tree: the leaves, each level of internal pages
+ * above them, and the page number of every one of them, with the entries
+ * of each level spread evenly over its pages, so that every page but the
+ * root is at least half full.  The file is then written front to back in
+ * one pass: the root pointer page, the leaves as the sorted tuples stream
+ * out of the sort, then the internal levels, lowest first, from the first
+ * key of each child, which is all that is kept in memory.  Parent and
+ * sibling pointers are filled in as each page is written.
+ * <p>
+ * As with {@link BulkLoader}, the file is then forced and a single
+ * BULK_LOAD record logged, the table is added to the catalog, and the
+ * table must not be in use by any transaction while it is loaded.
+ */
+public class BTreeBulkLoader {
+
+    /* pages are written in batches of this many */
+    private static final int WRITE_BATCH_PAGES = 16;
+
+    /**
+     * Load a B+ tree file from tuples.
+     *
+     * @param tuples      the tuples to load, in any order
+     * @param file        the file to create, replacing it if it exists
+     * @param td          the description of the tuples
+     * @param keyField    the index of the field the tree is keyed on
+     * @param tableName   the name to add the table to the catalog under
+     * @param memoryPages the memory budget of the sort, in pages; at least 2
+     * @return the loaded file
+     */
+    public static BTreeFile load(Iterator<Tuple> tuples, File file, TupleDesc td, int keyField,
+                                 String tableName, int memoryPages) throws IOException, DbException {
+        BTreeFile bf = new BTreeFile(file, keyField, td);
+        // pages need the catalog to know their tuple descriptor
+        Database.getCatalog().addTable(bf, tableName);
+        Database.getBufferPool().discardPages(bf.getId());
+
+        ExternalSort sort = new ExternalSort(td, new BTreeFileEncoder.TupleComparator(keyField), memoryPages);
+        try {
+            while (tuples.hasNext()) {
+                sort.add(tuples.next());
+            }
+            long numTuples = sort.size();
+            write(bf, numTuples, sort.sorted());
+        } finally {
+            sort.close();
+        }
+        return bf;
+    }
+
+    /**
+     * Load a B+ tree file from a text file with one tuple per line, its
+     * fields separated by the given character.
+     *
+     * @see #load(Iterator, File, TupleDesc, int, String, int)
+     * @see BulkLoader#readCsv(BufferedReader, TupleDesc, char)
+     */
+    public static BTreeFile load(File csv, char separator, File file, TupleDesc td, int keyField,
+                                 String tableName, int memoryPages) throws IOException, DbException {
+        try (BufferedReader in = new BufferedReader(new FileReader(csv))) {
+            return load(BulkLoader.readCsv(in, td, separator), file, td, keyField, tableName, memoryPages);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Write the tree of numTuples sorted tuples to the file of bf.
+     */
+    private static void write(BTreeFile bf, long numTuples, Iterator<Tuple> sorted)
+            throws IOException, DbException {
+        int tableId = bf.getId();
+        int keyField = bf.keyField();
+        TupleDesc td = bf.getTupleDesc();
+        Type[] types = new Type[td.numFields()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = td.getFieldType(i);
+        }
+        int pageSize = BufferPool.getPageSize();
+        int leafCapacity = new BTreeLeafPage(new BTreePageId(tableId, 1, BTreePageId.LEAF),
+                BTreePage.createEmptyPageData(), keyField).getMaxTuples();
+        int fanOut = new BTreeInternalPage(new BTreePageId(tableId, 1, BTreePageId.INTERNAL),
+                BTreePage.createEmptyPageData(), keyField).getMaxEntries() + 1;
+
+        // the number of pages of each level, leaves first, and the number of the first page of each
+        List<Integer> levelPages = new ArrayList<>();
+        levelPages.add((int) Math.max(1, (numTuples + leafCapacity - 1) / leafCapacity));
+        while (levelPages.get(levelPages.size() - 1) > 1) {
+            int below = levelPages.get(levelPages.size() - 1);
+            levelPages.add((below + fanOut - 1) / fanOut);
+        }
+        int levels = levelPages.size();
+        int[] firstPage = new int[levels];
+        firstPage[0] = 1;
+        for (int k = 1; k < levels; k++) {
+            firstPage[k] = firstPage[k - 1] + levelPages.get(k - 1);
+        }
+        int root = firstPage[levels - 1];
+        int numPages = root;
+
+        try (FileOutputStream fos = new FileOutputStream(bf.getFile())) {
+            OutputStream out = new BufferedOutputStream(fos, WRITE_BATCH_PAGES * pageSize);
+            out.write(BTreeFileEncoder.convertToRootPtrPage(root,
+                    levels > 1 ? BTreePageId.INTERNAL : BTreePageId.LEAF, 0));
+
+            // the leaves; keep the first key of each for the level above
+            int leaves = levelPages.get(0);
+            Field[] lowKeys = new Field[leaves];
+            for (int j = 0; j < leaves; j++) {
+                int count = (int) share(numTuples, leaves, j);
+                List<Tuple> page = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    page.add(sorted.next());
+                }
+                if (count > 0) {
+                    lowKeys[j] = page.get(0).getField(keyField);
+                }
+                byte[] data = BTreeFileEncoder.convertToLeafPage(page, pageSize, td.numFields(), types, keyField);
+                BTreeLeafPage leaf = new BTreeLeafPage(pageId(tableId, firstPage, 0, j), data, keyField);
+                leaf.setParentId(parentId(tableId, firstPage, levelPages, 0, j));
+                leaf.setLeftSiblingId(j > 0 ? pageId(tableId, firstPage, 0, j - 1) : null);
+                leaf.setRightSiblingId(j < leaves - 1 ? pageId(tableId, firstPage, 0, j + 1) : null);
+                out.write(leaf.getPageData());
+            }
+
+            // each internal level, from the first keys of the level below
+            for (int k = 1; k < levels; k++) {
+                int children = levelPages.get(k - 1);
+                int pages = levelPages.get(k);
+                int childCategory = k == 1 ? BTreePageId.LEAF : BTreePageId.INTERNAL;
+                Field[] keys = new Field[pages];
+                int child = 0;
+                for (int j = 0; j < pages; j++) {
+                    int count = (int) share(children, pages, j);
+                    keys[j] = lowKeys[child];
+                    List<BTreeEntry> entries = new ArrayList<>(count - 1);
+                    for (int m = child + 1; m < child + count; m++) {
+                        entries.add(new BTreeEntry(lowKeys[m], pageId(tableId, firstPage, k - 1, m - 1),
+                                pageId(tableId, firstPage, k - 1, m)));
+                    }
+                    child += count;
+                    byte[] data = BTreeFileEncoder.convertToInternalPage(entries, pageSize,
+                            types[keyField], childCategory);
+                    BTreeInternalPage internal = new BTreeInternalPage(pageId(tableId, firstPage, k, j),
+                            data, keyField);
+                    internal.setParentId(parentId(tableId, firstPage, levelPages, k, j));
+                    out.write(internal.getPageData());
+                }
+                lowKeys = keys;
+            }
+            out.flush();
+            fos.getChannel().force(true);
+        }
+        Database.getLogFile().logBulkLoad(tableId, numPages);
+    }
+
+    /* the number of items in group g when n items are spread evenly over the given number of groups */
+    private static long share(long n, int groups, int g) {
+        return n / groups + (g < n % groups ? 1 : 0);
+    }
+
+    /* the group item i falls in, when n items are spread as by share */
+    private static int groupOf(long i, long n, int groups) {
+        long q = n / groups;
+        long r = n % groups;
+        return (int) (i < r * (q + 1) ? i / (q + 1) : r + (i - r * (q + 1)) / q);
+    }
+
+    /* the id of page j of the given level; level 0 are the leaves */
+    private static BTreePageId pageId(int tableId, int[] firstPage, int level, int j) {
+        return new BTreePageId(tableId, firstPage[level] + j,
+                level == 0 ? BTreePageId.LEAF : BTreePageId.INTERNAL);
+    }
+
+    /* the id of the parent of page j of the given level: the root's is the root pointer page */
+    private static BTreePageId parentId(int tableId, int[] firstPage, List<Integer> levelPages,
+                                        int level, int j) {
+        if (level == levelPages.size() - 1) {
+            return BTreeRootPtrPage.getId(tableId);
+        }
+        return pageId(tableId, firstPage, level + 1, groupOf(j, levelPages.get(level), levelPages.get(level + 1)));
+    }
+}
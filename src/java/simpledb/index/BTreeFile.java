@@ -29,6 +29,7 @@ import java.util.*;
 public class BTreeFile implements DbFile {
 
     private final File file;
+    private final PageChannel channel;
     private final TupleDesc td;
     private final int tableId;
     private final int keyField;
@@ -39,10 +40,15 @@ public class BTreeFile implements DbFile {
      * @param file - the file that stores the on-disk backing store for this B+ tree
      *             file.
      * @param key  - the field which index is keyed on
-     * @param td   - the tuple descriptor of tuples in the file
+     * @param td   - the tuple descriptor of tuples in the file; all its
+     *             fields must be of fixed length
      */
     public BTreeFile(File file, int key, TupleDesc td) {
+        if (td != null && !td.isFixedLength()) {
+            throw new IllegalArgumentException("a BTreeFile cannot store fields of variable length: " + td);
+        }
         this.file = file;
+        this.channel = new PageChannel(file);
         this.tableId = file.getAbsoluteFile().hashCode();
         this.keyField = key;
         this.td = td;
@@ -90,34 +96,15 @@ public class BTreeFile implements DbFile {
     public Page readPage(PageId pid) {
         BTreePageId id = (BTreePageId) pid;
 
-        try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(file))) {
+        try {
             if (id.getPageCategory() == BTreePageId.ROOT_PTR) {
                 byte[] pageBuf = new byte[BTreeRootPtrPage.getPageSize()];
-                int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
-                if (retval == -1) {
-                    throw new IllegalArgumentException("Read past end of table");
-                }
-                if (retval < BTreeRootPtrPage.getPageSize()) {
-                    throw new IllegalArgumentException("Unable to read "
-                            + BTreeRootPtrPage.getPageSize() + " bytes from BTreeFile");
-                }
+                readFully(0, pageBuf);
                 Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
                 return new BTreeRootPtrPage(id, pageBuf);
             } else {
                 byte[] pageBuf = new byte[BufferPool.getPageSize()];
-                if (bis.skip(BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) !=
-                        BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) {
-                    throw new IllegalArgumentException(
-                            "Unable to seek to correct place in BTreeFile");
-                }
-                int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
-                if (retval == -1) {
-                    throw new IllegalArgumentException("Read past end of table");
-                }
-                if (retval < BufferPool.getPageSize()) {
-                    throw new IllegalArgumentException("Unable to read "
-                            + BufferPool.getPageSize() + " bytes from BTreeFile");
-                }
+                readFully(pageOffset(id.getPageNumber()), pageBuf);
                 Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
                 if (id.getPageCategory() == BTreePageId.INTERNAL) {
                     return new BTreeInternalPage(id, pageBuf, keyField);
@@ -130,8 +117,22 @@ public class BTreeFile implements DbFile {
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        // Close the file on success or error
-        // Ignore failures closing the file
+    }
+
+    /* the offset of the page with the given number; page 0 is the root pointer page */
+    private static long pageOffset(int pageNumber) {
+        return BTreeRootPtrPage.getPageSize() + (long) (pageNumber - 1) * BufferPool.getPageSize();
+    }
+
+    private void readFully(long position, byte[] pageBuf) throws IOException {
+        int retval = channel.read(position, pageBuf);
+        if (retval == -1) {
+            throw new IllegalArgumentException("Read past end of table");
+        }
+        if (retval < pageBuf.length) {
+            throw new IllegalArgumentException("Unable to read "
+                    + pageBuf.length + " bytes from BTreeFile");
+        }
     }
 
     /**
@@ -145,12 +146,7 @@ public class BTreeFile implements DbFile {
         BTreePageId id = (BTreePageId) page.getId();
 
         byte[] data = page.getPageData();
-        RandomAccessFile rf = new RandomAccessFile(file, "rw");
-        if (id.getPageCategory() != BTreePageId.ROOT_PTR) {
-            rf.seek(BTreeRootPtrPage.getPageSize() + (long) (page.getId().getPageNumber() - 1) * BufferPool.getPageSize());
-        }
-        rf.write(data);
-        rf.close();
+        channel.write(id.getPageCategory() == BTreePageId.ROOT_PTR ? 0 : pageOffset(id.getPageNumber()), data);
     }
 
     /**
@@ -1003,13 +999,10 @@ public class BTreeFile implements DbFile {
         synchronized (this) {
             if (file.length() == 0) {
                 // create the root pointer page and the root page
-                BufferedOutputStream bw = new BufferedOutputStream(
-                        new FileOutputStream(file, true));
                 byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
                 byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-                bw.write(emptyRootPtrData);
-                bw.write(emptyLeafData);
-                bw.close();
+                channel.append(emptyRootPtrData);
+                channel.append(emptyLeafData);
             }
         }
 
@@ -1060,11 +1053,8 @@ public class BTreeFile implements DbFile {
         if (headerId == null) {
             synchronized (this) {
                 // create the new page
-                BufferedOutputStream bw = new BufferedOutputStream(
-                        new FileOutputStream(file, true));
                 byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-                bw.write(emptyData);
-                bw.close();
+                channel.append(emptyData);
                 emptyPageNo = numPages();
             }
         }
@@ -1091,10 +1081,7 @@ public class BTreeFile implements DbFile {
         BTreePageId newPageId = new BTreePageId(tableId, emptyPageNo, pgcateg);
 
         // write empty page to disk
-        RandomAccessFile rf = new RandomAccessFile(file, "rw");
-        rf.seek(BTreeRootPtrPage.getPageSize() + (long) (emptyPageNo - 1) * BufferPool.getPageSize());
-        rf.write(BTreePage.createEmptyPageData());
-        rf.close();
+        channel.write(pageOffset(emptyPageNo), BTreePage.createEmptyPageData());
 
         // make sure the page is not in the buffer pool	or in the local cache
         Database.getBufferPool().discardPage(newPageId);
@@ -1224,6 +1211,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 
     final TransactionId tid;
     final BTreeFile f;
+    final ReadAhead readAhead;
 
     /**
      * Constructor for this iterator
@@ -1234,6 +1222,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
     public BTreeFileIterator(BTreeFile f, TransactionId tid) {
         this.f = f;
         this.tid = tid;
+        this.readAhead = new ReadAhead(tid, p -> ((BTreeLeafPage) p).getRightSiblingId());
     }
 
     /**
@@ -1244,6 +1233,8 @@ class BTreeFileIterator extends AbstractDbFileIterator {
                 tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
         BTreePageId root = rootPtr.getRootId();
         curp = f.findLeafPage(tid, root, null);
+        readAhead.reset();
+        readAhead.pageRead(curp);
         it = curp.iterator();
     }
 
@@ -1265,6 +1256,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
             } else {
                 curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
                         nextp, Permissions.READ_ONLY);
+                readAhead.pageRead(curp);
                 it = curp.iterator();
                 if (!it.hasNext())
                     it = null;
@@ -1292,6 +1284,11 @@ class BTreeFileIterator extends AbstractDbFileIterator {
         it = null;
         curp = null;
     }
+
+    @Override
+    public void hintSequential() {
+        readAhead.hintSequential();
+    }
 }
 
 /**
@@ -1306,6 +1303,7 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
     final TransactionId tid;
     final BTreeFile f;
     final IndexPredicate ipred;
+    final ReadAhead readAhead;
 
     /**
      * Constructor for this iterator
@@ -1318,6 +1316,11 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
         this.f = f;
         this.tid = tid;
         this.ipred = ipred;
+        // a scan with an upper bound stops at a leaf that cannot be told in
+        // advance, so reading ahead would read past it
+        Op op = ipred.getOp();
+        this.readAhead = op == Op.EQUALS || op == Op.LESS_THAN || op == Op.LESS_THAN_OR_EQ ? null
+                : new ReadAhead(tid, p -> ((BTreeLeafPage) p).getRightSiblingId());
     }
 
     /**
@@ -1334,6 +1337,10 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
         } else {
             curp = f.findLeafPage(tid, root, null);
         }
+        if (readAhead != null) {
+            readAhead.reset();
+            readAhead.pageRead(curp);
+        }
         it = curp.iterator();
     }
 
@@ -1371,6 +1378,9 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
             } else {
                 curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
                         nextp, Permissions.READ_ONLY);
+                if (readAhead != null) {
+                    readAhead.pageRead(curp);
+                }
                 it = curp.iterator();
             }
         }
@@ -1393,4 +1403,11 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
         super.close();
         it = null;
     }
+
+    @Override
+    public void hintSequential() {
+        if (readAhead != null) {
+            readAhead.hintSequential();
+        }
+    }
 }
@@ -5,9 +5,9 @@ import simpledb.common.Type;
 import simpledb.storage.BufferPool;
 import simpledb.storage.Field;
 import simpledb.storage.IntField;
+import simpledb.storage.SlotBitmap;
 
 import java.io.*;
-import java.util.Arrays;
 
 /**
  * Each instance of BTreeHeaderPage stores data for one page of a BTreeFile and 
@@ -55,9 +55,9 @@ public class BTreeHeaderPage extends AbstractBTreePage {
 		}
 
 		// allocate and read the header slots of this page
-		header = new byte[getHeaderSize()];
-		for (int i=0; i<header.length; i++)
-			header[i] = dis.readByte();
+		byte[] headerBytes = new byte[getHeaderSize()];
+		dis.readFully(headerBytes);
+		header = new SlotBitmap(numSlots, headerBytes);
 
 		dis.close();
 
@@ -68,7 +68,7 @@ public class BTreeHeaderPage extends AbstractBTreePage {
 	 * Initially mark all slots in the header used.
 	 */
 	public void init() {
-        Arrays.fill(header, (byte) 0xFF);
+        header.fill(true);
 	}
 
 	/**
@@ -145,13 +145,11 @@ public class BTreeHeaderPage extends AbstractBTreePage {
 
 
 		// create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                // logger.error(e.getMessage());
-            }
+        try {
+            header.writeTo(dos);
+        } catch (IOException e) {
+            // this really shouldn't happen
+            // logger.error(e.getMessage());
         }
 
 		try {
@@ -235,13 +233,6 @@ public class BTreeHeaderPage extends AbstractBTreePage {
 	 * @return the index of the first empty slot or -1 if none exists
 	 */
 	public int getEmptySlot() {
-		for (int i=0; i<header.length; i++) {
-            for (int j = 0; j < 8; j++) {
-                if (!isSlotUsed(i * 8 + j)) {
-                    return i * 8 + j;
-                }
-            }
-        }
-		return -1;
+		return header.nextEmpty(0);
 	}
 }
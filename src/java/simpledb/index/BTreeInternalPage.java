@@ -6,6 +6,7 @@ import simpledb.storage.BufferPool;
 import simpledb.storage.Field;
 import simpledb.storage.IntField;
 import simpledb.storage.RecordId;
+import simpledb.storage.SlotBitmap;
 
 import java.io.*;
 import java.util.Iterator;
@@ -87,9 +88,9 @@ public class BTreeInternalPage extends BTreePage {
         childCategory = dis.readByte();
 
         // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i = 0; i < header.length; i++)
-            header[i] = dis.readByte();
+        byte[] headerBytes = new byte[getHeaderSize()];
+        dis.readFully(headerBytes);
+        header = new SlotBitmap(numSlots, headerBytes);
 
         keys = new Field[numSlots];
         try {
@@ -258,13 +259,11 @@ public class BTreeInternalPage extends BTreePage {
         }
 
         // create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                // logger.error(e.getMessage());
-            }
+        try {
+            header.writeTo(dos);
+        } catch (IOException e) {
+            // this really shouldn't happen
+            // logger.error(e.getMessage());
         }
 
         // create the keys
@@ -320,7 +319,7 @@ public class BTreeInternalPage extends BTreePage {
         }
 
         // padding
-        int zerolen = BufferPool.getPageSize() - (INDEX_SIZE + 1 + header.length +
+        int zerolen = BufferPool.getPageSize() - (INDEX_SIZE + 1 + header.numBytes() +
                 td.getFieldType(keyField).getLen() * (keys.length - 1) + INDEX_SIZE * children.length);
         return getBytes(baos, dos, zerolen);
     }
@@ -463,13 +462,7 @@ public class BTreeInternalPage extends BTreePage {
         }
 
         // find the first empty slot, starting from 1
-        int emptySlot = -1;
-        for (int i = 1; i < numSlots; i++) {
-            if (!isSlotUsed(i)) {
-                emptySlot = i;
-                break;
-            }
-        }
+        int emptySlot = header.nextEmpty(1);
 
         if (emptySlot == -1)
             throw new DbException("called insertEntry on page with no empty slots.");
@@ -562,13 +555,9 @@ public class BTreeInternalPage extends BTreePage {
      * Returns the number of empty slots on this page.
      */
     public int getNumEmptySlots() {
-        int cnt = 0;
-        // start from 1 because the first key slot is not used
+        // leave out slot 0 because the first key slot is not used
         // since a node with m keys has m+1 pointers
-        for (int i = 1; i < numSlots; i++)
-            if (!isSlotUsed(i))
-                cnt++;
-        return cnt;
+        return header.numEmpty() - (isSlotUsed(0) ? 0 : 1);
     }
 
 
@@ -697,17 +686,18 @@ class BTreeInternalPageForwardIterator extends BTreeInternalPageIterator {
                     return false;
                 }
             }
-            while (true) {
-                int entry = curEntry++;
-                Field key = p.getKey(entry);
-                BTreePageId childId = p.getChildId(entry);
-                if (key != null && childId != null) {
-                    nextToReturn = new BTreeEntry(key, prevChildId, childId);
-                    nextToReturn.setRecordId(new RecordId(p.pid, entry));
-                    prevChildId = childId;
-                    return true;
-                }
+            // the next entry is in the next used slot
+            int entry = p.header.nextUsed(Math.max(curEntry, 1));
+            if (entry < 0) {
+                return false;
             }
+            curEntry = entry + 1;
+            Field key = p.getKey(entry);
+            BTreePageId childId = p.getChildId(entry);
+            nextToReturn = new BTreeEntry(key, prevChildId, childId);
+            nextToReturn.setRecordId(new RecordId(p.pid, entry));
+            prevChildId = childId;
+            return true;
         } catch (NoSuchElementException e) {
             return false;
         }
@@ -722,10 +712,7 @@ class BTreeInternalPageReverseIterator extends BTreeInternalPageIterator {
 
     public BTreeInternalPageReverseIterator(BTreeInternalPage p) {
         super(p);
-        this.curEntry = p.getMaxEntries();
-        while (!p.isSlotUsed(curEntry) && curEntry > 0) {
-            --curEntry;
-        }
+        this.curEntry = Math.max(p.header.previousUsed(p.getMaxEntries()), 0);
     }
 
     public boolean hasNext() {
@@ -99,9 +99,9 @@ public class BTreeLeafPage extends BTreePage {
         }
 
         // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i = 0; i < header.length; i++)
-            header[i] = dis.readByte();
+        byte[] headerBytes = new byte[getHeaderSize()];
+        dis.readFully(headerBytes);
+        header = new SlotBitmap(numSlots, headerBytes);
 
         tuples = new Tuple[numSlots];
         try {
@@ -233,13 +233,11 @@ public class BTreeLeafPage extends BTreePage {
         }
 
         // create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                // logger.error(e.getMessage());
-            }
+        try {
+            header.writeTo(dos);
+        } catch (IOException e) {
+            // this really shouldn't happen
+            // logger.error(e.getMessage());
         }
 
         // create the tuples
@@ -271,7 +269,7 @@ public class BTreeLeafPage extends BTreePage {
         }
 
         // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length + 3 * INDEX_SIZE); //- numSlots * td.getSize();
+        int zerolen = BufferPool.getPageSize() - (header.numBytes() + td.getSize() * tuples.length + 3 * INDEX_SIZE); //- numSlots * td.getSize();
         return getBytes(baos, dos, zerolen);
     }
 
@@ -309,13 +307,7 @@ public class BTreeLeafPage extends BTreePage {
             throw new DbException("type mismatch, in addTuple");
 
         // find the first empty slot
-        int emptySlot = -1;
-        for (int i = 0; i < numSlots; i++) {
-            if (!isSlotUsed(i)) {
-                emptySlot = i;
-                break;
-            }
-        }
+        int emptySlot = header.nextEmpty(0);
 
         if (emptySlot == -1)
             throw new DbException("called addTuple on page with no empty slots.");
@@ -323,13 +315,11 @@ public class BTreeLeafPage extends BTreePage {
         // find the last key less than or equal to the key being inserted
         int lessOrEqKey = -1;
         Field key = t.getField(keyField);
-        for (int i = 0; i < numSlots; i++) {
-            if (isSlotUsed(i)) {
-                if (tuples[i].getField(keyField).compare(Predicate.Op.LESS_THAN_OR_EQ, key))
-                    lessOrEqKey = i;
-                else
-                    break;
-            }
+        for (int i = header.nextUsed(0); i >= 0; i = header.nextUsed(i + 1)) {
+            if (tuples[i].getField(keyField).compare(Predicate.Op.LESS_THAN_OR_EQ, key))
+                lessOrEqKey = i;
+            else
+                break;
         }
 
         // shift records back or forward to fill empty slot and make room for new record
@@ -438,11 +428,7 @@ public class BTreeLeafPage extends BTreePage {
      * Returns the number of empty slots on this page.
      */
     public int getNumEmptySlots() {
-        int cnt = 0;
-        for (int i = 0; i < numSlots; i++)
-            if (!isSlotUsed(i))
-                cnt++;
-        return cnt;
+        return header.numEmpty();
     }
 
 
@@ -534,15 +520,14 @@ abstract class BTreeLeafPageIterator implements Iterator<Tuple> {
     }
 
     protected boolean findNextTuple(int startTuple, int endTuple, int step) {
-        for (int i = startTuple; i != endTuple; i += step) {
-            Tuple tuple = p.getTuple(i);
-            if (tuple != null) {
-                nextToReturn = tuple;
-                curTuple = i + step;
-                return true;
-            }
+        // jump straight to the next used slot in the direction of travel
+        int i = step > 0 ? p.header.nextUsed(startTuple) : p.header.previousUsed(startTuple);
+        if (i < 0 || (step > 0 ? i >= endTuple : i <= endTuple)) {
+            return false;
         }
-        return false;
+        nextToReturn = p.getTuple(i);
+        curTuple = i + step;
+        return true;
     }
 }
 
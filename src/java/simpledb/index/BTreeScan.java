@@ -5,6 +5,7 @@ import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.execution.IndexPredicate;
 import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate.Op;
 import simpledb.storage.DbFileIterator;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
@@ -26,6 +27,7 @@ public class BTreeScan implements OpIterator {
 	private TupleDesc myTd;
 	private final IndexPredicate ipred;
 	private transient DbFileIterator it;
+	private int tableid;
 	private String tablename;
 	private String alias;
 
@@ -63,6 +65,13 @@ public class BTreeScan implements OpIterator {
 		return this.tablename;
 	}
 
+	/**
+	 * @return the id of the table the operator scans
+	 */
+	public int getTableId() {
+		return this.tableid;
+	}
+
 	/**
 	 * @return Return the alias of the table this operator scans. 
 	 * */
@@ -86,6 +95,7 @@ public class BTreeScan implements OpIterator {
 	public void reset(int tableid, String tableAlias) {
 		this.isOpen=false;
 		this.alias = tableAlias;
+		this.tableid = tableid;
 		this.tablename = Database.getCatalog().getTableName(tableid);
 		if(ipred == null) {
 			this.it = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
@@ -93,6 +103,11 @@ public class BTreeScan implements OpIterator {
 		else {
 			this.it = ((BTreeFile) Database.getCatalog().getDatabaseFile(tableid)).indexIterator(tid, ipred);
 		}
+		// these scans read the leaves to the last one
+		if (ipred == null || ipred.getOp() == Op.GREATER_THAN
+				|| ipred.getOp() == Op.GREATER_THAN_OR_EQ || ipred.getOp() == Op.NOT_EQUALS) {
+			this.it.hintSequential();
+		}
 		myTd = Database.getCatalog().getTupleDesc(tableid);
 		String[] newNames = new String[myTd.numFields()];
 		Type[] newTypes = new Type[myTd.numFields()];
@@ -386,6 +386,7 @@ public class BTreeUtility {
 	private static BTreeFile getbTreeFile(int columns, List<List<Integer>> tuples, int keyField) throws IOException, DbException, TransactionAbortedException {
 		File hFile = File.createTempFile("table", ".dat");
 		hFile.deleteOnExit();
+		FreeSpaceMap.fileFor(hFile).deleteOnExit();
 
 		File bFile = File.createTempFile("table_index", ".dat");
 		bFile.deleteOnExit();
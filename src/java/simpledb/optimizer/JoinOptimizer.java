@@ -3,6 +3,8 @@ package simpledb.optimizer;
 import simpledb.ParsingException;
 import simpledb.common.Database;
 import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.storage.BufferPool;
 
 import javax.swing.*;
 import javax.swing.tree.DefaultMutableTreeNode;
@@ -48,6 +50,20 @@ public class JoinOptimizer {
      */
     public static OpIterator instantiateJoin(LogicalJoinNode lj,
                                              OpIterator plan1, OpIterator plan2) throws ParsingException {
+        return instantiateJoin(lj, plan1, plan2, false);
+    }
+
+    /**
+     * Return the iterator for a given logical join, as
+     * {@link #instantiateJoin(LogicalJoinNode, OpIterator, OpIterator)}, but
+     * with a {@link SortMergeJoin} for an inequality when sortMerge is set.
+     *
+     * @param sortMerge
+     *            whether an inequality is joined by a sort-merge join rather
+     *            than nested loops, as {@link #prefersSortMerge} finds
+     */
+    public static OpIterator instantiateJoin(LogicalJoinNode lj, OpIterator plan1, OpIterator plan2,
+                                             boolean sortMerge) throws ParsingException {
 
         int t1id, t2id;
         OpIterator j;
@@ -72,7 +88,11 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        if (lj.p == Predicate.Op.EQUALS) {
+        if (lj.p == Predicate.Op.EQUALS && SortMergeJoin.isSortedOn(plan1, t1id)
+                && SortMergeJoin.isSortedOn(plan2, t2id)) {
+            // both sides come in key order: merging them reads each once and keeps no table
+            j = new SortMergeJoin(p, plan1, plan2);
+        } else if (lj.p == Predicate.Op.EQUALS) {
             try {
                 // dynamically load HashEquiJoin -- if it doesn't exist, just
                 // fall back on regular join
@@ -83,6 +103,8 @@ public class JoinOptimizer {
             } catch (Exception e) {
                 j = new Join(p, plan1, plan2);
             }
+        } else if (sortMerge && isMergeable(lj.p) && !(lj instanceof LogicalSubplanJoinNode)) {
+            j = new SortMergeJoin(p, plan1, plan2);
         } else {
             j = new Join(p, plan1, plan2);
         }
@@ -128,8 +150,137 @@ public class JoinOptimizer {
             // HINT: You may need to use the variable "j" if you implemented
             // a join algorithm that's more complicated than a basic
             // nested-loops join.
-            return cost1 + card1 * cost2 + card1 * card2;
+            if (j.p == Predicate.Op.EQUALS) {
+                double cost = estimateHashJoinCost(j, card1, card2, cost1, cost2);
+                if (isKey(j.t1Alias, j.f1PureName) && isKey(j.t2Alias, j.f2PureName)) {
+                    cost = Math.min(cost, estimateSortMergeJoinCost(j, card1, card2, cost1, cost2));
+                }
+                return cost;
+            }
+            double nestedLoops = cost1 + card1 * cost2 + card1 * card2;
+            if (isMergeable(j.p)) {
+                return Math.min(nestedLoops, estimateSortMergeJoinCost(j, card1, card2, cost1, cost2));
+            }
+            return nestedLoops;
+        }
+    }
+
+    /**
+     * @return whether the inequality join j is cheaper as a sort-merge join
+     *         than as a nested-loops join, as {@link #estimateJoinCost}
+     *         estimates them; false for any other join
+     */
+    public boolean prefersSortMerge(LogicalJoinNode j, int card1, int card2, double cost1, double cost2) {
+        if (j instanceof LogicalSubplanJoinNode || j.p == Predicate.Op.EQUALS || !isMergeable(j.p)) {
+            return false;
+        }
+        return estimateSortMergeJoinCost(j, card1, card2, cost1, cost2) < cost1 + card1 * cost2 + card1 * card2;
+    }
+
+    /* whether a SortMergeJoin can join on the operator */
+    private static boolean isMergeable(Predicate.Op op) {
+        return op != Predicate.Op.NOT_EQUALS && op != Predicate.Op.LIKE;
+    }
+
+    /**
+     * Estimate the cost of a {@link SortMergeJoin}: both sides are read
+     * once, and sorted unless they are tables in B+ trees keyed on the join
+     * field; then each tuple is compared about once, and each joined tuple
+     * made once.  An inequality join keeps the inner tuples it has matched,
+     * and once they do not fit in the work memory of the buffer pool, the
+     * ones that did not are read back for each outer tuple.
+     */
+    private double estimateSortMergeJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2) {
+        double cost = cost1 + cost2 + card1 + card2
+                + estimateSortCost(j.t1Alias, j.f1PureName, card1)
+                + estimateSortCost(j.t2Alias, j.f2PureName, card2);
+        if (j.p == Predicate.Op.EQUALS) {
+            return cost;
         }
+        // the joined tuples, as estimateTableJoinCardinality counts them
+        cost += 0.3 * card1 * card2;
+        boolean outerIsLeft = j.p != Predicate.Op.LESS_THAN && j.p != Predicate.Op.LESS_THAN_OR_EQ;
+        TableStats inner = statsFor(outerIsLeft ? j.t2Alias : j.t1Alias);
+        if (inner != null) {
+            double pages = (outerIsLeft ? card2 : card1) * inner.avgTupleSize() / BufferPool.getPageSize();
+            double spilled = Math.max(0, pages - Database.getBufferPool().getWorkMemory());
+            // about half the inner side is matched on average
+            cost += (outerIsLeft ? card1 : card2) * spilled / 2 * inner.ioCostPerPage();
+        }
+        return cost;
+    }
+
+    /*
+     * The cost of sorting a side of a join on a field: nothing for a table
+     * in a B+ tree keyed on it, a comparison per tuple per halving in
+     * memory, and writing and reading each page once per merge pass when
+     * the side does not fit in the work memory of the buffer pool.
+     */
+    private double estimateSortCost(String alias, String field, int card) {
+        if (isKey(alias, field) || card <= 1) {
+            return 0;
+        }
+        double cost = card * (Math.log(card) / Math.log(2));
+        TableStats stats = statsFor(alias);
+        if (stats == null) {
+            return cost;
+        }
+        int memory = Database.getBufferPool().getWorkMemory();
+        double pages = card * stats.avgTupleSize() / BufferPool.getPageSize();
+        if (pages <= memory) {
+            return cost;
+        }
+        // replacement selection makes runs of about twice the memory, merged memory at a time
+        double runs = Math.max(2, pages / (2.0 * memory));
+        double passes = Math.max(1, Math.ceil(Math.log(runs) / Math.log(memory)));
+        return cost + 2 * pages * stats.ioCostPerPage() * passes;
+    }
+
+    /* whether the table with the given alias is a B+ tree keyed on the field, so scans of it come in its order */
+    private boolean isKey(String alias, String field) {
+        Integer tableId = alias == null ? null : p.getTableAliasToIdMapping().get(alias);
+        if (tableId == null || !(Database.getCatalog().getDatabaseFile(tableId) instanceof BTreeFile)) {
+            return false;
+        }
+        BTreeFile f = (BTreeFile) Database.getCatalog().getDatabaseFile(tableId);
+        return field.equals(f.getTupleDesc().getFieldName(f.keyField()));
+    }
+
+    /**
+     * Estimate the cost of a {@link HashEquiJoin}: both sides are read once
+     * and every tuple is hashed once.  A left side larger than the work
+     * memory of the buffer pool is partitioned: the tuples of both sides
+     * that are not in the partition kept in memory are written to disk and
+     * read back, once for each time they are partitioned.
+     */
+    private double estimateHashJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2) {
+        double cost = cost1 + cost2 + card1 + card2;
+        TableStats stats1 = statsFor(j.t1Alias);
+        TableStats stats2 = statsFor(j.t2Alias);
+        if (stats1 == null || stats2 == null) {
+            return cost;
+        }
+        int memory = Database.getBufferPool().getWorkMemory();
+        double pages1 = card1 * stats1.avgTupleSize() / BufferPool.getPageSize();
+        double pages2 = card2 * stats2.avgTupleSize() / BufferPool.getPageSize();
+        if (pages1 <= memory) {
+            return cost;
+        }
+        int fanout = Math.min(HashEquiJoin.MAX_FANOUT, memory);
+        // one partition of fanout stays in memory, unless it does not fit
+        double spilled = pages1 / fanout <= memory ? (fanout - 1.0) / fanout : 1;
+        // partitions that do not fit are partitioned again
+        double passes = Math.ceil(Math.log(pages1 / memory) / Math.log(fanout));
+        double io = pages1 * stats1.ioCostPerPage() + pages2 * stats2.ioCostPerPage();
+        return cost + 2 * io * (spilled + Math.max(0, passes - 1));
+    }
+
+    /* the stats of the table with the given alias in the plan, or null if there are none */
+    private TableStats statsFor(String alias) {
+        Integer tableId = p.getTableAliasToIdMapping().get(alias);
+        return tableId == null ? null : TableStats.getTableStats(Database.getCatalog().getTableName(tableId));
     }
 
     /**
@@ -485,7 +636,7 @@ public class JoinOptimizer {
      * @param field
      *            The pure name of the field
      */
-    private boolean isPkey(String tableAlias, String field) {
+    boolean isPkey(String tableAlias, String field) {
         int tid1 = p.getTableId(tableAlias);
         String pkey1 = Database.getCatalog().getPrimaryKey(tid1);
 
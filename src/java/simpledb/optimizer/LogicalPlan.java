@@ -40,8 +40,9 @@ public class LogicalPlan {
     private boolean hasAgg = false;
     private String aggOp;
     private String aggField;
-    private boolean oByAsc, hasOrderBy = false;
-    private String oByField;
+    private final List<String> oByFields = new ArrayList<>();
+    private final List<Boolean> oByAscs = new ArrayList<>();
+    private int limit = -1;
     private String query;
 //    private Query owner;
 
@@ -208,16 +209,27 @@ public class LogicalPlan {
         hasAgg = true;
     }
 
-    /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
-        a single ORDER BY field.
+    /** Add an ORDER BY expression in the specified order on the specified field.  Fields added
+        later order the tuples that are equal on the fields added before them.
         @param field the field to order by
         @param asc true if should be ordered in ascending order, false for descending order
      */
     public void addOrderBy(String field, boolean asc) throws ParsingException {
         field=disambiguateName(field);
-        oByField = field;
-        oByAsc = asc;
-        hasOrderBy = true;
+        oByFields.add(field);
+        oByAscs.add(asc);
+    }
+
+    /** Limit the query to its first tuples, in the order of its ORDER BY if it has one.
+        @param limit the number of tuples to return, or -1 for all of them
+     */
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    /** @return the number of tuples the query returns at most, or -1 if there is no limit */
+    public int getLimit() {
+        return limit;
     }
 
     /** Given a name of a field, try to figure out what table it belongs to by looking
@@ -350,6 +362,17 @@ public class LogicalPlan {
 
         joins = jo.orderJoins(statsMap,filterSelectivities,explain);
 
+        // the estimated cardinality and cost of each subplan, where there are stats for its tables
+        Map<String,Integer> cards = new HashMap<>();
+        Map<String,Double> costs = new HashMap<>();
+        for (String alias : subplanMap.keySet()) {
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(getTableId(alias)));
+            if (s != null) {
+                cards.put(alias, s.estimateTableCardinality(filterSelectivities.get(alias)));
+                costs.put(alias, s.estimateScanCost());
+            }
+        }
+
         for (LogicalJoinNode lj : joins) {
             OpIterator plan1;
             OpIterator plan2;
@@ -382,7 +405,19 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown table in WHERE clause " + lj.t2Alias);
 
             OpIterator j;
-            j = JoinOptimizer.instantiateJoin(lj, plan1, plan2);
+            Integer card1 = cards.remove(t1name);
+            Integer card2 = isSubqueryJoin ? null : cards.remove(t2name);
+            Double cost1 = costs.remove(t1name);
+            Double cost2 = isSubqueryJoin ? null : costs.remove(t2name);
+            if (card1 != null && card2 != null) {
+                j = JoinOptimizer.instantiateJoin(lj, plan1, plan2,
+                        jo.prefersSortMerge(lj, card1, card2, cost1, cost2));
+                cards.put(t1name, jo.estimateJoinCardinality(lj, card1, card2,
+                        jo.isPkey(lj.t1Alias, lj.f1PureName), jo.isPkey(lj.t2Alias, lj.f2PureName), statsMap));
+                costs.put(t1name, jo.estimateJoinCost(lj, card1, card2, cost1, cost2));
+            } else {
+                j = JoinOptimizer.instantiateJoin(lj, plan1, plan2);
+            }
             subplanMap.put(t1name, j);
 
             if (!isSubqueryJoin) {
@@ -472,8 +507,16 @@ public class LogicalPlan {
             node = aggNode;
         }
 
-        if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+        if (!oByFields.isEmpty()) {
+            int[] fields = new int[oByFields.size()];
+            boolean[] ascs = new boolean[oByFields.size()];
+            for (int j = 0; j < fields.length; j++) {
+                fields[j] = node.getTupleDesc().fieldNameToIndex(oByFields.get(j));
+                ascs[j] = oByAscs.get(j);
+            }
+            node = new OrderBy(fields, ascs, limit, node);
+        } else if (limit >= 0) {
+            node = new Limit(limit, node);
         }
 
         return new Project(outFields, outTypes, node);
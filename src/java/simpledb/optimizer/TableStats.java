@@ -7,10 +7,12 @@ import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.execution.Predicate;
 import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
 import simpledb.storage.*;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -77,6 +79,8 @@ public class TableStats {
     private final int tableId;
     private final TupleDesc tupleDesc;
     private int totalTuples;
+    /* the bytes the tuples take, as stored */
+    private long totalBytes;
     private final Map<Integer, IntHistogram> intHistogramMap;
     private final Map<Integer, StringHistogram> stringHistogramMap;
 
@@ -95,7 +99,7 @@ public class TableStats {
 
         tableId = tableid;
         DbFile table = Database.getCatalog().getDatabaseFile(tableId);
-        pageNum = ((HeapFile) table).numPages();
+        pageNum = diskPages(table);
 
         tupleDesc = table.getTupleDesc();
         intHistogramMap = new ConcurrentHashMap<>();
@@ -110,6 +114,23 @@ public class TableStats {
         }
     }
 
+    /**
+     * @return the pages a scan of the table reads from disk; a compressed
+     *         table reads fewer than it decompresses into
+     */
+    private static int diskPages(DbFile table) {
+        if (table instanceof CompressedHeapFile) {
+            return ((CompressedHeapFile) table).diskPages();
+        }
+        if (table instanceof SlottedHeapFile) {
+            return ((SlottedHeapFile) table).numPages();
+        }
+        if (table instanceof BTreeFile) {
+            return ((BTreeFile) table).numPages();
+        }
+        return ((HeapFile) table).numPages();
+    }
+
     /**
      * Help construct histogram
      */
@@ -127,6 +148,7 @@ public class TableStats {
        while (seqScan.hasNext()) {
            Tuple tuple = seqScan.next();
            totalTuples++;
+           totalBytes += storedSize(tuple);
            for (int i = 0; i < numOfFields; i++) {
                if (fieldTypeIsInt(i)) {
                     int value = getIntFieldVal(tuple, i);
@@ -164,6 +186,23 @@ public class TableStats {
         seqScan.close();
     }
 
+    /**
+     * @return the bytes a tuple takes: VARCHARs their length and the bytes
+     *         of their value, other fields their fixed length
+     */
+    private int storedSize(Tuple tuple) {
+        int size = 0;
+        for (int i = 0; i < tupleDesc.numFields(); i++) {
+            Type type = tupleDesc.getFieldType(i);
+            if (type.isFixedLength()) {
+                size += type.getLen();
+            } else {
+                size += 2 + getStringFieldVal(tuple, i).getBytes(StandardCharsets.UTF_8).length;
+            }
+        }
+        return size;
+    }
+
     /**
      * return true if the field type is int
      */
@@ -235,6 +274,25 @@ public class TableStats {
         return stringHistogramMap.get(fieldIndex).estimateSelectivity(op, ((StringField) constant).getValue());
     }
 
+    /**
+     * The average size of the table's tuples, as measured when the stats
+     * were built; {@link TupleDesc#getSize()} only estimates it for tuples
+     * with fields of variable length.
+     *
+     * @return the average size, in bytes, of a tuple of the table
+     */
+    public double avgTupleSize() {
+        return totalTuples == 0 ? tupleDesc.getSize() : (double) totalBytes / totalTuples;
+    }
+
+    /**
+     * @return the cost of reading a page of the table, as given to the
+     *         constructor
+     */
+    public int ioCostPerPage() {
+        return ioCostPerPage;
+    }
+
     /**
      * return the total number of tuples in this table
      * */
@@ -8,9 +8,20 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -20,6 +31,15 @@ import java.util.concurrent.ConcurrentHashMap;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * Scans can have pages read ahead of them, asynchronously, with
+ * {@link #prefetch}.  Pages are read ahead without locks: a page that is
+ * not in the pool is the committed page on disk, since dirty pages are
+ * never evicted, and the scan locks it in {@link #getPage} when it gets
+ * there.  At most a budget of pages read ahead and
+ * not asked for yet are kept in the pool, and they are cached as pages
+ * accessed once, which the replacement policy gives up before the pages in
+ * use, so read-ahead cannot push the hot set out of the pool.
  */
 public class BufferPool {
 
@@ -34,22 +54,105 @@ public class BufferPool {
      constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
-    /**
-     * Creates a BufferPool that caches up to numPages pages.
-     */
+    /** A pool is only split into shards once every shard gets at least this many pages. */
+    private static final int MIN_PAGES_PER_SHARD = 64;
+
+    /** Default for {@link #setPrefetchDepth(int)} */
+    public static final int DEFAULT_PREFETCH_DEPTH = 8;
+    /* pages are read ahead by this many threads, shared by all pools */
+    private static final int PREFETCH_THREADS = 2;
+
+    private static final class PrefetchThreads {
+        static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(PREFETCH_THREADS, r -> {
+            Thread t = new Thread(r, "BufferPool prefetcher");
+            t.setDaemon(true);
+            return t;
+        });
+    }
 
     private final int numPages;
-    private final Map<PageId, Page> pageCache;
-    // for Lab2
-    private final LRUEvict evict;
+    /* the pool is partitioned by PageId hash; each shard has its own frames, LRU state and latch */
+    private final BufferPoolShard[] shards;
+    /* number of frames in use over all shards, never more than numPages */
+    private final AtomicInteger usedFrames;
     // for lab3
     private final LockManager lockManager;
 
+    /* dirty page table: every page that may be dirty and the transaction that may have dirtied it.
+       A page enters the table when a transaction fetches it READ_WRITE or hands it back dirty,
+       and leaves it when it is flushed, discarded or its transaction completes. */
+    private final Map<PageId, TransactionId> dirtyPageTable;
+    /* the dirty pages of each transaction, so commit and abort only visit what they touched */
+    private final Map<TransactionId, Set<PageId>> transactionDirtyPages;
+
+    private volatile int prefetchDepth = DEFAULT_PREFETCH_DEPTH;
+    private volatile int prefetchBudget;
+    private volatile int workMemory;
+    /* pages read ahead and not asked for yet */
+    private final Set<PageId> prefetched = ConcurrentHashMap.newKeySet();
+    /* pages being read from disk, on a miss or ahead of a scan; a page is never read twice at once */
+    private final Map<PageId, CompletableFuture<Void>> reading = new ConcurrentHashMap<>();
+    /* the read-ahead tasks of each transaction, stopped before it releases its locks */
+    private final Map<TransactionId, Set<Future<?>>> prefetchTasks = new ConcurrentHashMap<>();
+    private final PrefetchStats prefetchStats = new PrefetchStats();
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, with one shard
+     * per available processor as long as each shard gets a reasonable share
+     * of the pages.
+     */
     public BufferPool(int numPages) {
+        this(numPages, defaultNumShards(numPages));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, partitioned
+     * into numShards shards.
+     */
+    public BufferPool(int numPages, int numShards) {
+        this(numPages, numShards, ReplacementPolicy.DEFAULT);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, partitioned
+     * into numShards shards, each choosing its victims with its own instance
+     * of the given replacement policy.
+     */
+    public BufferPool(int numPages, int numShards, ReplacementPolicy.Factory policy) {
+        if (numShards < 1) {
+            throw new IllegalArgumentException("a buffer pool needs at least one shard");
+        }
         this.numPages = numPages;
-        this.pageCache = new ConcurrentHashMap<>();
-        this.evict = new LRUEvict(numPages);
+        this.shards = new BufferPoolShard[numShards];
+        for (int i = 0; i < numShards; i++) {
+            shards[i] = new BufferPoolShard(numPages / numShards + 1, policy);
+        }
+        this.usedFrames = new AtomicInteger();
         this.lockManager = new LockManager();
+        this.dirtyPageTable = new ConcurrentHashMap<>();
+        this.transactionDirtyPages = new ConcurrentHashMap<>();
+        this.prefetchBudget = numPages / 4;
+        this.workMemory = Math.max(2, numPages / 2);
+    }
+
+    private static int defaultNumShards(int numPages) {
+        int processors = Runtime.getRuntime().availableProcessors();
+        return Math.max(1, Math.min(processors, numPages / MIN_PAGES_PER_SHARD));
+    }
+
+    /**
+     * @return the number of shards this pool is partitioned into
+     */
+    public int getNumShards() {
+        return shards.length;
+    }
+
+    private int shardIndex(PageId pid) {
+        return Math.floorMod(pid.hashCode(), shards.length);
+    }
+
+    private BufferPoolShard shardFor(PageId pid) {
+        return shards[shardIndex(pid)];
     }
 
     public static int getPageSize() {
@@ -90,49 +193,221 @@ public class BufferPool {
         // lab5
         int acquireType = perm == Permissions.READ_WRITE ? PageLock.WRITE : PageLock.READ;
 
-        long start = System.currentTimeMillis();
-        long timeout = 500;
+        // blocks until granted; a deadlock victim is aborted by the lock manager
+        lockManager.acquireLock(pid, tid, acquireType);
 
-        boolean isAcquired = false;
-        while (!isAcquired) {
+        // lab3
+        BufferPoolShard shard = shardFor(pid);
+        Page page = lookUp(shard, pid, false);
+        while (page == null) {
+            CompletableFuture<Void> done = new CompletableFuture<>();
+            CompletableFuture<Void> pending = reading.putIfAbsent(pid, done);
+            if (pending != null) {
+                // another thread, perhaps reading ahead, is reading it: wait for it
+                pending.join();
+                page = lookUp(shard, pid, true);
+                continue;
+            }
             try {
-                isAcquired = lockManager.acquireLock(pid, tid, acquireType);
-            } catch (InterruptedException ignored) {
+                page = lookUp(shard, pid, false);
+                if (page == null) {
+                    // read outside of any latch, so that a miss only holds up its own shard while installing
+                    Page read = getDbFile(pid.getTableId()).readPage(pid);
+                    reserveFrame(pid);
+                    page = shard.putIfAbsent(pid, read);
+                    if (page != read) {
+                        // another thread cached it first
+                        usedFrames.decrementAndGet();
+                    }
+                }
+            } finally {
+                reading.remove(pid);
+                done.complete(null);
             }
-            long now = System.currentTimeMillis();
-            if(now-start > timeout){
-                System.out.println("Deadlock exceeds time out!");
-                throw new TransactionAbortedException();
+        }
+        if (perm == Permissions.READ_WRITE) {
+            markPageDirty(pid, tid);
+        }
+        return page;
+    }
+
+    /*
+     * Look up a page for getPage.  Caching a page read ahead counted as its
+     * first access, so its first use does not count again; otherwise every
+     * page of a scan would look used twice to the replacement policy.
+     *
+     * @param late whether a read of the page was waited for
+     */
+    private Page lookUp(BufferPoolShard shard, PageId pid, boolean late) {
+        if (prefetched.remove(pid)) {
+            Page page = shard.get(pid);
+            if (page != null) {
+                prefetchStats.recordHit(late);
+                return page;
             }
         }
+        return shard.access(pid);
+    }
 
-//        while (true){
-//            try{
-//                if (lockManager.acquireLock(pid,tid,acquireType)){
-//                    System.out.println("Lock manage successfully gets the lock!");
-//                    break;
-//                }
-//            } catch (InterruptedException e){
-//                // logger.error(e.getMessage());
-//            }
-//            long now = System.currentTimeMillis();
-//            if(now-start > timeout){
-//                System.out.println("Deadlock exceeds time out!");
-//                throw new TransactionAbortedException();
-//            }
-//        }
+    /**
+     * @return the number of pages scans ask to have read ahead of them
+     */
+    public int getPrefetchDepth() {
+        return prefetchDepth;
+    }
 
-        // lab3
-        if(!pageCache.containsKey(pid)){
-            DbFile dbFile = getDbFile(pid.getTableId());
-            Page page = dbFile.readPage(pid);
-            evict.modifyData(pid);
-            if(pageCache.size() == numPages){
-                evictPage();
+    /**
+     * Set the number of pages scans ask to have read ahead of them; 0
+     * turns read-ahead off.
+     */
+    public void setPrefetchDepth(int pages) {
+        this.prefetchDepth = pages;
+    }
+
+    /**
+     * @return the most pages read ahead and not asked for yet that the pool
+     *         holds
+     */
+    public int getPrefetchBudget() {
+        return prefetchBudget;
+    }
+
+    /**
+     * Set the most pages read ahead and not asked for yet that the pool
+     * holds; pages beyond it are not read ahead.  The default is a quarter
+     * of the pool.
+     */
+    public void setPrefetchBudget(int pages) {
+        this.prefetchBudget = pages;
+    }
+
+    /**
+     * @return the most pages of memory an operator that can spill to disk,
+     *         such as a hash join, uses before it does
+     */
+    public int getWorkMemory() {
+        return workMemory;
+    }
+
+    /**
+     * Set the most pages of memory an operator that can spill to disk uses
+     * before it does; at least 2.  The default is half of the pool.
+     */
+    public void setWorkMemory(int pages) {
+        if (pages < 2) {
+            throw new IllegalArgumentException("operators need at least 2 pages of memory");
+        }
+        this.workMemory = pages;
+    }
+
+    /** Return the read-ahead counters of this buffer pool */
+    public PrefetchStats getPrefetchStats() {
+        return prefetchStats;
+    }
+
+    /**
+     * Read pages into the pool ahead of a scan, asynchronously, on behalf of
+     * the scanning transaction.  Starting at first, each page is read
+     * unless it is cached, and next gives the page after it.  Read-ahead
+     * stops early when the budget is spent or a page cannot be read-locked
+     * right away.
+     *
+     * @param tid   the scanning transaction
+     * @param first the first page to read
+     * @param count the most pages to read or skip over
+     * @param next  the page after a given page, or null after the last
+     * @see ReadAhead
+     */
+    public void prefetch(TransactionId tid, PageId first, int count, Function<Page, PageId> next) {
+        if (first == null || count <= 0 || prefetchBudget <= 0) {
+            return;
+        }
+        Set<Future<?>> tasks = prefetchTasks.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet());
+        tasks.removeIf(Future::isDone);
+        tasks.add(PrefetchThreads.EXECUTOR.submit(() -> readAhead(first, count, next)));
+    }
+
+    private void readAhead(PageId pid, int count, Function<Page, PageId> next) {
+        for (int i = 0; i < count && pid != null; i++) {
+            Page page = shardFor(pid).get(pid);
+            if (page == null) {
+                page = readAheadPage(pid);
+                if (page == null) {
+                    return;
+                }
+            }
+            pid = next.apply(page);
+        }
+    }
+
+    /**
+     * Read one page into the pool ahead of a scan, without locking it.
+     *
+     * @return the page, or null if it was not read
+     */
+    private Page readAheadPage(PageId pid) {
+        if (prefetched.size() >= prefetchBudget) {
+            prefetchStats.recordDropped();
+            return null;
+        }
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        if (reading.putIfAbsent(pid, done) != null) {
+            // somebody else is reading it
+            return null;
+        }
+        try {
+            BufferPoolShard shard = shardFor(pid);
+            Page page = shard.get(pid);
+            if (page != null) {
+                return page;
+            }
+            Page read = getDbFile(pid.getTableId()).readPage(pid);
+            if (read == null) {
+                prefetchStats.recordDropped();
+                return null;
+            }
+            reserveFrame(pid);
+            prefetched.add(pid);
+            page = shard.putIfAbsent(pid, read);
+            if (page != read) {
+                prefetched.remove(pid);
+                usedFrames.decrementAndGet();
+            } else {
+                prefetchStats.recordIssued();
+            }
+            return page;
+        } catch (DbException | RuntimeException e) {
+            // every page is dirty, or the page is past the end of the file
+            prefetchStats.recordDropped();
+            return null;
+        } finally {
+            reading.remove(pid);
+            done.complete(null);
+        }
+    }
+
+    /*
+     * Stop reading ahead for tid, waiting for a page being read, so that no
+     * page is read for it once it completes.
+     */
+    private void stopPrefetching(TransactionId tid) {
+        Set<Future<?>> tasks = prefetchTasks.remove(tid);
+        if (tasks == null) {
+            return;
+        }
+        for (Future<?> task : tasks) {
+            task.cancel(false);
+            while (true) {
+                try {
+                    task.get();
+                    break;
+                } catch (CancellationException | ExecutionException e) {
+                    break;
+                } catch (InterruptedException e) {
+                    // not restored: an interrupt would close the file channels of the abort
+                }
             }
-            pageCache.put(pid,page);
         }
-        return pageCache.get(pid);
     }
 
     /**
@@ -158,10 +433,14 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid) {
         // some code goes here
         // not necessary for lab1|lab2
-        lockManager.completeTransaction(tid);
         transactionComplete(tid, true);
     }
 
+    /** Return the lock counters of this buffer pool's lock manager */
+    public LockStats getLockStats() {
+        return lockManager.getStats();
+    }
+
     /** Return true if the specified transaction has a lock on the specified page */
     public boolean holdsLock(TransactionId tid, PageId p) {
         // some code goes here
@@ -180,6 +459,7 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid, boolean commit) {
         // some code goes here
         // not necessary for lab1|lab2
+        stopPrefetching(tid);
         if (commit) {
             try {
                 flushPages(tid);
@@ -192,19 +472,76 @@ public class BufferPool {
         lockManager.completeTransaction(tid);
     }
 
-    private synchronized void recoverPages(TransactionId tid) {
-        for (Map.Entry<PageId, Page> entry : pageCache.entrySet()) {
-            PageId pid = entry.getKey();
-            Page page = entry.getValue();
-            if (page.isDirty() == tid) {
-                int tableId = pid.getTableId();
-                DbFile dbFile = getDbFile(tableId);
-                Page cleanPage = dbFile.readPage(pid);
-                pageCache.put(pid, cleanPage);
+    private void recoverPages(TransactionId tid) {
+        Set<PageId> dirtied = transactionDirtyPages.remove(tid);
+        if (dirtied == null) {
+            return;
+        }
+        for (PageId pid : dirtied) {
+            dirtyPageTable.remove(pid, tid);
+            BufferPoolShard shard = shardFor(pid);
+            synchronized (shard) {
+                Page page = shard.get(pid);
+                if (page != null && tid.equals(page.isDirty())) {
+                    Page cleanPage = getDbFile(pid.getTableId()).readPage(pid);
+                    shard.put(cleanPage);
+                }
             }
         }
     }
 
+    /**
+     * Record in the dirty page table that the given page may be dirtied by tid.
+     * A page belongs to at most one transaction at a time, so any previous
+     * owner loses it.
+     */
+    private void markPageDirty(PageId pid, TransactionId tid) {
+        TransactionId previous = dirtyPageTable.put(pid, tid);
+        if (previous != null && !previous.equals(tid)) {
+            forgetDirtyPage(previous, pid);
+        }
+        transactionDirtyPages.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add(pid);
+    }
+
+    /**
+     * Remove the given page from the dirty page table.
+     */
+    private void markPageClean(PageId pid) {
+        TransactionId dirtier = dirtyPageTable.remove(pid);
+        if (dirtier != null) {
+            forgetDirtyPage(dirtier, pid);
+        }
+    }
+
+    private void forgetDirtyPage(TransactionId tid, PageId pid) {
+        Set<PageId> dirtied = transactionDirtyPages.get(tid);
+        if (dirtied != null) {
+            dirtied.remove(pid);
+        }
+    }
+
+    /**
+     * @return true if the page with the given id is cached in the pool
+     */
+    public boolean containsPage(PageId pid) {
+        return shardFor(pid).contains(pid);
+    }
+
+    /**
+     * @return the ids of the pages the given transaction may have dirtied
+     */
+    public Set<PageId> getDirtyPages(TransactionId tid) {
+        Set<PageId> dirtied = transactionDirtyPages.get(tid);
+        return dirtied == null ? Collections.emptySet() : Collections.unmodifiableSet(dirtied);
+    }
+
+    /**
+     * @return the number of pages in the dirty page table
+     */
+    public int getNumDirtyPages() {
+        return dirtyPageTable.size();
+    }
+
     /**
      * Add a tuple to the specified table on behalf of transaction tid.  Will
      * acquire a write lock on the page the tuple is added to and any other
@@ -250,10 +587,15 @@ public class BufferPool {
     private void updateBufferPool(List<Page> pages, TransactionId tid) throws DbException {
         for (Page page : pages) {
             page.markDirty(true, tid);
-            if (pageCache.size() == numPages) {
-                evictPage();
+            BufferPoolShard shard = shardFor(page.getId());
+            if (!shard.contains(page.getId())) {
+                reserveFrame(page.getId());
+            }
+            if (!shard.put(page)) {
+                // replaced a cached version, no new frame used after all
+                usedFrames.decrementAndGet();
             }
-            pageCache.put(page.getId(), page);
+            markPageDirty(page.getId(), tid);
         }
 
     }
@@ -263,12 +605,15 @@ public class BufferPool {
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      *     break simpledb if running in NO STEAL mode.
      */
-    public synchronized void flushAllPages() throws IOException {
+    public void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
-        for (Page page: pageCache.values()) {
-            if (page.isDirty() != null) {
-                flushPage(page.getId());
+        for (PageId pid : new ArrayList<>(dirtyPageTable.keySet())) {
+            Page page = shardFor(pid).get(pid);
+            if (page != null && page.isDirty() != null) {
+                flushPage(pid);
+            } else {
+                markPageClean(pid);
             }
         }
 
@@ -282,72 +627,144 @@ public class BufferPool {
      Also used by B+ tree files to ensure that deleted pages
      are removed from the cache so they can be reused safely
      */
-    public synchronized void discardPage(PageId pid) {
+    public void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
-        pageCache.remove(pid);
+        if (shardFor(pid).remove(pid)) {
+            usedFrames.decrementAndGet();
+        }
+        if (prefetched.remove(pid)) {
+            prefetchStats.recordWasted();
+        }
+        markPageClean(pid);
+    }
+
+    /**
+     * Remove every cached page of a table from the buffer pool, dirty or
+     * not.  Used when the table's file is replaced underneath the pool, by a
+     * bulk load.
+     */
+    public void discardPages(int tableId) {
+        for (BufferPoolShard shard : shards) {
+            for (PageId pid : shard.pagesOf(tableId)) {
+                discardPage(pid);
+            }
+        }
     }
 
     /**
      * Flushes a certain page to disk
      * @param pid an ID indicating the page to flush
      */
-    private synchronized  void flushPage(PageId pid) throws IOException {
+    private void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for lab1
-        Page flush = pageCache.get(pid);
+        // the shard latch is not held while logging: LogFile calls back into the pool
+        // (discardPage) while holding its own monitor
+        Page flush = shardFor(pid).get(pid);
+        if (flush == null) {
+            markPageClean(pid);
+            return;
+        }
 
-        int tableId = pid.getTableId();
-        DbFile dbFile = getDbFile(tableId);
+        // write ahead: the update record must be on disk before the page is
+        Database.getLogFile().awaitDurable(logPageWrite(flush));
+        writePage(flush);
+    }
 
-        // append an update record to the log, with a before-image and after-image
-        TransactionId dirtier = flush.isDirty();
-        if (dirtier != null) {
-            Database.getLogFile().logWrite(dirtier, flush.getBeforeImage(), flush);
-            Database.getLogFile().force();
+    /**
+     * Append an update record, with the changes from the before-image to the
+     * page, for a dirty page.  The page then becomes its own before-image, so
+     * the next record of the page only holds the changes made after this one.
+     *
+     * @return the LSN of the record, or 0 if the page is clean
+     */
+    private long logPageWrite(Page page) throws IOException {
+        TransactionId dirtier = page.isDirty();
+        if (dirtier == null) {
+            return 0;
         }
+        long lsn = Database.getLogFile().logWrite(dirtier, page.getBeforeImage(), page);
+        page.setBeforeImage();
+        return lsn;
+    }
 
+    private void writePage(Page page) throws IOException {
         // 将page刷新到磁盘
-        dbFile.writePage(flush);
-        flush.markDirty(false, null);
+        getDbFile(page.getId().getTableId()).writePage(page);
+        page.markDirty(false, null);
+        markPageClean(page.getId());
+        Database.getLogFile().pageWritten(page.getId());
     }
 
     /** Write all pages of the specified transaction to disk.
+     * All update records are appended first, so that the transaction waits
+     * for the log only once, sharing the force with concurrent committers.
      */
-    public synchronized  void flushPages(TransactionId tid) throws IOException {
-       for (Page page : pageCache.values()) {
-           if (tid.equals(page.isDirty())) {
-               page.setBeforeImage();
-               flushPage(page.getId());
-           }
-       }
+    public void flushPages(TransactionId tid) throws IOException {
+        Set<PageId> dirtied = transactionDirtyPages.remove(tid);
+        if (dirtied == null) {
+            return;
+        }
+        List<Page> flushed = new ArrayList<>();
+        long lsn = 0;
+        for (PageId pid : dirtied) {
+            Page page = shardFor(pid).get(pid);
+            if (page != null && tid.equals(page.isDirty())) {
+                lsn = Math.max(lsn, logPageWrite(page));
+                flushed.add(page);
+            } else {
+                dirtyPageTable.remove(pid, tid);
+            }
+        }
+        Database.getLogFile().awaitDurable(lsn);
+        for (Page page : flushed) {
+            writePage(page);
+        }
+    }
+
+    /**
+     * Claim a frame for a page about to be cached, evicting a page if the
+     * pool is full.
+     *
+     * @param pid the page that will use the frame
+     */
+    private void reserveFrame(PageId pid) throws DbException {
+        while (true) {
+            int used = usedFrames.get();
+            if (used < numPages) {
+                if (usedFrames.compareAndSet(used, used + 1)) {
+                    return;
+                }
+            } else {
+                evictPage(shardIndex(pid));
+            }
+        }
     }
 
     /**
      * Discards a page from the buffer pool.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * The victim is taken from the given shard if it has a clean page, and
+     * from the following shards otherwise.  Shards are asked one at a time,
+     * so eviction never holds more than one shard latch.
+     *
+     * @param start the index of the shard to evict from first
      */
-    private synchronized  void evictPage() throws DbException {
+    private void evictPage(int start) throws DbException {
 //         some code goes here
 //         not necessary for lab1
-        PageId evictPageId;
-        Page page;
-        boolean isAllDirty = true;
-        for (int i = 0; i < pageCache.size(); i++) {
-            evictPageId = evict.getEvictPageId();
-            // page = pageCache.get(evictPageId);
-            page = getDbFile(evictPageId.getTableId()).readPage(evictPageId);
-            if (page.isDirty() != null) {
-                evict.modifyData(evictPageId);
-            } else {
-                isAllDirty = false;
-                discardPage(evictPageId);
-                pageCache.remove(evictPageId);
-                break;
+        for (int i = 0; i < shards.length; i++) {
+            PageId evicted = shards[(start + i) % shards.length].evict();
+            if (evicted != null) {
+                usedFrames.decrementAndGet();
+                if (prefetched.remove(evicted)) {
+                    prefetchStats.recordWasted();
+                }
+                markPageClean(evicted);
+                return;
             }
         }
-        if (isAllDirty) {
-            throw new DbException("The page in BufferPool is all dirty.");
-        }
+        throw new DbException("The page in BufferPool is all dirty.");
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,128 @@
+package simpledb.storage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * BufferPoolShard is one partition of the BufferPool. Pages are assigned to a
+ * shard by the hash of their PageId, and each shard keeps its own frame table
+ * and replacement state behind its own latch (the shard's monitor), so that
+ * threads working on pages of different shards never wait for each other.
+ * <p>
+ * The shard does not enforce a capacity of its own; the BufferPool accounts
+ * for the total number of cached pages and asks shards to give up a victim
+ * when it runs out of frames.
+ *
+ * @see BufferPool
+ */
+class BufferPoolShard {
+
+    private final Map<PageId, Page> frames;
+    private final ReplacementPolicy policy;
+
+    BufferPoolShard(int expectedPages, ReplacementPolicy.Factory policyFactory) {
+        this.frames = new HashMap<>(expectedPages);
+        this.policy = policyFactory.create(expectedPages);
+    }
+
+    /**
+     * Look up a page on behalf of a transaction; a hit counts as an access
+     * for the replacement policy.
+     *
+     * @return the cached page with the given id, or null if it is not cached
+     */
+    synchronized Page access(PageId pid) {
+        Page page = frames.get(pid);
+        if (page != null) {
+            policy.recordAccess(pid);
+        }
+        return page;
+    }
+
+    /**
+     * Look up a page for the pool's own bookkeeping, without touching the
+     * replacement state.
+     *
+     * @return the cached page with the given id, or null if it is not cached
+     */
+    synchronized Page get(PageId pid) {
+        return frames.get(pid);
+    }
+
+    synchronized boolean contains(PageId pid) {
+        return frames.containsKey(pid);
+    }
+
+    /**
+     * Cache a page just read from disk, unless another thread beat us to it.
+     *
+     * @return the page that ends up cached under pid
+     */
+    synchronized Page putIfAbsent(PageId pid, Page page) {
+        Page cached = frames.get(pid);
+        if (cached != null) {
+            return cached;
+        }
+        frames.put(pid, page);
+        policy.recordAccess(pid);
+        return page;
+    }
+
+    /**
+     * Install a (possibly new) version of a page in this shard.
+     *
+     * @return true if the page was not cached before
+     */
+    synchronized boolean put(Page page) {
+        if (frames.put(page.getId(), page) == null) {
+            policy.recordAccess(page.getId());
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Drop a page from this shard.
+     *
+     * @return true if the page was cached
+     */
+    synchronized boolean remove(PageId pid) {
+        policy.remove(pid);
+        return frames.remove(pid) != null;
+    }
+
+    /** @return the ids of the cached pages of the given table */
+    synchronized List<PageId> pagesOf(int tableId) {
+        List<PageId> pids = new ArrayList<>();
+        for (PageId pid : frames.keySet()) {
+            if (pid.getTableId() == tableId) {
+                pids.add(pid);
+            }
+        }
+        return pids;
+    }
+
+    synchronized int size() {
+        return frames.size();
+    }
+
+    /**
+     * Evict one clean page, as chosen by the replacement policy.  Dirtiness
+     * is read off the cached frame itself, so no I/O is needed to pick a
+     * victim.
+     *
+     * @return the id of the evicted page, or null if every page is dirty
+     */
+    synchronized PageId evict() {
+        PageId victim = policy.evict(pid -> {
+            Page page = frames.get(pid);
+            return page == null || page.isDirty() == null;
+        });
+        if (victim != null) {
+            frames.remove(victim);
+        }
+        return victim;
+    }
+}
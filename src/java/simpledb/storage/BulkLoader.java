@@ -0,0 +1,219 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.regex.Pattern;
+
+/**
+ * BulkLoader creates a HeapFile, a PaxFile or a CompressedHeapFile from a
+ * stream of tuples without going through the buffer pool or logging every
+ * page.  Tuples are packed into full pages, which are written to the file
+ * one after the other; the file is then forced, and a single BULK_LOAD record is logged
+ * to make the load durable (see {@link LogFile#logBulkLoad(int, int)}).
+ * <p>
+ * A load replaces the file and whatever was in it, so the table must not
+ * be in use by any transaction while it is loaded.  The new table is added
+ * to the catalog under the given name.
+ *
+ * @see simpledb.index.BTreeBulkLoader
+ */
+public class BulkLoader {
+
+    /* pages are written in batches of this many */
+    private static final int WRITE_BATCH_PAGES = 16;
+
+    /**
+     * Load a heap file from tuples.
+     *
+     * @param tuples    the tuples to load; their record ids are set to where
+     *                  they were stored
+     * @param file      the file to create, replacing it if it exists
+     * @param td        the description of the tuples
+     * @param tableName the name to add the table to the catalog under
+     * @return the loaded file
+     */
+    public static HeapFile loadHeapFile(Iterator<Tuple> tuples, File file, TupleDesc td, String tableName)
+            throws IOException, DbException {
+        return load(new HeapFile(file, td), tuples, tableName);
+    }
+
+    /**
+     * Load a PAX file from tuples.
+     *
+     * @see #loadHeapFile(Iterator, File, TupleDesc, String)
+     */
+    public static PaxFile loadPaxFile(Iterator<Tuple> tuples, File file, TupleDesc td, String tableName)
+            throws IOException, DbException {
+        return load(new PaxFile(file, td), tuples, tableName);
+    }
+
+    /**
+     * Load a compressed, read-only file from tuples.  The tuples are
+     * packed into as many pages as a HeapFile would take, and the pages
+     * into compressed extents, see {@link CompressedHeapFile}.
+     *
+     * @see #loadHeapFile(Iterator, File, TupleDesc, String)
+     */
+    public static CompressedHeapFile loadCompressedFile(Iterator<Tuple> tuples, File file, TupleDesc td,
+                                                        String tableName) throws IOException, DbException {
+        CompressedHeapFile cf = new CompressedHeapFile(file, td);
+        int tableId = cf.getId();
+        Database.getCatalog().addTable(cf, tableName);
+        Database.getBufferPool().discardPages(tableId);
+
+        int slotsPerPage = new HeapPage(new HeapPageId(tableId, 0), HeapPage.createEmptyPageData())
+                .getNumEmptySlots();
+        int numPages;
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            OutputStream out = new BufferedOutputStream(fos, WRITE_BATCH_PAGES * BufferPool.getPageSize());
+            CompressedHeapFile.Writer writer = new CompressedHeapFile.Writer(out, td);
+            List<Tuple> page = new ArrayList<>(slotsPerPage);
+            while (tuples.hasNext()) {
+                Tuple t = tuples.next();
+                t.setRecordId(new RecordId(new HeapPageId(tableId, writer.numPages()), page.size()));
+                page.add(t);
+                if (page.size() == slotsPerPage) {
+                    writer.addPage(page);
+                    page.clear();
+                }
+            }
+            if (!page.isEmpty()) {
+                writer.addPage(page);
+            }
+            writer.close();
+            numPages = writer.numPages();
+            out.flush();
+            fos.getChannel().force(true);
+        }
+        Database.getLogFile().logBulkLoad(tableId, numPages);
+        return cf;
+    }
+
+    private static <F extends HeapFile> F load(F hf, Iterator<Tuple> tuples, String tableName)
+            throws IOException, DbException {
+        File file = hf.getFile();
+        int tableId = hf.getId();
+        // pages need the catalog to know their tuple descriptor
+        Database.getCatalog().addTable(hf, tableName);
+        Database.getBufferPool().discardPages(tableId);
+        FreeSpaceMap.fileFor(file).delete();
+
+        int numPages = 0;
+        int lastPageEmptySlots = 0;
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            OutputStream out = new BufferedOutputStream(fos, WRITE_BATCH_PAGES * BufferPool.getPageSize());
+            HeapPage page = null;
+            while (tuples.hasNext()) {
+                if (page == null) {
+                    page = emptyPage(hf, numPages);
+                }
+                page.insertTuple(tuples.next());
+                if (page.getNumEmptySlots() == 0) {
+                    out.write(page.getPageData());
+                    numPages++;
+                    page = null;
+                }
+            }
+            // the last page, partly full; an empty table still gets one page
+            if (page != null || numPages == 0) {
+                if (page == null) {
+                    page = emptyPage(hf, numPages);
+                }
+                out.write(page.getPageData());
+                lastPageEmptySlots = page.getNumEmptySlots();
+                numPages++;
+            }
+            out.flush();
+            fos.getChannel().force(true);
+        }
+        FreeSpaceMap.create(FreeSpaceMap.fileFor(file), numPages, lastPageEmptySlots);
+        Database.getLogFile().logBulkLoad(tableId, numPages);
+        return hf;
+    }
+
+    private static HeapPage emptyPage(HeapFile hf, int pageNo) throws IOException {
+        return hf.createPage(new HeapPageId(hf.getId(), pageNo), ByteBuffer.wrap(HeapPage.createEmptyPageData()));
+    }
+
+    /**
+     * Load a heap file from a text file with one tuple per line, its fields
+     * separated by the given character.  Blank lines are skipped.
+     *
+     * @see #loadHeapFile(Iterator, File, TupleDesc, String)
+     * @see #readCsv(BufferedReader, TupleDesc, char)
+     */
+    public static HeapFile loadHeapFile(File csv, char separator, File file, TupleDesc td, String tableName)
+            throws IOException, DbException {
+        try (BufferedReader in = new BufferedReader(new FileReader(csv))) {
+            return loadHeapFile(readCsv(in, td, separator), file, td, tableName);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Parse tuples from lines of text as they are read, one tuple per
+     * line, fields separated by the given character.  Strings longer than
+     * {@link Type#STRING_LEN} are cut short, as by HeapFileEncoder.
+     *
+     * @return the tuples; a malformed line makes next() throw an
+     *         IllegalArgumentException, and a read error an
+     *         UncheckedIOException
+     */
+    public static Iterator<Tuple> readCsv(BufferedReader in, TupleDesc td, char separator) {
+        Pattern split = Pattern.compile(Pattern.quote(String.valueOf(separator)));
+        return new Iterator<>() {
+            private String line;
+
+            public boolean hasNext() {
+                try {
+                    while (line == null) {
+                        line = in.readLine();
+                        if (line == null) {
+                            return false;
+                        }
+                        if (line.isBlank()) {
+                            line = null;
+                        }
+                    }
+                    return true;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            public Tuple next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                String[] values = split.split(line, -1);
+                if (values.length != td.numFields()) {
+                    throw new IllegalArgumentException("BAD LINE: " + line);
+                }
+                Tuple t = new Tuple(td);
+                for (int i = 0; i < values.length; i++) {
+                    String value = values[i].trim();
+                    if (td.getFieldType(i) == Type.INT_TYPE) {
+                        try {
+                            t.setField(i, new IntField(Integer.parseInt(value)));
+                        } catch (NumberFormatException e) {
+                            throw new IllegalArgumentException("BAD LINE: " + line, e);
+                        }
+                    } else {
+                        t.setField(i, new StringField(value, Type.STRING_LEN));
+                    }
+                }
+                line = null;
+                return t;
+            }
+        };
+    }
+}
@@ -0,0 +1,87 @@
+package simpledb.storage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * CLOCK (second chance) replacement.  Frames sit on a circular list with a
+ * reference bit that every access sets; the clock hand clears bits as it
+ * sweeps and evicts the first evictable page whose bit is already clear.
+ */
+public class ClockPolicy implements ReplacementPolicy {
+
+    private final List<PageId> frames;
+    private final List<Boolean> referenced;
+    private final Map<PageId, Integer> slots;
+    /* slots of pages that left the clock, reused before the clock grows */
+    private final Deque<Integer> freeSlots;
+    private int hand;
+
+    public ClockPolicy(int capacity) {
+        this.frames = new ArrayList<>(capacity);
+        this.referenced = new ArrayList<>(capacity);
+        this.slots = new HashMap<>(capacity);
+        this.freeSlots = new ArrayDeque<>();
+        this.hand = 0;
+    }
+
+    @Override
+    public void recordAccess(PageId pid) {
+        Integer slot = slots.get(pid);
+        if (slot != null) {
+            referenced.set(slot, true);
+            return;
+        }
+        if (freeSlots.isEmpty()) {
+            slot = frames.size();
+            frames.add(pid);
+            referenced.add(true);
+        } else {
+            slot = freeSlots.poll();
+            frames.set(slot, pid);
+            referenced.set(slot, true);
+        }
+        slots.put(pid, slot);
+    }
+
+    @Override
+    public void remove(PageId pid) {
+        Integer slot = slots.remove(pid);
+        if (slot != null) {
+            frames.set(slot, null);
+            referenced.set(slot, false);
+            freeSlots.push(slot);
+        }
+    }
+
+    @Override
+    public PageId evict(Predicate<PageId> evictable) {
+        int n = frames.size();
+        // two full sweeps: the first may only be clearing reference bits
+        for (int i = 0; i < 2 * n; i++) {
+            int slot = hand;
+            hand = (hand + 1) % n;
+            PageId pid = frames.get(slot);
+            if (pid == null || !evictable.test(pid)) {
+                continue;
+            }
+            if (referenced.get(slot)) {
+                referenced.set(slot, false);
+            } else {
+                remove(pid);
+                return pid;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public int size() {
+        return slots.size();
+    }
+}
@@ -0,0 +1,226 @@
+package simpledb.storage;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * ColumnEncoding writes a column of values compactly, choosing for each
+ * column the smaller of two lightweight encodings:
+ * <ul>
+ * <li>INT columns as a frame of reference, the smallest value followed by
+ * each value's difference from it in as few bits as the largest needs; or
+ * as deltas, the first value followed by each value's difference from the
+ * one before as a zigzag varint, which suits sorted and clustered columns.
+ * <li>STRING columns as a dictionary of the distinct values followed by
+ * each value's index in it, when values repeat; or plain, each value's
+ * length and UTF-8 bytes.
+ * </ul>
+ * A column starts with a byte naming its encoding, so readers need to know
+ * only the type and the number of values.  The output is meant to be
+ * compressed further, see {@link CompressedHeapFile}.
+ */
+public final class ColumnEncoding {
+
+    static final byte FRAME_OF_REFERENCE = 1;
+    static final byte DELTA = 2;
+    static final byte DICTIONARY = 3;
+    static final byte PLAIN = 4;
+
+    /* at most this many distinct values are put in a dictionary */
+    private static final int MAX_DICTIONARY = 1 << 16;
+
+    private ColumnEncoding() {
+    }
+
+    /**
+     * Write the first n values.
+     */
+    public static void writeInts(int[] values, int n, DataOutputStream out) throws IOException {
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (int i = 0; i < n; i++) {
+            min = Math.min(min, values[i]);
+            max = Math.max(max, values[i]);
+        }
+        if (n == 0) {
+            min = max = 0;
+        }
+        int bits = 64 - Long.numberOfLeadingZeros((long) max - min);
+        long forSize = 5 + ((long) n * bits + 7) / 8;
+        long deltaSize = n == 0 ? Long.MAX_VALUE : 4;
+        for (int i = 1; i < n && deltaSize < forSize; i++) {
+            deltaSize += varLongSize(zigzag((long) values[i] - values[i - 1]));
+        }
+
+        if (deltaSize < forSize) {
+            out.writeByte(DELTA);
+            out.writeInt(values[0]);
+            for (int i = 1; i < n; i++) {
+                writeVarLong(out, zigzag((long) values[i] - values[i - 1]));
+            }
+            return;
+        }
+        out.writeByte(FRAME_OF_REFERENCE);
+        out.writeInt(min);
+        out.writeByte(bits);
+        long acc = 0;
+        int filled = 0;
+        for (int i = 0; i < n; i++) {
+            acc |= ((long) values[i] - min) << filled;
+            filled += bits;
+            while (filled >= 8) {
+                out.write((int) acc);
+                acc >>>= 8;
+                filled -= 8;
+            }
+        }
+        if (filled > 0) {
+            out.write((int) acc);
+        }
+    }
+
+    /**
+     * Read n values written by {@link #writeInts}.
+     */
+    public static int[] readInts(DataInputStream in, int n) throws IOException {
+        int[] values = new int[n];
+        byte encoding = in.readByte();
+        if (encoding == DELTA) {
+            if (n > 0) {
+                values[0] = in.readInt();
+            }
+            for (int i = 1; i < n; i++) {
+                values[i] = (int) (values[i - 1] + unzigzag(readVarLong(in)));
+            }
+            return values;
+        }
+        if (encoding != FRAME_OF_REFERENCE) {
+            throw new IOException("unknown INT column encoding " + encoding);
+        }
+        int min = in.readInt();
+        int bits = in.readUnsignedByte();
+        long mask = (1L << bits) - 1;
+        long acc = 0;
+        int filled = 0;
+        for (int i = 0; i < n; i++) {
+            while (filled < bits) {
+                acc |= (long) in.readUnsignedByte() << filled;
+                filled += 8;
+            }
+            values[i] = (int) (min + (acc & mask));
+            acc >>>= bits;
+            filled -= bits;
+        }
+        return values;
+    }
+
+    /**
+     * Write the first n values.
+     */
+    public static void writeStrings(String[] values, int n, DataOutputStream out) throws IOException {
+        Map<String, Integer> dictionary = new LinkedHashMap<>();
+        for (int i = 0; i < n && dictionary.size() <= MAX_DICTIONARY; i++) {
+            dictionary.putIfAbsent(values[i], dictionary.size());
+        }
+        if (dictionary.size() > MAX_DICTIONARY || dictionary.size() * 2 > n) {
+            out.writeByte(PLAIN);
+            for (int i = 0; i < n; i++) {
+                writeString(out, values[i]);
+            }
+            return;
+        }
+        out.writeByte(DICTIONARY);
+        writeVarLong(out, dictionary.size());
+        for (String s : dictionary.keySet()) {
+            writeString(out, s);
+        }
+        boolean wide = dictionary.size() > 256;
+        for (int i = 0; i < n; i++) {
+            int index = dictionary.get(values[i]);
+            if (wide) {
+                out.writeShort(index);
+            } else {
+                out.writeByte(index);
+            }
+        }
+    }
+
+    /**
+     * Read n values written by {@link #writeStrings}.
+     */
+    public static String[] readStrings(DataInputStream in, int n) throws IOException {
+        String[] values = new String[n];
+        byte encoding = in.readByte();
+        if (encoding == PLAIN) {
+            for (int i = 0; i < n; i++) {
+                values[i] = readString(in);
+            }
+            return values;
+        }
+        if (encoding != DICTIONARY) {
+            throw new IOException("unknown STRING column encoding " + encoding);
+        }
+        String[] dictionary = new String[(int) readVarLong(in)];
+        for (int i = 0; i < dictionary.length; i++) {
+            dictionary[i] = readString(in);
+        }
+        boolean wide = dictionary.length > 256;
+        for (int i = 0; i < n; i++) {
+            values[i] = dictionary[wide ? in.readUnsignedShort() : in.readUnsignedByte()];
+        }
+        return values;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[(int) readVarLong(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /* small differences of either sign become small numbers */
+    private static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    private static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private static int varLongSize(long v) {
+        int size = 1;
+        while ((v >>>= 7) != 0) {
+            size++;
+        }
+        return size;
+    }
+
+    /* seven bits to a byte, low bits first; the high bit marks a byte to follow */
+    private static void writeVarLong(DataOutputStream out, long v) throws IOException {
+        while ((v & ~0x7fL) != 0) {
+            out.write((int) (v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long v = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.readUnsignedByte();
+            v |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return v;
+            }
+        }
+    }
+}
@@ -0,0 +1,440 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * CompressedHeapFile is a read-only DbFile for cold tables, stored in a
+ * fraction of the space of a HeapFile.  Its pages are HeapPages once read,
+ * but on disk they are packed into compressed extents of
+ * {@link #PAGES_PER_EXTENT} pages:
+ * <ul>
+ * <li>each page of an extent is written as its number of tuples followed
+ * by its columns, each in the smaller of a few lightweight encodings, see
+ * {@link ColumnEncoding};
+ * <li>the extent is then compressed with deflate, the zlib format.
+ * </ul>
+ * The extents are followed by an extent index, the offset and length of
+ * each extent, and by a trailer locating the index.  Reading a page
+ * decompresses its extent and decodes the extent's pages, and the last
+ * few extents decoded are kept, so that a scan decompresses each extent
+ * once while the buffer pool fills with its pages.
+ * <p>
+ * A compressed table is written whole by
+ * {@link BulkLoader#loadCompressedFile}; inserts and deletes are refused,
+ * and changing it means loading it again.
+ *
+ * @see HeapFile
+ */
+public class CompressedHeapFile implements DbFile {
+
+    /** The number of pages compressed together. */
+    public static final int PAGES_PER_EXTENT = 16;
+
+    /* ends the trailer of a compressed file */
+    private static final int MAGIC = 0x53444243;
+    /* pages per extent, number of pages, number of extents, index offset, magic */
+    private static final int TRAILER_SIZE = 24;
+    /* extents kept decoded */
+    private static final int CACHED_EXTENTS = 4;
+
+    private final File file;
+    private final PageChannel channel;
+    private final TupleDesc tupleDesc;
+    private final BufferPool bufferPool = Database.getBufferPool();
+
+    /* read on first use */
+    private volatile Index index;
+    /* decoded pages of the extents read last, by extent number */
+    private final Map<Integer, byte[][]> extents = new LinkedHashMap<>(CACHED_EXTENTS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, byte[][]> eldest) {
+            return size() > CACHED_EXTENTS;
+        }
+    };
+
+    /* where the extents are */
+    private static class Index {
+        final int pagesPerExtent;
+        final int numPages;
+        final long[] offsets;
+        final int[] lengths;
+
+        Index(int pagesPerExtent, int numPages, long[] offsets, int[] lengths) {
+            this.pagesPerExtent = pagesPerExtent;
+            this.numPages = numPages;
+            this.offsets = offsets;
+            this.lengths = lengths;
+        }
+    }
+
+    /**
+     * Constructs a compressed heap file backed by the specified file, which
+     * must have been written by {@link BulkLoader#loadCompressedFile}, or
+     * not exist, for an empty table.
+     *
+     * @throws IllegalArgumentException if td has fields of variable length
+     */
+    public CompressedHeapFile(File f, TupleDesc td) {
+        if (td != null && !td.isFixedLength()) {
+            throw new IllegalArgumentException("a CompressedHeapFile cannot store fields of variable length: " + td);
+        }
+        file = f;
+        channel = new PageChannel(f);
+        tupleDesc = td;
+    }
+
+    /**
+     * Returns the File backing this CompressedHeapFile on disk.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this file, a hash of the absolute
+     * file name, like a HeapFile's.
+     */
+    public int getId() {
+        return file.getAbsoluteFile().hashCode();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return tupleDesc;
+    }
+
+    /**
+     * Returns the number of pages in this file, once decompressed.
+     */
+    public int numPages() {
+        try {
+            return index().numPages;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the number of pages the file takes on disk, which is what a
+     * scan of it reads.
+     */
+    public int diskPages() {
+        int pageSize = BufferPool.getPageSize();
+        return (int) ((file.length() + pageSize - 1) / pageSize);
+    }
+
+    private Index index() throws IOException {
+        Index idx = index;
+        if (idx == null) {
+            synchronized (this) {
+                idx = index;
+                if (idx == null) {
+                    idx = readIndex();
+                    index = idx;
+                }
+            }
+        }
+        return idx;
+    }
+
+    private Index readIndex() throws IOException {
+        long size = channel.size();
+        if (size == 0) {
+            return new Index(PAGES_PER_EXTENT, 0, new long[0], new int[0]);
+        }
+        byte[] trailer = new byte[TRAILER_SIZE];
+        if (size < TRAILER_SIZE || channel.read(size - TRAILER_SIZE, trailer) < TRAILER_SIZE) {
+            throw new IOException(file + " is not a compressed table");
+        }
+        ByteBuffer t = ByteBuffer.wrap(trailer);
+        int pagesPerExtent = t.getInt();
+        int numPages = t.getInt();
+        int numExtents = t.getInt();
+        long indexOffset = t.getLong();
+        if (t.getInt() != MAGIC) {
+            throw new IOException(file + " is not a compressed table");
+        }
+        byte[] entries = new byte[numExtents * 12];
+        channel.read(indexOffset, entries);
+        ByteBuffer e = ByteBuffer.wrap(entries);
+        long[] offsets = new long[numExtents];
+        int[] lengths = new int[numExtents];
+        for (int i = 0; i < numExtents; i++) {
+            offsets[i] = e.getLong();
+            lengths[i] = e.getInt();
+        }
+        return new Index(pagesPerExtent, numPages, offsets, lengths);
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        try {
+            Index idx = index();
+            int pageNo = pid.getPageNumber();
+            if (pageNo < 0 || pageNo >= idx.numPages) {
+                throw new IllegalArgumentException("page " + pageNo + " is not in " + file);
+            }
+            byte[][] pages = extent(idx, pageNo / idx.pagesPerExtent);
+            return new HeapPage((HeapPageId) pid, pages[pageNo % idx.pagesPerExtent]);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /*
+     * @return the pages of an extent; pages never write to the bytes they
+     *         are decoded from, so they share them
+     */
+    private byte[][] extent(Index idx, int extentNo) throws IOException {
+        synchronized (extents) {
+            byte[][] pages = extents.get(extentNo);
+            if (pages != null) {
+                return pages;
+            }
+        }
+        byte[] compressed = new byte[idx.lengths[extentNo]];
+        channel.read(idx.offsets[extentNo], compressed);
+        int first = extentNo * idx.pagesPerExtent;
+        byte[][] pages = new byte[Math.min(idx.pagesPerExtent, idx.numPages - first)][];
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new InflaterInputStream(new ByteArrayInputStream(compressed))))) {
+            for (int p = 0; p < pages.length; p++) {
+                pages[p] = decodePage(in, new HeapPageId(getId(), first + p));
+            }
+        }
+        synchronized (extents) {
+            extents.put(extentNo, pages);
+        }
+        return pages;
+    }
+
+    /*
+     * Read the columns of a page and lay its tuples out in slot order, as
+     * HeapPage and its fields serialize them, without building tuples.
+     */
+    private byte[] decodePage(DataInputStream in, HeapPageId pid) throws IOException {
+        int n = in.readInt();
+        int pageSize = BufferPool.getPageSize();
+        int tupleSize = tupleDesc.getSize();
+        int numSlots = pageSize * 8 / (tupleSize * 8 + 1);
+        int headerBytes = (numSlots + 7) / 8;
+        if (n > numSlots) {
+            throw new IOException("corrupt page " + pid.getPageNumber() + " in " + file);
+        }
+        byte[] page = new byte[pageSize];
+        SlotBitmap header = new SlotBitmap(numSlots, headerBytes);
+        for (int i = 0; i < n; i++) {
+            header.set(i, true);
+        }
+        header.writeTo(page, 0);
+
+        ByteBuffer buf = ByteBuffer.wrap(page);
+        int fieldOffset = headerBytes;
+        for (int j = 0; j < tupleDesc.numFields(); j++) {
+            if (tupleDesc.getFieldType(j) == Type.INT_TYPE) {
+                int[] values = ColumnEncoding.readInts(in, n);
+                for (int i = 0; i < n; i++) {
+                    buf.putInt(fieldOffset + i * tupleSize, values[i]);
+                }
+            } else {
+                String[] values = ColumnEncoding.readStrings(in, n);
+                for (int i = 0; i < n; i++) {
+                    // as StringField.serialize writes it: the length, then a byte per char
+                    String v = values[i].length() > Type.STRING_LEN ? values[i].substring(0, Type.STRING_LEN) : values[i];
+                    int at = fieldOffset + i * tupleSize;
+                    buf.putInt(at, v.length());
+                    for (int c = 0; c < v.length(); c++) {
+                        page[at + 4 + c] = (byte) v.charAt(c);
+                    }
+                }
+            }
+            fieldOffset += tupleDesc.getFieldType(j).getLen();
+        }
+        return page;
+    }
+
+    /**
+     * Compressed tables are read-only; their pages are never dirty.
+     *
+     * @throws IOException always
+     */
+    public void writePage(Page page) throws IOException {
+        throw new IOException("compressed table " + file + " is read-only");
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> insertTuple(TransactionId tid, Tuple t) throws DbException {
+        throw new DbException("compressed table " + file + " is read-only; load it again to change it");
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException {
+        throw new DbException("compressed table " + file + " is read-only; load it again to change it");
+    }
+
+    /**
+     * Writes a compressed file: pages of tuples in order, then
+     * {@link #close()} to write the extent index and trailer.
+     */
+    static class Writer implements Closeable {
+        private final OutputStream out;
+        private final TupleDesc td;
+        private final List<Long> offsets = new ArrayList<>();
+        private final List<Integer> lengths = new ArrayList<>();
+        private final ByteArrayOutputStream extent = new ByteArrayOutputStream();
+        private final DataOutputStream extentOut = new DataOutputStream(extent);
+        private final Deflater deflater = new Deflater();
+        private long position;
+        private int numPages;
+
+        Writer(OutputStream out, TupleDesc td) {
+            this.out = out;
+            this.td = td;
+        }
+
+        /** Add a page holding the given tuples. */
+        void addPage(List<Tuple> tuples) throws IOException {
+            int n = tuples.size();
+            extentOut.writeInt(n);
+            for (int j = 0; j < td.numFields(); j++) {
+                if (td.getFieldType(j) == Type.INT_TYPE) {
+                    int[] values = new int[n];
+                    for (int i = 0; i < n; i++) {
+                        values[i] = ((IntField) tuples.get(i).getField(j)).getValue();
+                    }
+                    ColumnEncoding.writeInts(values, n, extentOut);
+                } else {
+                    String[] values = new String[n];
+                    for (int i = 0; i < n; i++) {
+                        values[i] = ((StringField) tuples.get(i).getField(j)).getValue();
+                    }
+                    ColumnEncoding.writeStrings(values, n, extentOut);
+                }
+            }
+            if (++numPages % PAGES_PER_EXTENT == 0) {
+                writeExtent();
+            }
+        }
+
+        /** @return the number of pages added */
+        int numPages() {
+            return numPages;
+        }
+
+        private void writeExtent() throws IOException {
+            extentOut.flush();
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(extent.size() / 2 + 64);
+            deflater.reset();
+            try (DeflaterOutputStream dos = new DeflaterOutputStream(compressed, deflater)) {
+                extent.writeTo(dos);
+            }
+            compressed.writeTo(out);
+            offsets.add(position);
+            lengths.add(compressed.size());
+            position += compressed.size();
+            extent.reset();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (numPages % PAGES_PER_EXTENT != 0) {
+                writeExtent();
+            }
+            deflater.end();
+            DataOutputStream index = new DataOutputStream(out);
+            for (int i = 0; i < offsets.size(); i++) {
+                index.writeLong(offsets.get(i));
+                index.writeInt(lengths.get(i));
+            }
+            index.writeInt(PAGES_PER_EXTENT);
+            index.writeInt(numPages);
+            index.writeInt(offsets.size());
+            index.writeLong(position);
+            index.writeInt(MAGIC);
+            index.flush();
+        }
+    }
+
+    /**
+     * Iterates over the tuples of the pages in order, reading the pages
+     * ahead when scanning sequentially.
+     */
+    private class CompressedHeapFileIterator extends AbstractDbFileIterator {
+        private final TransactionId tid;
+        private final ReadAhead readAhead;
+        private int[] neededFields;
+        private int numPages;
+        private int pgNo;
+        private Iterator<Tuple> tuples;
+
+        CompressedHeapFileIterator(TransactionId tid) {
+            this.tid = tid;
+            this.readAhead = new ReadAhead(tid, p -> {
+                int next = p.getId().getPageNumber() + 1;
+                return next < numPages ? new HeapPageId(getId(), next) : null;
+            });
+        }
+
+        @Override
+        public void open() {
+            readAhead.reset();
+            numPages = numPages();
+            pgNo = -1;
+            tuples = Collections.emptyIterator();
+        }
+
+        @Override
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (tuples == null) {
+                return null;
+            }
+            while (!tuples.hasNext()) {
+                if (++pgNo >= numPages) {
+                    return null;
+                }
+                HeapPage page = (HeapPage) bufferPool.getPage(tid, new HeapPageId(getId(), pgNo), Permissions.READ_ONLY);
+                readAhead.pageRead(page);
+                tuples = page.iterator(neededFields);
+            }
+            return tuples.next();
+        }
+
+        @Override
+        public void rewind() {
+            close();
+            open();
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            tuples = null;
+        }
+
+        @Override
+        public void hintSequential() {
+            readAhead.hintSequential();
+        }
+
+        @Override
+        public void setNeededFields(int[] fields) {
+            neededFields = fields;
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new CompressedHeapFileIterator(tid);
+    }
+}
@@ -40,4 +40,22 @@ public interface DbFileIterator{
      * Closes the iterator.
      */
     void close();
+
+    /**
+     * Tells the iterator it is going to be read to the end, so it may have
+     * pages read ahead from the first page on, rather than waiting to see
+     * a sequential run.  Iterators that do not read ahead ignore it.
+     */
+    default void hintSequential() {
+    }
+
+    /**
+     * Tells the iterator that only the given fields of the tuples it returns
+     * are read, so it may leave the others null.  Iterators that cannot
+     * decode fields separately ignore it and return whole tuples.
+     *
+     * @param fields the indices of the fields that are read, or null for all
+     */
+    default void setNeededFields(int[] fields) {
+    }
 }
@@ -0,0 +1,364 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * ExternalSort sorts a stream of tuples in bounded memory.  Runs are made
+ * by replacement selection: a memory budget of pages is filled with
+ * tuples, and from then on the smallest tuple in memory that can still
+ * extend the current run is written to it to make room for each new one;
+ * tuples smaller than the last one written wait for the next run.  Runs
+ * are about twice as long as memory on random input, and input that is
+ * already sorted makes one run.  Run files hold tuples in the encoding of
+ * a page, and are written and read a page at a time.
+ * <p>
+ * The runs are then merged, at most one run per page of the budget at a
+ * time, by a loser tree, in as many passes as it takes to get down to one
+ * merge, whose output is read with {@link #sorted()}.  Input that fits in
+ * the budget is never written out.
+ * <p>
+ * Usage:
+ * <pre>
+ * ExternalSort sort = new ExternalSort(td, comparator, memoryPages);
+ * while (...) sort.add(t);
+ * Iterator&lt;Tuple&gt; it = sort.sorted();
+ * ...
+ * sort.close();
+ * </pre>
+ * The sort is stable, and run files are deleted once read, or by
+ * {@link #close()}.
+ */
+public class ExternalSort implements Closeable {
+
+    private final TupleDesc td;
+    private final Comparator<Tuple> comparator;
+    private final int runTuples;
+    private final int fanIn;
+
+    /* the tuples added while they all fit in memory, in arrival order */
+    private List<Tuple> buffer = new ArrayList<>();
+    /* once they do not, the tuples in memory, in the order they are written out: by run, then key, then arrival */
+    private final PriorityQueue<Entry> memory;
+    /* the run being written, and the last tuple written to it */
+    private RunWriter writer;
+    private int run;
+    private Tuple lastWritten;
+    private final List<File> runs = new ArrayList<>();
+    /* the number of tuples in each run */
+    private final Map<File, Long> runLengths = new HashMap<>();
+    private final List<RunReader> open = new ArrayList<>();
+    private long size;
+
+    /* a tuple in memory, with the run it goes to and when it arrived */
+    private static class Entry {
+        final Tuple t;
+        final int run;
+        final long arrival;
+
+        Entry(Tuple t, int run, long arrival) {
+            this.t = t;
+            this.run = run;
+            this.arrival = arrival;
+        }
+    }
+
+    /**
+     * @param td          the tuples' description
+     * @param comparator  the sort order
+     * @param memoryPages the memory budget, in pages: how many pages of
+     *                    tuples are kept in memory while runs are made,
+     *                    and how many runs are merged at once; at least 2
+     */
+    public ExternalSort(TupleDesc td, Comparator<Tuple> comparator, int memoryPages) {
+        if (memoryPages < 2) {
+            throw new IllegalArgumentException("an external sort needs at least 2 pages of memory");
+        }
+        this.td = td;
+        this.comparator = comparator;
+        this.runTuples = Math.max(1, (int) Math.min(Integer.MAX_VALUE,
+                (long) memoryPages * BufferPool.getPageSize() / td.getSize()));
+        this.fanIn = memoryPages;
+        this.memory = new PriorityQueue<>((a, b) -> {
+            if (a.run != b.run) {
+                return Integer.compare(a.run, b.run);
+            }
+            int c = comparator.compare(a.t, b.t);
+            return c != 0 ? c : Long.compare(a.arrival, b.arrival);
+        });
+    }
+
+    /** Add a tuple to the input. */
+    public void add(Tuple t) throws IOException {
+        if (buffer != null) {
+            if (buffer.size() < runTuples) {
+                buffer.add(t);
+                size++;
+                return;
+            }
+            // memory is full: from now on runs are made
+            for (int i = 0; i < buffer.size(); i++) {
+                memory.add(new Entry(buffer.get(i), 0, i));
+            }
+            buffer = null;
+        }
+        if (memory.size() >= runTuples) {
+            writeSmallest();
+        }
+        // a tuple that sorts before the last one written waits for the next run
+        boolean next = lastWritten != null && comparator.compare(t, lastWritten) < 0;
+        memory.add(new Entry(t, next ? run + 1 : run, size++));
+    }
+
+    /** @return the number of tuples added */
+    public long size() {
+        return size;
+    }
+
+    /** @return the number of runs written to disk so far, the one being written included */
+    public int numRuns() {
+        return runs.size() + (writer != null ? 1 : 0);
+    }
+
+    /**
+     * Finish the input and return the tuples in order.  Call once, after
+     * the last {@link #add(Tuple)}.
+     */
+    public Iterator<Tuple> sorted() throws IOException {
+        if (buffer != null) {
+            // a stable sort in memory
+            List<Tuple> tuples = buffer;
+            buffer = new ArrayList<>();
+            tuples.sort(comparator);
+            return tuples.iterator();
+        }
+        while (!memory.isEmpty()) {
+            writeSmallest();
+        }
+        finishRun();
+        // merge groups of runs into longer runs until one merge is left
+        while (runs.size() > fanIn) {
+            List<File> merged = new ArrayList<>();
+            for (int i = 0; i < runs.size(); i += fanIn) {
+                List<File> group = runs.subList(i, Math.min(runs.size(), i + fanIn));
+                merged.add(writeRun(merge(group)));
+            }
+            runs.clear();
+            runs.addAll(merged);
+        }
+        List<File> last = new ArrayList<>(runs);
+        runs.clear();
+        return merge(last);
+    }
+
+    /** Delete the run files that are left. */
+    public void close() throws IOException {
+        for (RunReader r : open) {
+            r.close();
+        }
+        open.clear();
+        if (writer != null) {
+            writer.out.close();
+            writer.file.delete();
+            writer = null;
+        }
+        for (File run : runs) {
+            run.delete();
+        }
+        runs.clear();
+        runLengths.clear();
+        memory.clear();
+        buffer = null;
+    }
+
+    /* write the first tuple in memory to its run, starting the run if it is a new one */
+    private void writeSmallest() throws IOException {
+        Entry e = memory.poll();
+        if (writer == null || e.run != run) {
+            finishRun();
+            writer = new RunWriter();
+            run = e.run;
+        }
+        writer.write(e.t);
+        lastWritten = e.t;
+    }
+
+    private void finishRun() throws IOException {
+        if (writer != null) {
+            runs.add(writer.finish());
+            writer = null;
+        }
+    }
+
+    private File writeRun(Iterator<Tuple> tuples) throws IOException {
+        RunWriter w = new RunWriter();
+        while (tuples.hasNext()) {
+            w.write(tuples.next());
+        }
+        return w.finish();
+    }
+
+    /**
+     * @return the tuples of the given runs in order; ties go to the earlier
+     *         run, which keeps the sort stable
+     */
+    private Iterator<Tuple> merge(List<File> group) throws IOException {
+        RunReader[] readers = new RunReader[group.size()];
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = new RunReader(group.get(i));
+            open.add(readers[i]);
+            readers[i].advance();
+        }
+        return new LoserTree(readers);
+    }
+
+    /*
+     * A tournament over the heads of some runs.  Each inner node holds the
+     * run that lost the match played there, and the winner of the whole
+     * tournament is kept apart; when the winner's head is taken, only the
+     * matches on the way from its leaf to the root are played again, one
+     * comparison each.
+     */
+    private class LoserTree implements Iterator<Tuple> {
+        final RunReader[] readers;
+        /* tree[0] is the winner, tree[1..k-1] the losers of the inner nodes */
+        final int[] tree;
+
+        LoserTree(RunReader[] readers) {
+            this.readers = readers;
+            int k = readers.length;
+            this.tree = new int[Math.max(1, k)];
+            // play the first tournament bottom up: node n's winner, with the leaves at k..2k-1
+            int[] winners = new int[2 * k];
+            for (int i = 0; i < k; i++) {
+                winners[k + i] = i;
+            }
+            for (int node = k - 1; node > 0; node--) {
+                int a = winners[2 * node];
+                int b = winners[2 * node + 1];
+                boolean aWins = beats(a, b);
+                winners[node] = aWins ? a : b;
+                tree[node] = aWins ? b : a;
+            }
+            tree[0] = k > 1 ? winners[1] : 0;
+        }
+
+        /* whether run a's head comes before run b's; finished runs come last */
+        private boolean beats(int a, int b) {
+            Tuple x = readers[a].head;
+            Tuple y = readers[b].head;
+            if (x == null || y == null) {
+                return y == null && x != null;
+            }
+            int c = comparator.compare(x, y);
+            return c != 0 ? c < 0 : a < b;
+        }
+
+        /* play the matches from run i's leaf up again after its head changed */
+        private void replay(int i) {
+            int winner = i;
+            for (int node = (i + readers.length) / 2; node > 0; node /= 2) {
+                if (beats(tree[node], winner)) {
+                    int t = tree[node];
+                    tree[node] = winner;
+                    winner = t;
+                }
+            }
+            tree[0] = winner;
+        }
+
+        public boolean hasNext() {
+            return readers.length > 0 && readers[tree[0]].head != null;
+        }
+
+        public Tuple next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int w = tree[0];
+            Tuple t = readers[w].head;
+            try {
+                readers[w].advance();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            replay(w);
+            return t;
+        }
+    }
+
+    /* writes a run file a page at a time */
+    private class RunWriter {
+        final File file;
+        final DataOutputStream out;
+        long length;
+
+        RunWriter() throws IOException {
+            file = File.createTempFile("sortRun", ".dat");
+            file.deleteOnExit();
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file),
+                    BufferPool.getPageSize()));
+        }
+
+        void write(Tuple t) throws IOException {
+            for (int i = 0; i < td.numFields(); i++) {
+                t.getField(i).serialize(out);
+            }
+            length++;
+        }
+
+        File finish() throws IOException {
+            out.close();
+            runLengths.put(file, length);
+            return file;
+        }
+    }
+
+    /* reads a run file one tuple at a time; the file is deleted at its end */
+    private class RunReader implements Closeable {
+        final File file;
+        final DataInputStream in;
+        long remaining;
+        Tuple head;
+
+        RunReader(File file) throws IOException {
+            this.file = file;
+            this.remaining = runLengths.remove(file);
+            this.in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(file), BufferPool.getPageSize()));
+        }
+
+        /** @return false, and delete the run, at its end */
+        boolean advance() throws IOException {
+            if (remaining == 0) {
+                close();
+                return false;
+            }
+            remaining--;
+            head = readTuple();
+            return true;
+        }
+
+        private Tuple readTuple() throws IOException {
+            Tuple t = new Tuple(td);
+            try {
+                for (int i = 0; i < td.numFields(); i++) {
+                    Type type = td.getFieldType(i);
+                    t.setField(i, type.parse(in));
+                }
+            } catch (ParseException e) {
+                throw new IOException("corrupt sort run " + file, e);
+            }
+            return t;
+        }
+
+        public void close() throws IOException {
+            head = null;
+            in.close();
+            file.delete();
+        }
+    }
+}
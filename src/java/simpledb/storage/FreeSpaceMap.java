@@ -0,0 +1,135 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap records which pages of a HeapFile have empty slots, so that
+ * inserts go straight to a page with room instead of locking and checking
+ * every page before it.
+ * <p>
+ * The map is kept next to the heap file, in a file with one byte per page
+ * holding the page's number of empty slots (capped at 255), and in memory
+ * as the set of pages with room.  It is a hint, never trusted blindly:
+ * <ul>
+ * <li>an insert checks the page it is given, and marks it full if it is;
+ * <li>every page read from disk updates its entry in memory, so aborts,
+ * which throw away dirty pages and read them again, correct the map;
+ * <li>every page written to disk, including by recovery, writes its entry
+ * to the map's file, so the file describes the pages as they are on disk.
+ * </ul>
+ * A wrong entry therefore only ever costs one wasted page lock, or a page
+ * appended while another page still has room.
+ * <p>
+ * A SlottedHeapFile stores units of free space in the entries instead of
+ * empty slots, and asks for a page with at least as many units as its
+ * tuple needs, see {@link #nextPageWithRoom(int, int)}.
+ */
+public class FreeSpaceMap {
+
+    /* entries hold at most this many empty slots */
+    static final int MAX_ENTRY = 255;
+
+    private final PageChannel channel;
+    /* the pages with room */
+    private final BitSet withRoom = new BitSet();
+    /* the entry of each page, up to size */
+    private byte[] entries = new byte[0];
+    /* the lowest page with room, or -1 */
+    private int first = -1;
+    /* the number of pages in the map */
+    private int size;
+
+    /**
+     * @return the file holding the free space map of the given heap file
+     */
+    public static File fileFor(File heapFile) {
+        return new File(heapFile.getPath() + ".fsm");
+    }
+
+    /**
+     * Open the free space map in the given file; it is created on the
+     * first write.
+     */
+    FreeSpaceMap(File file) throws IOException {
+        this.channel = new PageChannel(file);
+        if (file.exists()) {
+            byte[] entries = new byte[(int) channel.size()];
+            channel.read(0, entries);
+            for (int i = 0; i < entries.length; i++) {
+                set(i, entries[i] & 0xff);
+            }
+        }
+    }
+
+    /**
+     * Write the map file of a heap file whose pages are all full, except
+     * possibly the last, as a bulk load leaves them.
+     */
+    static void create(File file, int numPages, int lastPageEmptySlots) throws IOException {
+        byte[] entries = new byte[numPages];
+        if (numPages > 0) {
+            entries[numPages - 1] = (byte) Math.min(lastPageEmptySlots, MAX_ENTRY);
+        }
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(entries);
+        }
+    }
+
+    /** @return the number of pages in the map */
+    synchronized int size() {
+        return size;
+    }
+
+    /** @return the lowest page that may have room, or -1 if none has */
+    synchronized int firstPageWithRoom() {
+        return first;
+    }
+
+    /**
+     * @return the lowest page from the given one on whose entry is at least
+     *         minEntry, or -1 if none is
+     */
+    synchronized int nextPageWithRoom(int from, int minEntry) {
+        for (int i = withRoom.nextSetBit(from); i >= 0; i = withRoom.nextSetBit(i + 1)) {
+            if ((entries[i] & 0xff) >= minEntry) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Record the number of empty slots of a page in memory.
+     */
+    synchronized void set(int pageNo, int emptySlots) {
+        size = Math.max(size, pageNo + 1);
+        if (size > entries.length) {
+            entries = Arrays.copyOf(entries, Math.max(size, 2 * entries.length));
+        }
+        entries[pageNo] = (byte) Math.min(emptySlots, MAX_ENTRY);
+        if (emptySlots > 0) {
+            withRoom.set(pageNo);
+            if (first < 0 || pageNo < first) {
+                first = pageNo;
+            }
+        } else {
+            withRoom.clear(pageNo);
+            if (pageNo == first) {
+                first = withRoom.nextSetBit(pageNo + 1);
+            }
+        }
+    }
+
+    /**
+     * Record the number of empty slots of a page as it is on disk, in
+     * memory and in the map's file.
+     */
+    void write(int pageNo, int emptySlots) throws IOException {
+        set(pageNo, emptySlots);
+        channel.write(pageNo, new byte[] { (byte) Math.min(emptySlots, MAX_ENTRY) });
+    }
+}
@@ -9,6 +9,8 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.util.*;
 
 /**
@@ -26,17 +28,53 @@ public class HeapFile implements DbFile {
     // final static Logger logger = LoggerFactory.getLogger(HeapFile.class);
 
     private final File file;
+    private final PageChannel channel;
     private final TupleDesc tupleDesc;
     private final BufferPool bufferPool = Database.getBufferPool();
 
+    /* a mapping holds at most this many bytes, rounded down to whole pages */
+    static final long MAP_SEGMENT_BYTES = 1L << 30;
+
+    /**
+     * The file mapped read-only into memory, as segments of whole pages so
+     * that files over 2GB can be mapped.  Only the last segment may be
+     * shorter than the others.
+     */
+    private static class Mapping {
+        final int pageSize;
+        final long segmentBytes;
+        final MappedByteBuffer[] segments;
+        final long length;
+
+        Mapping(int pageSize, MappedByteBuffer[] segments, long length) {
+            this.pageSize = pageSize;
+            this.segmentBytes = MAP_SEGMENT_BYTES / pageSize * pageSize;
+            this.segments = segments;
+            this.length = length;
+        }
+    }
+
+    /* loaded on first use */
+    private volatile FreeSpaceMap freeSpaceMap;
+
+    /* null unless the file is memory mapped; replaced as the file grows */
+    private volatile Mapping mapping;
+    private volatile boolean memoryMapped;
+
     /**
      * Constructs a heap file backed by the specified file.
      *
      * @param f the file that stores the on-disk backing store for this heap
      *          file.
+     * @throws IllegalArgumentException if td has fields of variable length,
+     *          which only a {@link SlottedHeapFile} can store
      */
     public HeapFile(File f, TupleDesc td) {
+        if (td != null && !td.isFixedLength()) {
+            throw new IllegalArgumentException("a HeapFile cannot store fields of variable length: " + td);
+        }
         file = f;
+        channel = new PageChannel(f);
         tupleDesc = td;
     }
 
@@ -49,6 +87,47 @@ public class HeapFile implements DbFile {
         return file;
     }
 
+    /**
+     * Read pages through a read-only memory mapping of the file instead of
+     * copying them out of it with a read call.  Pages are decoded straight
+     * from the mapped memory; scans of tables that fit in the OS cache then
+     * cost no system calls.  The file is mapped on the first read and again
+     * whenever it grows.
+     */
+    public synchronized void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+        mapping = null;
+    }
+
+    /**
+     * @return true if pages are read through a memory mapping of the file
+     */
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    /**
+     * @return the free space map of this file, loaded on first use; pages
+     *         it does not cover yet are read from disk to fill it in
+     */
+    private FreeSpaceMap freeSpaceMap() throws IOException {
+        FreeSpaceMap fsm = freeSpaceMap;
+        if (fsm == null) {
+            synchronized (this) {
+                fsm = freeSpaceMap;
+                if (fsm == null) {
+                    fsm = new FreeSpaceMap(FreeSpaceMap.fileFor(file));
+                    for (int i = fsm.size(); i < numPages(); i++) {
+                        HeapPage page = (HeapPage) readPage(new HeapPageId(getId(), i));
+                        fsm.write(i, page.getNumEmptySlots());
+                    }
+                    freeSpaceMap = fsm;
+                }
+            }
+        }
+        return fsm;
+    }
+
     /**
      * Returns an ID uniquely identifying this HeapFile. Implementation note:
      * you will need to generate this tableId somewhere to ensure that each
@@ -75,40 +154,90 @@ public class HeapFile implements DbFile {
     public Page readPage(PageId pid) {
         int pageSize = BufferPool.getPageSize();
         int pageNumber = pid.getPageNumber();
-        int offset = pageSize * pageNumber;
+        long offset = (long) pageSize * pageNumber;
 
         Page page = null;
-        RandomAccessFile randomAccessFile = null;
-
         try {
-            randomAccessFile = new RandomAccessFile(file, "r");
-            byte[] data = new byte[pageSize];
-            randomAccessFile.seek(offset);
-            randomAccessFile.read(data);
-            page = new HeapPage(((HeapPageId) pid), data);
+            ByteBuffer mapped = memoryMapped ? mappedPage(offset, pageSize) : null;
+            if (mapped != null) {
+                page = createPage((HeapPageId) pid, mapped);
+            } else {
+                byte[] data = new byte[pageSize];
+                channel.read(offset, data);
+                page = createPage((HeapPageId) pid, ByteBuffer.wrap(data));
+            }
+            FreeSpaceMap fsm = freeSpaceMap;
+            if (fsm != null) {
+                fsm.set(pageNumber, ((HeapPage) page).getNumEmptySlots());
+            }
         } catch (IOException e) {
             // logger.error(e.getMessage());
-        } finally {
-            try {
-                assert randomAccessFile != null;
-                randomAccessFile.close();
-            } catch (IOException e) {
-                // logger.error(e.getMessage());
-            }
         }
         return page;
     }
 
+    /**
+     * @return a page of this file, decoded from data
+     * @see HeapPage#HeapPage(HeapPageId, ByteBuffer)
+     */
+    HeapPage createPage(HeapPageId pid, ByteBuffer data) throws IOException {
+        return new HeapPage(pid, data);
+    }
+
+    /**
+     * @return a view of the page at the given offset in the mapped file, or
+     *         null if the page lies past the end of the file
+     */
+    private ByteBuffer mappedPage(long offset, int pageSize) throws IOException {
+        Mapping m = mapping;
+        if (m == null || m.pageSize != pageSize || offset + pageSize > m.length) {
+            m = remap(pageSize);
+            if (m == null || offset + pageSize > m.length) {
+                return null;
+            }
+        }
+        int segment = (int) (offset / m.segmentBytes);
+        return m.segments[segment].slice((int) (offset - segment * m.segmentBytes), pageSize);
+    }
+
+    /*
+     * Map the whole pages of the file that are not mapped yet.  Full
+     * segments are kept; the last one is mapped again if the file has grown.
+     */
+    private synchronized Mapping remap(int pageSize) throws IOException {
+        if (!memoryMapped) {
+            return null;
+        }
+        Mapping old = mapping;
+        long length = channel.size() / pageSize * pageSize;
+        if (old != null && old.pageSize == pageSize && old.length == length) {
+            return old;
+        }
+        long segmentBytes = MAP_SEGMENT_BYTES / pageSize * pageSize;
+        int numSegments = (int) ((length + segmentBytes - 1) / segmentBytes);
+        MappedByteBuffer[] segments = new MappedByteBuffer[numSegments];
+        for (int i = 0; i < numSegments; i++) {
+            long start = i * segmentBytes;
+            long size = Math.min(segmentBytes, length - start);
+            if (old != null && old.pageSize == pageSize && i < old.segments.length
+                    && old.segments[i].capacity() == size) {
+                segments[i] = old.segments[i];
+            } else {
+                segments[i] = channel.map(start, size);
+            }
+        }
+        mapping = new Mapping(pageSize, segments, length);
+        return mapping;
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         int pageSize = BufferPool.getPageSize();
         int pageNumber = page.getId().getPageNumber();
-        int offset = pageSize * pageNumber;
+        long offset = (long) pageSize * pageNumber;
 
-        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
-            randomAccessFile.seek(offset);
-            randomAccessFile.write(page.getPageData());
-        }
+        channel.write(offset, page.getPageData());
+        freeSpaceMap().write(pageNumber, ((HeapPage) page).getNumEmptySlots());
     }
 
     /**
@@ -123,27 +252,42 @@ public class HeapFile implements DbFile {
     public List<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         List<Page> modified = new ArrayList<>();
-        for(int i=0; i<numPages(); i++){
-            HeapPage page = (HeapPage) bufferPool.getPage(tid, new HeapPageId(this.getId(), i),Permissions.READ_WRITE);
+        FreeSpaceMap fsm = freeSpaceMap();
+        // only pages the free space map says have room are locked
+        for (int i = fsm.firstPageWithRoom(); i >= 0; i = fsm.firstPageWithRoom()) {
+            if (i >= numPages()) {
+                fsm.set(i, 0);
+                continue;
+            }
+            HeapPageId pid = new HeapPageId(this.getId(), i);
+            boolean locked = bufferPool.holdsLock(tid, pid);
+            HeapPage page = (HeapPage) bufferPool.getPage(tid, pid, Permissions.READ_WRITE);
             // when the slot is empty, can release the page into the slot.
             if (page.getNumEmptySlots() == 0){
                 //当该page上没有空slot时，释放该page上的锁，避免影响其他事务的访问
-                bufferPool.unsafeReleasePage(tid, page.getId());
+                fsm.set(i, 0);
+                // a lock the transaction held before it came here is kept until it completes
+                if (!locked) {
+                    bufferPool.unsafeReleasePage(tid, pid);
+                }
                 continue;
             }
             page.insertTuple(t);
+            fsm.set(i, page.getNumEmptySlots());
             modified.add(page);
             return modified;
         }
         // when all pages are full, we need to create new page to let the file in
-        BufferedOutputStream outputStream = new BufferedOutputStream(new FileOutputStream(file, true));
         byte[] emptyPageData = HeapPage.createEmptyPageData();
         // add data at the end of the file
-        outputStream.write(emptyPageData);
-        outputStream.close();
+        channel.append(emptyPageData);
+        if (memoryMapped) {
+            remap(BufferPool.getPageSize());
+        }
         // load the page into cache, attention, the numPage()-1 is used because now a new page is created.
         HeapPage page = (HeapPage) bufferPool.getPage(tid, new HeapPageId(getId(), numPages() - 1), Permissions.READ_WRITE);
         page.insertTuple(t);
+        fsm.set(page.getId().getPageNumber(), page.getNumEmptySlots());
         modified.add(page);
         return modified;
     }
@@ -153,6 +297,11 @@ public class HeapFile implements DbFile {
             TransactionAbortedException {
         HeapPage page = (HeapPage) bufferPool.getPage(tid, t.getRecordId().getPageId(), Permissions.READ_WRITE);
         page.deleteTuple(t);
+        try {
+            freeSpaceMap().set(page.getId().getPageNumber(), page.getNumEmptySlots());
+        } catch (IOException e) {
+            throw new DbException("could not read the free space map: " + e.getMessage());
+        }
         ArrayList<Page> modified = new ArrayList<>();
         modified.add(page);
         return modified;
@@ -167,6 +316,8 @@ public class HeapFile implements DbFile {
         private final TransactionId transactionId;
         private final int tableId;
         private final int numPages;
+        private final ReadAhead readAhead;
+        private int[] neededFields;
 
         public HeapFileIterator(TransactionId tid) {
             this.pgCursor = null;
@@ -174,10 +325,15 @@ public class HeapFile implements DbFile {
             this.transactionId = tid;
             this.tableId = getId();
             this.numPages = numPages();
+            this.readAhead = new ReadAhead(tid, page -> {
+                int pgNo = page.getId().getPageNumber() + 1;
+                return pgNo < numPages ? new HeapPageId(tableId, pgNo) : null;
+            });
         }
 
         @Override
         public void open() throws DbException, TransactionAbortedException {
+            readAhead.reset();
             pgCursor = 0;
             tupleIter = getTupleIter(pgCursor);
         }
@@ -220,14 +376,24 @@ public class HeapFile implements DbFile {
             tupleIter = null;
         }
 
+        @Override
+        public void hintSequential() {
+            readAhead.hintSequential();
+        }
+
+        @Override
+        public void setNeededFields(int[] fields) {
+            neededFields = fields;
+        }
+
         private Iterator<Tuple> getTupleIter(int pgNo)
                 throws TransactionAbortedException, DbException {
             PageId pid = new HeapPageId(tableId, pgNo);
-            return ((HeapPage)
-                    Database
-                            .getBufferPool()
-                            .getPage(transactionId, pid, Permissions.READ_ONLY))
-                    .iterator();
+            HeapPage page = (HeapPage) Database
+                    .getBufferPool()
+                    .getPage(transactionId, pid, Permissions.READ_ONLY);
+            readAhead.pageRead(page);
+            return page.iterator(neededFields);
         }
     }
 
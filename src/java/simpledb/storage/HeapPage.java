@@ -9,10 +9,24 @@ import simpledb.transaction.TransactionId;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * A page keeps the bytes it was created from and decodes a tuple only
+ * when it is asked for, reading its fields at fixed offsets, so scanning a
+ * page allocates nothing for the tuples it does not return.  The bytes are
+ * never written to: inserted tuples are kept as objects until the page is
+ * serialized, and the before image of an unmodified page shares the bytes.
+ * The bytes may be a view of a memory-mapped file; the file only ever
+ * changes under such a view when this page's own contents are written back.
+ * <p>
+ * Where each field of a slot is stored is up to {@link #fieldOffset}; this
+ * class stores tuples row by row, and {@link PaxPage} column by column.
+ * {@link #iterator(int[])} decodes only some fields of each tuple.
  *
  * @see HeapFile
  * @see BufferPool
@@ -23,11 +37,22 @@ public class HeapPage implements Page {
 
     final HeapPageId pid;
     final TupleDesc td;
-    final byte[] header;
-    final Tuple[] tuples;
+    SlotBitmap header;
+    /* decoded or inserted tuples; a used slot is null until it is decoded */
+    Tuple[] tuples;
+    /* whether an iterator reads header and tuples; they are copied before they next change */
+    private boolean shared;
     final int numSlots;
+    final int tupleSize;
+    /* the offset of each field within a tuple */
+    private final int[] fieldOffsets;
 
-    byte[] oldData;
+    /* the bytes the page is decoded from; replaced, never written to */
+    private ByteBuffer data;
+    /* whether tuples were inserted or deleted since data was set */
+    private boolean modified;
+
+    ByteBuffer oldData;
     private final Byte oldDataLock = (byte) 0;
 
     boolean dirty;
@@ -51,25 +76,30 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage from the bytes of a page in a buffer, starting at
+     * its position, e.g. a slice of a memory-mapped file.  The format is
+     * the same as for {@link #HeapPage(HeapPageId, byte[])}.  The page
+     * keeps a view of the bytes and decodes tuples from it when they are
+     * first used, so the bytes must not change afterwards.
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.tupleSize = td.getSize();
+        this.fieldOffsets = new int[td.numFields()];
+        for (int j = 1; j < fieldOffsets.length; j++)
+            fieldOffsets[j] = fieldOffsets[j - 1] + td.getFieldType(j - 1).getLen();
+        this.data = data.slice();
 
         // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i = 0; i < header.length; i++)
-            header[i] = dis.readByte();
+        header = new SlotBitmap(numSlots, getHeaderSize(), this.data, 0);
 
         tuples = new Tuple[numSlots];
-        try {
-            // allocate and read the actual records of this page
-            for (int i = 0; i < tuples.length; i++)
-                tuples[i] = readNextTuple(dis, i);
-        } catch (NoSuchElementException e) {
-            // logger.error(e.getMessage());
-        }
-        dis.close();
 
         setBeforeImage();
     }
@@ -99,11 +129,11 @@ public class HeapPage implements Page {
      */
     public HeapPage getBeforeImage() {
         try {
-            byte[] oldDataRef;
+            ByteBuffer oldDataRef;
             synchronized (oldDataLock) {
                 oldDataRef = oldData;
             }
-            return new HeapPage(pid, oldDataRef);
+            return createPage(pid, oldDataRef);
         } catch (IOException e) {
             // logger.error(e.getMessage());
             //should never happen -- we parsed it OK before!
@@ -114,10 +144,22 @@ public class HeapPage implements Page {
 
     public void setBeforeImage() {
         synchronized (oldDataLock) {
-            oldData = getPageData().clone();
+            if (modified) {
+                // copy on write: only a modified page needs new bytes
+                data = ByteBuffer.wrap(getPageData());
+                modified = false;
+            }
+            oldData = data;
         }
     }
 
+    /**
+     * @return a page of the same type as this one, decoded from data
+     */
+    HeapPage createPage(HeapPageId id, ByteBuffer data) throws IOException {
+        return new HeapPage(id, data);
+    }
+
     /**
      * @return the PageId associated with this page.
      */
@@ -126,32 +168,29 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * @return the offset within the page of the given field of the tuple in
+     *         the given slot
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i = 0; i < td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
+    int fieldOffset(int slotId, int field) {
+        return header.numBytes() + slotId * tupleSize + fieldOffsets[field];
+    }
 
-        // read fields in the tuple
+    /**
+     * Decode the given fields of the tuple in the given slot from the bytes
+     * of a page; all of them if fields is null.
+     */
+    private Tuple readTuple(ByteBuffer buf, int slotId, int[] fields) throws NoSuchElementException {
         Tuple t = new Tuple(td);
         RecordId rid = new RecordId(pid, slotId);
         t.setRecordId(rid);
         try {
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
+            int n = fields == null ? fieldOffsets.length : fields.length;
+            for (int k = 0; k < n; k++) {
+                int j = fields == null ? k : fields[k];
+                Field f = td.getFieldType(j).parse(buf, fieldOffset(slotId, j));
                 t.setField(j, f);
             }
-        } catch (java.text.ParseException e) {
+        } catch (ParseException e) {
             // logger.error(e.getMessage());
             throw new NoSuchElementException("parsing error!");
         }
@@ -172,37 +211,36 @@ public class HeapPage implements Page {
      */
     public byte[] getPageData() {
         int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
+        byte[] page = new byte[len];
+        // the bytes the page was decoded from hold every slot that has not
+        // changed since
+        data.get(0, page, 0, Math.min(len, data.limit()));
+        if (!modified) {
+            return page;
+        }
 
         // create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                // logger.error(e.getMessage());
-            }
-        }
+        header.writeTo(page, 0);
 
-        // create the tuples
+        // create the changed tuples
+        SlotOutputStream out = new SlotOutputStream(page);
+        DataOutputStream dos = new DataOutputStream(out);
         for (int i = 0; i < tuples.length; i++) {
-
             // empty slot
             if (!isSlotUsed(i)) {
-                for (int j = 0; j < td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        // logger.error(e.getMessage());
-                    }
-
+                for (int j = 0; j < td.numFields(); j++) {
+                    int offset = fieldOffset(i, j);
+                    Arrays.fill(page, offset, offset + td.getFieldType(j).getLen(), (byte) 0);
                 }
                 continue;
             }
+            if (tuples[i] == null) {
+                continue;
+            }
 
             // non-empty slot
             for (int j = 0; j < td.numFields(); j++) {
+                out.position = fieldOffset(i, j);
                 Field f = tuples[i].getField(j);
                 try {
                     f.serialize(dos);
@@ -214,8 +252,29 @@ public class HeapPage implements Page {
         }
 
         // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        return getBytes(baos, dos, zerolen);
+        Arrays.fill(page, header.numBytes() + tupleSize * tuples.length, len, (byte) 0);
+        return page;
+    }
+
+    /* writes into a page's bytes at a settable position */
+    private static class SlotOutputStream extends OutputStream {
+        private final byte[] page;
+        int position;
+
+        SlotOutputStream(byte[] page) {
+            this.page = page;
+        }
+
+        @Override
+        public void write(int b) {
+            page[position++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            System.arraycopy(b, off, page, position, len);
+            position += len;
+        }
     }
 
     public static byte[] getBytes(ByteArrayOutputStream baos, DataOutputStream dos, int zerolen) {
@@ -263,8 +322,10 @@ public class HeapPage implements Page {
         if (rid.getPageId() != this.pid || !isSlotUsed(slotId)) {
             throw new DbException("tuple not in this page!");
         }
+        unshare();
         markSlotUsed(slotId, false);
         tuples[slotId] = null;
+        modified = true;
     }
 
     /**
@@ -276,7 +337,8 @@ public class HeapPage implements Page {
      *                     is mismatch.
      */
     public void insertTuple(Tuple t) throws DbException {
-        if (getNumEmptySlots() == 0) {
+        int i = header.nextEmpty(0);
+        if (i < 0) {
             throw new DbException("The page is full!");
         }
 
@@ -286,14 +348,11 @@ public class HeapPage implements Page {
             throw new DbException("The td is missing matching");
         }
 
-        for (int i = 0; i < numSlots; i++) {
-            if (!isSlotUsed(i)) {
-                markSlotUsed(i, true);
-                t.setRecordId(new RecordId(this.pid, i));
-                this.tuples[i] = t;
-                break;
-            }
-        }
+        unshare();
+        markSlotUsed(i, true);
+        t.setRecordId(new RecordId(this.pid, i));
+        this.tuples[i] = t;
+        modified = true;
     }
 
     /**
@@ -316,45 +375,72 @@ public class HeapPage implements Page {
      * Returns the number of empty slots on this page.
      */
     public int getNumEmptySlots() {
-        int empty = 0;
-        for (int i = 0; i < numSlots; i++) {
-            if (!isSlotUsed(i)) {
-                empty++;
-            }
+        return header.numEmpty();
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return header.isUsed(i);
+    }
+
+    /**
+     * @return the first used slot from the given one on, or -1 if there is none
+     */
+    public int nextUsedSlot(int from) {
+        return header.nextUsed(from);
+    }
+
+    /**
+     * Read an INT field of the tuples in some used slots without decoding
+     * the tuples, for scans that read a column at a time: the field of the
+     * tuple in slots[i] goes to column[i], for i from from to to.
+     */
+    public void readInts(int field, int[] slots, int from, int to, int[] column) {
+        for (int i = from; i < to; i++) {
+            column[i] = getInt(slots[i], field);
         }
-        return empty;
     }
 
-    private int[] getZipData(int i) {
-        // loc, offset, tmp
-        return new int[]{i / 8, i % 8, 1 << i % 8};
+    /**
+     * Read an INT field of the tuple in a used slot like {@link #readInts}.
+     */
+    public int getInt(int slotId, int field) {
+        // unless tuples were inserted, the bytes hold every tuple
+        Tuple t = modified ? tuples[slotId] : null;
+        return t != null ? ((IntField) t.getField(field)).getValue() : data.getInt(fieldOffset(slotId, field));
     }
 
     /**
-     * Returns true if associated slot on this page is filled.
+     * Read a STRING field of the tuple in a used slot like
+     * {@link #readInts}.
      */
-    public boolean isSlotUsed(int i) {
-        return (header[getZipData(i)[0]] & getZipData(i)[2]) != 0;
+    public String getString(int slotId, int field) {
+        Tuple t = modified ? tuples[slotId] : null;
+        if (t != null) {
+            return ((StringField) t.getField(field)).getValue();
+        }
+        int offset = fieldOffset(slotId, field);
+        byte[] bytes = new byte[data.getInt(offset)];
+        data.get(offset + 4, bytes);
+        return new String(bytes);
+    }
+
+    /* give the page its own header and tuples, if iterators read the ones it has */
+    private void unshare() {
+        if (shared) {
+            header = header.copy();
+            tuples = tuples.clone();
+            shared = false;
+        }
     }
 
     /**
      * Abstraction to fill or clear a slot on this page.
      */
     private void markSlotUsed(int i, boolean value) {
-        /*
-        b: 0101 0010
-        i:i % 8 = 2
-        mask:0000 0100
-        value:true
-        (0101 0010) | (0000 0100) = 0101 0110
-        value:false
-        ~mask:1111 1011
-        (0101 0010) & (1111 1011) = 0101 0010
-         */
-        int loc = i/8;
-        int offset = i%8;
-        int tmp = 1<<offset;
-        header[loc] = (byte) (value ? (header[loc] | tmp) : (header[loc] & (~tmp)));
+        header.set(i, value);
     }
 
     /**
@@ -362,13 +448,61 @@ public class HeapPage implements Page {
      * (note that this iterator shouldn't return tuples in empty slots!)
      */
     public Iterator<Tuple> iterator() {
-        List<Tuple> filledTuples = new LinkedList<>();
-        for (int i = 0; i < tuples.length; ++i) {
-            if (isSlotUsed(i)) {
-                filledTuples.add(tuples[i]);
+        return new TupleIterator(null);
+    }
+
+    /**
+     * Like {@link #iterator()}, but tuples that were not decoded yet are
+     * decoded for the given fields only, and their other fields are left
+     * null; tuples the page holds decoded are returned whole.
+     *
+     * @param fields the indices of the fields to decode, or null for all
+     */
+    public Iterator<Tuple> iterator(int[] fields) {
+        return new TupleIterator(fields);
+    }
+
+    /**
+     * Iterates over the tuples on the page when the iterator was created,
+     * like a copy of them would, but decodes each tuple only when next()
+     * gets to it.  The iterator reads the page's header and tuples, which
+     * the page copies before it changes them if it is modified meanwhile.  Decoded tuples are kept by the page while its bytes are
+     * still the ones they were decoded from, unless only some of their
+     * fields were decoded.
+     */
+    private class TupleIterator implements Iterator<Tuple> {
+        private final SlotBitmap used = header;
+        private final Tuple[] decoded = tuples;
+        private final ByteBuffer bytes = data;
+        private final int[] fields;
+        private int next = used.nextUsed(0);
+
+        TupleIterator(int[] fields) {
+            this.fields = fields;
+            shared = true;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next >= 0;
+        }
+
+        @Override
+        public Tuple next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int i = next;
+            next = used.nextUsed(i + 1);
+            Tuple t = decoded[i];
+            if (t == null) {
+                t = readTuple(bytes, i, fields);
+                if (fields == null && bytes == data && tuples[i] == null && isSlotUsed(i)) {
+                    tuples[i] = t;
+                }
             }
+            return t;
         }
-        return filledTuples.iterator();
     }
 
 }
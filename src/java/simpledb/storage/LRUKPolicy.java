@@ -0,0 +1,113 @@
+package simpledb.storage;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+/**
+ * LRU-K replacement (O'Neil, O'Neil and Weikum).  The victim is the page
+ * whose K-th most recent access lies furthest in the past.  Pages accessed
+ * fewer than K times count as infinitely far and go first, least recently
+ * used among them, so pages touched once by a scan do not push out pages
+ * that are used over and over.  The access history of evicted pages is
+ * retained for a while, so a page that comes back quickly is recognized.
+ */
+public class LRUKPolicy implements ReplacementPolicy {
+
+    private static class Entry {
+        final PageId pid;
+        /* history[0] is the most recent access, history[k-1] the k-th most recent; 0 = none */
+        final long[] history;
+
+        Entry(PageId pid, long[] history) {
+            this.pid = pid;
+            this.history = history;
+        }
+
+        boolean complete() {
+            return history[history.length - 1] != 0;
+        }
+
+        /* the time that orders victims: the k-th access if known, else the last one */
+        long key() {
+            return complete() ? history[history.length - 1] : history[0];
+        }
+    }
+
+    /* pages with an incomplete history are evicted first, then the oldest key */
+    private static final Comparator<Entry> VICTIM_ORDER =
+            Comparator.comparing(Entry::complete)
+                    .thenComparingLong(Entry::key)
+                    .thenComparingLong(e -> e.history[0]);
+
+    private final int k;
+    private final Map<PageId, Entry> resident;
+    private final TreeSet<Entry> victims;
+    /* access history of recently evicted pages */
+    private final Map<PageId, long[]> retained;
+    private long clock;
+
+    public LRUKPolicy(int capacity, int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("LRU-K needs k >= 1");
+        }
+        this.k = k;
+        this.resident = new HashMap<>(capacity);
+        this.victims = new TreeSet<>(VICTIM_ORDER);
+        final int retainedCapacity = Math.max(capacity, 1);
+        this.retained = new LinkedHashMap<PageId, long[]>(retainedCapacity) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PageId, long[]> eldest) {
+                return size() > retainedCapacity;
+            }
+        };
+        this.clock = 0;
+    }
+
+    @Override
+    public void recordAccess(PageId pid) {
+        Entry e = resident.get(pid);
+        if (e == null) {
+            long[] history = retained.remove(pid);
+            e = new Entry(pid, history == null ? new long[k] : history);
+            resident.put(pid, e);
+        } else {
+            victims.remove(e);
+        }
+        System.arraycopy(e.history, 0, e.history, 1, k - 1);
+        e.history[0] = ++clock;
+        victims.add(e);
+    }
+
+    @Override
+    public void remove(PageId pid) {
+        Entry e = resident.remove(pid);
+        if (e != null) {
+            victims.remove(e);
+        }
+    }
+
+    @Override
+    public PageId evict(Predicate<PageId> evictable) {
+        Iterator<Entry> it = victims.iterator();
+        while (it.hasNext()) {
+            Entry e = it.next();
+            if (evictable.test(e.pid)) {
+                it.remove();
+                resident.remove(e.pid);
+                retained.put(e.pid, e.history);
+                return e.pid;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public int size() {
+        return resident.size();
+    }
+}
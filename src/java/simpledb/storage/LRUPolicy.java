@@ -0,0 +1,48 @@
+package simpledb.storage;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.function.Predicate;
+
+/**
+ * Least-recently-used replacement.  Cheap and good for workloads with
+ * locality, but a single large scan pushes every hot page out.
+ */
+public class LRUPolicy implements ReplacementPolicy {
+
+    /* iteration order runs from the least to the most recently used page */
+    private final LinkedHashSet<PageId> pages;
+
+    public LRUPolicy(int capacity) {
+        this.pages = new LinkedHashSet<>(capacity);
+    }
+
+    @Override
+    public void recordAccess(PageId pid) {
+        pages.remove(pid);
+        pages.add(pid);
+    }
+
+    @Override
+    public void remove(PageId pid) {
+        pages.remove(pid);
+    }
+
+    @Override
+    public PageId evict(Predicate<PageId> evictable) {
+        Iterator<PageId> it = pages.iterator();
+        while (it.hasNext()) {
+            PageId pid = it.next();
+            if (evictable.test(pid)) {
+                it.remove();
+                return pid;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public int size() {
+        return pages.size();
+    }
+}
@@ -9,7 +9,14 @@ import simpledb.common.Debug;
 
 import java.io.*;
 import java.util.*;
-import java.lang.reflect.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
 
 /*
   LogFile implements the recovery subsystem of SimpleDb.  This class is
@@ -21,11 +28,12 @@ import java.lang.reflect.*;
   <p>
   <p>
   Many of the methods here are synchronized (to prevent concurrent log
-  writes from happening); many of the methods in BufferPool are also
-  synchronized (for similar reasons.)  Problem is that BufferPool writes
-  log records (on page flushed) and the log file flushes BufferPool
-  pages (on checkpoints and recovery.)  This can lead to deadlock.  For
-  that reason, any LogFile operation that needs to access the BufferPool
+  writes from happening); BufferPool protects each of its shards with
+  the shard's own latch.  Problem is that BufferPool writes log records
+  (on page flushed) and the log file discards BufferPool pages (on
+  rollback and recovery.)  This can lead to deadlock.  For that
+  reason BufferPool never holds a shard latch while calling into the
+  log, and any LogFile operation that needs to access the BufferPool
   must not be declared synchronized and must begin with a block like:
 
   <p>
@@ -38,6 +46,24 @@ import java.lang.reflect.*;
   }
   }
   </pre>
+
+  The BufferPool monitor only serializes such LogFile operations with
+  each other; it does not stop other threads from fetching pages.
+
+  <p>
+  <u> Group commit: </u>
+  <p>
+  Log records are appended to an in-memory buffer and only written to
+  the file when somebody needs them there.  A record is identified by its
+  LSN, the position just past its end; LSNs are file offsets shifted so
+  that they keep growing when the log is truncated.  A committer that
+  needs its records on disk waits on {@link #durableFuture(long)} (or
+  {@link #awaitDurable(long)}) without holding the monitor, and a flusher
+  thread writes out everything buffered and forces the file once for all
+  of them.  The flusher can wait up to a configurable window for more
+  records to arrive, unless a configurable number of bytes is buffered
+  already.  The fsync itself is done under a separate lock, so appends
+  are never blocked by it.
  */
 
 /**
@@ -45,33 +71,66 @@ import java.lang.reflect.*;
  *
  * <ul>
  *
- * <li> The first long integer of the file represents the offset of the
- * last written checkpoint, or -1 if there are no checkpoints
+ * <li> The log file itself holds a single long integer: the offset of
+ * the last written checkpoint, or -1 if there are no checkpoints.
+ *
+ * <li> The log records are kept in segment files next to the log file
+ * (see {@link LogSegments}).  Offsets into the log only grow, and a
+ * record never moves, so the LSN of a record is simply the offset just
+ * past its end.  Truncating the log deletes whole segments.
  *
  * <li> All additional data in the log consists of log records.  Log
  * records are variable length.
  *
- * <li> Each log record begins with an integer type and a long integer
- * transaction id.
+ * <li> Each log record begins with a byte type, a long integer
+ * transaction id, the long LSN of the record (the LSN of the position
+ * just past its end), the LSN of the previous record of the same
+ * transaction, or 0 if there is none, and the integer length of its
+ * payload.  Following the previous LSNs, rollback visits only the
+ * records of the transaction it undoes.
  *
  * <li> Each log record ends with a long integer file offset representing
- * the position in the log file where the record began.
+ * the position in the log file where the record began, followed by the
+ * integer CRC-32 of all of the record before it.  Recovery stops at the
+ * first record that is cut short or fails its CRC.
  *
- * <li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
- * CHECKPOINT
+ * <li> There are seven record types: ABORT, COMMIT, UPDATE, BEGIN,
+ * CHECKPOINT, CLR and BULK_LOAD
  *
  * <li> ABORT, COMMIT, and BEGIN records contain no additional data
  *
- * <li>UPDATE RECORDS consist of two entries, a before image and an
- * after image.  These images are serialized Page objects, and can be
- * accessed with the LogFile.readPageData() and LogFile.writePageData()
- * methods.  See LogFile.print() for an example.
+ * <li>UPDATE records describe the change to one page: the page type tag
+ * (see {@link PageTypeRegistry}), the serialized page id, and the byte
+ * ranges of the page that changed, each with its bytes before and after
+ * the change.  Ranges that are close together are merged.  Undo copies
+ * the before bytes into the page, redo the after bytes, so the records
+ * of a page must be applied in log order (and undone in reverse).
+ *
+ * <li> CLR (compensation log record) records are written for each UPDATE
+ * record that is undone, by rollback or by recovery.  They start with the
+ * LSN of the next record of the transaction left to undo, followed by an
+ * UPDATE payload that puts the before bytes back.  CLRs are redone but
+ * never undone, so an undo interrupted by a crash is not repeated.
  *
  * <li> CHECKPOINT records consist of active transactions at the time
- * the checkpoint was taken and their first log record on disk.  The format
- * of the record is an integer count of the number of transactions, as well
- * as a long integer transaction id and a long integer first record offset
- * for each active transaction.
+ * the checkpoint was taken, their first log record on disk and their last
+ * LSN, followed by the dirty page table: the pages with update records
+ * that may not be on disk yet, with the LSN of the first such record (the
+ * recLSN).  The format of the record is an integer count of the number of
+ * transactions, as well as a long integer transaction id, a long integer
+ * first record offset and a long integer last LSN for each active
+ * transaction; then an integer count of the dirty pages, and for each
+ * the page type and id, as in UPDATE records, and a long integer recLSN.
+ * Checkpoints are fuzzy: they flush nothing, and pages are written by the
+ * buffer pool as usual.
+ *
+ * <li> BULK_LOAD records are written once a table has been loaded by
+ * writing its pages straight to the file (see {@link BulkLoader}), and the
+ * file forced.  They consist of the integer table id and the integer
+ * number of pages written.  The pages themselves are not logged; the
+ * record tells redo and undo that the UPDATE and CLR records of the table
+ * logged before it describe pages that no longer exist, and must not be
+ * applied to the new ones.
  * <p>
  * </ul>
  */
@@ -80,7 +139,9 @@ public class LogFile {
     // final static Logger logger = LoggerFactory.getLogger(LogFile.class);
 
     final File logFile;
-    private RandomAccessFile raf;
+    /* holds the offset of the last checkpoint */
+    private final RandomAccessFile control;
+    private final LogSegments segments;
     Boolean recoveryUndecided; // no call to recover() and no append to log
 
     static final int ABORT_RECORD = 1;
@@ -88,16 +149,107 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int CLR_RECORD = 6;
+    static final int BULK_LOAD_RECORD = 7;
     static final long NO_CHECKPOINT_ID = -1;
 
     final static int INT_SIZE = 4;
     final static int LONG_SIZE = 8;
 
+    /* type, tid, LSN, previous LSN, payload length */
+    static final int RECORD_HEADER_SIZE = 1 + 3 * LONG_SIZE + INT_SIZE;
+    /* start offset, CRC */
+    static final int RECORD_TRAILER_SIZE = LONG_SIZE + INT_SIZE;
+    /* changed ranges closer than this are merged: a range costs 8 bytes of offset and length */
+    static final int DELTA_MERGE_GAP = 8;
+
+    /** Default for {@link #setSegmentBytes(long)} */
+    public static final long DEFAULT_SEGMENT_BYTES = 16L << 20;
+    /** Default for {@link #setGroupCommitBytes(int)} */
+    public static final int DEFAULT_GROUP_COMMIT_BYTES = 64 * 1024;
+    /* how long an idle flusher thread lingers before it exits */
+    private static final long FLUSHER_IDLE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
     long currentOffset = -1;//protected by this
     //    int pageSize;
     int totalRecords = 0; // for PatchTest //protected by this
 
     final Map<Long, Long> tidToFirstLogRecord = new HashMap<>();
+    /* LSN of the last record of each live transaction, where its prevLSN chain starts */
+    final Map<Long, Long> tidToLastLsn = new HashMap<>();
+    /* the dirty page table: pages whose update records may not be on disk yet */
+    private final Map<PageId, DirtyPage> dirtyPages = new HashMap<>(); //protected by this
+    /* table id -> LSN of its last bulk load; older records of the table are not applied */
+    private final Map<Integer, Long> bulkLoads = new HashMap<>(); //protected by this
+    private long checkpointOffset = NO_CHECKPOINT_ID; //protected by this
+    private volatile long segmentBytes = DEFAULT_SEGMENT_BYTES;
+
+    /* records not yet written to the file; they belong at file offset pendingStart */
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(pending);
+    private long pendingStart = 0; //protected by this
+    /* the payload of the record being appended */
+    private final ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream();
+    private final DataOutputStream payload = new DataOutputStream(payloadBytes);
+
+    /* the file is forced under forceLock, never under the monitor, except by force() */
+    private final Object forceLock = new Object();
+    private volatile long durableLsn = 0;
+    private final AtomicLong forces = new AtomicLong();
+    private final ConcurrentSkipListMap<Long, CompletableFuture<Long>> durableWaiters =
+            new ConcurrentSkipListMap<>();
+
+    private final AtomicBoolean flusherRunning = new AtomicBoolean();
+    private volatile Thread flusher;
+    private volatile long groupCommitWindowNanos = 0;
+    private volatile int groupCommitBytes = DEFAULT_GROUP_COMMIT_BYTES;
+
+    /* an entry of the dirty page table */
+    private static class DirtyPage {
+        final byte pageType;
+        /* LSN of the first update record of the page that may not be on disk */
+        final long recLsn;
+
+        DirtyPage(byte pageType, long recLsn) {
+            this.pageType = pageType;
+            this.recLsn = recLsn;
+        }
+    }
+
+    /**
+     * A log record read back from the file.
+     */
+    static class LogRecord {
+        int type;
+        long tid;
+        long lsn;
+        /* LSN of the transaction's previous record, 0 for its first */
+        long prevLsn;
+        /* file offset where the record starts */
+        long offset;
+        byte[] payload;
+
+        // CLR records: LSN of the next record to undo, 0 if done
+        long undoNextLsn;
+
+        // UPDATE and CLR records
+        byte pageType;
+        PageId pid;
+        /* per changed range: offset in the page, bytes before, bytes after */
+        int[] rangeOffsets;
+        byte[][] before;
+        byte[][] after;
+
+        // CHECKPOINT records: transaction id -> offset of its first record, and -> its last LSN
+        Map<Long, Long> activeTransactions;
+        Map<Long, Long> lastLsns;
+        // CHECKPOINT records: page -> recLSN
+        Map<PageId, Long> dirtyPages;
+
+        // BULK_LOAD records
+        int tableId;
+        int numPages;
+    }
 
     /**
      * Constructor.
@@ -113,7 +265,8 @@ public class LogFile {
      */
     public LogFile(File f) throws IOException {
         this.logFile = f;
-        raf = new RandomAccessFile(f, "rw");
+        control = new RandomAccessFile(f, "rw");
+        segments = new LogSegments(f);
         recoveryUndecided = true;
 
         // install shutdown hook to force cleanup on close
@@ -134,11 +287,12 @@ public class LogFile {
         totalRecords++;
         if (recoveryUndecided) {
             recoveryUndecided = false;
-            raf.seek(0);
-            raf.setLength(0);
-            raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+            control.setLength(0);
+            control.writeLong(NO_CHECKPOINT_ID);
+            checkpointOffset = NO_CHECKPOINT_ID;
+            segments.clear();
+            currentOffset = 0;
+            pendingStart = 0;
         }
     }
 
@@ -146,6 +300,478 @@ public class LogFile {
         return totalRecords;
     }
 
+    /* the file offset where the next record goes */
+    private long endOfLog() {
+        return pendingStart + pending.size();
+    }
+
+    /* write the buffered records to the file, without forcing it */
+    private synchronized void drain() throws IOException {
+        if (pending.size() > 0) {
+            // records never span segments: a new one can only start here
+            segments.roll(segmentBytes);
+            segments.append(pending.toByteArray());
+            pendingStart += pending.size();
+            pending.reset();
+        }
+    }
+
+    /* called after a record was buffered; wakes the flusher if the batch is full */
+    private void appended() {
+        Thread t = flusher;
+        if (t != null && pending.size() >= groupCommitBytes) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    /**
+     * Set how long the flusher waits for more records before it forces the
+     * log on behalf of a waiting committer.  0 (the default) forces at once;
+     * commits arriving while a force is in progress are still batched into
+     * the next one.
+     */
+    public void setGroupCommitWindow(long micros) {
+        this.groupCommitWindowNanos = TimeUnit.MICROSECONDS.toNanos(micros);
+    }
+
+    /**
+     * Start a new segment file once the current one holds this many bytes.
+     * Truncation deletes whole segments, so smaller segments free space
+     * sooner.
+     */
+    public void setSegmentBytes(long bytes) {
+        this.segmentBytes = bytes;
+    }
+
+    /** @return the number of segment files the log takes */
+    public int getNumSegments() {
+        return segments.getNumSegments();
+    }
+
+    /** Force without waiting out the window once this many bytes are buffered. */
+    public void setGroupCommitBytes(int bytes) {
+        this.groupCommitBytes = bytes;
+    }
+
+    /** @return the LSN of the end of the log, including buffered records */
+    public synchronized long getCurrentLsn() {
+        return endOfLog();
+    }
+
+    /** @return the LSN up to which the log is known to be on disk */
+    public long getDurableLsn() {
+        return durableLsn;
+    }
+
+    /** @return how many times the log file was forced to disk */
+    public long getNumForces() {
+        return forces.get();
+    }
+
+    /**
+     * @return a future that completes once the log is on disk up to the
+     *         given LSN; exceptionally if writing the log failed
+     */
+    public CompletableFuture<Long> durableFuture(long lsn) {
+        if (lsn <= durableLsn) {
+            return CompletableFuture.completedFuture(durableLsn);
+        }
+        CompletableFuture<Long> f = durableWaiters.computeIfAbsent(lsn, k -> new CompletableFuture<>());
+        // the flusher may have gone past lsn since we looked
+        if (lsn <= durableLsn) {
+            completeWaiters();
+        }
+        startFlusher();
+        return f;
+    }
+
+    /**
+     * Wait until the log is on disk up to the given LSN.  A thread holding
+     * the monitor of this log cannot wait for the flusher, so it forces the
+     * log itself.
+     */
+    public void awaitDurable(long lsn) throws IOException {
+        if (lsn <= durableLsn) {
+            return;
+        }
+        if (Thread.holdsLock(this)) {
+            force();
+            return;
+        }
+        try {
+            durableFuture(lsn).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+    }
+
+    /* force the file if it holds anything not yet durable, up to target */
+    private void forceTo(long target) throws IOException {
+        synchronized (forceLock) {
+            if (target > durableLsn) {
+                segments.force();
+                forces.incrementAndGet();
+                durableLsn = target;
+            }
+        }
+        completeWaiters();
+    }
+
+    private void completeWaiters() {
+        long durable = durableLsn;
+        Map.Entry<Long, CompletableFuture<Long>> e;
+        while ((e = durableWaiters.firstEntry()) != null && e.getKey() <= durable) {
+            if (durableWaiters.remove(e.getKey(), e.getValue())) {
+                e.getValue().complete(durable);
+            }
+        }
+    }
+
+    private void failWaiters(IOException cause) {
+        Map.Entry<Long, CompletableFuture<Long>> e;
+        while ((e = durableWaiters.pollFirstEntry()) != null) {
+            e.getValue().completeExceptionally(cause);
+        }
+    }
+
+    private void startFlusher() {
+        if (flusherRunning.compareAndSet(false, true)) {
+            Thread t = new Thread(this::runFlusher, "LogFile flusher");
+            t.setDaemon(true);
+            flusher = t;
+            t.start();
+        } else {
+            Thread t = flusher;
+            if (t != null) {
+                LockSupport.unpark(t);
+            }
+        }
+    }
+
+    /* force the log for as long as anybody waits for it */
+    private void runFlusher() {
+        while (true) {
+            if (durableWaiters.isEmpty()) {
+                LockSupport.parkNanos(this, FLUSHER_IDLE_NANOS);
+                if (durableWaiters.isEmpty()) {
+                    flusherRunning.set(false);
+                    // a new waiter may have come in after the check and found us still running
+                    if (durableWaiters.isEmpty() || !flusherRunning.compareAndSet(false, true)) {
+                        return;
+                    }
+                }
+                continue;
+            }
+            long window = groupCommitWindowNanos;
+            if (window > 0) {
+                long deadline = System.nanoTime() + window;
+                long left;
+                while (pending.size() < groupCommitBytes && (left = deadline - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(this, left);
+                }
+            }
+            try {
+                long target;
+                synchronized (this) {
+                    drain();
+                    target = pendingStart;
+                }
+                forceTo(target);
+            } catch (IOException e) {
+                failWaiters(e);
+            }
+        }
+    }
+
+    /* start a record: its payload goes to the payload stream until appendRecord */
+    private void beginRecord() {
+        payloadBytes.reset();
+    }
+
+    /*
+     * Buffer a record with the payload written since beginRecord, chained
+     * to the last record of the transaction.  Must hold the monitor.
+     *
+     * @return the LSN of the record
+     */
+    private long appendRecord(int type, long tid) throws IOException {
+        long lsn = appendRecord(type, tid, tidToLastLsn.getOrDefault(tid, 0L));
+        if (tidToFirstLogRecord.containsKey(tid)) {
+            tidToLastLsn.put(tid, lsn);
+        }
+        return lsn;
+    }
+
+    /* as above, with an explicit previous LSN */
+    private long appendRecord(int type, long tid, long prevLsn) throws IOException {
+        long start = endOfLog();
+        long lsn = start + RECORD_HEADER_SIZE + payloadBytes.size() + RECORD_TRAILER_SIZE;
+        writeRecord(out, type, tid, lsn, prevLsn, payloadBytes.toByteArray(), start);
+        currentOffset = endOfLog();
+        appended();
+        return lsn;
+    }
+
+    /* write a whole record, CRC included, to dst */
+    static void writeRecord(DataOutput dst, int type, long tid, long lsn, long prevLsn, byte[] payload,
+                            long start) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+                RECORD_HEADER_SIZE + payload.length + RECORD_TRAILER_SIZE);
+        DataOutputStream record = new DataOutputStream(bytes);
+        record.writeByte(type);
+        record.writeLong(tid);
+        record.writeLong(lsn);
+        record.writeLong(prevLsn);
+        record.writeInt(payload.length);
+        record.write(payload);
+        record.writeLong(start);
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        record.writeInt((int) crc.getValue());
+        dst.write(bytes.toByteArray());
+    }
+
+    /**
+     * Read the record at the current position of the file.
+     *
+     * @return the record, or null at the end of the log, or if the record
+     *         there is incomplete or corrupt
+     */
+    LogRecord readRecord(LogSegments log) throws IOException {
+        long offset = log.getFilePointer();
+        if (log.remaining() < RECORD_HEADER_SIZE + RECORD_TRAILER_SIZE) {
+            return null;
+        }
+        byte[] header = new byte[RECORD_HEADER_SIZE];
+        log.readFully(header);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(header));
+        LogRecord r = new LogRecord();
+        r.offset = offset;
+        r.type = in.readByte();
+        r.tid = in.readLong();
+        r.lsn = in.readLong();
+        r.prevLsn = in.readLong();
+        int length = in.readInt();
+        if (length < 0 || log.remaining() < (long) length + RECORD_TRAILER_SIZE) {
+            return null;
+        }
+        r.payload = new byte[length];
+        log.readFully(r.payload);
+        long start = log.readLong();
+        int storedCrc = log.readInt();
+
+        CRC32 crc = new CRC32();
+        crc.update(header);
+        crc.update(r.payload);
+        byte[] startBytes = new byte[LONG_SIZE];
+        for (int i = 0; i < LONG_SIZE; i++) {
+            startBytes[i] = (byte) (start >>> (8 * (LONG_SIZE - 1 - i)));
+        }
+        crc.update(startBytes);
+        if ((int) crc.getValue() != storedCrc || start != offset) {
+            return null;
+        }
+
+        in = new DataInputStream(new ByteArrayInputStream(r.payload));
+        if (r.type == CLR_RECORD) {
+            r.undoNextLsn = in.readLong();
+        }
+        if (r.type == UPDATE_RECORD || r.type == CLR_RECORD) {
+            r.pageType = in.readByte();
+            r.pid = readPageId(in, r.pageType);
+            int ranges = in.readInt();
+            r.rangeOffsets = new int[ranges];
+            r.before = new byte[ranges][];
+            r.after = new byte[ranges][];
+            for (int i = 0; i < ranges; i++) {
+                r.rangeOffsets[i] = in.readInt();
+                int len = in.readInt();
+                r.before[i] = new byte[len];
+                in.readFully(r.before[i]);
+                r.after[i] = new byte[len];
+                in.readFully(r.after[i]);
+            }
+        } else if (r.type == CHECKPOINT_RECORD) {
+            r.activeTransactions = new HashMap<>();
+            r.lastLsns = new HashMap<>();
+            int count = in.readInt();
+            while (count-- > 0) {
+                long tid = in.readLong();
+                r.activeTransactions.put(tid, in.readLong());
+                r.lastLsns.put(tid, in.readLong());
+            }
+            r.dirtyPages = new HashMap<>();
+            count = in.readInt();
+            while (count-- > 0) {
+                r.dirtyPages.put(readPageId(in, in.readByte()), in.readLong());
+            }
+        } else if (r.type == BULK_LOAD_RECORD) {
+            r.tableId = in.readInt();
+            r.numPages = in.readInt();
+        }
+        return r;
+    }
+
+    private static PageId readPageId(DataInputStream in, byte pageType) throws IOException {
+        int[] idData = new int[in.readByte()];
+        for (int i = 0; i < idData.length; i++) {
+            idData[i] = in.readInt();
+        }
+        return PageTypeRegistry.factory(pageType).createId(idData);
+    }
+
+    /* the offset where the record with the given LSN starts; records end with their start offset */
+    private long startOf(long lsn) throws IOException {
+        segments.seek(lsn - RECORD_TRAILER_SIZE);
+        return segments.readLong();
+    }
+
+    /* read the record with the given LSN; it must have been drained to the file */
+    private LogRecord readRecordAt(long lsn) throws IOException {
+        segments.seek(startOf(lsn));
+        LogRecord r = readRecord(segments);
+        if (r == null || r.lsn != lsn) {
+            throw new IOException("no log record with LSN " + lsn);
+        }
+        return r;
+    }
+
+    /**
+     * Write the changes from before to after into the payload of an
+     * UPDATE record: the page type, the page id and the changed ranges.
+     */
+    private void writeUpdatePayload(Page before, Page after) throws IOException {
+        writePageId(PageTypeRegistry.tagOf(after), after.getId());
+
+        byte[] oldData = before.getPageData();
+        byte[] newData = after.getPageData();
+        List<int[]> ranges = diff(oldData, newData);
+        payload.writeInt(ranges.size());
+        for (int[] range : ranges) {
+            payload.writeInt(range[0]);
+            payload.writeInt(range[1] - range[0]);
+            payload.write(oldData, range[0], range[1] - range[0]);
+            payload.write(newData, range[0], range[1] - range[0]);
+        }
+    }
+
+    /*
+     * Write the payload of the CLR that undoes r: the undo's own changes,
+     * which put the before bytes of r back.
+     */
+    private void writeClrPayload(LogRecord r) throws IOException {
+        payload.writeLong(r.prevLsn);
+        writePageId(r.pageType, r.pid);
+        payload.writeInt(r.rangeOffsets.length);
+        for (int i = 0; i < r.rangeOffsets.length; i++) {
+            payload.writeInt(r.rangeOffsets[i]);
+            payload.writeInt(r.before[i].length);
+            payload.write(r.after[i]);
+            payload.write(r.before[i]);
+        }
+    }
+
+    private void writePageId(byte pageType, PageId pid) throws IOException {
+        payload.writeByte(pageType);
+        int[] idData = pid.serialize();
+        payload.writeByte(idData.length);
+        for (int i : idData) {
+            payload.writeInt(i);
+        }
+    }
+
+    /**
+     * @return the [start, end) ranges where the arrays differ, with ranges
+     *         less than DELTA_MERGE_GAP apart merged
+     */
+    static List<int[]> diff(byte[] oldData, byte[] newData) {
+        List<int[]> ranges = new ArrayList<>();
+        int n = Math.min(oldData.length, newData.length);
+        int i = 0;
+        while (i < n) {
+            if (oldData[i] == newData[i]) {
+                i++;
+                continue;
+            }
+            int start = i;
+            int end = i + 1;
+            // extend until DELTA_MERGE_GAP equal bytes in a row
+            for (int j = end; j < n && j - end < DELTA_MERGE_GAP; j++) {
+                if (oldData[j] != newData[j]) {
+                    end = j + 1;
+                }
+            }
+            ranges.add(new int[]{start, end});
+            i = end;
+        }
+        return ranges;
+    }
+
+    /**
+     * @return true if the UPDATE or CLR record was logged before a bulk
+     *         load of its table replaced the page it describes
+     */
+    private boolean superseded(LogRecord r) {
+        Long loaded = bulkLoads.get(r.pid.getTableId());
+        return loaded != null && r.lsn < loaded;
+    }
+
+    /**
+     * Undo or redo an UPDATE record: copy its before or after bytes into
+     * the page on disk.  The page is dropped from the buffer pool first.
+     */
+    private void applyUpdate(LogRecord r, boolean redo) throws IOException {
+        Database.getBufferPool().discardPage(r.pid);
+        DbFile file = Database.getCatalog().getDatabaseFile(r.pid.getTableId());
+        byte[] data = file.readPage(r.pid).getPageData();
+        for (int i = 0; i < r.rangeOffsets.length; i++) {
+            byte[] bytes = redo ? r.after[i] : r.before[i];
+            System.arraycopy(bytes, 0, data, r.rangeOffsets[i], bytes.length);
+        }
+        file.writePage(PageTypeRegistry.factory(r.pageType).createPage(r.pid, data));
+    }
+
+    /**
+     * Undo transactions by following their prevLSN chains backwards,
+     * always undoing the record with the highest LSN next, so the log is
+     * read backwards once.  Each undone UPDATE record gets a CLR; records
+     * already compensated for are skipped by jumping to the undo-next LSN
+     * of the CLR.
+     * <p>
+     * A page may reach the disk before its CLR does.  That is harmless:
+     * recovery would then redo the update and undo it again, which gives
+     * the same bytes, since both only copy logged bytes into the page.
+     *
+     * @param lastLsns transaction id -> LSN of its last record; updated to
+     *                 the LSN of its last CLR
+     */
+    private void undo(Map<Long, Long> lastLsns) throws IOException {
+        // next LSN to undo -> transaction
+        TreeMap<Long, Long> toUndo = new TreeMap<>();
+        for (Map.Entry<Long, Long> e : lastLsns.entrySet()) {
+            if (e.getValue() != 0) {
+                toUndo.put(e.getValue(), e.getKey());
+            }
+        }
+        Map.Entry<Long, Long> next;
+        while ((next = toUndo.pollLastEntry()) != null) {
+            long tid = next.getValue();
+            LogRecord r = readRecordAt(next.getKey());
+            long undoNext = r.prevLsn;
+            if (r.type == UPDATE_RECORD && !superseded(r)) {
+                beginRecord();
+                writeClrPayload(r);
+                lastLsns.put(tid, appendRecord(CLR_RECORD, tid, lastLsns.get(tid)));
+                applyUpdate(r, false);
+            } else if (r.type == CLR_RECORD) {
+                undoNext = r.undoNextLsn;
+            }
+            if (undoNext != 0) {
+                toUndo.put(undoNext, tid);
+            }
+        }
+    }
+
     /**
      * Write an abort record to the log for the specified tid, force
      * the log to disk, and perform a rollback
@@ -167,135 +793,97 @@ public class LogFile {
                 // live transactions (needs tidToFirstLogRecord)
                 rollback(tid);
 
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+                beginRecord();
+                appendRecord(ABORT_RECORD, tid.getId());
                 force();
                 tidToFirstLogRecord.remove(tid.getId());
+                tidToLastLsn.remove(tid.getId());
             }
         }
     }
 
     /**
      * Write a commit record to disk for the specified tid,
-     * and force the log to disk.
+     * and wait until the log is on disk.  The record is appended
+     * under the monitor, but the wait is not, so that concurrent
+     * committers share a force.
      *
      * @param tid The committing transaction.
      */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
-
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+    public void logCommit(TransactionId tid) throws IOException {
+        long lsn;
+        synchronized (this) {
+            preAppend();
+            Debug.log("COMMIT " + tid.getId());
+            //should we verify that this is a live transaction?
+
+            beginRecord();
+            lsn = appendRecord(COMMIT_RECORD, tid.getId());
+            tidToFirstLogRecord.remove(tid.getId());
+            tidToLastLsn.remove(tid.getId());
+        }
+        awaitDurable(lsn);
     }
 
     /**
      * Write an UPDATE record to disk for the specified tid and page
-     * (with provided         before and after images.)
+     * (with provided         before and after images.)  Only the
+     * byte ranges that differ between the images are logged.
      *
      * @param tid    The transaction performing the write
      * @param before The before image of the page
      * @param after  The after image of the page
+     * @return the LSN of the record; pass it to {@link #awaitDurable(long)}
+     *         before writing the page
      * @see Page#getBeforeImage
      */
-    public synchronized void logWrite(TransactionId tid, Page before,
+    public synchronized long logWrite(TransactionId tid, Page before,
                                       Page after)
             throws IOException {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
+        Debug.log("WRITE, offset = " + endOfLog());
         preAppend();
-        /* update record conists of
-
-           record type
-           transaction id
-           before page data (see writePageData)
-           after page data
-           start offset
-        */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
-
-        writePageData(raf, before);
-        writePageData(raf, after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+        beginRecord();
+        writeUpdatePayload(before, after);
+        long lsn = appendRecord(UPDATE_RECORD, tid.getId());
+        dirtyPages.putIfAbsent(after.getId(), new DirtyPage(PageTypeRegistry.tagOf(after), lsn));
 
         Debug.log("WRITE OFFSET = " + currentOffset);
+        return lsn;
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException {
-        PageId pid = p.getId();
-        int[] pageInfo = pid.serialize();
-
-        //page data is:
-        // page class name
-        // id class name
-        // id class bytes
-        // id class data
-        // page class bytes
-        // page class data
-
-        String pageClassName = p.getClass().getName();
-        String idClassName = pid.getClass().getName();
-
-        raf.writeUTF(pageClassName);
-        raf.writeUTF(idClassName);
-
-        raf.writeInt(pageInfo.length);
-        for (int j : pageInfo) {
-            raf.writeInt(j);
+    /**
+     * Write a BULK_LOAD record for a table whose pages were just written
+     * straight to its file, and wait until it is on disk.  The file must be
+     * forced first; the record is what makes the load durable, since its
+     * pages have no UPDATE records.  Changes to the table logged before the
+     * record are never redone or undone from then on.
+     *
+     * @param tableId  the loaded table
+     * @param numPages the number of pages written
+     */
+    public void logBulkLoad(int tableId, int numPages) throws IOException {
+        long lsn;
+        synchronized (this) {
+            preAppend();
+            Debug.log("BULK LOAD " + tableId);
+            beginRecord();
+            payload.writeInt(tableId);
+            payload.writeInt(numPages);
+            lsn = appendRecord(BULK_LOAD_RECORD, -1);
+            bulkLoads.put(tableId, lsn);
+            dirtyPages.keySet().removeIf(pid -> pid.getTableId() == tableId);
         }
-        byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
-        //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
+        awaitDurable(lsn);
     }
 
-    Page readPageData(RandomAccessFile raf) throws IOException {
-        PageId pid;
-        Page newPage;
-
-        String pageClassName = raf.readUTF();
-        String idClassName = raf.readUTF();
-
-        try {
-            Class<?> idClass = Class.forName(idClassName);
-            Class<?> pageClass = Class.forName(pageClassName);
-
-            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
-            int numIdArgs = raf.readInt();
-            Object[] idArgs = new Object[numIdArgs];
-            for (int i = 0; i < numIdArgs; i++) {
-                idArgs[i] = raf.readInt();
-            }
-            pid = (PageId) idConsts[0].newInstance(idArgs);
-
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
-            int pageSize = raf.readInt();
-
-            byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
-
-            Object[] pageArgs = new Object[2];
-            pageArgs[0] = pid;
-            pageArgs[1] = pageData;
-
-            newPage = (Page) pageConsts[0].newInstance(pageArgs);
-
-            //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
-        } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException |
-                 InstantiationException e) {
-            // logger.error(e.getMessage());
-            throw new IOException();
-        }
-        return newPage;
-
+    /**
+     * Tell the log that a page was written to disk, with all the changes
+     * it logged, so it leaves the dirty page table.
+     *
+     * @param pid the page that was written
+     */
+    public synchronized void pageWritten(PageId pid) {
+        dirtyPages.remove(pid);
     }
 
     /**
@@ -311,52 +899,52 @@ public class LogFile {
             throw new IOException("double logXactionBegin()");
         }
         preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        tidToFirstLogRecord.put(tid.getId(), endOfLog());
+        beginRecord();
+        appendRecord(BEGIN_RECORD, tid.getId());
 
         Debug.log("BEGIN OFFSET = " + currentOffset);
     }
 
     /**
-     * Checkpoint the log and write a checkpoint record.
+     * Checkpoint the log and write a checkpoint record.  The checkpoint is
+     * fuzzy: it records the active transactions and the dirty page table,
+     * but flushes no pages, so transactions carry on while it is taken.
      */
     public void logCheckpoint() throws IOException {
-        //make sure we have buffer pool lock before proceeding
-        synchronized (Database.getBufferPool()) {
-            synchronized (this) {
-                //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
-                preAppend();
-                long startCpOffset, endCpOffset;
-                Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
-                force();
-                Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
-
-                //write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext()) {
-                    Long key = els.next();
-                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
-                    //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
-                }
-
-                //once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                //Debug.log("CP OFFSET = " + currentOffset);
+        long startCpOffset;
+        long cpLsn;
+        synchronized (this) {
+            preAppend();
+            startCpOffset = endOfLog();
+
+            //write list of outstanding transactions
+            beginRecord();
+            payload.writeInt(tidToFirstLogRecord.size());
+            for (Map.Entry<Long, Long> e : tidToFirstLogRecord.entrySet()) {
+                Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + e.getKey());
+                payload.writeLong(e.getKey());
+                payload.writeLong(e.getValue());
+                payload.writeLong(tidToLastLsn.getOrDefault(e.getKey(), 0L));
+            }
+            //and the dirty page table
+            payload.writeInt(dirtyPages.size());
+            for (Map.Entry<PageId, DirtyPage> e : dirtyPages.entrySet()) {
+                writePageId(e.getValue().pageType, e.getKey());
+                payload.writeLong(e.getValue().recLsn);
+            }
+            cpLsn = appendRecord(CHECKPOINT_RECORD, -1); //no tid , but leave space for convenience
+        }
+        awaitDurable(cpLsn);
+
+        synchronized (this) {
+            //once the CP is on disk, make sure the CP location in the log
+            // file is updated, unless a later checkpoint got there first
+            if (startCpOffset > checkpointOffset) {
+                control.seek(0);
+                control.writeLong(startCpOffset);
+                control.getChannel().force(true);
+                checkpointOffset = startCpOffset;
             }
         }
 
@@ -365,97 +953,34 @@ public class LogFile {
 
     /**
      * Truncate any unneeded portion of the log to reduce its space
-     * consumption
+     * consumption.  Recovery reads the log from the oldest of the last
+     * checkpoint, the first record of each transaction active at the
+     * checkpoint, and the recLSN of each page dirty at the checkpoint;
+     * the segments that end before that are deleted.
      */
     public synchronized void logTruncate() throws IOException {
         preAppend();
-        raf.seek(0);
-        long cpLoc = raf.readLong();
+        drain();
+        long cpLoc = checkpointOffset;
+        if (cpLoc == NO_CHECKPOINT_ID) {
+            return;
+        }
 
+        segments.seek(cpLoc);
+        LogRecord cp = readRecord(segments);
+        if (cp == null || cp.type != CHECKPOINT_RECORD) {
+            throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
+        }
         long minLogRecord = cpLoc;
-
-        if (cpLoc != -1L) {
-            raf.seek(cpLoc);
-            int cpType = raf.readInt();
-            @SuppressWarnings("unused")
-            long cpTid = raf.readLong();
-
-            if (cpType != CHECKPOINT_RECORD) {
-                throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
-            }
-
-            int numOutstanding = raf.readInt();
-
-            for (int i = 0; i < numOutstanding; i++) {
-                @SuppressWarnings("unused")
-                long tid = raf.readLong();
-                long firstLogRecord = raf.readLong();
-                if (firstLogRecord < minLogRecord) {
-                    minLogRecord = firstLogRecord;
-                }
-            }
+        for (long firstLogRecord : cp.activeTransactions.values()) {
+            minLogRecord = Math.min(minLogRecord, firstLogRecord);
         }
-
-        // we can truncate everything before minLogRecord
-        File newFile = new File("logtmp" + System.currentTimeMillis());
-        RandomAccessFile logNew = new RandomAccessFile(newFile, "rw");
-        logNew.seek(0);
-        logNew.writeLong((cpLoc - minLogRecord) + LONG_SIZE);
-
-        raf.seek(minLogRecord);
-
-        //have to rewrite log records since offsets are different after truncation
-        while (true) {
-            try {
-                int type = raf.readInt();
-                long record_tid = raf.readLong();
-                long newStart = logNew.getFilePointer();
-
-                Debug.log("NEW START = " + newStart);
-
-                logNew.writeInt(type);
-                logNew.writeLong(record_tid);
-
-                switch (type) {
-                    case UPDATE_RECORD -> {
-                        Page before = readPageData(raf);
-                        Page after = readPageData(raf);
-                        writePageData(logNew, before);
-                        writePageData(logNew, after);
-                    }
-                    case CHECKPOINT_RECORD -> {
-                        int numXactions = raf.readInt();
-                        logNew.writeInt(numXactions);
-                        while (numXactions-- > 0) {
-                            long xid = raf.readLong();
-                            long xoffset = raf.readLong();
-                            logNew.writeLong(xid);
-                            logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
-                        }
-                    }
-                    case BEGIN_RECORD -> tidToFirstLogRecord.put(record_tid, newStart);
-                }
-
-                //all xactions finish with a pointer
-                logNew.writeLong(newStart);
-                raf.readLong();
-
-            } catch (EOFException e) {
-                break;
-            }
+        for (long recLsn : cp.dirtyPages.values()) {
+            minLogRecord = Math.min(minLogRecord, startOf(recLsn));
         }
 
-        Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
-
-        raf.close();
-        logFile.delete();
-        newFile.renameTo(logFile);
-        raf = new RandomAccessFile(logFile, "rw");
-        raf.seek(raf.length());
-        newFile.delete();
-
-        currentOffset = raf.getFilePointer();
-        //print();
+        int deleted = segments.deleteBefore(minLogRecord);
+        Debug.log("TRUNCATING LOG; NEW START : " + minLogRecord + ", " + deleted + " SEGMENTS DELETED");
     }
 
     /**
@@ -472,47 +997,17 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
                 preAppend();
+                drain();
                 // some code goes here
-                Long offset = tidToFirstLogRecord.get(tid.getId());
-                // 读取日志记录
-                raf.seek(offset);
-                Set<PageId> pageIdSet = new HashSet<>();
-                // 前置判断,判断raf是否已经遍历到末尾
-                while (raf.getFilePointer() != raf.length()) {
-                    int type = raf.readInt();
-                    long transactionId = raf.readLong();
-
-                    if (transactionId != tid.getId()) {
-                        continue;
-                    }
-
-                    // 前置判断,判断日志记录类型是否为包含前置镜像和后置镜像的UPDATE类型
-                    if (type == UPDATE_RECORD) {
-                        // 读取事务对应页的前置镜像,并根据前置镜像进行回滚
-                        Page before = readPageData(raf);
-                        readPageData(raf);
-                        // 前置镜像id
-                        PageId pid = before.getId();
-                        // 确保记录的事务id和当前回滚的事务的id相等
-                        // 并且该页面此前没有进行过回滚,如果进行过回顾则无需重复回滚
-                        if (transactionId == tid.getId() && !pageIdSet.contains(pid)) {
-                            pageIdSet.add(pid);
-                            // 丢弃BufferPool中事务对应的pid
-                            Database.getBufferPool().discardPage(pid);
-                            // 将前置镜像写回表文件
-                            Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(before);
-                        }
-                    } else if (type == CHECKPOINT_RECORD) {
-                        int count = raf.readInt();
-                        while (count-- > 0) {
-                            raf.readLong();
-                            raf.readLong();
-                        }
-                    }
-                    raf.readLong();
+                Long lastLsn = tidToLastLsn.get(tid.getId());
+                if (lastLsn == null) {
+                    throw new NoSuchElementException("no log records for transaction " + tid.getId());
                 }
-                // 将raf的文件指针指向正确的偏移位置
-                raf.seek(raf.length());
+                // 沿着该事务的prevLSN链逆序撤销, 不读取其他事务的记录
+                Map<Long, Long> lastLsns = new HashMap<>();
+                lastLsns.put(tid.getId(), lastLsn);
+                undo(lastLsns);
+                tidToLastLsn.put(tid.getId(), lastLsns.get(tid.getId()));
             }
         }
     }
@@ -525,7 +1020,10 @@ public class LogFile {
     public synchronized void shutdown() {
         try {
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
-            raf.close();
+            synchronized (forceLock) {
+                control.close();
+                segments.close();
+            }
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
             // logger.error(e.getMessage());
@@ -536,105 +1034,95 @@ public class LogFile {
      * Recover the database system by ensuring that the updates of
      * committed transactions are installed and that the
      * updates of uncommitted transactions are not installed.
+     * <p>
+     * Recovery streams the log in three passes, keeping only a table of
+     * the transactions still active and a table of the pages that may be
+     * dirty, so its memory does not grow with the log:
+     * <ul>
+     * <li> analysis reads forward from the last checkpoint and finds the
+     * losers (transactions that neither committed nor aborted) and, for
+     * every page updated since the checkpoint, the first such record;
+     * <li> redo repeats history: it reapplies every UPDATE and CLR record,
+     * of winners and losers alike, from the earliest of those records on;
+     * <li> undo rolls the losers back along their prevLSN chains, writing
+     * CLRs, and ends each with an ABORT record.
+     * </ul>
+     * Pages missing from the dirty page table of the checkpoint were on
+     * disk with all their earlier records, so redo starts at the oldest
+     * recLSN of the table built by analysis.  Records of a table bulk
+     * loaded after them are skipped by both redo and undo.
      */
     public void recover() throws IOException {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
-                recoveryUndecided = false;
                 recoveryUndecided = false;
                 // some code goes here
-                raf.seek(0);
-                // 已提交事务集合
-                Set<Long> commitId = new HashSet<>();
-                // 事务id-前置镜像
-                Map<Long, List<Page>> beforePages = new HashMap<>();
-                // 事务id-后置镜像
-                Map<Long, List<Page>> afterPages = new HashMap<>();
-                // 记录checkpoint时间点所有活跃的事务,判断是回滚还是重放
-                Map<Long, Long> activeTransactions = new HashMap<>();
-                // 获取最新checkpoint位置
-                long checkpoint = raf.readLong();
-                // 定位到最新的checkpoint位置
-                if (checkpoint != -1) {
-                    raf.seek(checkpoint);
+                if (control.length() < LONG_SIZE || segments.getNumSegments() == 0) {
+                    // nothing was ever logged
+                    recoveryUndecided = true;
+                    return;
                 }
-                // 前置判断,判断raf是否已经遍历到末尾
-                while (raf.getFilePointer() != raf.length()) {
-                    int type = raf.readInt();
-                    long tid = raf.readLong();
-                    if (type == UPDATE_RECORD) {
-                        Page before_image = readPageData(raf);
-                        Page after_image = readPageData(raf);
-                        List<Page> before = beforePages.getOrDefault(tid, new ArrayList<>());
-                        before.add(before_image);
-                        beforePages.put(tid, before);
-                        List<Page> after = afterPages.getOrDefault(tid, new ArrayList<>());
-                        after.add(after_image);
-                        afterPages.put(tid, after);
-                    } else if (type == COMMIT_RECORD) {
-                        // 可能会包含checkpoint发生时的活跃事务的提交记录
-                        commitId.add(tid);
-                    } else if (type == CHECKPOINT_RECORD) {
-                        int count = raf.readInt();
-                        while (count-- > 0) {
-                            activeTransactions.put(raf.readLong(), raf.readLong());
-                        }
+                control.seek(0);
+                // 获取最新checkpoint位置
+                long checkpoint = control.readLong();
+                checkpointOffset = checkpoint;
+
+                // analysis: 活跃事务表 (事务 -> 最后一条记录的LSN) 与脏页表 (页 -> recLSN)
+                Map<Long, Long> active = new HashMap<>();
+                Map<PageId, Long> dirty = new HashMap<>();
+                long start = segments.start();
+                if (checkpoint != NO_CHECKPOINT_ID) {
+                    segments.seek(checkpoint);
+                    LogRecord cp = readRecord(segments);
+                    if (cp != null && cp.type == CHECKPOINT_RECORD) {
+                        start = checkpoint;
+                        active.putAll(cp.lastLsns);
+                        dirty.putAll(cp.dirtyPages);
                     }
-                    raf.readLong();
                 }
-
-                // 处理未提交的事务
-                for (Long tid : beforePages.keySet()) {
-                    if (!commitId.contains(tid)) {
-                        List<Page> pages = beforePages.get(tid);
-                        for (Page page : pages) {
-                            Database.getCatalog().getDatabaseFile(page.getId().getTableId()).writePage(page);
+                segments.seek(start);
+                long end = start;
+                LogRecord r;
+                while ((r = readRecord(segments)) != null) {
+                    end = segments.getFilePointer();
+                    switch (r.type) {
+                        case COMMIT_RECORD, ABORT_RECORD -> active.remove(r.tid);
+                        case UPDATE_RECORD, CLR_RECORD -> {
+                            active.put(r.tid, r.lsn);
+                            dirty.putIfAbsent(r.pid, r.lsn);
                         }
+                        case BEGIN_RECORD -> active.put(r.tid, r.lsn);
+                        case BULK_LOAD_RECORD -> bulkLoads.put(r.tableId, r.lsn);
                     }
                 }
 
-                // 处理已提交的事务
-                for (Long tid : commitId) {
-                    if (afterPages.containsKey(tid)) {
-                        List<Page> pages = afterPages.get(tid);
-                        for (Page page : pages) {
-                            Database.getCatalog().getDatabaseFile(page.getId().getTableId()).writePage(page);
+                // redo: 从脏页表中最早的recLSN开始, 重做可能不在磁盘上的更新
+                if (!dirty.isEmpty()) {
+                    segments.seek(startOf(Collections.min(dirty.values())));
+                    while (segments.getFilePointer() < end && (r = readRecord(segments)) != null) {
+                        if ((r.type == UPDATE_RECORD || r.type == CLR_RECORD) && !superseded(r)) {
+                            Long recLsn = dirty.get(r.pid);
+                            if (recLsn != null && r.lsn >= recLsn) {
+                                applyUpdate(r, true);
+                            }
                         }
                     }
                 }
 
-                // 处理checkpoint点发生时的活跃事务,判断是提交还是回滚
-                for (Map.Entry<Long, Long> entry : activeTransactions.entrySet()) {
-                    Long transactionId = entry.getKey();
-                    Long offset = entry.getValue();
-                    // 当前活跃事务重放还是回滚取决于当前活跃事务在checkpoint后是否提交了
-                    // 如果提交了,那么重放,否则回滚
-                    recoveryOrRollbackByOffset(new TransactionId(transactionId), offset, commitId.contains(transactionId));
-                }
-            }
-        }
-    }
-
-    private void recoveryOrRollbackByOffset(TransactionId transactionId, Long offset,boolean recover) throws IOException {
-        raf.seek(offset);
-        while (raf.getFilePointer() != raf.length()) {
-            int type = raf.readInt();
-            long tid = raf.readLong();
-            if (type == UPDATE_RECORD) {
-                Page before_image = readPageData(raf);
-                Page after_image = readPageData(raf);
-                Page targetPage = recover ? after_image : before_image;
-                if (tid == transactionId.getId()) {
-                    Database.getCatalog().getDatabaseFile(targetPage.getId().getTableId()).writePage(targetPage);
-                }
-            } else if (type == CHECKPOINT_RECORD) {
-                int count = raf.readInt();
-                while (count-- > 0) {
-                    raf.readLong();
-                    raf.readLong();
+                // new records go after the last intact one; a torn record at the end is cut off
+                segments.setLength(end);
+                currentOffset = end;
+                pendingStart = end;
+                durableLsn = Math.max(durableLsn, end);
+
+                // undo: 沿prevLSN链撤销未完成的事务, 并为每个事务写ABORT记录
+                undo(active);
+                for (Map.Entry<Long, Long> e : active.entrySet()) {
+                    beginRecord();
+                    appendRecord(ABORT_RECORD, e.getKey(), e.getValue());
                 }
+                force();
             }
-            raf.readLong();
         }
     }
 
@@ -642,73 +1130,54 @@ public class LogFile {
      * Print out a human readable represenation of the log
      */
     public void print() throws IOException {
-        long curOffset = raf.getFilePointer();
-
-        raf.seek(0);
-
-        System.out.println("0: checkpoint record at offset " + raf.readLong());
-
-        while (true) {
-            try {
-                int cpType = raf.readInt();
-                long cpTid = raf.readLong();
-
-                System.out.println((raf.getFilePointer() - (INT_SIZE + LONG_SIZE)) + ": RECORD TYPE " + cpType);
-                System.out.println((raf.getFilePointer() - LONG_SIZE) + ": TID " + cpTid);
-
-                switch (cpType) {
-                    case BEGIN_RECORD -> {
-                        System.out.println(" (BEGIN)");
-                        System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
-                    }
-                    case ABORT_RECORD -> {
-                        System.out.println(" (ABORT)");
-                        System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+        drain();
+        long curOffset = segments.getFilePointer();
+
+        control.seek(0);
+        System.out.println("checkpoint record at offset " + control.readLong());
+
+        segments.seek(segments.start());
+        LogRecord r;
+        while ((r = readRecord(segments)) != null) {
+            System.out.println(r.offset + ": RECORD TYPE " + r.type + ", TID " + r.tid + ", LSN " + r.lsn
+                    + ", PREV LSN " + r.prevLsn);
+            switch (r.type) {
+                case BEGIN_RECORD -> System.out.println(" (BEGIN)");
+                case ABORT_RECORD -> System.out.println(" (ABORT)");
+                case COMMIT_RECORD -> System.out.println(" (COMMIT)");
+                case BULK_LOAD_RECORD -> System.out.println(" (BULK LOAD) table id " + r.tableId
+                        + ", " + r.numPages + " pages");
+                case CHECKPOINT_RECORD -> {
+                    System.out.println(" (CHECKPOINT)");
+                    System.out.println("  NUMBER OF OUTSTANDING RECORDS: " + r.activeTransactions.size());
+                    for (Map.Entry<Long, Long> e : r.activeTransactions.entrySet()) {
+                        System.out.println("  TID: " + e.getKey() + " FIRST LOG RECORD: " + e.getValue());
                     }
-                    case COMMIT_RECORD -> {
-                        System.out.println(" (COMMIT)");
-                        System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
-                    }
-                    case CHECKPOINT_RECORD -> {
-                        System.out.println(" (CHECKPOINT)");
-                        int numTransactions = raf.readInt();
-                        System.out.println((raf.getFilePointer() - INT_SIZE) + ": NUMBER OF OUTSTANDING RECORDS: " + numTransactions);
-                        while (numTransactions-- > 0) {
-                            long tid = raf.readLong();
-                            long firstRecord = raf.readLong();
-                            System.out.println((raf.getFilePointer() - (LONG_SIZE + LONG_SIZE)) + ": TID: " + tid);
-                            System.out.println((raf.getFilePointer() - LONG_SIZE) + ": FIRST LOG RECORD: " + firstRecord);
-                        }
-                        System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
-                    }
-                    case UPDATE_RECORD -> {
-                        System.out.println(" (UPDATE)");
-                        long start = raf.getFilePointer();
-                        Page before = readPageData(raf);
-                        long middle = raf.getFilePointer();
-                        Page after = readPageData(raf);
-                        System.out.println(start + ": before image table id " + before.getId().getTableId());
-                        System.out.println((start + INT_SIZE) + ": before image page number " + before.getId().getPageNumber());
-                        System.out.println((start + INT_SIZE) + " TO " + (middle - INT_SIZE) + ": page data");
-                        System.out.println(middle + ": after image table id " + after.getId().getTableId());
-                        System.out.println((middle + INT_SIZE) + ": after image page number " + after.getId().getPageNumber());
-                        System.out.println((middle + INT_SIZE) + " TO " + (raf.getFilePointer()) + ": page data");
-                        System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                }
+                case UPDATE_RECORD, CLR_RECORD -> {
+                    System.out.println(r.type == UPDATE_RECORD ? " (UPDATE)" : " (CLR, UNDO NEXT " + r.undoNextLsn + ")");
+                    System.out.println("  page type " + r.pageType + ", table id " + r.pid.getTableId()
+                            + ", page number " + r.pid.getPageNumber());
+                    for (int i = 0; i < r.rangeOffsets.length; i++) {
+                        System.out.println("  bytes " + r.rangeOffsets[i] + " TO "
+                                + (r.rangeOffsets[i] + r.before[i].length) + " changed");
                     }
                 }
-
-            } catch (EOFException e) {
-                //logger.error(e.getMessage());
-                break;
             }
+            System.out.println((segments.getFilePointer() - RECORD_TRAILER_SIZE) + ": RECORD START OFFSET: " + r.offset);
         }
 
         // Return the file pointer to its original position
-        raf.seek(curOffset);
+        segments.seek(curOffset);
     }
 
+    /**
+     * Write out all buffered records and force the log to disk now,
+     * without waiting for the flusher.
+     */
     public synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+        drain();
+        forceTo(pendingStart);
     }
 
 }
@@ -0,0 +1,191 @@
+package simpledb.storage;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * LogSegments stores the log as a sequence of segment files.  The log is
+ * addressed by offsets that only ever grow; each segment file holds a
+ * consecutive range of offsets and is named after the offset it starts at,
+ * e.g. <tt>log.0</tt>, <tt>log.16777512</tt>.  Records never span segments,
+ * since a new segment is only started between two appends.
+ * <p>
+ * Truncating the head of the log deletes whole segments: nothing is
+ * copied, and offsets stay valid.
+ * <p>
+ * Reads and appends are done by the owning LogFile under its monitor.
+ * {@link #force()} may be called concurrently with them.
+ */
+class LogSegments {
+
+    private final File base;
+    /* start offset -> segment file */
+    private final ConcurrentSkipListMap<Long, RandomAccessFile> segments = new ConcurrentSkipListMap<>();
+    private long position;
+
+    /**
+     * Open the segments of the log with the given name.
+     *
+     * @param base the log's name; segment files are named after it
+     */
+    LogSegments(File base) throws IOException {
+        this.base = base;
+        String prefix = base.getName() + ".";
+        File[] files = base.getAbsoluteFile().getParentFile().listFiles();
+        if (files != null) {
+            for (File f : files) {
+                String name = f.getName();
+                if (!name.startsWith(prefix)) {
+                    continue;
+                }
+                try {
+                    long start = Long.parseLong(name.substring(prefix.length()));
+                    segments.put(start, new RandomAccessFile(f, "rw"));
+                } catch (NumberFormatException e) {
+                    // not a segment
+                }
+            }
+        }
+    }
+
+    private File segmentFile(long start) {
+        return new File(base.getPath() + "." + start);
+    }
+
+    /** Delete every segment and start an empty log at offset 0. */
+    void clear() throws IOException {
+        for (Map.Entry<Long, RandomAccessFile> e : segments.entrySet()) {
+            e.getValue().close();
+            segmentFile(e.getKey()).delete();
+        }
+        segments.clear();
+        segments.put(0L, new RandomAccessFile(segmentFile(0), "rw"));
+        position = 0;
+    }
+
+    /** @return the offset where the oldest segment starts */
+    long start() {
+        return segments.isEmpty() ? 0 : segments.firstKey();
+    }
+
+    /** @return the offset just past the end of the log */
+    long length() throws IOException {
+        Map.Entry<Long, RandomAccessFile> last = segments.lastEntry();
+        return last == null ? 0 : last.getKey() + last.getValue().length();
+    }
+
+    /** @return the number of segment files */
+    int getNumSegments() {
+        return segments.size();
+    }
+
+    void seek(long pos) {
+        position = pos;
+    }
+
+    long getFilePointer() {
+        return position;
+    }
+
+    /* the segment holding the current position, positioned there */
+    private RandomAccessFile current() throws IOException {
+        Map.Entry<Long, RandomAccessFile> e = segments.floorEntry(position);
+        if (e == null) {
+            throw new EOFException("log offset " + position + " was truncated");
+        }
+        e.getValue().seek(position - e.getKey());
+        return e.getValue();
+    }
+
+    /** @return the number of bytes after the current position in its segment */
+    long remaining() throws IOException {
+        Map.Entry<Long, RandomAccessFile> e = segments.floorEntry(position);
+        return e == null ? 0 : e.getKey() + e.getValue().length() - position;
+    }
+
+    void readFully(byte[] b) throws IOException {
+        current().readFully(b);
+        position += b.length;
+    }
+
+    long readLong() throws IOException {
+        long v = current().readLong();
+        position += Long.BYTES;
+        return v;
+    }
+
+    int readInt() throws IOException {
+        int v = current().readInt();
+        position += Integer.BYTES;
+        return v;
+    }
+
+    /** Append to the end of the log. */
+    void append(byte[] b) throws IOException {
+        RandomAccessFile last = segments.lastEntry().getValue();
+        last.seek(last.length());
+        last.write(b);
+    }
+
+    /**
+     * Start a new segment at the end of the log if the last one has
+     * reached the given size.  The finished segment is forced to disk,
+     * so that {@link #force()} only has to force the last one.
+     */
+    void roll(long segmentBytes) throws IOException {
+        Map.Entry<Long, RandomAccessFile> last = segments.lastEntry();
+        long length = last.getValue().length();
+        if (length >= segmentBytes) {
+            last.getValue().getChannel().force(true);
+            long start = last.getKey() + length;
+            segments.put(start, new RandomAccessFile(segmentFile(start), "rw"));
+        }
+    }
+
+    /** Force the last segment to disk. */
+    void force() throws IOException {
+        segments.lastEntry().getValue().getChannel().force(true);
+    }
+
+    /** Cut the log off at the given offset. */
+    void setLength(long end) throws IOException {
+        while (segments.size() > 1 && segments.lastKey() >= end) {
+            Map.Entry<Long, RandomAccessFile> last = segments.pollLastEntry();
+            last.getValue().close();
+            segmentFile(last.getKey()).delete();
+        }
+        Map.Entry<Long, RandomAccessFile> last = segments.lastEntry();
+        last.getValue().setLength(end - last.getKey());
+    }
+
+    /**
+     * Delete the segments that end at or before the given offset.  The
+     * last segment is always kept.
+     *
+     * @return the number of segments deleted
+     */
+    int deleteBefore(long offset) throws IOException {
+        int deleted = 0;
+        while (segments.size() > 1) {
+            Long next = segments.higherKey(segments.firstKey());
+            if (next > offset) {
+                break;
+            }
+            Map.Entry<Long, RandomAccessFile> first = segments.pollFirstEntry();
+            first.getValue().close();
+            segmentFile(first.getKey()).delete();
+            deleted++;
+        }
+        return deleted;
+    }
+
+    void close() throws IOException {
+        for (RandomAccessFile f : segments.values()) {
+            f.close();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * PageChannel does the page I/O of one DbFile.  It keeps a FileChannel on
+ * the file open for the life of the DbFile and reads and writes pages with
+ * positional I/O, which does not move a shared file pointer, so concurrent
+ * readers never wait for each other.
+ * <p>
+ * Data goes through direct buffers taken from a pool shared by all files,
+ * so a page read allocates nothing but the page's own array.
+ */
+public class PageChannel {
+
+    /* direct buffers beyond this many are left to the garbage collector */
+    private static final int MAX_POOLED_BUFFERS = 64;
+    private static final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger pooledBuffers = new AtomicInteger();
+
+    private final File file;
+    private volatile FileChannel channel;
+
+    /**
+     * @param file the file to do I/O on; it is opened on first use
+     */
+    public PageChannel(File file) {
+        this.file = file;
+    }
+
+    private FileChannel channel() throws IOException {
+        FileChannel c = channel;
+        if (c == null) {
+            synchronized (this) {
+                c = channel;
+                if (c == null) {
+                    // the channel's descriptor is cleaned up with the RandomAccessFile
+                    c = new RandomAccessFile(file, "rw").getChannel();
+                    channel = c;
+                }
+            }
+        }
+        return c;
+    }
+
+    private static ByteBuffer takeBuffer(int capacity) {
+        ByteBuffer buf = buffers.poll();
+        if (buf != null) {
+            pooledBuffers.decrementAndGet();
+            if (buf.capacity() >= capacity) {
+                buf.clear().limit(capacity);
+                return buf;
+            }
+        }
+        return ByteBuffer.allocateDirect(capacity);
+    }
+
+    private static void returnBuffer(ByteBuffer buf) {
+        if (pooledBuffers.incrementAndGet() <= MAX_POOLED_BUFFERS) {
+            buffers.offer(buf);
+        } else {
+            pooledBuffers.decrementAndGet();
+        }
+    }
+
+    /**
+     * Read data.length bytes at the given position into data.  Bytes past
+     * the end of the file are left as they are.
+     *
+     * @return the number of bytes read, or -1 if position is at or past the
+     *         end of the file
+     */
+    public int read(long position, byte[] data) throws IOException {
+        FileChannel c = channel();
+        ByteBuffer buf = takeBuffer(data.length);
+        try {
+            int read = 0;
+            while (buf.hasRemaining()) {
+                int n = c.read(buf, position + read);
+                if (n < 0) {
+                    break;
+                }
+                read += n;
+            }
+            buf.flip();
+            buf.get(data, 0, read);
+            return read == 0 && data.length > 0 ? -1 : read;
+        } finally {
+            returnBuffer(buf);
+        }
+    }
+
+    /**
+     * Write all of data at the given position.
+     */
+    public void write(long position, byte[] data) throws IOException {
+        FileChannel c = channel();
+        ByteBuffer buf = takeBuffer(data.length);
+        try {
+            buf.put(data).flip();
+            long at = position;
+            while (buf.hasRemaining()) {
+                at += c.write(buf, at);
+            }
+        } finally {
+            returnBuffer(buf);
+        }
+    }
+
+    /**
+     * Write data at the end of the file.
+     *
+     * @return the position it was written at
+     */
+    public synchronized long append(byte[] data) throws IOException {
+        long position = channel().size();
+        write(position, data);
+        return position;
+    }
+
+    /**
+     * Map a region of the file into memory, read-only.  The mapping stays
+     * valid after the channel is closed, and sees later writes to the file.
+     */
+    public MappedByteBuffer map(long position, long size) throws IOException {
+        return channel().map(FileChannel.MapMode.READ_ONLY, position, size);
+    }
+
+    /** @return the size of the file in bytes */
+    public long size() throws IOException {
+        return channel().size();
+    }
+
+    /** Close the channel; it is opened again if the file is used later. */
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.index.*;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * PageTypeRegistry maps the page classes that can appear in the log to
+ * small numeric tags, and knows how to rebuild a page of each type from
+ * its serialized id and its bytes.  The log writes the tag instead of the
+ * class names, and recovery calls the factory instead of looking up
+ * constructors by reflection.
+ * <p>
+ * New page types register themselves with {@link #register}; tags must
+ * never be reused, since they are stored in log files.
+ */
+public class PageTypeRegistry {
+
+    /** Rebuilds pages of one type. */
+    public interface Factory {
+        /** @param data the output of {@link PageId#serialize()} */
+        PageId createId(int[] data);
+
+        Page createPage(PageId id, byte[] data) throws IOException;
+    }
+
+    public static final byte HEAP_PAGE = 1;
+    public static final byte BTREE_ROOT_PTR_PAGE = 2;
+    public static final byte BTREE_INTERNAL_PAGE = 3;
+    public static final byte BTREE_LEAF_PAGE = 4;
+    public static final byte BTREE_HEADER_PAGE = 5;
+    public static final byte PAX_PAGE = 6;
+    public static final byte SLOTTED_HEAP_PAGE = 7;
+
+    private static final Map<Byte, Factory> factories = new HashMap<>();
+    private static final Map<Class<? extends Page>, Byte> tags = new HashMap<>();
+
+    static {
+        register(HEAP_PAGE, HeapPage.class, new Factory() {
+            public PageId createId(int[] data) {
+                return new HeapPageId(data[0], data[1]);
+            }
+
+            public Page createPage(PageId id, byte[] data) throws IOException {
+                return new HeapPage((HeapPageId) id, data);
+            }
+        });
+        register(PAX_PAGE, PaxPage.class, new Factory() {
+            public PageId createId(int[] data) {
+                return new HeapPageId(data[0], data[1]);
+            }
+
+            public Page createPage(PageId id, byte[] data) throws IOException {
+                return new PaxPage((HeapPageId) id, data);
+            }
+        });
+        register(SLOTTED_HEAP_PAGE, SlottedHeapPage.class, new Factory() {
+            public PageId createId(int[] data) {
+                return new HeapPageId(data[0], data[1]);
+            }
+
+            public Page createPage(PageId id, byte[] data) {
+                return new SlottedHeapPage((HeapPageId) id, data);
+            }
+        });
+        register(BTREE_ROOT_PTR_PAGE, BTreeRootPtrPage.class, (BTreeFactory) (id, data) ->
+                new BTreeRootPtrPage(id, data));
+        register(BTREE_INTERNAL_PAGE, BTreeInternalPage.class, (BTreeFactory) (id, data) ->
+                new BTreeInternalPage(id, data, keyField(id)));
+        register(BTREE_LEAF_PAGE, BTreeLeafPage.class, (BTreeFactory) (id, data) ->
+                new BTreeLeafPage(id, data, keyField(id)));
+        register(BTREE_HEADER_PAGE, BTreeHeaderPage.class, (BTreeFactory) (id, data) ->
+                new BTreeHeaderPage(id, data));
+    }
+
+    /* all B+ tree pages share the id type */
+    private interface BTreeFactory extends Factory {
+        default PageId createId(int[] data) {
+            return new BTreePageId(data[0], data[1], data[2]);
+        }
+
+        default Page createPage(PageId id, byte[] data) throws IOException {
+            return create((BTreePageId) id, data);
+        }
+
+        Page create(BTreePageId id, byte[] data) throws IOException;
+    }
+
+    private static int keyField(BTreePageId id) {
+        return ((BTreeFile) Database.getCatalog().getDatabaseFile(id.getTableId())).keyField();
+    }
+
+    /**
+     * Register a page type.
+     *
+     * @throws IllegalArgumentException if the tag is taken by another class
+     */
+    public static synchronized void register(byte tag, Class<? extends Page> pageClass, Factory factory) {
+        Factory existing = factories.get(tag);
+        if (existing != null && !pageClass.equals(classOf(tag))) {
+            throw new IllegalArgumentException("page type tag " + tag + " is already taken");
+        }
+        factories.put(tag, factory);
+        tags.put(pageClass, tag);
+    }
+
+    private static Class<? extends Page> classOf(byte tag) {
+        for (Map.Entry<Class<? extends Page>, Byte> e : tags.entrySet()) {
+            if (e.getValue() == tag) {
+                return e.getKey();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the tag of the page's type
+     * @throws IllegalArgumentException if the type was never registered
+     */
+    public static synchronized byte tagOf(Page page) {
+        Byte tag = tags.get(page.getClass());
+        if (tag == null) {
+            throw new IllegalArgumentException("no page type tag for " + page.getClass().getName());
+        }
+        return tag;
+    }
+
+    /**
+     * @return the factory of the page type with the given tag
+     * @throws IOException if the tag is unknown, i.e. the log is corrupt
+     */
+    public static synchronized Factory factory(byte tag) throws IOException {
+        Factory factory = factories.get(tag);
+        if (factory == null) {
+            throw new IOException("unknown page type tag " + tag);
+        }
+        return factory;
+    }
+}
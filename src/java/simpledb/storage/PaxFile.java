@@ -0,0 +1,34 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * PaxFile is a HeapFile whose pages are PaxPages, which store their tuples
+ * column by column.  Everything else -- free space map, memory mapping,
+ * locking through the BufferPool, logging -- is the HeapFile's; a table is
+ * made a PaxFile with the <tt>pax</tt> option of its catalog entry, see
+ * {@link simpledb.common.Catalog#loadSchema}.
+ * <p>
+ * The file format is not compatible with a HeapFile's: a file written by
+ * one must not be opened as the other.
+ *
+ * @see PaxPage
+ */
+public class PaxFile extends HeapFile {
+
+    /**
+     * Constructs a PAX file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this file.
+     */
+    public PaxFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    @Override
+    PaxPage createPage(HeapPageId pid, ByteBuffer data) throws IOException {
+        return new PaxPage(pid, data);
+    }
+}
@@ -0,0 +1,63 @@
+package simpledb.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * PaxPage is a HeapPage that lays its tuples out column by column (PAX,
+ * "Partition Attributes Across").  The page has the same header and the
+ * same number of slots as a HeapPage, but after the header, each field of
+ * the tuple descriptor has a minipage of its own holding that field of
+ * every slot, in slot order:
+ * <pre>
+ * header | field 0 of slots 0..n-1 | field 1 of slots 0..n-1 | ...
+ * </pre>
+ * A scan that decodes only some fields, see {@link HeapPage#iterator(int[])},
+ * then reads only their minipages, one after the other, rather than a few
+ * bytes out of every tuple.
+ *
+ * @see PaxFile
+ */
+public class PaxPage extends HeapPage {
+
+    /* the offset of each field's minipage */
+    private final int[] columnOffsets;
+
+    /**
+     * Create a PaxPage from a set of bytes of data read from disk.
+     *
+     * @see HeapPage#HeapPage(HeapPageId, byte[])
+     */
+    public PaxPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a PaxPage from the bytes of a page in a buffer, starting at its
+     * position.
+     *
+     * @see HeapPage#HeapPage(HeapPageId, ByteBuffer)
+     */
+    public PaxPage(HeapPageId id, ByteBuffer data) throws IOException {
+        super(id, data);
+        columnOffsets = new int[td.numFields()];
+        columnOffsets[0] = header.numBytes();
+        for (int j = 1; j < columnOffsets.length; j++)
+            columnOffsets[j] = columnOffsets[j - 1] + numSlots * td.getFieldType(j - 1).getLen();
+    }
+
+    @Override
+    PaxPage createPage(HeapPageId id, ByteBuffer data) throws IOException {
+        return new PaxPage(id, data);
+    }
+
+    @Override
+    public PaxPage getBeforeImage() {
+        return (PaxPage) super.getBeforeImage();
+    }
+
+    @Override
+    int fieldOffset(int slotId, int field) {
+        return columnOffsets[field] + slotId * td.getFieldType(field).getLen();
+    }
+}
@@ -0,0 +1,92 @@
+package simpledb.storage;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * PrefetchStats counts what the read-ahead of a BufferPool achieved: pages
+ * read ahead, how many of them were asked for before they left the pool
+ * (hits), how many were evicted or discarded unused (wasted), and how many
+ * read-aheads were not done at all, because the budget of unused prefetched
+ * pages was spent or the page could not be locked without waiting
+ * (dropped).
+ * <p>
+ * Like LockStats, recording is a few atomic increments and stays on all the
+ * time.  {@link #snapshot()} returns a copy of the counters; toString()
+ * prints a report, which is what the <tt>prefetchstats;</tt> command of the
+ * Parser console shows.
+ *
+ * @see BufferPool#prefetch
+ */
+public class PrefetchStats {
+
+    /** A point-in-time copy of the counters. */
+    public static class Counters {
+        public long issued;
+        public long hits;
+        /** hits on pages that were still being read when asked for */
+        public long lateHits;
+        public long wasted;
+        public long dropped;
+
+        /**
+         * @return the fraction of the pages read ahead that were asked for,
+         *         or 0 if none were read ahead
+         */
+        public double hitRatio() {
+            return issued == 0 ? 0 : (double) hits / issued;
+        }
+    }
+
+    private final LongAdder issued = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder lateHits = new LongAdder();
+    private final LongAdder wasted = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    void recordIssued() {
+        issued.increment();
+    }
+
+    void recordHit(boolean late) {
+        hits.increment();
+        if (late) {
+            lateHits.increment();
+        }
+    }
+
+    void recordWasted() {
+        wasted.increment();
+    }
+
+    void recordDropped() {
+        dropped.increment();
+    }
+
+    /** @return a copy of the counters */
+    public Counters snapshot() {
+        Counters c = new Counters();
+        c.issued = issued.sum();
+        c.hits = hits.sum();
+        c.lateHits = lateHits.sum();
+        c.wasted = wasted.sum();
+        c.dropped = dropped.sum();
+        return c;
+    }
+
+    /** Set all counters back to zero. */
+    public void reset() {
+        issued.reset();
+        hits.reset();
+        lateHits.reset();
+        wasted.reset();
+        dropped.reset();
+    }
+
+    @Override
+    public String toString() {
+        Counters c = snapshot();
+        return String.format("%10s %10s %10s %10s %10s %9s%n%10d %10d %10d %10d %10d %8.1f%%%n",
+                "issued", "hits", "late hits", "wasted", "dropped", "hit ratio",
+                c.issued, c.hits, c.lateHits, c.wasted, c.dropped, 100 * c.hitRatio());
+    }
+}
@@ -0,0 +1,65 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.transaction.TransactionId;
+
+import java.util.function.Function;
+
+/**
+ * ReadAhead decides when a scan has pages read ahead of it.  A scan tells it
+ * every page it reads; once the scan reads a page right after the one
+ * before it (or from the first page on, if hinted it will read to the end),
+ * ReadAhead asks the BufferPool to read the next
+ * {@link BufferPool#getPrefetchDepth()} pages, and asks again whenever half
+ * of them have been read.  A jump elsewhere stops the read-ahead until the
+ * scan runs sequentially again.
+ *
+ * @see BufferPool#prefetch
+ */
+public class ReadAhead {
+
+    private final TransactionId tid;
+    private final Function<Page, PageId> next;
+    private boolean hinted;
+    /* the page after the page read last */
+    private PageId expected;
+    /* pages asked to be read ahead and not read yet */
+    private int ahead;
+
+    /**
+     * @param tid  the scanning transaction
+     * @param next the page after a given page, or null after the last
+     */
+    public ReadAhead(TransactionId tid, Function<Page, PageId> next) {
+        this.tid = tid;
+        this.next = next;
+    }
+
+    /** The scan is going to read to the end; read ahead from its first page. */
+    public void hintSequential() {
+        hinted = true;
+    }
+
+    /** The scan starts over. */
+    public void reset() {
+        expected = null;
+        ahead = 0;
+    }
+
+    /** The scan read page. */
+    public void pageRead(Page page) {
+        boolean sequential = page.getId().equals(expected);
+        expected = next.apply(page);
+        if (!sequential && !(hinted && ahead == 0)) {
+            ahead = 0;
+            return;
+        }
+        ahead = Math.max(0, ahead - 1);
+        BufferPool pool = Database.getBufferPool();
+        int depth = pool.getPrefetchDepth();
+        if (depth > 0 && ahead <= depth / 2 && expected != null) {
+            pool.prefetch(tid, expected, depth, next);
+            ahead = depth;
+        }
+    }
+}
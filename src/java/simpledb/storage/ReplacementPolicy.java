@@ -0,0 +1,67 @@
+package simpledb.storage;
+
+import java.util.function.Predicate;
+
+/**
+ * ReplacementPolicy decides which cached page a BufferPool shard gives up
+ * when the pool runs out of frames.  Each shard owns one policy instance and
+ * only calls it while holding the shard latch, so implementations need not
+ * be thread safe.
+ *
+ * @see BufferPool
+ * @see BufferPoolShard
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * Creates the policy of one shard.
+     */
+    @FunctionalInterface
+    interface Factory {
+        /**
+         * @param capacity the number of frames the shard is expected to hold
+         */
+        ReplacementPolicy create(int capacity);
+    }
+
+    /** Plain least-recently-used replacement. */
+    Factory LRU = LRUPolicy::new;
+
+    /** The CLOCK (second chance) approximation of LRU. */
+    Factory CLOCK = ClockPolicy::new;
+
+    /** LRU-2: evicts the page whose second most recent access is oldest. */
+    Factory LRU_2 = capacity -> new LRUKPolicy(capacity, 2);
+
+    /** The full 2Q algorithm, with a FIFO probation queue and a ghost queue. */
+    Factory TWO_Q = TwoQPolicy::new;
+
+    /** The policy used by BufferPools that do not ask for one. */
+    Factory DEFAULT = LRU_2;
+
+    /**
+     * Record an access to a cached page.  The first access to a page means it
+     * has just been brought into the shard.
+     */
+    void recordAccess(PageId pid);
+
+    /**
+     * Stop tracking a page that left the shard without being chosen as a
+     * victim (e.g. it was discarded).
+     */
+    void remove(PageId pid);
+
+    /**
+     * Choose a victim among the tracked pages and stop tracking it.
+     *
+     * @param evictable tells whether a page may be evicted at all (e.g. it
+     *                  is not dirty)
+     * @return the victim, or null if no tracked page is evictable
+     */
+    PageId evict(Predicate<PageId> evictable);
+
+    /**
+     * @return the number of cached pages tracked by this policy
+     */
+    int size();
+}
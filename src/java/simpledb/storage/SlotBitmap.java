@@ -0,0 +1,221 @@
+package simpledb.storage;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * SlotBitmap keeps track of which slots of a page are in use, one bit per
+ * slot, for HeapPage and the B+ tree pages.  Its serialized form is the
+ * header of those pages: slot i is bit (i % 8) of byte (i / 8).
+ * <p>
+ * In memory the bits are kept in 64-bit words, so finding an empty slot,
+ * counting used slots and stepping to the next used slot look at 64 slots
+ * at a time.  Used slots are visited without allocating:
+ * <pre>
+ * for (int i = slots.nextUsed(0); i &gt;= 0; i = slots.nextUsed(i + 1))
+ * </pre>
+ * The header may have more bits than there are slots; those bits are kept
+ * as they were read, but are never counted or returned as slots.
+ */
+public class SlotBitmap {
+
+    private final long[] words;
+    private final int numSlots;
+    private final int numBytes;
+
+    /**
+     * Create a bitmap with all slots empty.
+     *
+     * @param numSlots the number of slots
+     * @param numBytes the size of the serialized header, at least
+     *                 ceiling(numSlots / 8)
+     */
+    public SlotBitmap(int numSlots, int numBytes) {
+        if (numBytes * 8 < numSlots) {
+            throw new IllegalArgumentException(numSlots + " slots do not fit in " + numBytes + " bytes");
+        }
+        this.numSlots = numSlots;
+        this.numBytes = numBytes;
+        this.words = new long[(numBytes + 7) / 8];
+    }
+
+    /**
+     * Create a bitmap from a serialized header.
+     *
+     * @param buf   the buffer holding the header
+     * @param index the index of the header's first byte in buf; the
+     *              buffer's position is not used or changed
+     */
+    public SlotBitmap(int numSlots, int numBytes, ByteBuffer buf, int index) {
+        this(numSlots, numBytes);
+        for (int i = 0; i < numBytes; i++) {
+            words[i >>> 3] |= (buf.get(index + i) & 0xffL) << ((i & 7) * 8);
+        }
+    }
+
+    /**
+     * Create a bitmap from a serialized header at the start of data.
+     */
+    public SlotBitmap(int numSlots, byte[] data) {
+        this(numSlots, data.length, ByteBuffer.wrap(data), 0);
+    }
+
+    private SlotBitmap(SlotBitmap other) {
+        this.numSlots = other.numSlots;
+        this.numBytes = other.numBytes;
+        this.words = other.words.clone();
+    }
+
+    /** @return a copy of this bitmap */
+    public SlotBitmap copy() {
+        return new SlotBitmap(this);
+    }
+
+    /** @return the number of slots */
+    public int numSlots() {
+        return numSlots;
+    }
+
+    /** @return the size of the serialized header in bytes */
+    public int numBytes() {
+        return numBytes;
+    }
+
+    /** @return the serialized header byte at the given index */
+    public byte getByte(int i) {
+        return (byte) (words[i >>> 3] >>> ((i & 7) * 8));
+    }
+
+    /** Write the serialized header into dst at the given offset. */
+    public void writeTo(byte[] dst, int offset) {
+        for (int i = 0; i < numBytes; i++) {
+            dst[offset + i] = getByte(i);
+        }
+    }
+
+    /** Write the serialized header to out. */
+    public void writeTo(DataOutput out) throws IOException {
+        for (int i = 0; i < numBytes; i++) {
+            out.writeByte(getByte(i));
+        }
+    }
+
+    /** @return true if slot i is used */
+    public boolean isUsed(int i) {
+        return (words[i >>> 6] & (1L << i)) != 0;
+    }
+
+    /** Mark slot i used or empty. */
+    public void set(int i, boolean used) {
+        if (used) {
+            words[i >>> 6] |= 1L << i;
+        } else {
+            words[i >>> 6] &= ~(1L << i);
+        }
+    }
+
+    /**
+     * Set every bit of the header, including those past the last slot.
+     */
+    public void fill(boolean used) {
+        long word = used ? -1L : 0L;
+        for (int w = 0; w < words.length; w++) {
+            int bits = Math.min(64, numBytes * 8 - w * 64);
+            words[w] = bits == 64 ? word : word & ((1L << bits) - 1);
+        }
+    }
+
+    /* word w with the bits past the last slot cleared */
+    private long slotBits(int w) {
+        int bits = numSlots - w * 64;
+        if (bits >= 64) {
+            return words[w];
+        }
+        return bits <= 0 ? 0 : words[w] & ((1L << bits) - 1);
+    }
+
+    /** @return the number of used slots */
+    public int numUsed() {
+        int used = 0;
+        for (int w = 0; w < words.length; w++) {
+            used += Long.bitCount(slotBits(w));
+        }
+        return used;
+    }
+
+    /** @return the number of empty slots */
+    public int numEmpty() {
+        return numSlots - numUsed();
+    }
+
+    /**
+     * @return the first used slot at or after from, or -1 if there is none
+     */
+    public int nextUsed(int from) {
+        if (from < 0) {
+            from = 0;
+        }
+        if (from >= numSlots) {
+            return -1;
+        }
+        int w = from >>> 6;
+        long word = slotBits(w) & (-1L << from);
+        while (true) {
+            if (word != 0) {
+                return w * 64 + Long.numberOfTrailingZeros(word);
+            }
+            if (++w * 64 >= numSlots) {
+                return -1;
+            }
+            word = slotBits(w);
+        }
+    }
+
+    /**
+     * @return the first empty slot at or after from, or -1 if there is none
+     */
+    public int nextEmpty(int from) {
+        if (from < 0) {
+            from = 0;
+        }
+        if (from >= numSlots) {
+            return -1;
+        }
+        int w = from >>> 6;
+        long word = ~words[w] & (-1L << from);
+        while (true) {
+            if (word != 0) {
+                int i = w * 64 + Long.numberOfTrailingZeros(word);
+                return i < numSlots ? i : -1;
+            }
+            if (++w * 64 >= numSlots) {
+                return -1;
+            }
+            word = ~words[w];
+        }
+    }
+
+    /**
+     * @return the last used slot at or before from, or -1 if there is none
+     */
+    public int previousUsed(int from) {
+        if (from >= numSlots) {
+            from = numSlots - 1;
+        }
+        if (from < 0) {
+            return -1;
+        }
+        int w = from >>> 6;
+        long word = slotBits(w) & (-1L >>> (63 - (from & 63)));
+        while (true) {
+            if (word != 0) {
+                return w * 64 + 63 - Long.numberOfLeadingZeros(word);
+            }
+            if (--w < 0) {
+                return -1;
+            }
+            word = slotBits(w);
+        }
+    }
+}
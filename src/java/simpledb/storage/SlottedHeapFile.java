@@ -0,0 +1,407 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * SlottedHeapFile is a DbFile that stores tuples of variable length, in
+ * no particular order, on SlottedHeapPages.  A tuple takes only the bytes
+ * its values need: a VARCHAR is stored as its length and its bytes instead
+ * of being padded to a fixed length.
+ * <p>
+ * A VARCHAR longer than an eighth of a page, or that keeps its tuple from
+ * fitting on a page, is moved to a chain of overflow pages of the same
+ * file, and the tuple keeps a reference to the chain; a scan reads the
+ * chain only if the VARCHAR is asked for.  Deleting the tuple frees the
+ * chain, whose pages become empty data pages.
+ * <p>
+ * Like HeapFile, inserts find a page with room through a FreeSpaceMap,
+ * whose entries here count free space in units of 1/255 of a page.
+ *
+ * @see SlottedHeapPage
+ */
+public class SlottedHeapFile implements DbFile {
+
+    private final File file;
+    private final PageChannel channel;
+    private final TupleDesc tupleDesc;
+    private final BufferPool bufferPool = Database.getBufferPool();
+
+    /* loaded on first use */
+    private volatile FreeSpaceMap freeSpaceMap;
+
+    /**
+     * Constructs a slotted heap file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this
+     *          heap file.
+     */
+    public SlottedHeapFile(File f, TupleDesc td) {
+        file = f;
+        channel = new PageChannel(f);
+        tupleDesc = td;
+    }
+
+    /**
+     * Returns the File backing this SlottedHeapFile on disk.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this SlottedHeapFile, a hash of the
+     * absolute file name, like a HeapFile's.
+     */
+    public int getId() {
+        return file.getAbsoluteFile().hashCode();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return tupleDesc;
+    }
+
+    /* the bytes of free space an entry of the free space map counts */
+    private static int unit() {
+        return (BufferPool.getPageSize() + FreeSpaceMap.MAX_ENTRY - 1) / FreeSpaceMap.MAX_ENTRY;
+    }
+
+    /* the free space map entry of a page: whole units of free space */
+    private static int entry(SlottedHeapPage page) {
+        return page.getFreeSpace() / unit();
+    }
+
+    /**
+     * @return the free space map of this file, loaded on first use; pages
+     *         it does not cover yet are read from disk to fill it in
+     */
+    private FreeSpaceMap freeSpaceMap() throws IOException {
+        FreeSpaceMap fsm = freeSpaceMap;
+        if (fsm == null) {
+            synchronized (this) {
+                fsm = freeSpaceMap;
+                if (fsm == null) {
+                    fsm = new FreeSpaceMap(FreeSpaceMap.fileFor(file));
+                    for (int i = fsm.size(); i < numPages(); i++) {
+                        SlottedHeapPage page = (SlottedHeapPage) readPage(pageId(i));
+                        fsm.write(i, entry(page));
+                    }
+                    freeSpaceMap = fsm;
+                }
+            }
+        }
+        return fsm;
+    }
+
+    private HeapPageId pageId(int pageNo) {
+        return new HeapPageId(getId(), pageNo);
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        int pageSize = BufferPool.getPageSize();
+        SlottedHeapPage page = null;
+        try {
+            byte[] data = new byte[pageSize];
+            channel.read((long) pageSize * pid.getPageNumber(), data);
+            page = new SlottedHeapPage((HeapPageId) pid, data);
+            FreeSpaceMap fsm = freeSpaceMap;
+            if (fsm != null) {
+                fsm.set(pid.getPageNumber(), entry(page));
+            }
+        } catch (IOException e) {
+            // logger.error(e.getMessage());
+        }
+        return page;
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        int pageNumber = page.getId().getPageNumber();
+        channel.write((long) pageSize * pageNumber, page.getPageData());
+        freeSpaceMap().write(pageNumber, entry((SlottedHeapPage) page));
+    }
+
+    /**
+     * Returns the number of pages in this SlottedHeapFile, overflow pages
+     * included.
+     */
+    public int numPages() {
+        return (int) (file.length() / BufferPool.getPageSize());
+    }
+
+    /* add an empty page at the end of the file */
+    private synchronized int appendPage() throws IOException {
+        return (int) (channel.append(SlottedHeapPage.createEmptyPageData()) / BufferPool.getPageSize());
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!t.getTupleDesc().equals(tupleDesc)) {
+            throw new DbException("The td is missing matching");
+        }
+        List<Page> modified = new ArrayList<>();
+        byte[] record = encode(tid, t, modified);
+        FreeSpaceMap fsm = freeSpaceMap();
+        int needed = (record.length + SlottedHeapPage.SLOT_SIZE + unit() - 1) / unit();
+        for (int i = fsm.nextPageWithRoom(0, needed); i >= 0; i = fsm.nextPageWithRoom(i + 1, needed)) {
+            if (i >= numPages()) {
+                fsm.set(i, 0);
+                continue;
+            }
+            HeapPageId pid = pageId(i);
+            boolean locked = bufferPool.holdsLock(tid, pid);
+            SlottedHeapPage page = (SlottedHeapPage) bufferPool.getPage(tid, pid, Permissions.READ_WRITE);
+            if (!page.hasRoomFor(record.length)) {
+                fsm.set(i, entry(page));
+                // other transactions may use the page; this one had no need of it
+                if (!locked) {
+                    bufferPool.unsafeReleasePage(tid, pid);
+                }
+                continue;
+            }
+            page.insertTuple(t, record);
+            fsm.set(i, entry(page));
+            modified.add(page);
+            return modified;
+        }
+        SlottedHeapPage page = (SlottedHeapPage) bufferPool.getPage(tid, pageId(appendPage()), Permissions.READ_WRITE);
+        page.insertTuple(t, record);
+        fsm.set(page.getId().getPageNumber(), entry(page));
+        modified.add(page);
+        return modified;
+    }
+
+    /*
+     * Encode a tuple as a record of a SlottedHeapPage.  VARCHARs longer than
+     * an eighth of a page are written to overflow pages, then the longest
+     * others until the record fits on a page; the overflow pages are added
+     * to modified.
+     */
+    private byte[] encode(TransactionId tid, Tuple t, List<Page> modified)
+            throws DbException, IOException, TransactionAbortedException {
+        int n = tupleDesc.numFields();
+        byte[][] values = new byte[n][];
+        boolean[] overflow = new boolean[n];
+        int maxInline = Math.min(BufferPool.getPageSize() / 8, SlottedHeapPage.IN_OVERFLOW - 1);
+        int length = 0;
+        for (int j = 0; j < n; j++) {
+            Type type = tupleDesc.getFieldType(j);
+            if (type.isFixedLength()) {
+                length += type.getLen();
+                continue;
+            }
+            values[j] = ((StringField) t.getField(j)).getValue().getBytes(StandardCharsets.UTF_8);
+            overflow[j] = values[j].length > maxInline;
+            length += overflow[j] ? SlottedHeapPage.OVERFLOW_REF_SIZE : 2 + values[j].length;
+        }
+        while (length > SlottedHeapPage.maxRecordLength()) {
+            int longest = -1;
+            for (int j = 0; j < n; j++) {
+                if (values[j] != null && !overflow[j] && values[j].length + 2 > SlottedHeapPage.OVERFLOW_REF_SIZE
+                        && (longest < 0 || values[j].length > values[longest].length)) {
+                    longest = j;
+                }
+            }
+            if (longest < 0) {
+                throw new DbException("tuple too large for a page: " + length + " bytes");
+            }
+            overflow[longest] = true;
+            length += SlottedHeapPage.OVERFLOW_REF_SIZE - 2 - values[longest].length;
+        }
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(length);
+        DataOutputStream dos = new DataOutputStream(baos);
+        for (int j = 0; j < n; j++) {
+            if (values[j] == null) {
+                t.getField(j).serialize(dos);
+            } else if (overflow[j]) {
+                dos.writeShort(SlottedHeapPage.IN_OVERFLOW);
+                dos.writeInt(writeOverflow(tid, values[j], modified));
+                dos.writeInt(values[j].length);
+            } else {
+                dos.writeShort(values[j].length);
+                dos.write(values[j]);
+            }
+        }
+        dos.flush();
+        return baos.toByteArray();
+    }
+
+    /*
+     * Write a value to a chain of new overflow pages.
+     *
+     * @return the first page of the chain
+     */
+    private int writeOverflow(TransactionId tid, byte[] value, List<Page> modified)
+            throws DbException, IOException, TransactionAbortedException {
+        int capacity = SlottedHeapPage.overflowCapacity();
+        int[] pages = new int[Math.max(1, (value.length + capacity - 1) / capacity)];
+        for (int c = 0; c < pages.length; c++) {
+            pages[c] = appendPage();
+        }
+        FreeSpaceMap fsm = freeSpaceMap();
+        for (int c = 0; c < pages.length; c++) {
+            SlottedHeapPage page = (SlottedHeapPage) bufferPool.getPage(tid, pageId(pages[c]), Permissions.READ_WRITE);
+            int off = c * capacity;
+            page.setOverflow(c + 1 < pages.length ? pages[c + 1] : -1, value, off, Math.min(capacity, value.length - off));
+            fsm.set(pages[c], 0);
+            modified.add(page);
+        }
+        return pages[0];
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != getId()) {
+            throw new DbException("tuple not in this file!");
+        }
+        SlottedHeapPage page = (SlottedHeapPage) bufferPool.getPage(tid, rid.getPageId(), Permissions.READ_WRITE);
+        int[] chains = page.overflowPages(rid.getTupleNumber());
+        page.deleteTuple(t);
+        List<Page> modified = new ArrayList<>();
+        modified.add(page);
+        try {
+            FreeSpaceMap fsm = freeSpaceMap();
+            fsm.set(page.getId().getPageNumber(), entry(page));
+            for (int first : chains) {
+                for (int pageNo = first; pageNo >= 0; ) {
+                    SlottedHeapPage p = (SlottedHeapPage) bufferPool.getPage(tid, pageId(pageNo), Permissions.READ_WRITE);
+                    if (!p.isOverflow()) {
+                        throw new DbException("broken overflow chain at page " + pageNo);
+                    }
+                    int next = p.getNextOverflowPage();
+                    p.clear();
+                    fsm.set(pageNo, entry(p));
+                    modified.add(p);
+                    pageNo = next;
+                }
+            }
+        } catch (IOException e) {
+            throw new DbException("could not read the free space map: " + e.getMessage());
+        }
+        return modified;
+    }
+
+    /*
+     * @return the bytes of a value stored in the overflow chain starting at
+     *         the given page
+     */
+    private byte[] readOverflow(TransactionId tid, int firstPage, int length)
+            throws DbException, TransactionAbortedException {
+        byte[] value = new byte[length];
+        int off = 0;
+        for (int pageNo = firstPage; pageNo >= 0 && off < length; ) {
+            SlottedHeapPage p = (SlottedHeapPage) bufferPool.getPage(tid, pageId(pageNo), Permissions.READ_ONLY);
+            if (!p.isOverflow()) {
+                throw new DbException("broken overflow chain at page " + pageNo);
+            }
+            byte[] chunk = p.getOverflowChunk();
+            int len = Math.min(chunk.length, length - off);
+            System.arraycopy(chunk, 0, value, off, len);
+            off += len;
+            pageNo = p.getNextOverflowPage();
+        }
+        if (off < length) {
+            throw new DbException("overflow chain at page " + firstPage + " too short");
+        }
+        return value;
+    }
+
+    /**
+     * Iterates over the tuples of the data pages, reading the pages ahead
+     * when scanning sequentially.  Overflow pages are read only for the
+     * VARCHARs asked for.
+     */
+    private class SlottedHeapFileIterator extends AbstractDbFileIterator {
+        private final TransactionId tid;
+        private final ReadAhead readAhead;
+        private final SlottedHeapPage.OverflowReader reader;
+        private int[] neededFields;
+        private int numPages;
+        private int pgNo;
+        private SlottedHeapPage page;
+        private int slot;
+        private boolean open;
+
+        SlottedHeapFileIterator(TransactionId tid) {
+            this.tid = tid;
+            this.reader = (first, length) -> readOverflow(tid, first, length);
+            this.readAhead = new ReadAhead(tid, p -> {
+                int next = p.getId().getPageNumber() + 1;
+                return next < numPages ? pageId(next) : null;
+            });
+        }
+
+        @Override
+        public void open() {
+            readAhead.reset();
+            numPages = numPages();
+            pgNo = -1;
+            page = null;
+            open = true;
+        }
+
+        @Override
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (!open) {
+                return null;
+            }
+            while (true) {
+                if (page != null) {
+                    slot = page.nextUsedSlot(slot + 1);
+                    if (slot >= 0) {
+                        return page.getTuple(slot, neededFields, reader);
+                    }
+                }
+                if (++pgNo >= numPages) {
+                    page = null;
+                    return null;
+                }
+                page = (SlottedHeapPage) bufferPool.getPage(tid, pageId(pgNo), Permissions.READ_ONLY);
+                readAhead.pageRead(page);
+                slot = -1;
+            }
+        }
+
+        @Override
+        public void rewind() {
+            close();
+            open();
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            open = false;
+            page = null;
+        }
+
+        @Override
+        public void hintSequential() {
+            readAhead.hintSequential();
+        }
+
+        @Override
+        public void setNeededFields(int[] fields) {
+            neededFields = fields;
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new SlottedHeapFileIterator(tid);
+    }
+}
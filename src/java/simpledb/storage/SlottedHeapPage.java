@@ -0,0 +1,460 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * Each instance of SlottedHeapPage stores one page of a SlottedHeapFile,
+ * whose tuples are of variable length: either a data page, holding tuples,
+ * or an overflow page, holding part of a VARCHAR too long to be kept in
+ * its tuple.
+ * <p>
+ * A data page starts with a header of a kind byte (0), the number of slots
+ * (2 bytes) and the offset where the records start (2 bytes, 0 for the end
+ * of the page).  A slot directory of 4 bytes per slot follows: the offset
+ * and the length of its record, or an offset of 0 for an empty slot.
+ * Records are packed at the end of the page, growing towards the slot
+ * directory, and deleting a record moves the records before it up to close
+ * the hole, so the free space of a page is always in one piece.  A page of
+ * zeroes is an empty data page.
+ * <p>
+ * A record holds the fields of a tuple in order: INT and STRING fields as
+ * they are serialized, VARCHARs as a 2-byte length and their UTF-8 bytes,
+ * or, for a VARCHAR stored in overflow pages, the length 0xFFFF followed
+ * by the number of its first overflow page and its length in bytes.
+ * <p>
+ * An overflow page holds a kind byte (1), the number of the next page of
+ * its chain (-1 for the last) and the length of the chunk of the value it
+ * holds (2 bytes), followed by the chunk.
+ * <p>
+ * Unlike a HeapPage, a SlottedHeapPage changes its bytes in place; its
+ * before image is a copy of them.
+ *
+ * @see SlottedHeapFile
+ * @see BufferPool
+ */
+public class SlottedHeapPage implements Page {
+
+    /* the kinds of page */
+    static final byte DATA = 0;
+    static final byte OVERFLOW = 1;
+
+    /* kind, number of slots, start of the records */
+    static final int HEADER_SIZE = 5;
+    /* offset and length of a record */
+    static final int SLOT_SIZE = 4;
+    /* kind, next page, length of the chunk */
+    static final int OVERFLOW_HEADER_SIZE = 7;
+    /* the length of a VARCHAR stored in overflow pages */
+    static final int IN_OVERFLOW = 0xFFFF;
+    /* IN_OVERFLOW, first page and length of a VARCHAR in overflow pages */
+    static final int OVERFLOW_REF_SIZE = 10;
+
+    /** Reads the bytes of a VARCHAR stored in overflow pages. */
+    public interface OverflowReader {
+        byte[] read(int firstPage, int length) throws DbException, TransactionAbortedException;
+    }
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    /* changed in place */
+    private final byte[] data;
+    private final ByteBuffer buf;
+
+    private byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    private volatile boolean dirty;
+    private volatile TransactionId tid;
+
+    /**
+     * Create a SlottedHeapPage from the bytes of a page read from disk, in
+     * the format described in the class comment.  The page keeps the array
+     * and writes to it.
+     */
+    public SlottedHeapPage(HeapPageId id, byte[] data) {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.data = data;
+        this.buf = ByteBuffer.wrap(data);
+        setBeforeImage();
+    }
+
+    /**
+     * @return the bytes of an empty data page
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    /**
+     * @return the number of bytes of a value an overflow page holds
+     */
+    public static int overflowCapacity() {
+        return BufferPool.getPageSize() - OVERFLOW_HEADER_SIZE;
+    }
+
+    /**
+     * @return the longest record an empty data page has room for
+     */
+    public static int maxRecordLength() {
+        return Math.min(BufferPool.getPageSize() - HEADER_SIZE - SLOT_SIZE, 0xFFFF);
+    }
+
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    public SlottedHeapPage getBeforeImage() {
+        byte[] oldDataRef;
+        synchronized (oldDataLock) {
+            oldDataRef = oldData;
+        }
+        return new SlottedHeapPage(pid, oldDataRef.clone());
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = data.clone();
+        }
+    }
+
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        this.tid = tid;
+    }
+
+    public TransactionId isDirty() {
+        return dirty ? tid : null;
+    }
+
+    private int getShort(int offset) {
+        return buf.getShort(offset) & 0xffff;
+    }
+
+    private void putShort(int offset, int value) {
+        buf.putShort(offset, (short) value);
+    }
+
+    private int numSlots() {
+        return getShort(1);
+    }
+
+    private int recordStart() {
+        int start = getShort(3);
+        return start == 0 ? data.length : start;
+    }
+
+    private void setRecordStart(int start) {
+        putShort(3, start == data.length ? 0 : start);
+    }
+
+    private static int slotPosition(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    private int recordOffset(int slot) {
+        return getShort(slotPosition(slot));
+    }
+
+    private int recordLength(int slot) {
+        return getShort(slotPosition(slot) + 2);
+    }
+
+    /**
+     * @return true if this is an overflow page
+     */
+    public boolean isOverflow() {
+        return data[0] == OVERFLOW;
+    }
+
+    /**
+     * @return the number of bytes between the slot directory and the
+     *         records; 0 for an overflow page
+     */
+    public int getFreeSpace() {
+        if (isOverflow()) {
+            return 0;
+        }
+        return recordStart() - slotPosition(numSlots());
+    }
+
+    /**
+     * @return true if a record of the given length fits on this page
+     */
+    public boolean hasRoomFor(int recordLength) {
+        return getFreeSpace() >= recordLength + (firstEmptySlot() < 0 ? SLOT_SIZE : 0);
+    }
+
+    private int firstEmptySlot() {
+        int n = numSlots();
+        for (int i = 0; i < n; i++) {
+            if (recordOffset(i) == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return !isOverflow() && i >= 0 && i < numSlots() && recordOffset(i) != 0;
+    }
+
+    /**
+     * @return the first used slot from the given one on, or -1 if none is
+     */
+    public int nextUsedSlot(int from) {
+        if (isOverflow()) {
+            return -1;
+        }
+        int n = numSlots();
+        for (int i = Math.max(from, 0); i < n; i++) {
+            if (recordOffset(i) != 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the number of tuples on this page
+     */
+    public int getNumTuples() {
+        int count = 0;
+        for (int i = nextUsedSlot(0); i >= 0; i = nextUsedSlot(i + 1)) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Adds the specified tuple to the page, as the given record; the tuple
+     * is updated to reflect that it is now stored on this page.
+     *
+     * @param t      The tuple to add.
+     * @param record The tuple encoded as a record, see SlottedHeapFile.
+     * @throws DbException if the page has no room for the record, or
+     *                     tupledesc is mismatch.
+     */
+    public void insertTuple(Tuple t, byte[] record) throws DbException {
+        if (!t.getTupleDesc().equals(td)) {
+            throw new DbException("The td is missing matching");
+        }
+        if (!hasRoomFor(record.length)) {
+            throw new DbException("The page is full!");
+        }
+        int slot = firstEmptySlot();
+        if (slot < 0) {
+            slot = numSlots();
+            putShort(1, slot + 1);
+        }
+        int offset = recordStart() - record.length;
+        System.arraycopy(record, 0, data, offset, record.length);
+        setRecordStart(offset);
+        putShort(slotPosition(slot), offset);
+        putShort(slotPosition(slot) + 2, record.length);
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    /**
+     * Delete the specified tuple from the page, and move the records before
+     * it up over its record.  Empty slots at the end of the slot directory
+     * are dropped.  The overflow pages of the tuple are left alone.
+     *
+     * @param t The tuple to delete
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *                     already empty.
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()) || !isSlotUsed(rid.getTupleNumber())) {
+            throw new DbException("tuple not in this page!");
+        }
+        int slot = rid.getTupleNumber();
+        int offset = recordOffset(slot);
+        int length = recordLength(slot);
+        int start = recordStart();
+
+        System.arraycopy(data, start, data, start + length, offset - start);
+        Arrays.fill(data, start, start + length, (byte) 0);
+        int n = numSlots();
+        for (int i = 0; i < n; i++) {
+            int o = recordOffset(i);
+            if (o != 0 && o < offset) {
+                putShort(slotPosition(i), o + length);
+            }
+        }
+        setRecordStart(start + length);
+        putShort(slotPosition(slot), 0);
+        putShort(slotPosition(slot) + 2, 0);
+
+        while (n > 0 && recordOffset(n - 1) == 0) {
+            n--;
+        }
+        putShort(1, n);
+    }
+
+    /**
+     * Decode the tuple in the given slot.
+     *
+     * @param fields the indices of the fields to decode, or null for all;
+     *               the other fields are left null
+     * @param reader reads the VARCHARs stored in overflow pages
+     * @throws NoSuchElementException if the slot is empty
+     */
+    public Tuple getTuple(int slot, int[] fields, OverflowReader reader)
+            throws DbException, TransactionAbortedException {
+        if (!isSlotUsed(slot)) {
+            throw new NoSuchElementException();
+        }
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slot));
+        int pos = recordOffset(slot);
+        try {
+            for (int j = 0; j < td.numFields(); j++) {
+                boolean needed = fields == null || contains(fields, j);
+                Type type = td.getFieldType(j);
+                if (type.isFixedLength()) {
+                    if (needed) {
+                        t.setField(j, type.parse(buf, pos));
+                    }
+                    pos += type.getLen();
+                    continue;
+                }
+                int len = getShort(pos);
+                if (len == IN_OVERFLOW) {
+                    if (needed) {
+                        if (reader == null) {
+                            throw new IllegalStateException("no reader for overflow pages");
+                        }
+                        byte[] bytes = reader.read(buf.getInt(pos + 2), buf.getInt(pos + 6));
+                        t.setField(j, new VarcharField(new String(bytes, StandardCharsets.UTF_8)));
+                    }
+                    pos += OVERFLOW_REF_SIZE;
+                } else {
+                    if (needed) {
+                        t.setField(j, new VarcharField(new String(data, pos + 2, len, StandardCharsets.UTF_8)));
+                    }
+                    pos += 2 + len;
+                }
+            }
+        } catch (ParseException e) {
+            throw new NoSuchElementException("parsing error!");
+        }
+        return t;
+    }
+
+    private static boolean contains(int[] fields, int field) {
+        for (int f : fields) {
+            if (f == field) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the first overflow page of each VARCHAR of the tuple in the
+     *         given slot that is stored in overflow pages
+     * @throws DbException if the slot is empty
+     */
+    public int[] overflowPages(int slot) throws DbException {
+        if (!isSlotUsed(slot)) {
+            throw new DbException("tuple not in this page!");
+        }
+        List<Integer> pages = new ArrayList<>();
+        int pos = recordOffset(slot);
+        for (int j = 0; j < td.numFields(); j++) {
+            Type type = td.getFieldType(j);
+            if (type.isFixedLength()) {
+                pos += type.getLen();
+            } else if (getShort(pos) == IN_OVERFLOW) {
+                pages.add(buf.getInt(pos + 2));
+                pos += OVERFLOW_REF_SIZE;
+            } else {
+                pos += 2 + getShort(pos);
+            }
+        }
+        return pages.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Make this page an overflow page holding len bytes of value from off.
+     *
+     * @param nextPage the next page of the chain, or -1 for none
+     */
+    void setOverflow(int nextPage, byte[] value, int off, int len) {
+        Arrays.fill(data, (byte) 0);
+        data[0] = OVERFLOW;
+        buf.putInt(1, nextPage);
+        putShort(5, len);
+        System.arraycopy(value, off, data, OVERFLOW_HEADER_SIZE, len);
+    }
+
+    /**
+     * @return the next page of the overflow chain, or -1 for none
+     */
+    public int getNextOverflowPage() {
+        return buf.getInt(1);
+    }
+
+    /**
+     * @return the part of a value this overflow page holds
+     */
+    public byte[] getOverflowChunk() {
+        return Arrays.copyOfRange(data, OVERFLOW_HEADER_SIZE, OVERFLOW_HEADER_SIZE + getShort(5));
+    }
+
+    /**
+     * Make this page an empty data page.
+     */
+    void clear() {
+        Arrays.fill(data, (byte) 0);
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on
+     *         this iterator throws an UnsupportedOperationException); it
+     *         throws IllegalStateException at a tuple with a VARCHAR in
+     *         overflow pages, which only SlottedHeapFile can read
+     */
+    public Iterator<Tuple> iterator() {
+        return new Iterator<Tuple>() {
+            private int next = nextUsedSlot(0);
+
+            @Override
+            public boolean hasNext() {
+                return next >= 0;
+            }
+
+            @Override
+            public Tuple next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                int i = next;
+                next = nextUsedSlot(i + 1);
+                try {
+                    return getTuple(i, null, null);
+                } catch (DbException | TransactionAbortedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+    }
+}
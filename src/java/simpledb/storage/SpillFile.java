@@ -0,0 +1,120 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * SpillFile holds tuples an operator has no memory for in a temporary
+ * file, for operators that work in bounded memory, such as the partitions
+ * of a hash join.  Tuples are appended with {@link #add(Tuple)}, then read
+ * back in the order they were added, as many times as needed.
+ * <p>
+ * The file is only created once the first tuple is added, and is deleted
+ * by {@link #close()}.
+ */
+public class SpillFile implements Closeable {
+
+    private final TupleDesc td;
+    private File file;
+    private DataOutputStream out;
+    private long size;
+    private final List<DataInputStream> readers = new ArrayList<>();
+
+    /**
+     * @param td the tuples' description
+     */
+    public SpillFile(TupleDesc td) {
+        this.td = td;
+    }
+
+    /** Append a tuple to the file. */
+    public void add(Tuple t) throws IOException {
+        if (out == null) {
+            if (file == null) {
+                file = File.createTempFile("spill", ".dat");
+                file.deleteOnExit();
+            }
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true),
+                    BufferPool.getPageSize()));
+        }
+        for (int i = 0; i < td.numFields(); i++) {
+            t.getField(i).serialize(out);
+        }
+        size++;
+    }
+
+    /** @return the number of tuples added */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return the tuples added so far, in order; reading them may throw an
+     *         UncheckedIOException
+     */
+    public Iterator<Tuple> iterator() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+        if (size == 0) {
+            return new ArrayList<Tuple>().iterator();
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file),
+                BufferPool.getPageSize()));
+        readers.add(in);
+        long n = size;
+        return new Iterator<>() {
+            long remaining = n;
+
+            public boolean hasNext() {
+                return remaining > 0;
+            }
+
+            public Tuple next() {
+                if (remaining == 0) {
+                    throw new NoSuchElementException();
+                }
+                Tuple t = new Tuple(td);
+                try {
+                    for (int i = 0; i < td.numFields(); i++) {
+                        Type type = td.getFieldType(i);
+                        t.setField(i, type.parse(in));
+                    }
+                    if (--remaining == 0) {
+                        in.close();
+                        readers.remove(in);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } catch (ParseException e) {
+                    throw new UncheckedIOException(new IOException("corrupt spill file " + file, e));
+                }
+                return t;
+            }
+        };
+    }
+
+    /** Delete the file. */
+    public void close() throws IOException {
+        for (DataInputStream in : readers) {
+            in.close();
+        }
+        readers.clear();
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+        if (file != null) {
+            file.delete();
+            file = null;
+        }
+        size = 0;
+    }
+}
@@ -175,7 +175,11 @@ public class TupleDesc implements Serializable {
 
     /**
      * @return The size (in bytes) of tuples corresponding to this TupleDesc.
-     * Note that tuples from a given TupleDesc are of a fixed size.
+     * Tuples with only fixed-length fields are all of this size; for tuples
+     * with variable-length fields, it is the size of the average tuple, as
+     * estimated by {@link Type#getLen()}, which is what cost estimates and
+     * memory budgets should count on.
+     * @see #isFixedLength()
      */
     public int getSize() {
         int size = 0;
@@ -185,6 +189,19 @@ public class TupleDesc implements Serializable {
         return size;
     }
 
+    /**
+     * @return true if all fields of this TupleDesc are of fixed length, so
+     *         that all its tuples are of size {@link #getSize()}
+     */
+    public boolean isFixedLength() {
+        for (TDItem item : items) {
+            if (!item.fieldType.isFixedLength()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Merge two TupleDescs into one, with td1.numFields + td2.numFields fields,
      * with the first td1.numFields coming from td1 and the remaining from td2.
@@ -0,0 +1,102 @@
+package simpledb.storage;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.function.Predicate;
+
+/**
+ * The full 2Q replacement algorithm (Johnson and Shasha).  A page seen for
+ * the first time goes to the FIFO probation queue A1in.  When it is evicted
+ * from there its id is remembered in the ghost queue A1out; only a page that
+ * is accessed again while its id is in A1out is promoted to the main LRU
+ * queue Am.  A scan therefore cycles through A1in and never disturbs Am.
+ */
+public class TwoQPolicy implements ReplacementPolicy {
+
+    /* share of the frames for the probation queue */
+    private static final double KIN = 0.25;
+    /* number of ghost ids to remember, relative to the number of frames */
+    private static final double KOUT = 0.5;
+
+    private final int kin;
+    private final int kout;
+    /* all three iterate from the oldest to the newest entry */
+    private final LinkedHashSet<PageId> a1in;
+    private final LinkedHashSet<PageId> a1out;
+    private final LinkedHashSet<PageId> am;
+
+    public TwoQPolicy(int capacity) {
+        this.kin = Math.max(1, (int) (capacity * KIN));
+        this.kout = Math.max(1, (int) (capacity * KOUT));
+        this.a1in = new LinkedHashSet<>();
+        this.a1out = new LinkedHashSet<>();
+        this.am = new LinkedHashSet<>();
+    }
+
+    @Override
+    public void recordAccess(PageId pid) {
+        if (am.remove(pid)) {
+            am.add(pid);
+        } else if (a1in.contains(pid)) {
+            // correlated references while on probation do not promote a page
+        } else if (a1out.remove(pid)) {
+            am.add(pid);
+        } else {
+            a1in.add(pid);
+        }
+    }
+
+    @Override
+    public void remove(PageId pid) {
+        if (!a1in.remove(pid)) {
+            am.remove(pid);
+        }
+    }
+
+    @Override
+    public PageId evict(Predicate<PageId> evictable) {
+        PageId victim = null;
+        if (a1in.size() > kin || am.isEmpty()) {
+            victim = evictFrom(a1in, evictable);
+            if (victim != null) {
+                remember(victim);
+                return victim;
+            }
+        }
+        victim = evictFrom(am, evictable);
+        if (victim == null) {
+            // everything in Am is pinned, fall back to probation
+            victim = evictFrom(a1in, evictable);
+            if (victim != null) {
+                remember(victim);
+            }
+        }
+        return victim;
+    }
+
+    private static PageId evictFrom(LinkedHashSet<PageId> queue, Predicate<PageId> evictable) {
+        Iterator<PageId> it = queue.iterator();
+        while (it.hasNext()) {
+            PageId pid = it.next();
+            if (evictable.test(pid)) {
+                it.remove();
+                return pid;
+            }
+        }
+        return null;
+    }
+
+    private void remember(PageId pid) {
+        a1out.add(pid);
+        if (a1out.size() > kout) {
+            Iterator<PageId> it = a1out.iterator();
+            it.next();
+            it.remove();
+        }
+    }
+
+    @Override
+    public int size() {
+        return a1in.size() + am.size();
+    }
+}
@@ -0,0 +1,54 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Instance of Field that stores a single String of variable length, up to
+ * {@link Type#VARCHAR_LEN} characters.  A VarcharField compares and equals
+ * StringFields of the same value, but it is serialized as its length
+ * followed by its UTF-8 bytes, without padding.
+ *
+ * @see SlottedHeapPage
+ */
+public class VarcharField extends StringField {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor.
+     *
+     * @param s The value of this field; it is cut short to
+     *          {@link Type#VARCHAR_LEN} characters.
+     */
+    public VarcharField(String s) {
+        super(s, Type.VARCHAR_LEN);
+    }
+
+    /** @return the value of this field, encoded as UTF-8 */
+    public byte[] getBytes() {
+        return getValue().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Write this string to dos: four bytes of length, then the string's
+     * UTF-8 bytes.
+     */
+    @Override
+    public void serialize(DataOutputStream dos) throws IOException {
+        byte[] bytes = getBytes();
+        dos.writeInt(bytes.length);
+        dos.write(bytes);
+    }
+
+    /**
+     * @return the Type for this Field
+     */
+    @Override
+    public Type getType() {
+        return Type.VARCHAR_TYPE;
+    }
+}
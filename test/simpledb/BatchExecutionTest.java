@@ -0,0 +1,207 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.*;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class BatchExecutionTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE, Type.STRING_TYPE },
+            new String[] { "id", "n", "s" });
+
+    private TransactionId tid;
+    private HeapFile mixed;
+
+    @Before public void createTables() throws Exception {
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            Tuple t = new Tuple(TD);
+            t.setField(0, new IntField(i));
+            t.setField(1, new IntField(i % 17 - 8));
+            t.setField(2, new StringField("name " + i % 5, Type.STRING_LEN));
+            tuples.add(t);
+        }
+        File f = tempFile("batch");
+        mixed = BulkLoader.loadHeapFile(tuples.iterator(), f, TD, "mixed");
+        tid = new TransactionId();
+    }
+
+    /* the tuples of a plan, in order */
+    private static List<String> run(OpIterator plan) throws Exception {
+        List<String> result = new ArrayList<>();
+        plan.open();
+        while (plan.hasNext()) {
+            result.add(plan.next().toString());
+        }
+        plan.close();
+        return result;
+    }
+
+    private static List<String> sorted(List<String> tuples) {
+        Collections.sort(tuples);
+        return tuples;
+    }
+
+    private SeqScan scan(HeapFile file) {
+        return new SeqScan(tid, file.getId());
+    }
+
+    private BatchScan batchScan(HeapFile file) {
+        return new BatchScan(tid, file.getId());
+    }
+
+    /**
+     * A batch scan returns the rows of a row scan, in the same order, and
+     * a batch filter, or a predicate pushed into the scan, keeps the same
+     * ones for every operator.
+     */
+    @Test public void scanAndFilter() throws Exception {
+        assertEquals(run(scan(mixed)), run(new BatchToRow(batchScan(mixed))));
+        for (Predicate.Op op : Predicate.Op.values()) {
+            Predicate p = new Predicate(1, op, new IntField(3));
+            List<String> rows = run(new Filter(p, scan(mixed)));
+            assertEquals(op.toString(), rows, run(new BatchToRow(new BatchFilter(p, batchScan(mixed)))));
+            BatchScan pushed = batchScan(mixed);
+            assertTrue(pushed.pushPredicate(p));
+            assertEquals(op.toString(), rows, run(new BatchToRow(pushed)));
+        }
+        Predicate like = new Predicate(2, Predicate.Op.LIKE, new StringField("e 3", Type.STRING_LEN));
+        Predicate greater = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(2000));
+        List<String> rows = run(new Filter(greater, new Filter(like, scan(mixed))));
+        assertEquals(200, rows.size());
+        assertEquals(rows, run(new BatchToRow(new BatchFilter(greater, new BatchFilter(like, batchScan(mixed))))));
+        BatchScan pushed = batchScan(mixed);
+        pushed.pushPredicate(like);
+        pushed.pushPredicate(greater);
+        assertEquals(rows, run(new BatchToRow(pushed)));
+    }
+
+    /**
+     * Projections and joins return the rows their row versions do, also
+     * when a row has more matches than a batch holds and when the left
+     * side does not fit in the work memory and is spilled.
+     */
+    @Test public void projectAndJoin() throws Exception {
+        List<Integer> fields = Arrays.asList(2, 0);
+        Type[] types = { Type.STRING_TYPE, Type.INT_TYPE };
+        assertEquals(run(new Project(fields, types, scan(mixed))),
+                run(new BatchToRow(new BatchProject(fields, types, batchScan(mixed)))));
+
+        // 3000 rows against 17 values of n: each right row matches about 176
+        JoinPredicate byN = new JoinPredicate(1, Predicate.Op.EQUALS, 1);
+        List<String> rows = sorted(run(new HashEquiJoin(byN, scan(mixed), scan(mixed))));
+        assertEquals(3000 * 3000 / 17, rows.size(), 3000);
+        assertEquals(rows, sorted(run(new BatchToRow(new BatchHashJoin(byN, batchScan(mixed), batchScan(mixed))))));
+
+        // strings are joined by value across dictionaries
+        JoinPredicate byS = new JoinPredicate(2, Predicate.Op.EQUALS, 0);
+        Predicate few = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(100));
+        rows = sorted(run(new HashEquiJoin(byS, new Filter(few, scan(mixed)), new Project(fields, types, scan(mixed)))));
+        assertEquals(100 * 600, rows.size());
+        assertEquals(rows, sorted(run(new BatchToRow(new BatchHashJoin(byS, new BatchFilter(few, batchScan(mixed)),
+                new BatchProject(fields, types, batchScan(mixed)))))));
+
+        List<List<Integer>> bigTuples = new ArrayList<>();
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 5000, 5000, null, bigTuples);
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        rows = sorted(run(new HashEquiJoin(p, scan(big), scan(mixed))));
+        assertFalse(rows.isEmpty());
+        // 2 pages hold 1024 rows of 2 INT fields
+        Database.getBufferPool().setWorkMemory(2);
+        BatchToRow join = new BatchToRow(new BatchHashJoin(p, batchScan(big), batchScan(mixed)));
+        assertEquals(rows, sorted(run(join)));
+        join.open();
+        while (join.hasNext()) {
+            join.next();
+        }
+        join.rewind();
+        List<String> again = new ArrayList<>();
+        while (join.hasNext()) {
+            again.add(join.next().toString());
+        }
+        join.close();
+        assertEquals(rows, sorted(again));
+    }
+
+    /**
+     * Every aggregate the batch version computes matches the row version,
+     * grouped by an INT field, by a string field and not grouped.
+     */
+    @Test public void aggregates() throws Exception {
+        for (Aggregator.Op op : new Aggregator.Op[] { Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.SUM,
+                Aggregator.Op.AVG, Aggregator.Op.COUNT }) {
+            for (int gfield : new int[] { Aggregator.NO_GROUPING, 1, 2 }) {
+                String name = op + " grouped by " + gfield;
+                List<String> rows = sorted(run(new Aggregate(scan(mixed), 0, gfield, op)));
+                assertEquals(name, rows, sorted(run(new BatchToRow(new BatchAggregate(batchScan(mixed), 0, gfield, op)))));
+            }
+        }
+        List<String> rows = sorted(run(new Aggregate(scan(mixed), 2, 1, Aggregator.Op.COUNT)));
+        assertEquals(17, rows.size());
+        assertEquals(rows, sorted(run(new BatchToRow(
+                new BatchAggregate(batchScan(mixed), 2, 1, Aggregator.Op.COUNT)))));
+        assertFalse(BatchAggregate.supports(Aggregator.Op.SUM, false));
+        assertFalse(BatchAggregate.supports(Aggregator.Op.SUM_COUNT, true));
+    }
+
+    /**
+     * A plan with operators that have no batch version runs them on rows,
+     * between batch operators, and returns what the row plan does.
+     */
+    @Test public void mixedPlan() throws Exception {
+        Predicate p = new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0));
+        JoinPredicate lessThan = new JoinPredicate(0, Predicate.Op.LESS_THAN, 0);
+        OpIterator[] plans = new OpIterator[2];
+        for (int i = 0; i < plans.length; i++) {
+            // a nested loops join, under an aggregate and an order by
+            OpIterator small = new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(50)), scan(mixed));
+            OpIterator join = new Join(lessThan, small, new Filter(p, new Filter(
+                    new Predicate(0, Predicate.Op.LESS_THAN, new IntField(60)), scan(mixed))));
+            plans[i] = new OrderBy(0, true, new Aggregate(join, 3, 1, Aggregator.Op.SUM));
+        }
+        List<String> rows = run(plans[0]);
+        OpIterator vectorized = Vectorizer.vectorize(plans[1]);
+        assertTrue(vectorized instanceof OrderBy);
+        OpIterator aggregate = ((OrderBy) vectorized).getChildren()[0];
+        assertTrue(aggregate instanceof BatchToRow);
+        assertEquals(rows, run(vectorized));
+
+        // a table read through its tuples
+        File f = tempFile("batch");
+        TupleDesc varTd = new TupleDesc(new Type[] { Type.INT_TYPE, Type.VARCHAR_TYPE });
+        SlottedHeapFile slotted = new SlottedHeapFile(f, varTd);
+        Database.getCatalog().addTable(slotted, "slotted");
+        for (int i = 0; i < 500; i++) {
+            Tuple t = new Tuple(varTd);
+            t.setField(0, new IntField(i));
+            t.setField(1, new VarcharField("value " + i % 7));
+            Database.getBufferPool().insertTuple(tid, slotted.getId(), t);
+        }
+        Predicate like = new Predicate(1, Predicate.Op.LIKE, new VarcharField("e 3"));
+        rows = run(new Filter(like, new SeqScan(tid, slotted.getId())));
+        assertEquals(71, rows.size());
+        assertEquals(rows, run(Vectorizer.vectorize(new Filter(like, new SeqScan(tid, slotted.getId())))));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BatchExecutionTest.class);
+    }
+}
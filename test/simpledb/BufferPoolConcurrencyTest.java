@@ -0,0 +1,167 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Multi-threaded throughput test for the partitioned BufferPool.  Threads
+ * read random cached pages, each in its own short transactions, and the
+ * throughput for 1 .. #cores threads is compared against a single thread.
+ */
+public class BufferPoolConcurrencyTest {
+    private static final int TABLE_PAGES = 256;
+    private static final int POOL_PAGES = 1024;
+    private static final int READS_PER_TRANSACTION = 20;
+    private static final long RUN_MILLIS = 300;
+
+    private BufferPool bp;
+    private HeapFile f;
+
+    @Before public void setUp() throws Exception {
+        Database.reset();
+        bp = Database.resetBufferPool(POOL_PAGES);
+        createTable();
+    }
+
+    private void createTable() throws Exception {
+        // two int columns: 504 tuples per page
+        f = SystemTestUtil.createRandomHeapFile(2, 504 * TABLE_PAGES, null, null);
+
+        // warm the pool
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < Math.min(f.numPages(), POOL_PAGES); i++) {
+            bp.getPage(tid, new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+        }
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Every thread should see the pages it asked for, whatever shard they live in.
+     */
+    @Test public void concurrentReadsSeeTheRightPages() throws Exception {
+        bp = Database.resetBufferPool(POOL_PAGES, 4);
+        createTable();
+        assertEquals(4, bp.getNumShards());
+        assertEquals(0, runReaders(4, 0, RUN_MILLIS).failures);
+    }
+
+    /**
+     * A pool much smaller than the table has to evict across shards, but
+     * never a dirty page.
+     */
+    @Test public void evictAcrossShards() throws Exception {
+        bp = Database.resetBufferPool(8, 4);
+        createTable();
+
+        TransactionId writer = new TransactionId();
+        HeapPageId dirtyPid = new HeapPageId(f.getId(), 0);
+        HeapPage dirty = (HeapPage) bp.getPage(writer, dirtyPid, Permissions.READ_WRITE);
+        Tuple t = dirty.iterator().next();
+        bp.deleteTuple(writer, t);
+
+        // readers stay off the dirty page, which the writer has locked
+        Result r = runReaders(4, 1, RUN_MILLIS);
+        assertEquals(0, r.failures);
+
+        // the dirty page survived all the evictions
+        assertEquals(dirty, bp.getPage(writer, dirtyPid, Permissions.READ_ONLY));
+        bp.transactionComplete(writer, false);
+    }
+
+    /**
+     * Throughput should grow with the number of threads up to the core count.
+     */
+    @Test public void throughputScalesWithThreads() throws Exception {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int maxThreads = Math.max(2, cores);
+        System.out.println("BufferPoolConcurrencyTest: " + bp.getNumShards() + " shards, " + cores + " cores");
+
+        double single = runReaders(1, 0, RUN_MILLIS).throughput;
+        for (int threads = 2; threads <= maxThreads; threads *= 2) {
+            Result r = runReaders(threads, 0, RUN_MILLIS);
+            assertEquals(0, r.failures);
+            double speedup = r.throughput / single;
+            System.out.println("BufferPoolConcurrencyTest: " + threads + " threads, "
+                    + (long) r.throughput + " reads/s, speedup " + speedup);
+            // ideal speedup is min(threads, cores); accept half of it
+            assertTrue("speedup with " + threads + " threads was only " + speedup,
+                    speedup >= 0.5 * Math.min(threads, cores));
+        }
+    }
+
+    private static class Result {
+        final double throughput;
+        final long failures;
+
+        Result(double throughput, long failures) {
+            this.throughput = throughput;
+            this.failures = failures;
+        }
+    }
+
+    /**
+     * Run threads that read random pages from firstPage on for the given time.
+     */
+    private Result runReaders(int threads, int firstPage, long millis) throws Exception {
+        AtomicLong reads = new AtomicLong();
+        AtomicLong failures = new AtomicLong();
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        long deadline = System.currentTimeMillis() + millis;
+
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final long seed = t;
+            workers.add(new Thread(() -> {
+                Random rand = new Random(seed);
+                try {
+                    while (System.currentTimeMillis() < deadline) {
+                        TransactionId tid = new TransactionId();
+                        for (int i = 0; i < READS_PER_TRANSACTION; i++) {
+                            HeapPageId pid = new HeapPageId(f.getId(),
+                                    firstPage + rand.nextInt(TABLE_PAGES - firstPage));
+                            Page p = bp.getPage(tid, pid, Permissions.READ_ONLY);
+                            if (!pid.equals(p.getId())) {
+                                failures.incrementAndGet();
+                            }
+                        }
+                        bp.transactionComplete(tid);
+                        reads.addAndGet(READS_PER_TRANSACTION);
+                    }
+                } catch (Throwable e) {
+                    error.set(e);
+                }
+            }));
+        }
+
+        long start = System.nanoTime();
+        for (Thread w : workers) w.start();
+        for (Thread w : workers) w.join();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        assertNull(error.get());
+        return new Result(reads.get() / seconds, failures.get());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolConcurrencyTest.class);
+    }
+}
@@ -20,6 +20,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 public class BufferPoolWriteTest extends TestUtil.CreateHeapFile {
     private TransactionId tid;
@@ -140,6 +141,31 @@ public class BufferPoolWriteTest extends TestUtil.CreateHeapFile {
     	assertEquals(10, count);
     }
 
+    /**
+     * Unit test for the dirty page table maintained by BufferPool
+     */
+    @Test public void dirtyPageTable() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        TransactionId other = new TransactionId();
+        bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(1, 2));
+        assertEquals(1, bp.getDirtyPages(tid).size());
+        assertEquals(0, bp.getDirtyPages(other).size());
+        assertEquals(1, bp.getNumDirtyPages());
+
+        // committing another transaction leaves our page alone
+        bp.transactionComplete(other, true);
+        assertEquals(1, bp.getNumDirtyPages());
+
+        // aborting throws the page away and clears the table
+        PageId pid = bp.getDirtyPages(tid).iterator().next();
+        bp.transactionComplete(tid, false);
+        assertEquals(0, bp.getNumDirtyPages());
+        assertEquals(0, bp.getDirtyPages(tid).size());
+        HeapPage p = (HeapPage) bp.getPage(tid, pid, Permissions.READ_ONLY);
+        assertEquals(504, p.getNumEmptySlots());
+        assertNull(p.isDirty());
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,208 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.BTreeBulkLoader;
+import simpledb.index.BTreeChecker;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeFileEncoder;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+public class BulkLoaderTest extends SimpleDbTestBase {
+
+    private static List<Tuple> tuples(int n, Random random) {
+        List<Tuple> tuples = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            tuples.add(Utility.getHeapTuple(new int[] { random.nextInt(1000), i }));
+        }
+        return tuples;
+    }
+
+    /** @return field 1 of every tuple of the file, in scan order */
+    private static List<Integer> scan(DbFile f) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        List<Integer> values = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            values.add(((IntField) it.next().getField(1)).getValue());
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return values;
+    }
+
+    /**
+     * Tuples go into full pages in order, the free space map knows only the
+     * last page has room, and the load logs one record.
+     */
+    @Test public void loadHeapFile() throws Exception {
+        File file = tempFile("bulk", ".dat");
+        List<Tuple> input = tuples(504 * 3 + 10, new Random(1));
+        int records = Database.getLogFile().getTotalRecords();
+        HeapFile hf = BulkLoader.loadHeapFile(input.iterator(), file, Utility.getTupleDesc(2), "loaded");
+
+        assertEquals(hf.getId(), Database.getCatalog().getTableId("loaded"));
+        assertEquals(records + 1, Database.getLogFile().getTotalRecords());
+        assertEquals(4, hf.numPages());
+        assertEquals(0, ((HeapPage) hf.readPage(new HeapPageId(hf.getId(), 2))).getNumEmptySlots());
+        assertEquals(504 - 10, ((HeapPage) hf.readPage(new HeapPageId(hf.getId(), 3))).getNumEmptySlots());
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < input.size(); i++) {
+            expected.add(i);
+        }
+        assertEquals(expected, scan(hf));
+
+        // the next insert goes straight to the last page
+        TransactionId tid = new TransactionId();
+        List<Page> modified = hf.insertTuple(tid, Utility.getHeapTuple(7, 2));
+        assertEquals(new HeapPageId(hf.getId(), 3), modified.get(0).getId());
+        assertFalse(Database.getBufferPool().holdsLock(tid, new HeapPageId(hf.getId(), 0)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A CSV file loads the same as its tuples, replacing the old contents
+     * of the file, cached pages included.
+     */
+    @Test public void loadCsv() throws Exception {
+        File file = tempFile("bulk", ".dat");
+        HeapFile old = BulkLoader.loadHeapFile(tuples(100, new Random(2)).iterator(), file,
+                Utility.getTupleDesc(2), "csv");
+        assertEquals(100, scan(old).size());
+
+        File csv = tempFile("bulk", ".txt");
+        try (FileWriter w = new FileWriter(csv)) {
+            w.write("5, 0\n\n6,1\r\n7 ,2\n");
+        }
+        HeapFile hf = BulkLoader.loadHeapFile(csv, ',', file, Utility.getTupleDesc(2), "csv");
+        assertEquals(old.getId(), hf.getId());
+        assertEquals(1, hf.numPages());
+        assertEquals(Arrays.asList(0, 1, 2), scan(hf));
+    }
+
+    /**
+     * The external sort spills runs and merges them in several passes when
+     * its memory is small, and keeps equal keys in input order.
+     */
+    @Test public void externalSort() throws Exception {
+        List<Tuple> input = tuples(5000, new Random(3));
+        // two pages hold 1024 two-int tuples, and replacement selection
+        // makes runs of about twice that: 2 runs are spilled and a third is
+        // being written; they are merged two at a time
+        ExternalSort sort = new ExternalSort(Utility.getTupleDesc(2),
+                new BTreeFileEncoder.TupleComparator(0), 2);
+        for (Tuple t : input) {
+            sort.add(t);
+        }
+        assertEquals(3, sort.numRuns());
+        Iterator<Tuple> it = sort.sorted();
+        List<Tuple> expected = new ArrayList<>(input);
+        expected.sort(new BTreeFileEncoder.TupleComparator(0));
+        for (Tuple t : expected) {
+            assertTrue(it.hasNext());
+            Tuple s = it.next();
+            assertEquals(t.getField(0), s.getField(0));
+            assertEquals(t.getField(1), s.getField(1));
+        }
+        assertFalse(it.hasNext());
+        sort.close();
+    }
+
+    /**
+     * Input that comes sorted is written as a single run however long it
+     * is, and input that fits in memory is not written at all.
+     */
+    @Test public void externalSortRuns() throws Exception {
+        List<Tuple> input = tuples(5000, new Random(4));
+        input.sort(new BTreeFileEncoder.TupleComparator(0));
+        ExternalSort sort = new ExternalSort(Utility.getTupleDesc(2),
+                new BTreeFileEncoder.TupleComparator(0), 2);
+        for (Tuple t : input) {
+            sort.add(t);
+        }
+        assertEquals(1, sort.numRuns());
+        Iterator<Tuple> it = sort.sorted();
+        for (Tuple t : input) {
+            assertEquals(t.getField(1), it.next().getField(1));
+        }
+        assertFalse(it.hasNext());
+        sort.close();
+
+        sort = new ExternalSort(Utility.getTupleDesc(2), new BTreeFileEncoder.TupleComparator(0), 2);
+        for (Tuple t : tuples(1000, new Random(5))) {
+            sort.add(t);
+        }
+        assertEquals(0, sort.numRuns());
+        assertEquals(1000, sort.size());
+        sort.close();
+    }
+
+    /**
+     * A bulk loaded B+ tree passes the checker, occupancy included, for
+     * trees of one leaf, one level and several levels.
+     */
+    @Test public void loadBTreeFile() throws Exception {
+        int leaf = BTreeUtility.getNumTuplesPerPage(2);
+        int fanOut = BTreeUtility.getNumEntriesPerPage() + 1;
+        for (int n : new int[] { 0, 10, leaf + 1, leaf * fanOut + 1, 40000 }) {
+            File file = tempFile("bulk", ".dat");
+            List<Tuple> input = tuples(n, new Random(n));
+            BTreeFile bf = BTreeBulkLoader.load(input.iterator(), file, Utility.getTupleDesc(2), 0,
+                    "tree" + n, 4);
+            assertEquals(bf.getId(), Database.getCatalog().getTableId("tree" + n));
+
+            TransactionId tid = new TransactionId();
+            BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+            Database.getBufferPool().transactionComplete(tid);
+
+            // in key order, ties in input order
+            List<Tuple> expected = new ArrayList<>(input);
+            expected.sort(new BTreeFileEncoder.TupleComparator(0));
+            List<Integer> order = new ArrayList<>();
+            for (Tuple t : expected) {
+                order.add(((IntField) t.getField(1)).getValue());
+            }
+            assertEquals(order, scan(bf));
+
+            // and the index finds every key
+            if (n > 0) {
+                Field key = input.get(n / 2).getField(0);
+                long count = input.stream().filter(t -> t.getField(0).equals(key)).count();
+                tid = new TransactionId();
+                DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, key));
+                it.open();
+                int found = 0;
+                while (it.hasNext()) {
+                    assertEquals(key, it.next().getField(0));
+                    found++;
+                }
+                it.close();
+                Database.getBufferPool().transactionComplete(tid);
+                assertEquals(count, found);
+            }
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BulkLoaderTest.class);
+    }
+}
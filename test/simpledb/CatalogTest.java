@@ -1,6 +1,11 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.PrintWriter;
 
 import java.util.NoSuchElementException;
 import java.util.Random;
@@ -15,6 +20,7 @@ import simpledb.TestUtil.SkeletonFile;
 import simpledb.common.Database;
 import simpledb.common.Utility;
 import simpledb.storage.DbFile;
+import simpledb.storage.HeapFile;
 import simpledb.storage.TupleDesc;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
@@ -97,6 +103,27 @@ public class CatalogTest extends SimpleDbTestBase {
     	assertEquals(f, Database.getCatalog().getDatabaseFile(id2));
     }
 
+    /**
+     * Check that loadSchema reads the table options
+     */
+    @Test public void loadSchemaOptions() throws Exception {
+        File schema = File.createTempFile("catalog", ".txt");
+        schema.deleteOnExit();
+        String mapped = "t" + SystemTestUtil.getUUID().replace("-", "");
+        String plain = "t" + SystemTestUtil.getUUID().replace("-", "");
+        try (PrintWriter out = new PrintWriter(schema)) {
+            out.println(mapped + " (a int pk, b string) mmap");
+            out.println(plain + " (a int, b int)");
+        }
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+
+        HeapFile f = (HeapFile) Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId(mapped));
+        assertTrue(f.isMemoryMapped());
+        assertEquals("a", Database.getCatalog().getPrimaryKey(f.getId()));
+        f = (HeapFile) Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId(plain));
+        assertFalse(f.isMemoryMapped());
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,166 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.*;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+public class CompressedHeapFileTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE, Type.STRING_TYPE });
+
+    private static Tuple tuple(int i) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(i));
+        t.setField(1, new IntField(i % 10 - 5));
+        t.setField(2, new StringField("region " + i % 3, Type.STRING_LEN));
+        return t;
+    }
+
+    private static List<Tuple> tuples(int n) {
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            tuples.add(tuple(i));
+        }
+        return tuples;
+    }
+
+    private static int[] roundTrip(int[] values, int maxBytes) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ColumnEncoding.writeInts(values, values.length, new DataOutputStream(bytes));
+        assertTrue(bytes.size() + " bytes", bytes.size() <= maxBytes);
+        return ColumnEncoding.readInts(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), values.length);
+    }
+
+    private static String[] roundTrip(String[] values, int maxBytes) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ColumnEncoding.writeStrings(values, values.length, new DataOutputStream(bytes));
+        assertTrue(bytes.size() + " bytes", bytes.size() <= maxBytes);
+        return ColumnEncoding.readStrings(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), values.length);
+    }
+
+    /**
+     * Each column takes the encoding that suits it: sorted ints as deltas,
+     * ints of a small range as a frame of reference, repeated strings as a
+     * dictionary, and anything else still reads back as it was.
+     */
+    @Test public void columnEncodings() throws Exception {
+        int[] sorted = new int[1000];
+        int[] narrow = new int[1000];
+        Random random = new Random(7);
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = 1_000_000 + 3 * i;
+            narrow[i] = 500 + random.nextInt(16);
+        }
+        assertArrayEquals(sorted, roundTrip(sorted, 1 + 4 + 999));
+        assertArrayEquals(narrow, roundTrip(narrow, 1 + 5 + 500));
+        int[] extremes = { Integer.MAX_VALUE, Integer.MIN_VALUE, 0, -1, Integer.MAX_VALUE };
+        assertArrayEquals(extremes, roundTrip(extremes, 100));
+        assertArrayEquals(new int[0], roundTrip(new int[0], 10));
+
+        String[] repeated = new String[1000];
+        for (int i = 0; i < repeated.length; i++) {
+            repeated[i] = "status " + i % 4;
+        }
+        assertArrayEquals(repeated, roundTrip(repeated, 1 + 1 + 4 * 10 + 1000));
+        String[] distinct = { "a", "bb", "ünï", "" };
+        assertArrayEquals(distinct, roundTrip(distinct, 100));
+    }
+
+    /**
+     * A compressed table takes a fraction of the space of a heap table, and
+     * reads back as the same pages, through scans, filters and projections.
+     */
+    @Test public void loadAndScan() throws Exception {
+        List<Tuple> input = tuples(5000);
+        File heapFile = tempFile("compressed");
+        HeapFile hf = BulkLoader.loadHeapFile(input.iterator(), heapFile, TD, "plain");
+        File compressedFile = tempFile("compressed");
+        CompressedHeapFile cf = BulkLoader.loadCompressedFile(tuples(5000).iterator(), compressedFile, TD, "cold");
+
+        assertEquals(hf.numPages(), cf.numPages());
+        assertTrue(compressedFile.length() * 10 < heapFile.length());
+        assertTrue(cf.diskPages() < cf.numPages());
+        HeapPage page = (HeapPage) cf.readPage(new HeapPageId(cf.getId(), 20));
+        assertArrayEquals(hf.readPage(new HeapPageId(hf.getId(), 20)).getPageData(), page.getPageData());
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = cf.iterator(tid);
+        it.open();
+        for (int i = 0; i < 5000; i++) {
+            Tuple t = it.next();
+            assertEquals(tuple(i).toString(), t.toString());
+        }
+        assertFalse(it.hasNext());
+        it.close();
+
+        // COUNT(f0) WHERE f1 = 2
+        SeqScan scan = new SeqScan(tid, cf.getId());
+        Filter filter = new Filter(new Predicate(1, Predicate.Op.EQUALS, new IntField(2)), scan);
+        Aggregate count = new Aggregate(filter, 0, Aggregator.NO_GROUPING, Aggregator.Op.COUNT);
+        count.open();
+        assertEquals(new IntField(500), count.next().getField(0));
+        count.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Compressed tables refuse changes, and the compressed table option of
+     * a schema opens a loaded one.
+     */
+    @Test public void readOnly() throws Exception {
+        File dir = Files.createTempDirectory("compressed").toFile();
+        dir.deleteOnExit();
+        File data = new File(dir, "cold.dat");
+        data.deleteOnExit();
+        BulkLoader.loadCompressedFile(tuples(100).iterator(), data, TD, "cold");
+
+        File schema = new File(dir, "schema.txt");
+        schema.deleteOnExit();
+        try (FileWriter w = new FileWriter(schema)) {
+            w.write("cold (a int, b int, c string) compressed\n");
+        }
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        DbFile cold = Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId("cold"));
+        assertTrue(cold instanceof CompressedHeapFile);
+        // 29 tuples to a page
+        assertEquals(4, ((CompressedHeapFile) cold).numPages());
+
+        TransactionId tid = new TransactionId();
+        try {
+            Database.getBufferPool().insertTuple(tid, cold.getId(), tuple(100));
+            fail("inserted into a compressed table");
+        } catch (DbException expected) {
+        }
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        CompressedHeapFile empty = BulkLoader.loadCompressedFile(Collections.emptyIterator(), tempFile("compressed"), TD, "empty");
+        assertEquals(0, empty.numPages());
+        tid = new TransactionId();
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        assertFalse(it.hasNext());
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedHeapFileTest.class);
+    }
+}
@@ -5,21 +5,28 @@ import org.junit.Before;
 import org.junit.Test;
 import simpledb.TestUtil.LockGrabber;
 import simpledb.common.Database;
+import simpledb.common.LockManager;
+import simpledb.common.PageLock;
 import simpledb.common.Permissions;
 import simpledb.common.Utility;
 import simpledb.storage.BufferPool;
 import simpledb.storage.HeapPageId;
 import simpledb.storage.PageId;
+import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 public class DeadlockTest extends TestUtil.CreateHeapFile {
   private PageId p0;
     private PageId p1;
+    private PageId p2;
     private TransactionId tid1, tid2;
   private Random rand;
 
@@ -50,7 +57,7 @@ public class DeadlockTest extends TestUtil.CreateHeapFile {
 
     this.p0 = new HeapPageId(empty.getId(), 0);
     this.p1 = new HeapPageId(empty.getId(), 1);
-      PageId p2 = new HeapPageId(empty.getId(), 2);
+    this.p2 = new HeapPageId(empty.getId(), 2);
     this.tid1 = new TransactionId();
     this.tid2 = new TransactionId();
     this.rand = new Random();
@@ -220,6 +227,95 @@ public class DeadlockTest extends TestUtil.CreateHeapFile {
     System.out.println("testUpgradeWriteDeadlock resolved deadlock");
   }
 
+  /**
+   * t1, t2 and t3 each hold a write lock and wait for the next one's page.
+   * Exactly one transaction of the cycle is aborted, and it is the youngest.
+   */
+  @Test public void testThreeWayDeadlockAbortsYoungest() throws Exception {
+    TransactionId tid3 = new TransactionId();
+    LockGrabber lg1Write0 = startGrabber(tid1, p0, Permissions.READ_WRITE);
+    LockGrabber lg2Write1 = startGrabber(tid2, p1, Permissions.READ_WRITE);
+    LockGrabber lg3Write2 = startGrabber(tid3, p2, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+    assertTrue(lg1Write0.acquired() && lg2Write1.acquired() && lg3Write2.acquired());
+
+    LockGrabber lg1Write1 = startGrabber(tid1, p1, Permissions.READ_WRITE);
+    LockGrabber lg2Write2 = startGrabber(tid2, p2, Permissions.READ_WRITE);
+    LockGrabber lg3Write0 = startGrabber(tid3, p0, Permissions.READ_WRITE);
+
+    // the victim's grabber aborts it, which lets t2 through
+    for (int i = 0; i < 50 && !lg2Write2.acquired(); i++) {
+      Thread.sleep(POLL_INTERVAL);
+    }
+    assertTrue(lg2Write2.acquired());
+    assertNotNull(lg3Write0.getError());
+    assertEquals(1, bp.getLockStats().forTable(empty.getId()).deadlockAborts);
+    assertNull(lg1Write1.getError());
+    assertNull(lg2Write2.getError());
+    assertFalse(lg1Write1.acquired());
+
+    bp.transactionComplete(tid2);
+    lg1Write1.join(WAIT_INTERVAL * 5);
+    assertTrue(lg1Write1.acquired());
+  }
+
+  /**
+   * A transaction that waits for a long time without being deadlocked is
+   * not aborted; it gets the lock once the holder finishes.
+   */
+  @Test public void testLongWaitIsNotAborted() throws Exception {
+    LockGrabber lg1Write = startGrabber(tid1, p0, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+    assertTrue(lg1Write.acquired());
+
+    LockGrabber lg2Write = startGrabber(tid2, p0, Permissions.READ_WRITE);
+    Thread.sleep(10 * POLL_INTERVAL);
+    assertFalse(lg2Write.acquired());
+    assertNull(lg2Write.getError());
+
+    bp.transactionComplete(tid1);
+    lg2Write.join(WAIT_INTERVAL * 5);
+    assertTrue(lg2Write.acquired());
+  }
+
+  /**
+   * With the LEAST_WORK policy the victim is the transaction holding the
+   * fewest locks, even if it is the older one.
+   */
+  @Test public void testLeastWorkVictim() throws Exception {
+    LockManager lm = new LockManager(LockManager.VictimPolicy.LEAST_WORK);
+    lm.acquireLock(p0, tid1, PageLock.READ);
+    lm.acquireLock(p1, tid2, PageLock.WRITE);
+    lm.acquireLock(p2, tid2, PageLock.WRITE);
+
+    TransactionAbortedException[] errors = new TransactionAbortedException[2];
+    Thread t1 = new Thread(() -> {
+      try {
+        lm.acquireLock(p1, tid1, PageLock.WRITE);
+      } catch (TransactionAbortedException e) {
+        errors[0] = e;
+        lm.completeTransaction(tid1);
+      }
+    });
+    Thread t2 = new Thread(() -> {
+      try {
+        lm.acquireLock(p0, tid2, PageLock.WRITE);
+      } catch (TransactionAbortedException e) {
+        errors[1] = e;
+        lm.completeTransaction(tid2);
+      }
+    });
+    t1.start();
+    t2.start();
+    t2.join(WAIT_INTERVAL * 10);
+    assertFalse(t2.isAlive());
+    assertNotNull(errors[0]);
+    assertNull(errors[1]);
+    assertTrue(lm.isHoldLock(p0, tid2));
+    lm.completeTransaction(tid2);
+    t1.join(WAIT_INTERVAL * 10);
+  }
+
   /**
    * JUnit suite target
    */
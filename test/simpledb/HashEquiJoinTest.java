@@ -0,0 +1,137 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.Predicate;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleIterator;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HashEquiJoinTest extends SimpleDbTestBase {
+
+    private static final JoinPredicate BY_KEY = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+
+    /* reads a tuple list, and counts the tuples read and the rewinds */
+    private static class CountingIterator extends TupleIterator {
+        private static final long serialVersionUID = 1L;
+        int read;
+        int rewinds;
+
+        CountingIterator(TupleDesc td, List<Tuple> tuples) {
+            super(td, tuples);
+        }
+
+        @Override
+        public Tuple next() {
+            read++;
+            return super.next();
+        }
+
+        @Override
+        public void rewind() {
+            rewinds++;
+            super.rewind();
+        }
+    }
+
+    /* the tuples of an equality join on the first fields, built by brute force */
+    private static List<String> expected(List<Tuple> left, List<Tuple> right) {
+        Map<Integer, List<Tuple>> byKey = new HashMap<>();
+        for (Tuple t : left) {
+            byKey.computeIfAbsent(((IntField) t.getField(0)).getValue(), k -> new ArrayList<>()).add(t);
+        }
+        List<String> result = new ArrayList<>();
+        for (Tuple t2 : right) {
+            for (Tuple t1 : byKey.getOrDefault(((IntField) t2.getField(0)).getValue(), List.of())) {
+                result.add(TestUtil.fields(t1) + " " + TestUtil.fields(t2));
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * A build side that fits in memory is joined without spilling, and a
+     * rewound join returns its tuples again.
+     */
+    @Test public void inMemory() throws Exception {
+        List<Tuple> left = TestUtil.tuples(500, 2, 100, 1);
+        List<Tuple> right = TestUtil.tuples(800, 3, 100, 2);
+        CountingIterator probe = new CountingIterator(Utility.getTupleDesc(3), right);
+        HashEquiJoin join = new HashEquiJoin(BY_KEY, new TupleIterator(Utility.getTupleDesc(2), left), probe);
+        join.open();
+        List<String> rows = TestUtil.runSorted(join);
+        assertEquals(expected(left, right), rows);
+        assertEquals(0, join.getSpilledPartitions());
+        join.rewind();
+        assertEquals(rows, TestUtil.runSorted(join));
+        join.close();
+    }
+
+    /**
+     * A build side larger than the work memory is partitioned to disk, and
+     * neither side is read more than once.
+     */
+    @Test public void spilled() throws Exception {
+        Database.getBufferPool().setWorkMemory(2);
+        // 2 pages hold 1024 tuples of 2 INT fields
+        List<Tuple> left = TestUtil.tuples(20000, 2, 5000, 3);
+        List<Tuple> right = TestUtil.tuples(10000, 3, 5000, 4);
+        CountingIterator build = new CountingIterator(Utility.getTupleDesc(2), left);
+        CountingIterator probe = new CountingIterator(Utility.getTupleDesc(3), right);
+        HashEquiJoin join = new HashEquiJoin(BY_KEY, build, probe);
+        join.open();
+        assertEquals(expected(left, right), TestUtil.runSorted(join));
+        assertEquals(left.size(), build.read);
+        assertEquals(right.size(), probe.read);
+        assertEquals(0, build.rewinds);
+        assertEquals(0, probe.rewinds);
+        assertTrue(join.getSpilledPartitions() > 0);
+
+        join.rewind();
+        assertEquals(expected(left, right), TestUtil.runSorted(join));
+        join.close();
+    }
+
+    /**
+     * A key with more tuples than fit in memory can not be split up by
+     * partitioning again, and is joined a part of its tuples at a time.
+     */
+    @Test public void skewed() throws Exception {
+        Database.getBufferPool().setWorkMemory(2);
+        List<Tuple> left = TestUtil.tuples(3000, 2, 1, 5);
+        left.addAll(TestUtil.tuples(2000, 2, 3000, 6));
+        List<Tuple> right = TestUtil.tuples(500, 3, 100, 7);
+        HashEquiJoin join = new HashEquiJoin(BY_KEY, new TupleIterator(Utility.getTupleDesc(2), left),
+                new TupleIterator(Utility.getTupleDesc(3), right));
+        join.open();
+        List<String> rows = TestUtil.runSorted(join);
+        assertTrue(rows.size() > 3000);
+        assertEquals(expected(left, right), rows);
+        join.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooLittleMemory() {
+        Database.getBufferPool().setWorkMemory(1);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashEquiJoinTest.class);
+    }
+}
@@ -81,6 +81,39 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.readPage() through a memory mapping, including
+     * a page added by insertTuple after the file was mapped.
+     */
+    @Test
+    public void readPageMemoryMapped() throws Exception {
+        // two full pages
+        HeapFile twoPageFile = SystemTestUtil.createRandomHeapFile(2, 1008, null, null);
+        List<byte[]> expected = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            expected.add(twoPageFile.readPage(new HeapPageId(twoPageFile.getId(), i)).getPageData());
+        }
+
+        twoPageFile.setMemoryMapped(true);
+        assertTrue(twoPageFile.isMemoryMapped());
+        for (int i = 0; i < 2; i++) {
+            HeapPage page = (HeapPage) twoPageFile.readPage(new HeapPageId(twoPageFile.getId(), i));
+            assertEquals(0, page.getNumEmptySlots());
+            assertArrayEquals(expected.get(i), page.getPageData());
+        }
+
+        // the file grows; the new page must be readable through the mapping
+        twoPageFile.insertTuple(tid, Utility.getHeapTuple(new int[] { 1, 2 }));
+        assertEquals(3, twoPageFile.numPages());
+        HeapPage added = (HeapPage) twoPageFile.readPage(new HeapPageId(twoPageFile.getId(), 2));
+        assertArrayEquals(HeapPage.createEmptyPageData(), added.getPageData());
+
+        twoPageFile.setMemoryMapped(false);
+        assertFalse(twoPageFile.isMemoryMapped());
+        assertArrayEquals(expected.get(1),
+                twoPageFile.readPage(new HeapPageId(twoPageFile.getId(), 1)).getPageData());
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
@@ -7,12 +7,15 @@ import org.junit.Test;
 import static org.junit.Assert.*;
 import junit.framework.JUnit4TestAdapter;
 import simpledb.common.Database;
+import simpledb.common.Permissions;
 import simpledb.common.Utility;
 import simpledb.storage.*;
 import simpledb.systemtest.SystemTestUtil;
 import simpledb.transaction.TransactionId;
 
+import java.io.FileOutputStream;
 import java.util.Arrays;
+import java.util.List;
 
 public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
     private TransactionId tid;
@@ -50,6 +53,74 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for the free space map: inserts must not lock full pages,
+     * and the map must follow deletes, aborts and page writes.
+     */
+    @Test public void freeSpaceMap() throws Exception {
+        // two full pages, then a page with room
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 2 + 10, null, null);
+        HeapPageId page0 = new HeapPageId(hf.getId(), 0);
+        HeapPageId page1 = new HeapPageId(hf.getId(), 1);
+        HeapPageId page2 = new HeapPageId(hf.getId(), 2);
+
+        List<Page> modified = hf.insertTuple(tid, Utility.getHeapTuple(1, 2));
+        assertEquals(page2, modified.get(0).getId());
+        assertFalse(Database.getBufferPool().holdsLock(tid, page0));
+        assertFalse(Database.getBufferPool().holdsLock(tid, page1));
+        Database.getBufferPool().transactionComplete(tid, true);
+
+        // a delete makes room, and aborting it takes the room away again
+        TransactionId t1 = new TransactionId();
+        Tuple victim = ((HeapPage) hf.readPage(page0)).iterator().next();
+        Database.getBufferPool().deleteTuple(t1, victim);
+        Database.getBufferPool().transactionComplete(t1, false);
+        TransactionId t2 = new TransactionId();
+        modified = hf.insertTuple(t2, Utility.getHeapTuple(2, 2));
+        assertEquals(page2, modified.get(0).getId());
+        assertFalse(Database.getBufferPool().holdsLock(t2, page0));
+        Database.getBufferPool().transactionComplete(t2, true);
+
+        // a committed delete leaves room that the next insert uses
+        TransactionId t3 = new TransactionId();
+        Database.getBufferPool().deleteTuple(t3, victim);
+        Database.getBufferPool().transactionComplete(t3, true);
+        TransactionId t4 = new TransactionId();
+        modified = hf.insertTuple(t4, Utility.getHeapTuple(3, 2));
+        assertEquals(page0, modified.get(0).getId());
+        Database.getBufferPool().transactionComplete(t4, true);
+
+        // the map is kept on disk with an entry per page
+        assertEquals(hf.numPages(), FreeSpaceMap.fileFor(hf.getFile()).length());
+        HeapFile reopened = Utility.openHeapFile(2, hf.getFile());
+        TransactionId t5 = new TransactionId();
+        modified = reopened.insertTuple(t5, Utility.getHeapTuple(4, 2));
+        assertEquals(new HeapPageId(reopened.getId(), 2), modified.get(0).getId());
+        assertFalse(Database.getBufferPool().holdsLock(t5, new HeapPageId(reopened.getId(), 0)));
+        Database.getBufferPool().transactionComplete(t5, true);
+    }
+
+    /**
+     * An insert that finds a page full, because the free space map was
+     * wrong about it, keeps a lock the transaction already held on it.
+     */
+    @Test public void insertKeepsHeldLocks() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 2 + 10, null, null);
+        // a map that says the full first page has room
+        try (FileOutputStream out = new FileOutputStream(FreeSpaceMap.fileFor(hf.getFile()))) {
+            out.write(new byte[] { 1, 0, 10 });
+        }
+        HeapFile reopened = Utility.openHeapFile(2, hf.getFile());
+        HeapPageId page0 = new HeapPageId(reopened.getId(), 0);
+        HeapPageId page1 = new HeapPageId(reopened.getId(), 1);
+
+        Database.getBufferPool().getPage(tid, page0, Permissions.READ_ONLY);
+        List<Page> modified = reopened.insertTuple(tid, Utility.getHeapTuple(1, 2));
+        assertEquals(new HeapPageId(reopened.getId(), 2), modified.get(0).getId());
+        assertTrue(Database.getBufferPool().holdsLock(tid, page0));
+        assertFalse(Database.getBufferPool().holdsLock(tid, page1));
+    }
+
     @Test
     public void testAlternateEmptyAndFullPagesThenIterate() throws Exception {
         // Create HeapFile/Table
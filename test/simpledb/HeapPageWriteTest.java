@@ -1,7 +1,9 @@
 package simpledb;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 
 import junit.framework.JUnit4TestAdapter;
 
@@ -131,6 +133,34 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * An iterator returns the tuples on the page when it was created, while
+     * tuples are deleted and inserted under it.
+     */
+    @Test public void modifyWhileIterating() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        List<String> before = new ArrayList<>();
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); )
+            before.add(it.next().toString());
+
+        Iterator<Tuple> it = page.iterator();
+        List<String> seen = new ArrayList<>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            seen.add(t.toString());
+            page.deleteTuple(t);
+            page.insertTuple(Utility.getHeapTuple(-1, 2));
+        }
+        assertEquals(before, seen);
+
+        // the page now holds the tuples inserted in their place
+        List<String> after = new ArrayList<>();
+        for (Iterator<Tuple> i = page.iterator(); i.hasNext(); )
+            after.add(i.next().toString());
+        assertEquals(before.size(), after.size());
+        assertFalse(after.contains(before.get(0)));
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,92 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Test;
+import simpledb.common.LockManager;
+import simpledb.common.LockStats;
+import simpledb.common.PageLock;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class LockStatsTest {
+
+    private static final int TABLE = 7;
+    private static final int OTHER_TABLE = 8;
+
+    /**
+     * Acquisitions and upgrades are counted per table.
+     */
+    @Test public void acquisitionsAndUpgrades() throws Exception {
+        LockManager lm = new LockManager();
+        TransactionId tid = new TransactionId();
+        PageId p0 = new HeapPageId(TABLE, 0);
+        lm.acquireLock(p0, tid, PageLock.READ);
+        lm.acquireLock(p0, tid, PageLock.WRITE);
+        // already held: not counted again
+        lm.acquireLock(p0, tid, PageLock.READ);
+        lm.acquireLock(new HeapPageId(OTHER_TABLE, 0), tid, PageLock.READ);
+
+        LockStats.Counters c = lm.getStats().forTable(TABLE);
+        assertEquals(2, c.acquisitions);
+        assertEquals(1, c.upgrades);
+        assertEquals(0, c.waits);
+        assertEquals(3, lm.getStats().total().acquisitions);
+        assertEquals(0, lm.getStats().forTable(42).acquisitions);
+
+        lm.getStats().reset();
+        assertEquals(0, lm.getStats().total().acquisitions);
+    }
+
+    /**
+     * Waits are counted with their wait time, and a wait that gives up is
+     * counted as a timeout.
+     */
+    @Test public void waitsAndTimeouts() throws Exception {
+        LockManager lm = new LockManager();
+        lm.setLockWaitTimeout(100);
+        TransactionId tid1 = new TransactionId();
+        TransactionId tid2 = new TransactionId();
+        PageId p0 = new HeapPageId(TABLE, 0);
+        lm.acquireLock(p0, tid1, PageLock.WRITE);
+        try {
+            lm.acquireLock(p0, tid2, PageLock.READ);
+            fail("expected the lock wait to time out");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+
+        LockStats.Counters c = lm.getStats().forTable(TABLE);
+        assertEquals(1, c.waits);
+        assertEquals(1, c.timeouts);
+        assertEquals(0, c.deadlockAborts);
+        assertTrue(c.waitNanos >= 100_000_000L);
+        // the only wait lies between 2^16 and 2^18 microseconds
+        assertTrue(c.waitPercentileMicros(50) >= 1 << 17);
+        assertEquals(c.waitPercentileMicros(50), c.waitPercentileMicros(100));
+    }
+
+    /**
+     * Unit test for the percentiles of the wait time histogram.
+     */
+    @Test public void percentiles() {
+        LockStats.Counters c = new LockStats.Counters();
+        assertEquals(0, c.waitPercentileMicros(50));
+        c.waits = 100;
+        c.waitHistogram[3] = 90;
+        c.waitHistogram[10] = 10;
+        assertEquals(8, c.waitPercentileMicros(50));
+        assertEquals(8, c.waitPercentileMicros(90));
+        assertEquals(1024, c.waitPercentileMicros(99));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockStatsTest.class);
+    }
+}
@@ -0,0 +1,188 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.Limit;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.TupleComparator;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleIterator;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+    /* three INT fields: two keys with few values, and the tuple's number */
+    private static List<Tuple> tuples(int n, long seed) {
+        Random random = new Random(seed);
+        List<Tuple> tuples = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            tuples.add(Utility.getHeapTuple(new int[] { random.nextInt(50), random.nextInt(50), i }));
+        }
+        return tuples;
+    }
+
+    /* the tuples sorted by field 0 ascending then field 1 descending, ties in input order */
+    private static List<String> expected(List<Tuple> tuples, int limit) {
+        List<Tuple> sorted = new ArrayList<>(tuples);
+        sorted.sort(Comparator.<Tuple>comparingInt(t -> ((IntField) t.getField(0)).getValue())
+                .thenComparing(Comparator.<Tuple>comparingInt(t -> ((IntField) t.getField(1)).getValue())
+                        .reversed()));
+        List<String> result = new ArrayList<>();
+        for (Tuple t : sorted.subList(0, limit < 0 ? sorted.size() : Math.min(limit, sorted.size()))) {
+            result.add(TestUtil.fields(t));
+        }
+        return result;
+    }
+
+    private static OrderBy orderBy(List<Tuple> tuples, int limit) {
+        return new OrderBy(new int[] { 0, 1 }, new boolean[] { true, false }, limit,
+                new TupleIterator(Utility.getTupleDesc(3), tuples));
+    }
+
+    /**
+     * Tuples are ordered by several fields, each in its own direction, with
+     * ties kept in the child's order, and a rewind returns them again.
+     */
+    @Test public void multipleKeys() throws Exception {
+        List<Tuple> tuples = tuples(3000, 1);
+        OrderBy orderBy = orderBy(tuples, -1);
+        orderBy.open();
+        List<String> rows = TestUtil.run(orderBy);
+        assertEquals(expected(tuples, -1), rows);
+        orderBy.rewind();
+        assertEquals(rows, TestUtil.run(orderBy));
+        orderBy.close();
+        orderBy.open();
+        assertEquals(rows, TestUtil.run(orderBy));
+        orderBy.close();
+    }
+
+    /**
+     * A sort larger than the work memory spills runs and merges them, and
+     * sorts again when rewound.
+     */
+    @Test public void spilled() throws Exception {
+        Database.getBufferPool().setWorkMemory(2);
+        // 2 pages hold 682 tuples of 3 INT fields
+        List<Tuple> tuples = tuples(20000, 2);
+        OrderBy orderBy = orderBy(tuples, -1);
+        orderBy.open();
+        assertEquals(expected(tuples, -1), TestUtil.run(orderBy));
+        orderBy.rewind();
+        assertEquals(expected(tuples, -1), TestUtil.run(orderBy));
+        orderBy.close();
+    }
+
+    /**
+     * With a limit, the tuples returned are the first ones of the full sort.
+     */
+    @Test public void topN() throws Exception {
+        List<Tuple> tuples = tuples(5000, 3);
+        for (int limit : new int[] { 0, 1, 10, 100, 4999, 5000, 6000 }) {
+            OrderBy orderBy = orderBy(tuples, limit);
+            assertEquals(limit, orderBy.getLimit());
+            orderBy.open();
+            List<String> rows = TestUtil.run(orderBy);
+            assertEquals("limit " + limit, expected(tuples, limit), rows);
+            orderBy.rewind();
+            assertEquals(rows, TestUtil.run(orderBy));
+            orderBy.close();
+        }
+    }
+
+    /**
+     * A limit whose tuples do not fit in the work memory is taken from the
+     * front of a spilled sort, and again when rewound.
+     */
+    @Test public void topNSpilled() throws Exception {
+        Database.getBufferPool().setWorkMemory(2);
+        List<Tuple> tuples = tuples(20000, 4);
+        for (int limit : new int[] { 500, 5000, 30000 }) {
+            OrderBy orderBy = orderBy(tuples, limit);
+            orderBy.open();
+            List<String> rows = TestUtil.run(orderBy);
+            assertEquals("limit " + limit, expected(tuples, limit), rows);
+            orderBy.rewind();
+            assertEquals(rows, TestUtil.run(orderBy));
+            orderBy.close();
+        }
+    }
+
+    /**
+     * Fields of each type are compared by their values, in either direction.
+     */
+    @Test public void comparator() {
+        TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE });
+        List<Tuple> tuples = new ArrayList<>();
+        for (String s : new String[] { "b", "a", "c", "a" }) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField(s, Type.STRING_LEN));
+            t.setField(1, new IntField(tuples.size()));
+            tuples.add(t);
+        }
+        tuples.sort(new TupleComparator(td, new int[] { 0, 1 }, new boolean[] { false, false }));
+        List<String> rows = new ArrayList<>();
+        for (Tuple t : tuples) {
+            rows.add(TestUtil.fields(t));
+        }
+        assertEquals(Arrays.asList("c 2", "b 0", "a 3", "a 1"), rows);
+    }
+
+    /**
+     * A query's ORDER BY takes several fields, and its LIMIT is applied
+     * with or without one.
+     */
+    @Test public void parser() throws Exception {
+        List<List<Integer>> rows = new ArrayList<>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(3, 2000, 20, null, rows, "c");
+        Database.getCatalog().addTable(hf, "t");
+        TableStats.setTableStats("t", new TableStats(hf.getId(), 1));
+        rows.sort(Comparator.<List<Integer>>comparingInt(r -> r.get(1)).reversed()
+                .thenComparingInt(r -> r.get(2)));
+
+        OpIterator plan = plan("SELECT t.c1, t.c2 FROM t ORDER BY t.c1 DESC, t.c2 LIMIT 15;");
+        List<String> expected = new ArrayList<>();
+        for (List<Integer> r : rows.subList(0, 15)) {
+            expected.add(r.get(1) + " " + r.get(2));
+        }
+        plan.open();
+        assertEquals(expected, TestUtil.run(plan));
+        plan.close();
+
+        plan = plan("SELECT * FROM t limit 7 ;");
+        plan.open();
+        assertEquals(7, TestUtil.run(plan).size());
+        plan.close();
+        assertTrue(((Operator) plan).getChildren()[0] instanceof Limit);
+    }
+
+    private static OpIterator plan(String query) throws Exception {
+        TransactionId tid = new TransactionId();
+        return new Parser().generateLogicalPlan(tid, query).physicalPlan(tid, TableStats.getStatsMap(), false);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OrderByTest.class);
+    }
+}
@@ -0,0 +1,98 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class ParserTest extends SimpleDbTestBase {
+    private static final int ROWS = 50;
+
+    private HeapFile hf;
+
+    @Before public void setUp() throws Exception {
+        hf = SystemTestUtil.createRandomHeapFile(2, ROWS, null, new ArrayList<>(), "c");
+        Database.getCatalog().addTable(hf, "t");
+        TableStats.setTableStats("t", new TableStats(hf.getId(), 1));
+    }
+
+    /* the output of processing the next statement of the stream */
+    private static String process(Parser p, InputStream is) {
+        PrintStream out = System.out;
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(captured, true, StandardCharsets.UTF_8));
+        try {
+            p.processNextStatement(is);
+        } finally {
+            System.setOut(out);
+        }
+        return captured.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A LIMIT on a statement that is not a SELECT is refused, and the
+     * statement is not run without it.
+     */
+    @Test public void limitOnlyOnSelect() throws Exception {
+        Parser p = new Parser();
+        String out = process(p, new ByteArrayInputStream(
+                "DELETE FROM t LIMIT 1;".getBytes(StandardCharsets.UTF_8)));
+        assertTrue(out, out.contains("LIMIT is only supported on SELECT"));
+        out = process(p, new ByteArrayInputStream(
+                "INSERT INTO t SELECT * FROM t LIMIT 1;".getBytes(StandardCharsets.UTF_8)));
+        assertTrue(out, out.contains("LIMIT is only supported on SELECT"));
+
+        TransactionId tid = new TransactionId();
+        assertEquals(ROWS, count(tid));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Statements read from a stream are processed one at a time, and the
+     * LIMIT of a later one does not apply to an earlier one.
+     */
+    @Test public void limitOfItsOwnStatement() throws Exception {
+        Parser p = new Parser();
+        InputStream is = new ByteArrayInputStream(
+                "SELECT * FROM t;\nSELECT t.c1 FROM t LIMIT 3;".getBytes(StandardCharsets.UTF_8));
+        assertTrue(process(p, is).contains(" " + ROWS + " rows."));
+        String out = process(p, is);
+        assertTrue(out, out.contains(" 3 rows."));
+    }
+
+    private int count(TransactionId tid) throws Exception {
+        SeqScan scan = new SeqScan(tid, hf.getId());
+        int n = 0;
+        scan.open();
+        while (scan.hasNext()) {
+            scan.next();
+            n++;
+        }
+        scan.close();
+        return n;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ParserTest.class);
+    }
+}
@@ -0,0 +1,187 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.*;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+public class PaxPageTest extends SimpleDbTestBase {
+
+    private static final int TABLE_ID = -3;
+
+    private HeapPageId pid;
+
+    @Before public void addTable() {
+        Database.getCatalog().addTable(new SkeletonFile(TABLE_ID, Utility.getTupleDesc(3)), "pax");
+        pid = new HeapPageId(TABLE_ID, 0);
+    }
+
+    private static Tuple tuple(int i) {
+        return Utility.getHeapTuple(new int[] { i, 100 + i, 200 + i });
+    }
+
+    /**
+     * Each field has a minipage of its own after the header, and a page
+     * reads back from its bytes as it was written.
+     */
+    @Test public void columnLayout() throws Exception {
+        PaxPage page = new PaxPage(pid, HeapPage.createEmptyPageData());
+        // the same slots as a row page
+        int numSlots = page.getNumEmptySlots();
+        assertEquals(new HeapPage(pid, HeapPage.createEmptyPageData()).getNumEmptySlots(), numSlots);
+        for (int i = 0; i < 10; i++) {
+            page.insertTuple(tuple(i));
+        }
+
+        ByteBuffer data = ByteBuffer.wrap(page.getPageData());
+        int headerBytes = (numSlots + 7) / 8;
+        for (int i = 0; i < 10; i++) {
+            for (int j = 0; j < 3; j++) {
+                assertEquals(100 * j + i, data.getInt(headerBytes + j * numSlots * 4 + i * 4));
+            }
+        }
+
+        PaxPage read = new PaxPage(pid, data.array());
+        assertEquals(numSlots - 10, read.getNumEmptySlots());
+        Iterator<Tuple> it = read.iterator();
+        for (int i = 0; i < 10; i++) {
+            Tuple t = it.next();
+            assertEquals(tuple(i).getField(1), t.getField(1));
+            assertEquals(tuple(i).getField(2), t.getField(2));
+        }
+        assertFalse(it.hasNext());
+
+        // a deleted slot is cleared in every minipage
+        Tuple victim = new PaxPage(pid, data.array()).iterator().next();
+        read.deleteTuple(victim);
+        data = ByteBuffer.wrap(read.getPageData());
+        for (int j = 0; j < 3; j++) {
+            assertEquals(0, data.getInt(headerBytes + j * numSlots * 4));
+        }
+        assertEquals(numSlots - 9, new PaxPage(pid, data.array()).getNumEmptySlots());
+        assertTrue(read.getBeforeImage() instanceof PaxPage);
+    }
+
+    /**
+     * A projected iterator decodes only the fields asked for.
+     */
+    @Test public void projectedIterator() throws Exception {
+        PaxPage page = new PaxPage(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; i < 5; i++) {
+            page.insertTuple(tuple(i));
+        }
+        page = new PaxPage(pid, page.getPageData());
+        Iterator<Tuple> it = page.iterator(new int[] { 2 });
+        for (int i = 0; i < 5; i++) {
+            Tuple t = it.next();
+            assertNull(t.getField(0));
+            assertNull(t.getField(1));
+            assertEquals(new IntField(200 + i), t.getField(2));
+            assertEquals(i, t.getRecordId().getTupleNumber());
+        }
+        // projected tuples are not kept by the page
+        assertNotNull(page.iterator().next().getField(0));
+    }
+
+    /**
+     * A PAX table filters, aggregates and takes inserts through the buffer
+     * pool, log and locks like a heap table, and scans decode only the
+     * fields its operators read.
+     */
+    @Test public void paxFile() throws Exception {
+        File file = tempFile("pax");
+        List<Tuple> input = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            input.add(Utility.getHeapTuple(new int[] { i % 7, i, 1 }));
+        }
+        PaxFile pf = BulkLoader.loadPaxFile(input.iterator(), file, Utility.getTupleDesc(3), "paxtable");
+        assertTrue(pf.readPage(new HeapPageId(pf.getId(), 0)) instanceof PaxPage);
+
+        // SUM(f1) WHERE f0 = 3
+        TransactionId tid = new TransactionId();
+        Filter filter = new Filter(new Predicate(0, Predicate.Op.EQUALS, new IntField(3)),
+                new SeqScan(tid, pf.getId()));
+        Aggregate sum = new Aggregate(filter, 1, Aggregator.NO_GROUPING, Aggregator.Op.SUM);
+        sum.open();
+        int expected = 0;
+        for (int i = 3; i < 2000; i += 7) {
+            expected += i;
+        }
+        assertEquals(new IntField(expected), sum.next().getField(0));
+        sum.close();
+
+        // a projection tells the scan below it which fields to decode
+        SeqScan scan = new SeqScan(tid, pf.getId());
+        new Project(Collections.singletonList(1), new Type[] { Type.INT_TYPE }, scan);
+        scan.open();
+        Tuple t = scan.next();
+        assertEquals(new IntField(0), t.getField(1));
+        assertNull(t.getField(0));
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        // an aborted insert is undone, a committed one stays
+        tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, pf.getId(), Utility.getHeapTuple(new int[] { 9, -1, 1 }));
+        Database.getBufferPool().transactionComplete(tid, false);
+        tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, pf.getId(), Utility.getHeapTuple(new int[] { 9, -2, 1 }));
+        Database.getBufferPool().transactionComplete(tid, true);
+
+        Set<Integer> found = new HashSet<>();
+        tid = new TransactionId();
+        DbFileIterator it = pf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            found.add(((IntField) it.next().getField(1)).getValue());
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(2001, found.size());
+        assertTrue(found.contains(-2));
+        assertFalse(found.contains(-1));
+    }
+
+    /**
+     * The pax table option of a schema makes the table a PaxFile.
+     */
+    @Test public void catalogOption() throws Exception {
+        File dir = Files.createTempDirectory("pax").toFile();
+        dir.deleteOnExit();
+        File schema = new File(dir, "schema.txt");
+        schema.deleteOnExit();
+        try (FileWriter w = new FileWriter(schema)) {
+            w.write("rows (a int, b int)\ncols (a int, b int) pax mmap\n");
+        }
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        DbFile rows = Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId("rows"));
+        DbFile cols = Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId("cols"));
+        assertFalse(rows instanceof PaxFile);
+        assertTrue(cols instanceof PaxFile);
+        assertTrue(((PaxFile) cols).isMemoryMapped());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxPageTest.class);
+    }
+}
@@ -0,0 +1,169 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreePageId;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class PrefetchTest extends SimpleDbTestBase {
+
+    /* two-int tuples: 504 to a heap page */
+    private static final int PAGES = 30;
+    private static final int ROWS = 504 * PAGES;
+
+    private BufferPool pool;
+
+    @Before public void setUp() throws Exception {
+        pool = Database.resetBufferPool(4 * PAGES);
+    }
+
+    /** Read every tuple of the iterator, a little slower than the disk. */
+    private static int drain(DbFileIterator it) throws Exception {
+        int count = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            if (++count % 100 == 0) {
+                Thread.sleep(1);
+            }
+        }
+        it.close();
+        return count;
+    }
+
+    /**
+     * A sequential scan has the pages ahead of it read, finds most of them
+     * in the pool, and holds no lock once its transaction commits.
+     */
+    @Test public void sequentialScanHits() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, ROWS, null, null);
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, hf.getId());
+        int count = 0;
+        scan.open();
+        while (scan.hasNext()) {
+            scan.next();
+            if (++count % 100 == 0) {
+                Thread.sleep(1);
+            }
+        }
+        scan.close();
+        pool.transactionComplete(tid);
+        assertEquals(ROWS, count);
+
+        PrefetchStats.Counters c = pool.getPrefetchStats().snapshot();
+        assertTrue(c.issued > 0);
+        assertTrue(c.hits <= c.issued);
+        assertTrue("hit ratio " + c.hitRatio(), c.hitRatio() > 0.5);
+        for (int i = 0; i < PAGES; i++) {
+            assertFalse(pool.holdsLock(tid, new HeapPageId(hf.getId(), i)));
+        }
+        // and another transaction writes any page at once
+        TransactionId writer = new TransactionId();
+        pool.getPage(writer, new HeapPageId(hf.getId(), PAGES - 1), Permissions.READ_WRITE);
+        pool.transactionComplete(writer);
+    }
+
+    /**
+     * Without the hint, read-ahead starts once a page follows the page
+     * before it, and stops on a jump.
+     */
+    @Test public void detectsSequentialRuns() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, ROWS, null, null);
+        TransactionId tid = new TransactionId();
+        ReadAhead readAhead = new ReadAhead(tid, page -> {
+            int pgNo = page.getId().getPageNumber() + 1;
+            return pgNo < PAGES ? new HeapPageId(hf.getId(), pgNo) : null;
+        });
+        for (int pgNo : new int[] { 10, 3, 20 }) {
+            readAhead.pageRead(pool.getPage(tid, new HeapPageId(hf.getId(), pgNo), Permissions.READ_ONLY));
+        }
+        pool.transactionComplete(tid);
+        assertEquals(0, pool.getPrefetchStats().snapshot().issued);
+        assertEquals(0, pool.getPrefetchStats().snapshot().dropped);
+
+        tid = new TransactionId();
+        for (int pgNo : new int[] { 3, 4 }) {
+            readAhead.pageRead(pool.getPage(tid, new HeapPageId(hf.getId(), pgNo), Permissions.READ_ONLY));
+        }
+        // pages 5 to 12 are read ahead, but for 10, which is cached;
+        // committing would stop them
+        int expected = pool.getPrefetchDepth() - 1;
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pool.getPrefetchStats().snapshot().issued < expected
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        // the pages read ahead are not locked until they are asked for
+        assertFalse(pool.holdsLock(tid, new HeapPageId(hf.getId(), 12)));
+        pool.transactionComplete(tid);
+        assertEquals(expected, pool.getPrefetchStats().snapshot().issued);
+    }
+
+    /**
+     * No more pages read ahead and not asked for than the budget are in the
+     * pool; the rest are dropped, and a depth of 0 reads nothing ahead.
+     */
+    @Test public void budget() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, ROWS, null, null);
+        pool.setPrefetchBudget(2);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.hintSequential();
+        assertEquals(ROWS, drain(it));
+        pool.transactionComplete(tid);
+        PrefetchStats.Counters c = pool.getPrefetchStats().snapshot();
+        assertTrue(c.issued > 0);
+        assertTrue(c.dropped > 0);
+
+        pool = Database.resetBufferPool(4 * PAGES);
+        pool.setPrefetchDepth(0);
+        tid = new TransactionId();
+        it = hf.iterator(tid);
+        it.hintSequential();
+        assertEquals(ROWS, drain(it));
+        pool.transactionComplete(tid);
+        assertEquals(0, pool.getPrefetchStats().snapshot().issued);
+    }
+
+    /**
+     * A B+ tree scan reads leaves ahead through the right sibling pointers.
+     */
+    @Test public void btreeLeaves() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, ROWS, null, tuples, 0);
+        pool = Database.resetBufferPool(4 * PAGES);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = bf.iterator(tid);
+        it.hintSequential();
+        assertEquals(ROWS, drain(it));
+        pool.transactionComplete(tid);
+        PrefetchStats.Counters c = pool.getPrefetchStats().snapshot();
+        assertTrue(c.issued > 0);
+        assertTrue("hit ratio " + c.hitRatio(), c.hitRatio() > 0.5);
+        assertFalse(pool.holdsLock(tid, new BTreePageId(bf.getId(), 1, BTreePageId.LEAF)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PrefetchTest.class);
+    }
+}
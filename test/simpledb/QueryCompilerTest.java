@@ -0,0 +1,154 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.*;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+public class QueryCompilerTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE, Type.STRING_TYPE },
+            new String[] { "id", "n", "s" });
+
+    private TransactionId tid;
+    private HeapFile mixed;
+
+    @Before public void createTables() throws Exception {
+        assumeTrue(QueryCompiler.isAvailable());
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            Tuple t = new Tuple(TD);
+            t.setField(0, new IntField(i));
+            t.setField(1, new IntField(i % 17 - 8));
+            t.setField(2, new StringField("name " + i % 5, Type.STRING_LEN));
+            tuples.add(t);
+        }
+        File f = tempFile("compiled");
+        mixed = BulkLoader.loadHeapFile(tuples.iterator(), f, TD, "mixed");
+        tid = new TransactionId();
+    }
+
+    /* the tuples of a plan, in order, with their RecordIds */
+    private static List<String> run(OpIterator plan) throws Exception {
+        List<String> result = new ArrayList<>();
+        plan.open();
+        while (plan.hasNext()) {
+            Tuple t = plan.next();
+            result.add(t.getRecordId() + " " + t);
+        }
+        plan.close();
+        return result;
+    }
+
+    private SeqScan scan() {
+        return new SeqScan(tid, mixed.getId());
+    }
+
+    /**
+     * A compiled chain returns the tuples the chain does, with their
+     * RecordIds, for every operator on INT and STRING fields.
+     */
+    @Test public void filterAndProject() throws Exception {
+        for (Predicate.Op op : Predicate.Op.values()) {
+            Predicate p = new Predicate(1, op, new IntField(3));
+            OpIterator compiled = QueryCompiler.compile(new Filter(p, scan()));
+            assertTrue(compiled instanceof CompiledScan);
+            assertEquals(op.toString(), run(new Filter(p, scan())), run(compiled));
+
+            Predicate s = new Predicate(2, op, new StringField("name 2", Type.STRING_LEN));
+            assertEquals(op.toString(), run(new Filter(s, scan())), run(QueryCompiler.compile(new Filter(s, scan()))));
+        }
+
+        List<Integer> fields = Arrays.asList(2, 0);
+        Type[] types = { Type.STRING_TYPE, Type.INT_TYPE };
+        Predicate like = new Predicate(2, Predicate.Op.LIKE, new StringField("e 3", Type.STRING_LEN));
+        Predicate greater = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(2000));
+        List<String> rows = run(new Project(fields, types, new Filter(greater, new Filter(like, scan()))));
+        assertEquals(200, rows.size());
+        OpIterator compiled = QueryCompiler.compile(new Project(fields, types,
+                new Filter(greater, new Filter(like, scan()))));
+        assertTrue(compiled instanceof CompiledScan);
+        assertEquals(rows, run(compiled));
+        compiled.open();
+        compiled.next();
+        compiled.rewind();
+        List<String> again = new ArrayList<>();
+        while (compiled.hasNext()) {
+            Tuple t = compiled.next();
+            again.add(t.getRecordId() + " " + t);
+        }
+        compiled.close();
+        assertEquals(rows, again);
+    }
+
+    /**
+     * Chains of the same shape share a generated class whatever their
+     * constants, and chains under other operators are compiled too.
+     */
+    @Test public void planCache() throws Exception {
+        Predicate p = new Predicate(0, Predicate.Op.LESS_THAN_OR_EQ, new IntField(1234));
+        Predicate q = new Predicate(2, Predicate.Op.NOT_EQUALS, new StringField("name 4", Type.STRING_LEN));
+        QueryCompiler.compile(new Filter(q, new Filter(p, scan())));
+        int classes = QueryCompiler.classesCompiled();
+        for (int i = 0; i < 5; i++) {
+            Predicate pi = new Predicate(0, Predicate.Op.LESS_THAN_OR_EQ, new IntField(i * 100));
+            Predicate qi = new Predicate(2, Predicate.Op.NOT_EQUALS, new StringField("name " + i, Type.STRING_LEN));
+            List<String> rows = run(new Filter(qi, new Filter(pi, scan())));
+            assertEquals(rows, run(QueryCompiler.compile(new Filter(qi, new Filter(pi, scan())))));
+        }
+        assertEquals(classes, QueryCompiler.classesCompiled());
+
+        JoinPredicate byN = new JoinPredicate(1, Predicate.Op.EQUALS, 1);
+        List<String> rows = run(new Join(byN, new Filter(q, new Filter(p, scan())),
+                new Filter(q, new Filter(p, scan()))));
+        Join join = new Join(byN, new Filter(q, new Filter(p, scan())), new Filter(q, new Filter(p, scan())));
+        assertSame(join, QueryCompiler.compile(join));
+        assertTrue(join.getChildren()[0] instanceof CompiledScan);
+        assertTrue(join.getChildren()[1] instanceof CompiledScan);
+        assertEquals(rows, run(join));
+        assertEquals(classes, QueryCompiler.classesCompiled());
+    }
+
+    /**
+     * Chains that can not be compiled are left to run as they are.
+     */
+    @Test public void fallback() throws Exception {
+        // a bare scan has nothing to compile
+        SeqScan scan = scan();
+        assertSame(scan, QueryCompiler.compile(scan));
+
+        // a table that is not a heap table
+        File f = tempFile("compiled");
+        TupleDesc varTd = new TupleDesc(new Type[] { Type.INT_TYPE, Type.VARCHAR_TYPE });
+        SlottedHeapFile slotted = new SlottedHeapFile(f, varTd);
+        Database.getCatalog().addTable(slotted, "slotted");
+        Filter filter = new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(3)),
+                new SeqScan(tid, slotted.getId()));
+        assertSame(filter, QueryCompiler.compile(filter));
+
+        // an operand of another type than its field
+        filter = new Filter(new Predicate(2, Predicate.Op.EQUALS, new IntField(3)), scan());
+        assertSame(filter, QueryCompiler.compile(filter));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(QueryCompilerTest.class);
+    }
+}
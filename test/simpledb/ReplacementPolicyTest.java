@@ -0,0 +1,120 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Test;
+import simpledb.storage.*;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class ReplacementPolicyTest {
+
+    private static final int TABLE = 1;
+
+    private static PageId pid(int pgNo) {
+        return new HeapPageId(TABLE, pgNo);
+    }
+
+    private static void access(ReplacementPolicy policy, int... pages) {
+        for (int p : pages) {
+            policy.recordAccess(pid(p));
+        }
+    }
+
+    /**
+     * Unit test for LRUPolicy: the least recently used page goes first.
+     */
+    @Test public void lru() {
+        ReplacementPolicy lru = ReplacementPolicy.LRU.create(4);
+        access(lru, 0, 1, 2, 3, 0);
+        assertEquals(4, lru.size());
+        assertEquals(pid(1), lru.evict(p -> true));
+        assertEquals(pid(2), lru.evict(p -> true));
+        assertEquals(2, lru.size());
+    }
+
+    /**
+     * Unit test for ClockPolicy: referenced pages get a second chance.
+     */
+    @Test public void clock() {
+        ReplacementPolicy clock = ReplacementPolicy.CLOCK.create(4);
+        access(clock, 0, 1, 2, 3);
+        // the first sweep clears every bit and the hand comes back to 0
+        assertEquals(pid(0), clock.evict(p -> true));
+        access(clock, 1, 4);
+        // 1 was referenced again, 2 was not
+        assertEquals(pid(2), clock.evict(p -> true));
+        assertEquals(3, clock.size());
+    }
+
+    /**
+     * Unit test for LRUKPolicy: pages seen once go before pages seen twice.
+     */
+    @Test public void lruK() {
+        ReplacementPolicy lru2 = ReplacementPolicy.LRU_2.create(4);
+        access(lru2, 0, 0, 1, 1, 2, 3);
+        // 2 and 3 have an incomplete history; 2 is older
+        assertEquals(pid(2), lru2.evict(p -> true));
+        assertEquals(pid(3), lru2.evict(p -> true));
+        // now the page with the oldest second-to-last access
+        assertEquals(pid(0), lru2.evict(p -> true));
+
+        // history is retained across eviction: a quick return counts twice
+        access(lru2, 0, 5);
+        assertEquals(pid(5), lru2.evict(p -> true));
+    }
+
+    /**
+     * Unit test for TwoQPolicy: only pages re-referenced after probation are
+     * promoted to the main queue.
+     */
+    @Test public void twoQ() {
+        ReplacementPolicy twoQ = ReplacementPolicy.TWO_Q.create(8);
+        access(twoQ, 0, 1, 2, 3);
+        // Am is empty, so probation is evicted in FIFO order, even if re-referenced
+        access(twoQ, 0);
+        assertEquals(pid(0), twoQ.evict(p -> true));
+        // 0 is in the ghost queue now; coming back promotes it
+        access(twoQ, 0, 4, 5);
+        assertEquals(pid(1), twoQ.evict(p -> true));
+        assertEquals(pid(2), twoQ.evict(p -> true));
+        assertEquals(pid(3), twoQ.evict(p -> true));
+        // probation is down to its share of the frames, so Am gives up its page
+        assertEquals(pid(0), twoQ.evict(p -> true));
+        assertEquals(pid(4), twoQ.evict(p -> true));
+        assertEquals(pid(5), twoQ.evict(p -> true));
+        assertNull(twoQ.evict(p -> true));
+    }
+
+    /**
+     * All policies skip pages that may not be evicted and forget removed pages.
+     */
+    @Test public void pinnedAndRemovedPages() {
+        ReplacementPolicy.Factory[] factories = {ReplacementPolicy.LRU, ReplacementPolicy.CLOCK,
+                ReplacementPolicy.LRU_2, ReplacementPolicy.TWO_Q};
+        for (ReplacementPolicy.Factory factory : factories) {
+            ReplacementPolicy policy = factory.create(4);
+            access(policy, 0, 1, 2, 3);
+            policy.remove(pid(3));
+            assertEquals(3, policy.size());
+
+            Set<PageId> evicted = new HashSet<>();
+            PageId victim;
+            while ((victim = policy.evict(p -> !p.equals(pid(1)))) != null) {
+                evicted.add(victim);
+            }
+            assertEquals(new HashSet<>(Arrays.asList(pid(0), pid(2))), evicted);
+            assertEquals(1, policy.size());
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
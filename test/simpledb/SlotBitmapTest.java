@@ -0,0 +1,98 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.storage.SlotBitmap;
+
+public class SlotBitmapTest {
+
+    /**
+     * Serialized headers round trip unchanged, bit order included, and bits
+     * past the last slot are kept but never counted.
+     */
+    @Test public void headerFormat() {
+        byte[] header = new byte[] { 0x05, (byte) 0x80, (byte) 0xFF };
+        // 20 slots: the top 4 bits of the last byte are padding
+        SlotBitmap slots = new SlotBitmap(20, header);
+        assertTrue(slots.isUsed(0));
+        assertFalse(slots.isUsed(1));
+        assertTrue(slots.isUsed(2));
+        assertTrue(slots.isUsed(15));
+        assertTrue(slots.isUsed(19));
+        assertEquals(2 + 1 + 4, slots.numUsed());
+        assertEquals(20 - 7, slots.numEmpty());
+        assertEquals(-1, slots.nextUsed(20));
+
+        byte[] out = new byte[4];
+        slots.writeTo(out, 1);
+        assertArrayEquals(new byte[] { 0, 0x05, (byte) 0x80, (byte) 0xFF }, out);
+    }
+
+    /**
+     * The word-level searches agree with a slot-by-slot scan.
+     */
+    @Test public void searchesMatchLinearScan() {
+        Random random = new Random(17);
+        for (int round = 0; round < 200; round++) {
+            int numSlots = 1 + random.nextInt(300);
+            SlotBitmap slots = new SlotBitmap(numSlots, (numSlots + 7) / 8);
+            boolean[] used = new boolean[numSlots];
+            int density = random.nextInt(4);
+            for (int i = 0; i < numSlots; i++) {
+                used[i] = random.nextInt(4) < density;
+                slots.set(i, used[i]);
+            }
+
+            int count = 0;
+            for (int i = 0; i < numSlots; i++) {
+                assertEquals(used[i], slots.isUsed(i));
+                count += used[i] ? 1 : 0;
+            }
+            assertEquals(count, slots.numUsed());
+            for (int from = 0; from <= numSlots; from++) {
+                assertEquals(linear(used, from, true, 1), slots.nextUsed(from));
+                assertEquals(linear(used, from, false, 1), slots.nextEmpty(from));
+                assertEquals(linear(used, from, true, -1), slots.previousUsed(from));
+            }
+        }
+    }
+
+    private static int linear(boolean[] used, int from, boolean value, int step) {
+        int start = step > 0 ? from : Math.min(from, used.length - 1);
+        for (int i = start; i >= 0 && i < used.length; i += step) {
+            if (used[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * fill sets every bit of the header; copies are independent.
+     */
+    @Test public void fillAndCopy() {
+        SlotBitmap slots = new SlotBitmap(12, 3);
+        slots.fill(true);
+        assertEquals(12, slots.numUsed());
+        assertEquals(-1, slots.nextEmpty(0));
+        assertEquals((byte) 0xFF, slots.getByte(2));
+
+        SlotBitmap copy = slots.copy();
+        slots.set(5, false);
+        assertEquals(5, slots.nextEmpty(0));
+        assertTrue(copy.isUsed(5));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlotBitmapTest.class);
+    }
+}
@@ -0,0 +1,248 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+public class SlottedHeapPageTest extends SimpleDbTestBase {
+
+    private static final int TABLE_ID = -4;
+    private static final TupleDesc TD = new TupleDesc(new Type[] { Type.INT_TYPE, Type.VARCHAR_TYPE });
+
+    private HeapPageId pid;
+
+    @Before public void addTable() {
+        Database.getCatalog().addTable(new SkeletonFile(TABLE_ID, TD), "slotted");
+        pid = new HeapPageId(TABLE_ID, 0);
+    }
+
+    private static Tuple tuple(int i, String s) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(i));
+        t.setField(1, new VarcharField(s));
+        return t;
+    }
+
+    /* the record of a tuple with its VARCHAR inline */
+    private static byte[] record(int i, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(6 + bytes.length).putInt(i).putShort((short) bytes.length).put(bytes).array();
+    }
+
+    private static SlottedHeapFile createFile(String name) throws Exception {
+        File f = tempFile(name);
+        SlottedHeapFile file = new SlottedHeapFile(f, TD);
+        Database.getCatalog().addTable(file, name);
+        return file;
+    }
+
+    private static Map<Integer, String> scan(SlottedHeapFile file) throws Exception {
+        Map<Integer, String> found = new TreeMap<>();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = file.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            found.put(((IntField) t.getField(0)).getValue(), ((StringField) t.getField(1)).getValue());
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return found;
+    }
+
+    /**
+     * Records take only the bytes of their values, and deleting one closes
+     * its hole in place, so the free space is in one piece.
+     */
+    @Test public void insertDeleteCompacts() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, SlottedHeapPage.createEmptyPageData());
+        int empty = page.getFreeSpace();
+        String[] values = { "a", "a bit longer", "ünïcödé" };
+        List<Tuple> tuples = new ArrayList<>();
+        int used = 0;
+        for (int i = 0; i < values.length; i++) {
+            Tuple t = tuple(i, values[i]);
+            byte[] record = record(i, values[i]);
+            page.insertTuple(t, record);
+            tuples.add(t);
+            used += record.length + 4;
+            assertEquals(i, t.getRecordId().getTupleNumber());
+        }
+        assertEquals(empty - used, page.getFreeSpace());
+
+        page.deleteTuple(tuples.get(1));
+        assertEquals(empty - used + record(1, values[1]).length, page.getFreeSpace());
+        assertFalse(page.isSlotUsed(1));
+        // the records that moved still read back, also from the page's bytes
+        page = new SlottedHeapPage(pid, page.getPageData());
+        Iterator<Tuple> it = page.iterator();
+        assertEquals(new VarcharField("a"), it.next().getField(1));
+        assertEquals(new VarcharField("ünïcödé"), it.next().getField(1));
+        assertFalse(it.hasNext());
+
+        // an empty slot is used again, the empty slots at the end go away
+        page.insertTuple(tuple(7, "x"), record(7, "x"));
+        assertTrue(page.isSlotUsed(1));
+        page.deleteTuple(page.getTuple(1, null, null));
+        page.deleteTuple(page.getTuple(2, null, null));
+        assertEquals(empty - record(0, "a").length - 4, page.getFreeSpace());
+        page.deleteTuple(page.getTuple(0, null, null));
+        assertArrayEquals(SlottedHeapPage.createEmptyPageData(), page.getPageData());
+        // changes in place leave the before image alone
+        assertEquals(2, page.getBeforeImage().getNumTuples());
+    }
+
+    /**
+     * Short strings pack many times more tuples to a page than STRING's
+     * padding allows.
+     */
+    @Test public void tuplesPerPage() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, SlottedHeapPage.createEmptyPageData());
+        int n = 0;
+        while (page.hasRoomFor(record(n, "name" + n).length)) {
+            page.insertTuple(tuple(n, "name" + n), record(n, "name" + n));
+            n++;
+        }
+        int fixed = BufferPool.getPageSize() * 8 / (Type.INT_TYPE.getLen() * 8 + Type.STRING_TYPE.getLen() * 8 + 1);
+        assertTrue(n + " tuples", n > 5 * fixed);
+        assertEquals(n, page.getNumTuples());
+    }
+
+    /**
+     * Values too long for a page go to overflow chains, are read back
+     * only when asked for, and their pages are used again once the tuple
+     * is deleted.
+     */
+    @Test public void overflowChains() throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SlottedHeapFile file = createFile("overflow");
+        char[] chars = new char[3 * BufferPool.getPageSize()];
+        Arrays.fill(chars, 'z');
+        String longValue = new String(chars);
+
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, file.getId(), tuple(1, "short"));
+        Database.getBufferPool().insertTuple(tid, file.getId(), tuple(2, longValue));
+        Database.getBufferPool().transactionComplete(tid);
+        int pages = file.numPages();
+        assertTrue(pages >= 5);
+
+        Map<Integer, String> found = scan(file);
+        assertEquals("short", found.get(1));
+        assertEquals(longValue, found.get(2));
+
+        // a scan of the int field only leaves the VARCHARs out
+        tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, file.getId());
+        scan.setNeededFields(new int[] { 0 });
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            assertNull(scan.next().getField(1));
+            count++;
+        }
+        scan.close();
+        assertEquals(2, count);
+        Database.getBufferPool().transactionComplete(tid);
+
+        // deleting the tuple frees its chain for new tuples
+        tid = new TransactionId();
+        DbFileIterator it = file.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() == 2) {
+                Database.getBufferPool().deleteTuple(tid, t);
+            }
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+        for (int i = 3; i < 300; i++) {
+            Database.getBufferPool().insertTuple(tid, file.getId(), tuple(i, "value " + i));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(pages, file.numPages());
+        found = scan(file);
+        assertEquals(298, found.size());
+        assertEquals("value 299", found.get(299));
+
+        TableStats stats = new TableStats(file.getId(), 1000);
+        assertTrue(stats.avgTupleSize() < TD.getSize());
+    }
+
+    /**
+     * Through the buffer pool, an aborted insert is undone, and a
+     * committed one stays.
+     */
+    @Test public void abortAndCommit() throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SlottedHeapFile file = createFile("abort");
+        char[] chars = new char[2 * BufferPool.getPageSize()];
+        Arrays.fill(chars, 'q');
+
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, file.getId(), tuple(1, "kept"));
+        Database.getBufferPool().transactionComplete(tid, true);
+        tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, file.getId(), tuple(2, "lost"));
+        Database.getBufferPool().insertTuple(tid, file.getId(), tuple(3, new String(chars)));
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        assertEquals(Collections.singletonMap(1, "kept"), scan(file));
+    }
+
+    /**
+     * A varchar field makes a table slotted, and fixed-length files refuse
+     * one.
+     */
+    @Test public void catalogVarchar() throws Exception {
+        File dir = Files.createTempDirectory("slotted").toFile();
+        dir.deleteOnExit();
+        File schema = new File(dir, "schema.txt");
+        schema.deleteOnExit();
+        try (FileWriter w = new FileWriter(schema)) {
+            w.write("vc (a int, b varchar)\nints (a int, b int) slotted\nfixed (a int, b string)\n");
+        }
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        DbFile vc = Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId("vc"));
+        DbFile ints = Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId("ints"));
+        DbFile fixed = Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId("fixed"));
+        assertTrue(vc instanceof SlottedHeapFile);
+        assertEquals(Type.VARCHAR_TYPE, vc.getTupleDesc().getFieldType(1));
+        assertTrue(ints instanceof SlottedHeapFile);
+        assertFalse(fixed instanceof SlottedHeapFile);
+
+        try {
+            new HeapFile(new File(dir, "bad.dat"), TD);
+            fail("a HeapFile took a varchar field");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapPageTest.class);
+    }
+}
@@ -0,0 +1,189 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.*;
+import simpledb.index.BTreeBulkLoader;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleIterator;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+    private static final Predicate.Op[] OPS = { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+            Predicate.Op.LESS_THAN_OR_EQ, Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ };
+
+    /* the tuples of a join on the first fields whose keys differ by at most band, built by brute force */
+    private static List<String> expected(List<Tuple> left, List<Tuple> right, Predicate.Op op, int band) {
+        List<String> result = new ArrayList<>();
+        for (Tuple t1 : left) {
+            for (Tuple t2 : right) {
+                int k1 = ((IntField) t1.getField(0)).getValue();
+                int k2 = ((IntField) t2.getField(0)).getValue();
+                boolean joined = band > 0 ? Math.abs(k1 - k2) <= band
+                        : t1.getField(0).compare(op, t2.getField(0));
+                if (joined) {
+                    result.add(TestUtil.fields(t1) + " " + TestUtil.fields(t2));
+                }
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * Unsorted children are sorted, and every operator a merge can join on
+     * returns the tuples of a nested loops join; a rewound join returns
+     * them again.
+     */
+    @Test public void operators() throws Exception {
+        List<Tuple> left = TestUtil.tuples(300, 2, 40, 1);
+        List<Tuple> right = TestUtil.tuples(200, 3, 40, 2);
+        for (Predicate.Op op : OPS) {
+            SortMergeJoin join = new SortMergeJoin(new JoinPredicate(0, op, 0),
+                    new TupleIterator(Utility.getTupleDesc(2), left), new TupleIterator(Utility.getTupleDesc(3), right));
+            join.open();
+            List<String> rows = TestUtil.runSorted(join);
+            assertEquals(op.toString(), expected(left, right, op, 0), rows);
+            join.rewind();
+            assertEquals(op.toString(), rows, TestUtil.runSorted(join));
+            join.close();
+        }
+    }
+
+    /**
+     * The inner tuples an inequality join keeps are spilled to disk once
+     * they do not fit in the work memory.
+     */
+    @Test public void spilled() throws Exception {
+        Database.getBufferPool().setWorkMemory(2);
+        // 2 pages hold 1024 tuples of 2 INT fields
+        List<Tuple> left = TestUtil.tuples(3000, 2, 100000, 3);
+        List<Tuple> right = TestUtil.tuples(400, 2, 100000, 4);
+        SortMergeJoin join = new SortMergeJoin(new JoinPredicate(0, Predicate.Op.LESS_THAN, 0),
+                new TupleIterator(Utility.getTupleDesc(2), left), new TupleIterator(Utility.getTupleDesc(2), right));
+        join.open();
+        assertEquals(expected(left, right, Predicate.Op.LESS_THAN, 0), TestUtil.runSorted(join));
+        join.close();
+    }
+
+    /**
+     * A band join returns the tuples whose keys are at most the band apart.
+     */
+    @Test public void band() throws Exception {
+        List<Tuple> left = TestUtil.tuples(1000, 2, 100000, 5);
+        List<Tuple> right = TestUtil.tuples(1000, 2, 100000, 6);
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        SortMergeJoin join = new SortMergeJoin(p, 250,
+                new TupleIterator(Utility.getTupleDesc(2), left), new TupleIterator(Utility.getTupleDesc(2), right));
+        assertEquals(250, join.getBand());
+        join.open();
+        List<String> rows = TestUtil.runSorted(join);
+        assertTrue(rows.size() > 1000);
+        assertEquals(expected(left, right, Predicate.Op.EQUALS, 250), rows);
+        join.close();
+
+        try {
+            new SortMergeJoin(new JoinPredicate(0, Predicate.Op.LESS_THAN, 0), 5,
+                    new TupleIterator(Utility.getTupleDesc(2), left), new TupleIterator(Utility.getTupleDesc(2), right));
+            fail("a band join on an inequality");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            new SortMergeJoin(new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0),
+                    new TupleIterator(Utility.getTupleDesc(2), left), new TupleIterator(Utility.getTupleDesc(2), right));
+            fail("a merge join on NOT_EQUALS");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    /**
+     * Scans of a B+ tree on its key come in order, filtered or not, and are
+     * merged without being sorted.
+     */
+    @Test public void indexOrder() throws Exception {
+        List<Tuple> left = TestUtil.tuples(2000, 2, 500, 7);
+        List<Tuple> right = TestUtil.tuples(2000, 2, 500, 8);
+        BTreeFile bf1 = BTreeBulkLoader.load(left.iterator(), tempFile("merge"), Utility.getTupleDesc(2), 0, "b1", 4);
+        BTreeFile bf2 = BTreeBulkLoader.load(right.iterator(), tempFile("merge"), Utility.getTupleDesc(2), 0, "b2", 4);
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 10, null, new ArrayList<>());
+        TransactionId tid = new TransactionId();
+
+        OpIterator scan1 = new BTreeScan(tid, bf1.getId(), "b1", null);
+        OpIterator scan2 = new Filter(new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(100)),
+                new SeqScan(tid, bf2.getId(), "b2"));
+        assertTrue(SortMergeJoin.isSortedOn(scan1, 0));
+        assertTrue(SortMergeJoin.isSortedOn(scan2, 0));
+        assertFalse(SortMergeJoin.isSortedOn(scan1, 1));
+        assertFalse(SortMergeJoin.isSortedOn(new SeqScan(tid, hf.getId()), 0));
+
+        SortMergeJoin join = new SortMergeJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0), scan1, scan2);
+        assertTrue(SortMergeJoin.isSortedOn(join, 0));
+        assertTrue(SortMergeJoin.isSortedOn(join, 2));
+        List<Tuple> filtered = new ArrayList<>();
+        for (Tuple t : right) {
+            if (((IntField) t.getField(1)).getValue() > 100) {
+                filtered.add(t);
+            }
+        }
+        join.open();
+        List<String> rows = TestUtil.runSorted(join);
+        join.close();
+        assertEquals(expected(left, filtered, Predicate.Op.EQUALS, 0), rows);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The optimizer merges inequality joins that are cheaper merged than
+     * joined by nested loops, and equality joins of tables that are B+
+     * trees on their join fields; other equality joins are hashed.
+     */
+    @Test public void planned() throws Exception {
+        BTreeFile bf1 = BTreeBulkLoader.load(TestUtil.tuples(1000, 2, 500, 9).iterator(), tempFile("merge"),
+                Utility.getTupleDesc(2, "c"), 0, "b1", 4);
+        BTreeFile bf2 = BTreeBulkLoader.load(TestUtil.tuples(1000, 2, 500, 10).iterator(), tempFile("merge"),
+                Utility.getTupleDesc(2, "c"), 0, "b2", 4);
+        HeapFile h1 = SystemTestUtil.createRandomHeapFile(2, 1000, null, new ArrayList<>(), "c");
+        Database.getCatalog().addTable(h1, "h1");
+        for (String table : new String[] { "b1", "b2", "h1" }) {
+            TableStats.setTableStats(table, new TableStats(Database.getCatalog().getTableId(table), 1000));
+        }
+
+        assertTrue(join("SELECT * FROM b1, b2 WHERE b1.c0 = b2.c0;") instanceof SortMergeJoin);
+        assertTrue(join("SELECT * FROM b1, h1 WHERE b1.c0 = h1.c0;") instanceof HashEquiJoin);
+        assertTrue(join("SELECT * FROM b1, h1 WHERE b1.c0 < h1.c0;") instanceof SortMergeJoin);
+        assertTrue(join("SELECT * FROM h1, b2 WHERE h1.c1 >= b2.c1;") instanceof SortMergeJoin);
+        // a few tuples on the outer side are cheaper to join by nested loops than to sort the inner side for
+        assertTrue(join("SELECT * FROM h1, b2 WHERE h1.c0 = 5 AND h1.c1 >= b2.c1;") instanceof Join);
+    }
+
+    /* the join of the plan of a query */
+    private static OpIterator join(String query) throws Exception {
+        TransactionId tid = new TransactionId();
+        OpIterator plan = new Parser().generateLogicalPlan(tid, query)
+                .physicalPlan(tid, TableStats.getStatsMap(), false);
+        return ((Operator) plan).getChildren()[0];
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SortMergeJoinTest.class);
+    }
+}
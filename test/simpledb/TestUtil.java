@@ -156,6 +156,55 @@ public class TestUtil {
         }
     }
 
+    /**
+     * @return n tuples of width INT fields, the first one a random key below
+     *   keys, the others the tuple's number
+     */
+    public static List<Tuple> tuples(int n, int width, int keys, long seed) {
+        Random random = new Random(seed);
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            int[] values = new int[width];
+            Arrays.fill(values, i);
+            values[0] = random.nextInt(keys);
+            tuples.add(Utility.getHeapTuple(values));
+        }
+        return tuples;
+    }
+
+    /**
+     * @return the fields of the tuple, separated by spaces
+     */
+    public static String fields(Tuple t) {
+        StringJoiner fields = new StringJoiner(" ");
+        for (int i = 0; i < t.getTupleDesc().numFields(); i++) {
+            fields.add(t.getField(i).toString());
+        }
+        return fields.toString();
+    }
+
+    /**
+     * @return the fields of the tuples left in the open OpIterator, in the
+     *   order it returns them
+     */
+    public static List<String> run(OpIterator it) throws Exception {
+        List<String> result = new ArrayList<>();
+        while (it.hasNext()) {
+            result.add(fields(it.next()));
+        }
+        return result;
+    }
+
+    /**
+     * @return the fields of the tuples left in the open OpIterator, sorted,
+     *   to compare iterators that return tuples in no particular order
+     */
+    public static List<String> runSorted(OpIterator it) throws Exception {
+        List<String> result = run(it);
+        Collections.sort(result);
+        return result;
+    }
+
     /**
      * Verifies that the OpIterator has been exhausted of all elements.
      */
@@ -381,6 +430,7 @@ public class TestUtil {
                 throw new RuntimeException(e);
             }
             emptyFile.deleteOnExit();
+            FreeSpaceMap.fileFor(emptyFile).deleteOnExit();
         }
 
         protected void setUp() throws Exception {
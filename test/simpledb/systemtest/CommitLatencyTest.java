@@ -0,0 +1,153 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.LockManager;
+import simpledb.common.PageLock;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Fills buffer pools of growing size with clean pages and measures how long
+ * it takes to commit a transaction that dirtied a single page.  Commit only
+ * visits the pages of the committing transaction, so its latency should stay
+ * flat as the pool grows.
+ * <p>
+ * Likewise, releasing the locks of a committing transaction only visits the
+ * pages it locked, so commit latency should not grow with the number of
+ * other transactions holding locks at the same time.
+ */
+public class CommitLatencyTest extends SimpleDbTestBase {
+    private static final int[] POOL_SIZES = {128, 512, 2048};
+    private static final int COMMITS = 30;
+    // wide tuples, so that a few thousand pages only need a few thousand rows
+    private static final int COLUMNS = 200;
+
+    private static final int[] CONCURRENT_TRANSACTIONS = {16, 256, 4096};
+    private static final int LOCKS_PER_TRANSACTION = 16;
+    private static final int LOCK_COMMITS = 200;
+
+    @Test public void testCommitLatencyIndependentOfPoolSize() throws Exception {
+        int maxPages = POOL_SIZES[POOL_SIZES.length - 1];
+        File file = SystemTestUtil.createRandomHeapFileUnopened(COLUMNS, maxPages * 5,
+                1 << 16, null, null);
+
+        double[] medians = new double[POOL_SIZES.length];
+        for (int i = 0; i < POOL_SIZES.length; i++) {
+            medians[i] = medianCommitNanos(file, POOL_SIZES[i]);
+            System.out.println("CommitLatencyTest: " + POOL_SIZES[i] + " pages, median commit "
+                    + (medians[i] / 1000) + " us");
+        }
+
+        double min = Arrays.stream(medians).min().getAsDouble();
+        double max = Arrays.stream(medians).max().getAsDouble();
+        // commit is dominated by the log force; allow for plenty of fsync jitter
+        assertTrue("commit latency grew with pool size: " + Arrays.toString(medians),
+                max < 5 * min + 2_000_000);
+    }
+
+    /**
+     * Fill a pool of the given size with clean pages of file, then commit
+     * COMMITS transactions that each delete a single tuple.
+     */
+    private double medianCommitNanos(File file, int poolSize) throws Exception {
+        BufferPool bp = Database.resetBufferPool(poolSize);
+        // reopen the table so that it talks to the new pool
+        HeapFile f = Utility.openHeapFile(COLUMNS, file);
+        assertTrue(f.numPages() >= poolSize);
+
+        // one tuple from each of the first poolSize pages; the scan leaves them all cached
+        TransactionId scanTid = new TransactionId();
+        List<Tuple> victims = new ArrayList<>();
+        PageId lastPage = null;
+        DbFileIterator it = f.iterator(scanTid);
+        it.open();
+        while (it.hasNext() && victims.size() < poolSize) {
+            Tuple t = it.next();
+            if (!t.getRecordId().getPageId().equals(lastPage)) {
+                lastPage = t.getRecordId().getPageId();
+                victims.add(t);
+            }
+        }
+        it.close();
+        bp.transactionComplete(scanTid);
+        assertEquals(0, bp.getNumDirtyPages());
+
+        long[] samples = new long[COMMITS];
+        for (int i = 0; i < COMMITS; i++) {
+            TransactionId tid = new TransactionId();
+            bp.deleteTuple(tid, victims.get(i * (victims.size() / COMMITS)));
+            assertEquals(1, bp.getDirtyPages(tid).size());
+
+            long start = System.nanoTime();
+            bp.transactionComplete(tid, true);
+            samples[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(samples);
+        return samples[COMMITS / 2];
+    }
+
+    @Test public void testCommitLatencyIndependentOfConcurrentTransactions() throws Exception {
+        double[] medians = new double[CONCURRENT_TRANSACTIONS.length];
+        for (int i = 0; i < CONCURRENT_TRANSACTIONS.length; i++) {
+            medians[i] = medianLockReleaseNanos(CONCURRENT_TRANSACTIONS[i]);
+            System.out.println("CommitLatencyTest: " + CONCURRENT_TRANSACTIONS[i]
+                    + " concurrent transactions, median lock release " + (medians[i] / 1000) + " us");
+        }
+
+        double min = Arrays.stream(medians).min().getAsDouble();
+        double max = Arrays.stream(medians).max().getAsDouble();
+        assertTrue("lock release grew with concurrency: " + Arrays.toString(medians),
+                max < 5 * min + 50_000);
+    }
+
+    /**
+     * Let the given number of transactions each hold read locks on pages of
+     * their own, then time how long LOCK_COMMITS further transactions take
+     * to release their locks.  The lock manager never reads the pages, so
+     * the page ids need no table behind them.
+     */
+    private double medianLockReleaseNanos(int concurrent) throws Exception {
+        LockManager lm = new LockManager();
+        int tableId = 1;
+        int pgNo = 0;
+        for (int i = 0; i < concurrent; i++) {
+            TransactionId tid = new TransactionId();
+            for (int j = 0; j < LOCKS_PER_TRANSACTION; j++) {
+                lm.acquireLock(new HeapPageId(tableId, pgNo++), tid, PageLock.READ);
+            }
+        }
+
+        long[] samples = new long[LOCK_COMMITS];
+        for (int i = 0; i < LOCK_COMMITS; i++) {
+            TransactionId tid = new TransactionId();
+            for (int j = 0; j < LOCKS_PER_TRANSACTION; j++) {
+                lm.acquireLock(new HeapPageId(tableId, pgNo++), tid, PageLock.WRITE);
+            }
+            long start = System.nanoTime();
+            lm.completeTransaction(tid);
+            samples[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(samples);
+        return samples[LOCK_COMMITS / 2];
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(CommitLatencyTest.class);
+    }
+}
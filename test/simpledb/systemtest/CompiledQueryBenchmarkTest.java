@@ -0,0 +1,47 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.QueryCompiler;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+
+/**
+ * Runs scan, filter and project queries over a table cached in the buffer
+ * pool as the optimizer plans them and compiled, and compares how fast
+ * each mode returns the same rows.  Planning is timed too, so the compiled
+ * times include finding the generated class in the cache.
+ */
+public class CompiledQueryBenchmarkTest extends SimpleDbTestBase {
+    private static final int IO_COST = 101;
+    private static final int ROUNDS = 20;
+
+    private static final String[] QUERIES = {
+            "SELECT emp.c0, emp.c5 FROM emp WHERE emp.c3 < 30000;",
+            "SELECT * FROM emp WHERE emp.c1 > 1000 AND emp.c2 <= 60000;",
+            "SELECT emp.c4 FROM emp WHERE emp.c0 >= 0;",
+    };
+
+    @Test public void testQueries() throws Exception {
+        assumeTrue(QueryCompiler.isAvailable());
+        Database.resetBufferPool(5000);
+        HeapFile emp = SystemTestUtil.createRandomHeapFile(6, 200000, null, new ArrayList<>(), "c");
+        Database.getCatalog().addTable(emp, "emp");
+        TableStats.setTableStats("emp", new TableStats(emp.getId(), IO_COST));
+
+        for (String query : QUERIES) {
+            int classes = QueryCompiler.classesCompiled();
+            PlanTimes times = timePlans(query, ROUNDS, QueryCompiler::compile);
+            // the class generated for the query is reused by every run
+            assertTrue(QueryCompiler.classesCompiled() <= classes + 1);
+            System.out.printf("CompiledQueryBenchmarkTest: %d rows, interpreted %.1f ms, "
+                    + "compiled %.1f ms: %s%n", times.rows, times.planned, times.transformed, query);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Loads the same history table, a sorted key, a small-range status and a
+ * repeated region name, as a heap table and as a compressed table, and
+ * compares their size on disk and how fast a scan reads them from an
+ * empty buffer pool.
+ */
+public class CompressedScanBenchmarkTest extends SimpleDbTestBase {
+    private static final int ROWS = 50000;
+    private static final int ROUNDS = 5;
+
+    @Test public void testColdScan() throws Exception {
+        Database.resetBufferPool(1000);
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE, Type.STRING_TYPE });
+        List<Tuple> input = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(1_000_000 + i));
+            t.setField(1, new IntField(i * 7 % 5));
+            t.setField(2, new StringField("region " + i / 1000 % 8, Type.STRING_LEN));
+            input.add(t);
+        }
+        File plainFile = tempFile("compressedbench");
+        File compressedFile = tempFile("compressedbench");
+        HeapFile plain = BulkLoader.loadHeapFile(input.iterator(), plainFile, td, "plain");
+        CompressedHeapFile compressed = BulkLoader.loadCompressedFile(input.iterator(), compressedFile, td, "compressed");
+
+        assertEquals(ROWS, scan(plain.getId()));
+        assertEquals(ROWS, scan(compressed.getId()));
+        double plainRate = rate(ROUNDS, ROWS, () -> Database.getBufferPool().discardPages(plain.getId()),
+                () -> scan(plain.getId()));
+        double compressedRate = rate(ROUNDS, ROWS, () -> Database.getBufferPool().discardPages(compressed.getId()),
+                () -> scan(compressed.getId()));
+        System.out.printf("CompressedScanBenchmarkTest: %d tuples, heap %d bytes %.0f tuples/s, "
+                + "compressed %d bytes %.0f tuples/s%n",
+                ROWS, plainFile.length(), plainRate, compressedFile.length(), compressedRate);
+        assertTrue(compressedFile.length() * 10 < plainFile.length());
+    }
+
+    private static int scan(int tableId) throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, tableId);
+        int count = 0;
+        scan.open();
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return count;
+    }
+}
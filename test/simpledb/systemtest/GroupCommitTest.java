@@ -0,0 +1,97 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.HeapFile;
+import simpledb.storage.LogFile;
+import simpledb.transaction.Transaction;
+
+/**
+ * Measures commits per second with 1, 8 and 64 client threads.  Every
+ * thread inserts into a table of its own, so the threads never wait for
+ * each other's locks, only for the log.  With group commit, concurrent
+ * committers share log forces, so throughput should not be capped by the
+ * fsync latency of a single committer.
+ */
+public class GroupCommitTest extends SimpleDbTestBase {
+    private static final int[] THREADS = {1, 8, 64};
+    private static final long RUN_MILLIS = 1000;
+
+    @Test public void testCommitThroughput() throws Exception {
+        double[] rates = new double[THREADS.length];
+        double[] forcesPerCommit = new double[THREADS.length];
+        for (int i = 0; i < THREADS.length; i++) {
+            Database.reset();
+            LogFile log = Database.getLogFile();
+            long forcesBefore = log.getNumForces();
+            long commits = runCommits(THREADS[i]);
+            rates[i] = commits * 1000.0 / RUN_MILLIS;
+            forcesPerCommit[i] = (double) (log.getNumForces() - forcesBefore) / commits;
+            System.out.printf("GroupCommitTest: %d threads, %.0f commits/s, %.2f log forces per commit%n",
+                    THREADS[i], rates[i], forcesPerCommit[i]);
+        }
+
+        // a lone committer forces for its update record and for its commit record
+        assertTrue(forcesPerCommit[0] > 1);
+        // many committers share forces
+        assertTrue(forcesPerCommit[THREADS.length - 1] < 1);
+        // and sharing forces must not cost throughput
+        assertTrue(rates[THREADS.length - 1] > 0.8 * rates[0]);
+    }
+
+    /**
+     * Run the given number of threads, each committing transactions that
+     * insert a single tuple, for RUN_MILLIS.
+     *
+     * @return the number of commits
+     */
+    private long runCommits(int threads) throws Exception {
+        HeapFile[] tables = new HeapFile[threads];
+        for (int i = 0; i < threads; i++) {
+            tables[i] = SystemTestUtil.createRandomHeapFile(1, 0, null, null);
+        }
+
+        LongAdder commits = new LongAdder();
+        AtomicReference<Exception> error = new AtomicReference<>();
+        long stop = System.currentTimeMillis() + RUN_MILLIS;
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final int tableId = tables[i].getId();
+            workers[i] = new Thread(() -> {
+                try {
+                    int value = 0;
+                    while (System.currentTimeMillis() < stop) {
+                        Transaction t = new Transaction();
+                        t.start();
+                        Database.getBufferPool().insertTuple(t.getId(), tableId,
+                                Utility.getHeapTuple(value++));
+                        t.commit();
+                        commits.increment();
+                    }
+                } catch (Exception e) {
+                    error.compareAndSet(null, e);
+                }
+            });
+            workers[i].start();
+        }
+        for (Thread w : workers) {
+            w.join();
+        }
+        if (error.get() != null) {
+            throw error.get();
+        }
+        return commits.sum();
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(GroupCommitTest.class);
+    }
+}
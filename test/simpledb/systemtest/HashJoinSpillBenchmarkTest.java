@@ -0,0 +1,84 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Joins two tables cached in the buffer pool with a hash join whose left
+ * side fits in its work memory, and with one that has to partition both
+ * sides to disk, and compares how fast each returns the same rows.
+ */
+public class HashJoinSpillBenchmarkTest extends SimpleDbTestBase {
+    private static final int ROWS = 100000;
+    private static final int ROUNDS = 3;
+
+    @Test public void testSpill() throws Exception {
+        Database.resetBufferPool(5000);
+        HeapFile left = SystemTestUtil.createRandomHeapFile(3, ROWS, ROWS, null, new ArrayList<>());
+        HeapFile right = SystemTestUtil.createRandomHeapFile(3, ROWS, ROWS, null, new ArrayList<>());
+
+        long rows = run(left, right);
+        assertEquals(0, spilledPartitions(left, right));
+        double inMemory = time(left, right);
+        Database.getBufferPool().setWorkMemory(16);
+        assertEquals(rows, run(left, right));
+        assertTrue(spilledPartitions(left, right) > 0);
+        double spilled = time(left, right);
+        System.out.printf("HashJoinSpillBenchmarkTest: %d rows, in memory %.1f ms, "
+                + "partitioned in 16 pages %.1f ms%n", rows, inMemory, spilled);
+    }
+
+    private static HashEquiJoin join(TransactionId tid, HeapFile left, HeapFile right) {
+        return new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, left.getId()), new SeqScan(tid, right.getId()));
+    }
+
+    /** @return the number of partitions the join spills to once it is open */
+    private static int spilledPartitions(HeapFile left, HeapFile right) throws Exception {
+        TransactionId tid = new TransactionId();
+        HashEquiJoin join = join(tid, left, right);
+        join.open();
+        int spilled = join.getSpilledPartitions();
+        join.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return spilled;
+    }
+
+    /** @return the number of rows the join returns */
+    private static long run(HeapFile left, HeapFile right) throws Exception {
+        TransactionId tid = new TransactionId();
+        OpIterator join = join(tid, left, right);
+        long rows = 0;
+        join.open();
+        while (join.hasNext()) {
+            join.next();
+            rows++;
+        }
+        join.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return rows;
+    }
+
+    /** @return the milliseconds a run of the join takes, best of a few */
+    private static double time(HeapFile left, HeapFile right) throws Exception {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            run(left, right);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best / 1e6;
+    }
+}
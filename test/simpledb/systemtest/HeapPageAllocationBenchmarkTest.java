@@ -0,0 +1,141 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+
+import org.junit.Test;
+
+import simpledb.storage.Field;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.RecordId;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+/**
+ * Measures the bytes allocated, and the allocation rate, when pages of a
+ * full table of int tuples are built from their bytes and read:
+ * <ul>
+ * <li>the way HeapPage used to build pages, decoding every tuple through a
+ * DataInputStream and serializing the page again for its before image;
+ * <li>the lazy HeapPage, reading one tuple of each page, as a scan whose
+ * filter rejects all but one row would;
+ * <li>the lazy HeapPage, reading every tuple.
+ * </ul>
+ * Allocation is measured with the per-thread allocation counter of the JVM.
+ */
+public class HeapPageAllocationBenchmarkTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+    private static final int TUPLES_PER_PAGE = 504;
+    private static final int ROUNDS = 2000;
+
+    private interface PageWork {
+        void run(HeapPageId pid, byte[] data) throws Exception;
+    }
+
+    @Test public void testPageAllocation() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, TUPLES_PER_PAGE, null, null);
+        HeapPageId pid = new HeapPageId(table.getId(), 0);
+        byte[] data = table.readPage(pid).getPageData();
+        TupleDesc td = table.getTupleDesc();
+
+        PageWork eager = (id, bytes) -> eagerPage(id, td, bytes);
+        PageWork lazyOne = (id, bytes) -> {
+            Iterator<Tuple> it = new HeapPage(id, bytes).iterator();
+            it.next().getField(0);
+        };
+        PageWork lazyAll = (id, bytes) -> {
+            Iterator<Tuple> it = new HeapPage(id, bytes).iterator();
+            while (it.hasNext()) {
+                it.next().getField(0);
+            }
+        };
+
+        // warm up
+        for (int i = 0; i < ROUNDS; i++) {
+            eager.run(pid, data);
+            lazyOne.run(pid, data);
+            lazyAll.run(pid, data);
+        }
+
+        long[] eagerStats = measure(eager, pid, data);
+        long[] lazyOneStats = measure(lazyOne, pid, data);
+        long[] lazyAllStats = measure(lazyAll, pid, data);
+        System.out.printf("HeapPageAllocationBenchmarkTest: bytes allocated per page (MB/s): "
+                        + "eager decode %d (%.0f), lazy one tuple %d (%.0f), lazy all tuples %d (%.0f)%n",
+                eagerStats[0], rate(eagerStats), lazyOneStats[0], rate(lazyOneStats),
+                lazyAllStats[0], rate(lazyAllStats));
+
+        // reading one tuple must not pay for the other 503
+        assertTrue(lazyOneStats[0] * 10 < eagerStats[0]);
+        // and reading all of them must not cost more than decoding eagerly
+        assertTrue(lazyAllStats[0] <= eagerStats[0]);
+    }
+
+    /** @return bytes allocated per page, and nanoseconds for all rounds */
+    private static long[] measure(PageWork work, HeapPageId pid, byte[] data) throws Exception {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long start = System.nanoTime();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < ROUNDS; i++) {
+            work.run(pid, data);
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+        return new long[] { allocated / ROUNDS, System.nanoTime() - start };
+    }
+
+    private static double rate(long[] stats) {
+        return stats[0] * (double) ROUNDS / (1 << 20) / (stats[1] / 1e9);
+    }
+
+    /**
+     * Build a page's tuples the way HeapPage used to: decode every slot,
+     * then serialize the page again for its before image.
+     */
+    private static Tuple[] eagerPage(HeapPageId pid, TupleDesc td, byte[] data) throws Exception {
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        byte[] header = new byte[(TUPLES_PER_PAGE + 7) / 8];
+        dis.readFully(header);
+        Tuple[] tuples = new Tuple[TUPLES_PER_PAGE];
+        for (int i = 0; i < tuples.length; i++) {
+            if ((header[i / 8] & (1 << i % 8)) == 0) {
+                dis.skipBytes(td.getSize());
+                continue;
+            }
+            Tuple t = new Tuple(td);
+            t.setRecordId(new RecordId(pid, i));
+            for (int j = 0; j < td.numFields(); j++) {
+                t.setField(j, td.getFieldType(j).parse(dis));
+            }
+            tuples[i] = t;
+        }
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(data.length);
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.write(header);
+        for (Tuple t : tuples) {
+            for (int j = 0; j < td.numFields(); j++) {
+                Field f = t.getField(j);
+                f.serialize(dos);
+            }
+        }
+        dos.write(new byte[data.length - baos.size()]);
+        byte[] beforeImage = baos.toByteArray().clone();
+        assertEquals(data.length, beforeImage.length);
+        return tuples;
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(HeapPageAllocationBenchmarkTest.class);
+    }
+}
@@ -14,7 +14,11 @@ import simpledb.transaction.TransactionAbortedException;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import static junit.framework.TestCase.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -450,6 +454,298 @@ public class LogTest extends SimpleDbTestBase {
         t.commit();
     }
 
+    @Test
+    public void TestCompactUpdateRecords()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+
+        // *** Test:
+        // update records hold the changed bytes, not whole page images:
+        // a transaction that inserts two tuples logs two page updates,
+        // which with before and after images would take four pages
+        long start = Database.getLogFile().getCurrentLsn();
+        doInsert(hf1, 1, 2);
+        long logged = Database.getLogFile().getCurrentLsn() - start;
+        System.out.println("LogTest: " + logged + " log bytes for a two-tuple transaction");
+        if (logged * 10 > 4L * BufferPool.getPageSize()) {
+            throw new RuntimeException("LogTest: update records are not compact");
+        }
+
+        crash();
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        t.commit();
+    }
+
+    @Test
+    public void TestTornLogTail()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // T1 commits, but the end of its commit record never reaches the
+        // disk: recovery must ignore the torn record and undo T1
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 3, 0);
+        Database.getBufferPool().flushAllPages(); // XXX defeat NO-STEAL-based abort
+        t1.commit();
+
+        try (RandomAccessFile log = new RandomAccessFile(lastLogSegment(), "rw")) {
+            log.setLength(log.length() - 3);
+        }
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        look(hf1, t, 3, false);
+        t.commit();
+
+        // new records go where the torn one was, and recover normally
+        doInsert(hf1, 4, 5);
+        crash();
+
+        t = new Transaction();
+        t.start();
+        look(hf1, t, 3, false);
+        look(hf1, t, 4, true);
+        look(hf1, t, 5, true);
+        t.commit();
+    }
+
+    /* one step of TestCrashAtEveryPoint */
+    interface Step {
+        void run() throws IOException, DbException, TransactionAbortedException;
+    }
+
+    @Test
+    public void TestCrashAtEveryPoint()
+            throws IOException, DbException, TransactionAbortedException {
+        // *** Test:
+        // T1 inserts, checkpoint, T1 inserts again and commits last;
+        // T2 commits, T3 aborts, T4 commits after the checkpoint.
+        // Crash after every step, and also during the recovery from
+        // that crash, after every record recovery writes: each time
+        // only the committed data should be there
+        Transaction[] t = new Transaction[5];
+        Step[] steps = {
+                () -> {
+                    t[1] = new Transaction();
+                    t[1].start();
+                    insertRow(hf1, t[1], 10, 0);
+                    Database.getBufferPool().flushAllPages(); // XXX defeat NO-STEAL-based abort
+                },
+                () -> {
+                    t[2] = new Transaction();
+                    t[2].start();
+                    insertRow(hf2, t[2], 20, 0);
+                    Database.getBufferPool().flushAllPages();
+                },
+                () -> t[2].commit(),
+                () -> {
+                    t[3] = new Transaction();
+                    t[3].start();
+                    insertRow(hf2, t[3], 30, 0);
+                    Database.getBufferPool().flushAllPages();
+                },
+                () -> abort(t[3]),
+                () -> Database.getLogFile().logCheckpoint(),
+                () -> {
+                    insertRow(hf1, t[1], 11, 0);
+                    Database.getBufferPool().flushAllPages();
+                },
+                () -> {
+                    t[4] = new Transaction();
+                    t[4].start();
+                    insertRow(hf2, t[4], 40, 0);
+                    Database.getBufferPool().flushAllPages();
+                    t[4].commit();
+                },
+                () -> t[1].commit(),
+        };
+
+        for (int crashPoint = 0; crashPoint <= steps.length; crashPoint++) {
+            setup();
+            doInsert(hf1, 1, 2);
+            for (int i = 0; i < crashPoint; i++) {
+                steps[i].run();
+            }
+            Database.getLogFile().force();
+
+            File log = lastLogSegment();
+            long crashLength = log.length();
+            crash();
+            checkCrashPoint(crashPoint);
+
+            // crash during recovery: keep the pages recovery wrote, but
+            // only a prefix of the records it logged
+            byte[] logData = Files.readAllBytes(log.toPath());
+            byte[] data1 = Files.readAllBytes(file1.toPath());
+            byte[] data2 = Files.readAllBytes(file2.toPath());
+            for (long cut : recordStarts(log, crashLength)) {
+                Files.write(log.toPath(), Arrays.copyOf(logData, (int) cut));
+                Files.write(file1.toPath(), data1);
+                Files.write(file2.toPath(), data2);
+                crash();
+                checkCrashPoint(crashPoint);
+            }
+        }
+    }
+
+    // the data of TestCrashAtEveryPoint after recovering from a crash
+    // following the given number of steps
+    void checkCrashPoint(int steps)
+            throws DbException, TransactionAbortedException, IOException {
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        look(hf1, t, 10, steps >= 9);
+        look(hf1, t, 11, steps >= 9);
+        look(hf2, t, 20, steps >= 3);
+        look(hf2, t, 30, false);
+        look(hf2, t, 40, steps >= 8);
+        t.commit();
+    }
+
+    // the segment file the log appends to; the logs of these tests fit in
+    // the first segment, so offsets in it are log offsets
+    static File lastLogSegment() {
+        File last = new File("log.0");
+        File[] files = new File(".").listFiles((dir, name) -> name.matches("log\\.[0-9]+"));
+        for (File f : files) {
+            if (Long.parseLong(f.getName().substring(4)) > Long.parseLong(last.getName().substring(4))) {
+                last = f;
+            }
+        }
+        return last;
+    }
+
+    @Test
+    public void TestFuzzyCheckpoint()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // a checkpoint does not flush the pages of running transactions
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 3, 0);
+        HeapPageId pid = new HeapPageId(hf1.getId(), 0);
+        int emptySlots = ((HeapPage) hf1.readPage(pid)).getNumEmptySlots();
+        Database.getLogFile().logCheckpoint();
+        assertEquals(emptySlots, ((HeapPage) hf1.readPage(pid)).getNumEmptySlots());
+
+        // *** Test:
+        // T1's update record is logged before the checkpoint, but the page
+        // is not written; T1 commits after the checkpoint and we crash.
+        // Redo must start from the dirty page table of the checkpoint
+        Page p = Database.getBufferPool().getPage(t1.getId(), pid, Permissions.READ_WRITE);
+        Database.getLogFile().logWrite(t1.getId(), p.getBeforeImage(), p);
+        Database.getLogFile().logCheckpoint();
+        Database.getLogFile().logCommit(t1.getId());
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        look(hf1, t, 3, true);
+        t.commit();
+    }
+
+    @Test
+    public void TestSegmentsTruncated()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+
+        // *** Test:
+        // with small segments, checkpoints delete the old ones, and what
+        // is left is enough to recover
+        Database.getLogFile().setSegmentBytes(1024);
+        int maxSegments = 0;
+        for (int i = 0; i < 200; i++) {
+            doInsert(hf1, 100 + i, -1);
+            if (i % 10 == 9) {
+                Database.getLogFile().logCheckpoint();
+            }
+            maxSegments = Math.max(maxSegments, Database.getLogFile().getNumSegments());
+        }
+        if (maxSegments > 6) {
+            throw new RuntimeException("LogTest: log segments not deleted; " + maxSegments + " segments");
+        }
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 3, 0);
+        Database.getBufferPool().flushAllPages(); // XXX defeat NO-STEAL-based abort
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < 200; i++) {
+            look(hf1, t, 100 + i, true);
+        }
+        look(hf1, t, 3, false);
+        t.commit();
+    }
+
+    @Test
+    public void TestBulkLoadCrash()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // a bulk load replaces the table; the committed updates of the old
+        // table must not be redone, nor the loser's undone, on the new pages
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 3, 0);
+        Database.getBufferPool().flushAllPages(); // XXX defeat NO-STEAL-based abort
+
+        List<Tuple> rows = new ArrayList<>();
+        for (int i = 0; i < 600; i++) {
+            rows.add(Utility.getHeapTuple(new int[] { 10 + i, 0 }));
+        }
+        BulkLoader.loadHeapFile(rows.iterator(), file1, Utility.getTupleDesc(2), "loaded");
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, false);
+        look(hf1, t, 2, false);
+        look(hf1, t, 3, false);
+        for (int i = 0; i < 600; i++) {
+            look(hf1, t, 10 + i, true);
+        }
+        t.commit();
+    }
+
+    // the offsets where the records past the given offset start; every
+    // record ends with its start offset and a CRC
+    static List<Long> recordStarts(File log, long from) throws IOException {
+        List<Long> starts = new ArrayList<>();
+        try (RandomAccessFile raf = new RandomAccessFile(log, "r")) {
+            long end = raf.length();
+            while (end > from) {
+                raf.seek(end - 12);
+                end = raf.readLong();
+                starts.add(end);
+            }
+        }
+        return starts;
+    }
+
     /**
      * Make test compatible with older version of ant.
      */
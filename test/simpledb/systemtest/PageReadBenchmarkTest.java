@@ -0,0 +1,105 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.storage.BufferPool;
+import simpledb.storage.PageChannel;
+
+/**
+ * Measures random page reads per second from a file of a few thousand
+ * pages, the way HeapFile and BTreeFile used to read pages (a new
+ * RandomAccessFile, or a new buffered stream skipped to the page, per read)
+ * and through a PageChannel, which keeps the file open and reads with
+ * positional I/O.
+ */
+public class PageReadBenchmarkTest extends SimpleDbTestBase {
+    private static final int PAGES = 2048;
+    private static final long RUN_MILLIS = 300;
+
+    private interface PageReader {
+        void read(int pageNo, byte[] data) throws IOException;
+    }
+
+    @Test public void testRandomPageReads() throws Exception {
+        int pageSize = BufferPool.getPageSize();
+        File file = File.createTempFile("pageread", ".dat");
+        file.deleteOnExit();
+        Random random = new Random(42);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            byte[] page = new byte[pageSize];
+            for (int i = 0; i < PAGES; i++) {
+                random.nextBytes(page);
+                out.write(page);
+            }
+        }
+
+        PageReader randomAccessFile = (pageNo, data) -> {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                raf.seek((long) pageNo * pageSize);
+                raf.read(data);
+            }
+        };
+        PageReader skippingStream = (pageNo, data) -> {
+            try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(file))) {
+                bis.skip((long) pageNo * pageSize);
+                bis.read(data, 0, pageSize);
+            }
+        };
+        PageChannel channel = new PageChannel(file);
+        PageReader pageChannel = (pageNo, data) -> channel.read((long) pageNo * pageSize, data);
+
+        // warm up, and check that all readers read the same bytes
+        byte[] expected = new byte[pageSize];
+        byte[] actual = new byte[pageSize];
+        for (int i = 0; i < 1000; i++) {
+            int pageNo = random.nextInt(PAGES);
+            randomAccessFile.read(pageNo, expected);
+            skippingStream.read(pageNo, actual);
+            assertArrayEquals(expected, actual);
+            pageChannel.read(pageNo, actual);
+            assertArrayEquals(expected, actual);
+        }
+
+        double rafRate = readsPerSecond(randomAccessFile, pageSize);
+        double streamRate = readsPerSecond(skippingStream, pageSize);
+        double channelRate = readsPerSecond(pageChannel, pageSize);
+        System.out.printf("PageReadBenchmarkTest: RandomAccessFile per read %.0f pages/s, "
+                        + "skipping stream per read %.0f pages/s, PageChannel %.0f pages/s%n",
+                rafRate, streamRate, channelRate);
+        channel.close();
+
+        assertTrue(channelRate > rafRate);
+        assertTrue(channelRate > streamRate);
+    }
+
+    private static double readsPerSecond(PageReader reader, int pageSize) throws IOException {
+        Random random = new Random(7);
+        byte[] data = new byte[pageSize];
+        long reads = 0;
+        long start = System.nanoTime();
+        long stop = start + RUN_MILLIS * 1_000_000;
+        long now;
+        do {
+            for (int i = 0; i < 100; i++) {
+                reader.read(random.nextInt(PAGES), data);
+            }
+            reads += 100;
+        } while ((now = System.nanoTime()) < stop);
+        return reads * 1e9 / (now - start);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(PageReadBenchmarkTest.class);
+    }
+}
@@ -0,0 +1,187 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.index.BTreeLeafPage;
+import simpledb.index.BTreePage;
+import simpledb.index.BTreePageId;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.SlotBitmap;
+import simpledb.storage.Tuple;
+
+/**
+ * Measures the slot-management hot paths of pages: filling an empty
+ * HeapPage and BTreeLeafPage with tuples, scanning them and deleting them
+ * again, in tuples per second.  It also compares finding the first empty
+ * slot of a nearly full header bit by bit, the way the pages used to, with
+ * the word-level search of SlotBitmap.
+ */
+public class PageSlotBenchmarkTest extends SimpleDbTestBase {
+    private static final long RUN_MILLIS = 300;
+    private static final int TABLE_ID = -2;
+
+    private interface PageRound {
+        /** @return the number of tuples handled */
+        int run() throws Exception;
+    }
+
+    @Test public void testPageOperations() throws Exception {
+        Database.getCatalog().addTable(new SkeletonFile(TABLE_ID, Utility.getTupleDesc(2)),
+                SystemTestUtil.getUUID());
+        HeapPageId heapPid = new HeapPageId(TABLE_ID, 0);
+        BTreePageId leafPid = new BTreePageId(TABLE_ID, 1, BTreePageId.LEAF);
+        int heapSlots = new HeapPage(heapPid, HeapPage.createEmptyPageData()).getNumEmptySlots();
+        int leafSlots = new BTreeLeafPage(leafPid, BTreePage.createEmptyPageData(), 0).getMaxTuples();
+        List<Tuple> heapTuples = tuples(heapSlots);
+        List<Tuple> leafTuples = tuples(leafSlots);
+
+        HeapPage[] heapPage = new HeapPage[1];
+        BTreeLeafPage[] leafPage = new BTreeLeafPage[1];
+        PageRound heapInsert = () -> {
+            heapPage[0] = new HeapPage(heapPid, HeapPage.createEmptyPageData());
+            for (Tuple t : heapTuples) {
+                heapPage[0].insertTuple(t);
+            }
+            return heapTuples.size();
+        };
+        PageRound heapScan = () -> scan(heapPage[0].iterator());
+        PageRound heapDelete = () -> {
+            for (Tuple t : heapTuples) {
+                heapPage[0].deleteTuple(t);
+            }
+            return heapTuples.size();
+        };
+        PageRound leafInsert = () -> {
+            leafPage[0] = new BTreeLeafPage(leafPid, BTreePage.createEmptyPageData(), 0);
+            for (Tuple t : leafTuples) {
+                leafPage[0].insertTuple(t);
+            }
+            return leafTuples.size();
+        };
+        PageRound leafScan = () -> scan(leafPage[0].iterator());
+        PageRound leafDelete = () -> {
+            List<Tuple> onPage = new ArrayList<>(leafTuples.size());
+            leafPage[0].iterator().forEachRemaining(onPage::add);
+            for (Tuple t : onPage) {
+                leafPage[0].deleteTuple(t);
+            }
+            return onPage.size();
+        };
+
+        double[] heap = measure(heapInsert, heapScan, heapDelete);
+        double[] leaf = measure(leafInsert, leafScan, leafDelete);
+        System.out.printf("PageSlotBenchmarkTest: HeapPage insert %.0f, scan %.0f, delete %.0f tuples/s; "
+                        + "BTreeLeafPage insert %.0f, scan %.0f, delete %.0f tuples/s%n",
+                heap[0], heap[1], heap[2], leaf[0], leaf[1], leaf[2]);
+        // a round handles every tuple on the page
+        heapInsert.run();
+        assertEquals(heapSlots, heapScan.run());
+        heapDelete.run();
+        assertEquals(0, heapScan.run());
+        leafInsert.run();
+        assertEquals(leafSlots, leafScan.run());
+        assertEquals(leafSlots, leafDelete.run());
+        assertEquals(0, leafScan.run());
+
+        // first empty slot of a header whose only empty slot is the last one
+        byte[] header = new byte[(heapSlots + 7) / 8];
+        SlotBitmap slots = new SlotBitmap(heapSlots, header.length);
+        for (int i = 0; i < heapSlots - 1; i++) {
+            header[i / 8] |= (byte) (1 << i % 8);
+            slots.set(i, true);
+        }
+        PageRound bitByBit = () -> {
+            for (int i = 0; i < heapSlots; i++) {
+                // the pages allocated the header position of each slot
+                int[] at = new int[] { i / 8, i % 8, 1 << i % 8 };
+                if ((header[at[0]] & at[2]) == 0) {
+                    return i == heapSlots - 1 ? 1 : 0;
+                }
+            }
+            return 0;
+        };
+        PageRound wordLevel = () -> slots.nextEmpty(0) == heapSlots - 1 ? 1 : 0;
+        double bitRate = rate(bitByBit);
+        double wordRate = rate(wordLevel);
+        System.out.printf("PageSlotBenchmarkTest: first empty slot, bit by bit %.0f/s, SlotBitmap %.0f/s%n",
+                bitRate, wordRate);
+        assertTrue(wordRate > bitRate);
+    }
+
+    private static List<Tuple> tuples(int n) {
+        Random random = new Random(3);
+        List<Tuple> tuples = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            tuples.add(Utility.getHeapTuple(new int[] { random.nextInt(), i }));
+        }
+        return tuples;
+    }
+
+    private static int scan(Iterator<Tuple> it) {
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Run insert, scan and delete rounds on a page for a while.
+     *
+     * @return tuples per second for each
+     */
+    private static double[] measure(PageRound insert, PageRound scan, PageRound delete) throws Exception {
+        long[] tuples = new long[3];
+        long[] nanos = new long[3];
+        PageRound[] rounds = new PageRound[] { insert, scan, delete };
+        long stop = System.nanoTime() + RUN_MILLIS * 1_000_000;
+        while (System.nanoTime() < stop) {
+            for (int r = 0; r < rounds.length; r++) {
+                long start = System.nanoTime();
+                tuples[r] += rounds[r].run();
+                nanos[r] += System.nanoTime() - start;
+            }
+        }
+        double[] rates = new double[3];
+        for (int r = 0; r < rates.length; r++) {
+            rates[r] = tuples[r] * 1e9 / nanos[r];
+        }
+        return rates;
+    }
+
+    /** @return found slots per second */
+    private static double rate(PageRound round) throws Exception {
+        // warm up
+        for (int i = 0; i < 10000; i++) {
+            round.run();
+        }
+        long found = 0;
+        long start = System.nanoTime();
+        long stop = start + RUN_MILLIS * 1_000_000;
+        long now;
+        do {
+            for (int i = 0; i < 100; i++) {
+                found += round.run();
+            }
+        } while ((now = System.nanoTime()) < stop);
+        assertTrue(found > 0);
+        return found * 1e9 / (now - start);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(PageSlotBenchmarkTest.class);
+    }
+}
@@ -0,0 +1,83 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Measures SUM of one column of a wide table, cached in the buffer pool:
+ * a row table scanned whole, the same table scanned with only the summed
+ * column decoded, and a PAX table scanned with only that column decoded.
+ */
+public class PaxScanBenchmarkTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 16;
+    private static final int ROWS = 20000;
+    private static final int ROUNDS = 10;
+
+    private interface Scan {
+        int run(TransactionId tid) throws Exception;
+    }
+
+    @Test public void testColumnSum() throws Exception {
+        Database.resetBufferPool(1000);
+        List<Tuple> input = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            int[] values = new int[COLUMNS];
+            for (int j = 0; j < COLUMNS; j++) {
+                values[j] = i + j;
+            }
+            input.add(Utility.getHeapTuple(values));
+        }
+        HeapFile rows = BulkLoader.loadHeapFile(input.iterator(), tempFile("paxbench"), Utility.getTupleDesc(COLUMNS), "rows");
+        PaxFile cols = BulkLoader.loadPaxFile(input.iterator(), tempFile("paxbench"), Utility.getTupleDesc(COLUMNS), "cols");
+
+        Scan wholeRows = tid -> {
+            SeqScan scan = new SeqScan(tid, rows.getId());
+            int sum = 0;
+            scan.open();
+            while (scan.hasNext()) {
+                sum += ((IntField) scan.next().getField(3)).getValue();
+            }
+            scan.close();
+            return sum;
+        };
+        Scan projectedRows = tid -> sum(tid, rows.getId());
+        Scan projectedCols = tid -> sum(tid, cols.getId());
+
+        int expected = wholeRows.run(new TransactionId());
+        assertEquals(expected, projectedRows.run(new TransactionId()));
+        assertEquals(expected, projectedCols.run(new TransactionId()));
+        double whole = rate(ROUNDS, ROWS, () -> inTransaction(wholeRows));
+        double rowRate = rate(ROUNDS, ROWS, () -> inTransaction(projectedRows));
+        double colRate = rate(ROUNDS, ROWS, () -> inTransaction(projectedCols));
+        System.out.printf("PaxScanBenchmarkTest: SUM of 1 of %d columns, row table %.0f tuples/s, "
+                + "row table projected %.0f tuples/s, PAX table projected %.0f tuples/s%n",
+                COLUMNS, whole, rowRate, colRate);
+    }
+
+    private static int sum(TransactionId tid, int tableId) throws Exception {
+        Aggregate sum = new Aggregate(new SeqScan(tid, tableId), 3, Aggregator.NO_GROUPING, Aggregator.Op.SUM);
+        sum.open();
+        int result = ((IntField) sum.next().getField(0)).getValue();
+        sum.close();
+        return result;
+    }
+
+    /* runs the scan in a transaction of its own */
+    private static void inTransaction(Scan scan) throws Exception {
+        TransactionId tid = new TransactionId();
+        scan.run(tid);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+}
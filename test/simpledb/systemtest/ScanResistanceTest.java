@@ -0,0 +1,80 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Builds up a hot working set in a small buffer pool while scanning another
+ * table, then runs one large SeqScan over that table.  Scan-resistant
+ * replacement policies must keep the hot set cached; plain LRU loses it.
+ */
+public class ScanResistanceTest extends SimpleDbTestBase {
+    private static final int POOL_PAGES = 64;
+    private static final int HOT_PAGES = 16;
+    private static final int SCAN_PAGES = 8 * POOL_PAGES;
+
+    /**
+     * @return the number of hot pages still cached after the scan
+     */
+    private int hotPagesAfterScan(ReplacementPolicy.Factory policy) throws Exception {
+        BufferPool bp = Database.resetBufferPool(new BufferPool(POOL_PAGES, 1, policy));
+        HeapFile hot = SystemTestUtil.createRandomHeapFile(2, 504 * HOT_PAGES, null, null);
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 504 * SCAN_PAGES, null, null);
+        TransactionId tid = new TransactionId();
+
+        // use the hot set over and over while other pages stream by
+        for (int i = 0; i < 2 * POOL_PAGES; i++) {
+            bp.getPage(tid, new HeapPageId(big.getId(), i), Permissions.READ_ONLY);
+            if (i % 8 == 0) {
+                for (int j = 0; j < HOT_PAGES; j++) {
+                    bp.getPage(tid, new HeapPageId(hot.getId(), j), Permissions.READ_ONLY);
+                }
+            }
+        }
+
+        SeqScan scan = new SeqScan(tid, big.getId(), "");
+        scan.open();
+        while (scan.hasNext()) {
+            scan.next();
+        }
+        scan.close();
+
+        int cached = 0;
+        for (int j = 0; j < HOT_PAGES; j++) {
+            if (bp.containsPage(new HeapPageId(hot.getId(), j))) {
+                cached++;
+            }
+        }
+        bp.transactionComplete(tid);
+        return cached;
+    }
+
+    @Test public void lruLosesHotSet() throws Exception {
+        assertEquals(0, hotPagesAfterScan(ReplacementPolicy.LRU));
+    }
+
+    @Test public void lru2KeepsHotSet() throws Exception {
+        assertEquals(HOT_PAGES, hotPagesAfterScan(ReplacementPolicy.LRU_2));
+    }
+
+    @Test public void twoQKeepsHotSet() throws Exception {
+        assertEquals(HOT_PAGES, hotPagesAfterScan(ReplacementPolicy.TWO_Q));
+    }
+
+    @Test public void clockScans() throws Exception {
+        // CLOCK only approximates LRU; it just has to survive the scan
+        assertTrue(hotPagesAfterScan(ReplacementPolicy.CLOCK) <= HOT_PAGES);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ScanResistanceTest.class);
+    }
+}
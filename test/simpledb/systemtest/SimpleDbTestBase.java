@@ -1,8 +1,18 @@
 package simpledb.systemtest;
 
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
 import org.junit.Before;
 
+import simpledb.Parser;
 import simpledb.common.Database;
+import simpledb.execution.OpIterator;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.FreeSpaceMap;
+import simpledb.transaction.TransactionId;
 
 /**
  * Base class for all SimpleDb test classes. 
@@ -16,5 +26,108 @@ public class SimpleDbTestBase {
 	@Before	public void setUp() throws Exception {					
 		Database.reset();
 	}
-	
+
+	/**
+	 * @return a new temporary table file, deleted with its free-space map
+	 *         when the JVM exits
+	 */
+	public static File tempFile(String prefix) throws IOException {
+		return tempFile(prefix, ".dat");
+	}
+
+	public static File tempFile(String prefix, String suffix) throws IOException {
+		File f = File.createTempFile(prefix, suffix);
+		f.deleteOnExit();
+		FreeSpaceMap.fileFor(f).deleteOnExit();
+		return f;
+	}
+
+	/** Work a benchmark times. */
+	public interface Work {
+		void run() throws Exception;
+	}
+
+	/**
+	 * Time some rounds of work.
+	 *
+	 * @param rounds how many times to do the work
+	 * @param items how many items, e.g. tuples, one round processes
+	 * @param before run before each round, and not timed
+	 * @param work the work to time
+	 * @return items per second over all rounds
+	 */
+	public static double rate(int rounds, long items, Work before, Work work) throws Exception {
+		long elapsed = 0;
+		for (int i = 0; i < rounds; i++) {
+			before.run();
+			long start = System.nanoTime();
+			work.run();
+			elapsed += System.nanoTime() - start;
+		}
+		return (double) rounds * items / (elapsed / 1e9);
+	}
+
+	public static double rate(int rounds, long items, Work work) throws Exception {
+		return rate(rounds, items, () -> { }, work);
+	}
+
+	/** A change a benchmark makes to the plan the optimizer makes for a query. */
+	public interface PlanTransform {
+		OpIterator apply(OpIterator plan) throws Exception;
+	}
+
+	/** The rows a query returns, and the milliseconds a run of each of its plans takes. */
+	public static class PlanTimes {
+		public final long rows;
+		public final double planned;
+		public final double transformed;
+
+		PlanTimes(long rows, double planned, double transformed) {
+			this.rows = rows;
+			this.planned = planned;
+			this.transformed = transformed;
+		}
+	}
+
+	/**
+	 * Run a query as the optimizer plans it, with the statistics of
+	 * TableStats, and as the transform changes that plan; check that both
+	 * plans return as many rows, and time both.  Planning is timed with
+	 * each run.
+	 *
+	 * @param rounds how many runs of each plan to take the best time of
+	 */
+	public static PlanTimes timePlans(String query, int rounds, PlanTransform transform) throws Exception {
+		long rows = countRows(query, plan -> plan);
+		assertEquals(rows, countRows(query, transform));
+		return new PlanTimes(rows, bestTime(query, rounds, plan -> plan), bestTime(query, rounds, transform));
+	}
+
+	/* the number of rows the transformed plan of the query returns */
+	private static long countRows(String query, PlanTransform transform) throws Exception {
+		TransactionId tid = new TransactionId();
+		OpIterator plan = transform.apply(new Parser().generateLogicalPlan(tid, query)
+				.physicalPlan(tid, TableStats.getStatsMap(), false));
+		long rows = 0;
+		plan.open();
+		while (plan.hasNext()) {
+			plan.next();
+			rows++;
+		}
+		plan.close();
+		Database.getBufferPool().transactionComplete(tid);
+		return rows;
+	}
+
+	/* the milliseconds the fastest of some runs of the transformed plan takes */
+	private static double bestTime(String query, int rounds, PlanTransform transform) throws Exception {
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < rounds; i++) {
+			long start = System.nanoTime();
+			countRows(query, transform);
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		return best / 1e6;
+	}
+
 }
@@ -0,0 +1,75 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.OrderBy;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleIterator;
+
+/**
+ * Sorts the same tuples in work memory they fit in, in work memory of a
+ * few pages so that runs are spilled and merged, and for the first few
+ * tuples only, and compares how long each takes.
+ */
+public class SortBenchmarkTest extends SimpleDbTestBase {
+    private static final int TUPLES = 200000;
+    private static final int LIMIT = 100;
+    private static final int ROUNDS = 5;
+
+    @Test public void testSorts() throws Exception {
+        Random random = new Random(7);
+        List<Tuple> tuples = new ArrayList<>(TUPLES);
+        for (int i = 0; i < TUPLES; i++) {
+            tuples.add(Utility.getHeapTuple(new int[] { random.nextInt(), random.nextInt(100), i }));
+        }
+
+        Database.getBufferPool().setWorkMemory(2000);
+        List<Tuple> sorted = new ArrayList<>();
+        double inMemory = time(tuples, -1, sorted);
+        List<Tuple> top = new ArrayList<>();
+        double topN = time(tuples, LIMIT, top);
+        Database.getBufferPool().setWorkMemory(16);
+        List<Tuple> spilled = new ArrayList<>();
+        double external = time(tuples, -1, spilled);
+
+        System.out.printf("SortBenchmarkTest: %d tuples, in memory %.1f ms, spilled %.1f ms, "
+                + "first %d %.1f ms%n", TUPLES, inMemory, external, LIMIT, topN);
+        assertEquals(TUPLES, sorted.size());
+        assertEquals(TUPLES, spilled.size());
+        assertEquals(LIMIT, top.size());
+        for (int i = 0; i < TUPLES; i++) {
+            assertEquals(sorted.get(i).getField(2), spilled.get(i).getField(2));
+        }
+        for (int i = 0; i < LIMIT; i++) {
+            assertEquals(sorted.get(i).getField(2), top.get(i).getField(2));
+        }
+        // keeping LIMIT tuples does a fraction of the work of sorting them all
+        assertTrue(topN < inMemory);
+    }
+
+    /** @return the milliseconds a sort takes, best of a few; the tuples of the last go to out */
+    private static double time(List<Tuple> tuples, int limit, List<Tuple> out) throws Exception {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            out.clear();
+            long start = System.nanoTime();
+            OrderBy orderBy = new OrderBy(new int[] { 1, 0 }, new boolean[] { true, false }, limit,
+                    new TupleIterator(Utility.getTupleDesc(3), tuples));
+            orderBy.open();
+            while (orderBy.hasNext()) {
+                out.add(orderBy.next());
+            }
+            orderBy.close();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best / 1e6;
+    }
+}
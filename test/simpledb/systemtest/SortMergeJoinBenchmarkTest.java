@@ -0,0 +1,107 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.common.Utility;
+import simpledb.execution.Join;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SortMergeJoin;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleIterator;
+
+/**
+ * Joins tables of timestamps on an inequality by nested loops and by a
+ * sort-merge join, and on a band around each timestamp by a sort-merge
+ * join, and compares how long each takes.
+ */
+public class SortMergeJoinBenchmarkTest extends SimpleDbTestBase {
+    private static final int RANGE_TUPLES = 3000;
+    private static final int BAND_TUPLES = 100000;
+    private static final int BAND = 5;
+
+    /* tuples of a timestamp, in seconds over a day, and the tuple's number */
+    private static List<Tuple> events(int n, long seed) {
+        Random random = new Random(seed);
+        List<Tuple> tuples = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            tuples.add(Utility.getHeapTuple(new int[] { random.nextInt(86400), i }));
+        }
+        return tuples;
+    }
+
+    @Test public void testJoins() throws Exception {
+        List<Tuple> left = events(RANGE_TUPLES, 1);
+        List<Tuple> right = events(RANGE_TUPLES, 2);
+        JoinPredicate before = new JoinPredicate(0, Predicate.Op.LESS_THAN, 0);
+        long start = System.nanoTime();
+        long loops = count(new Join(before, scan(left), scan(right)));
+        double loopsTime = (System.nanoTime() - start) / 1e6;
+        start = System.nanoTime();
+        long merged = count(new SortMergeJoin(before, scan(left), scan(right)));
+        double mergeTime = (System.nanoTime() - start) / 1e6;
+        assertEquals(loops, merged);
+
+        left = events(BAND_TUPLES, 3);
+        right = events(BAND_TUPLES, 4);
+        start = System.nanoTime();
+        long band = count(new SortMergeJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0), BAND,
+                scan(left), scan(right)));
+        double bandTime = (System.nanoTime() - start) / 1e6;
+        assertEquals(bandPairs(left, right), band);
+
+        System.out.printf("SortMergeJoinBenchmarkTest: %d x %d < join, %d rows: nested loops %.1f ms, "
+                + "merge %.1f ms; %d x %d band join, %d rows: merge %.1f ms%n", RANGE_TUPLES, RANGE_TUPLES,
+                merged, loopsTime, mergeTime, BAND_TUPLES, BAND_TUPLES, band, bandTime);
+    }
+
+    private static OpIterator scan(List<Tuple> tuples) {
+        return new TupleIterator(Utility.getTupleDesc(2), tuples);
+    }
+
+    private static long count(OpIterator join) throws Exception {
+        long rows = 0;
+        join.open();
+        while (join.hasNext()) {
+            join.next();
+            rows++;
+        }
+        join.close();
+        return rows;
+    }
+
+    /* the number of pairs of timestamps at most BAND apart, counted over sorted arrays */
+    private static long bandPairs(List<Tuple> left, List<Tuple> right) {
+        int[] r = right.stream().mapToInt(t -> ((IntField) t.getField(0)).getValue()).toArray();
+        Arrays.sort(r);
+        long pairs = 0;
+        for (Tuple t : left) {
+            int k = ((IntField) t.getField(0)).getValue();
+            pairs += upperBound(r, k + BAND) - upperBound(r, k - BAND - 1);
+        }
+        return pairs;
+    }
+
+    /* the number of values in the sorted array that are at most v */
+    private static int upperBound(int[] a, int v) {
+        int lo = 0, hi = a.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (a[mid] <= v) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
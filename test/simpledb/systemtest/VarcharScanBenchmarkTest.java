@@ -0,0 +1,75 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Stores short names as padded STRINGs in a heap table and as VARCHARs in
+ * a slotted table, and compares the pages they take and how fast a cold
+ * scan reads them.
+ */
+public class VarcharScanBenchmarkTest extends SimpleDbTestBase {
+    private static final int ROWS = 20000;
+    private static final int ROUNDS = 5;
+
+    @Test public void testShortStrings() throws Exception {
+        Database.resetBufferPool(1000);
+        TupleDesc fixedTd = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        TupleDesc varTd = new TupleDesc(new Type[] { Type.INT_TYPE, Type.VARCHAR_TYPE });
+        List<Tuple> input = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            Tuple t = new Tuple(fixedTd);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField("customer " + i, Type.STRING_LEN));
+            input.add(t);
+        }
+        HeapFile fixed = BulkLoader.loadHeapFile(input.iterator(), tempFile("varcharbench"), fixedTd, "fixed");
+
+        SlottedHeapFile var = new SlottedHeapFile(tempFile("varcharbench"), varTd);
+        Database.getCatalog().addTable(var, "var");
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < ROWS; i++) {
+            Tuple t = new Tuple(varTd);
+            t.setField(0, new IntField(i));
+            t.setField(1, new VarcharField("customer " + i));
+            Database.getBufferPool().insertTuple(tid, var.getId(), t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        assertEquals(ROWS, scan(fixed.getId()));
+        assertEquals(ROWS, scan(var.getId()));
+        double fixedRate = rate(ROUNDS, ROWS, () -> Database.getBufferPool().discardPages(fixed.getId()),
+                () -> scan(fixed.getId()));
+        double varRate = rate(ROUNDS, ROWS, () -> Database.getBufferPool().discardPages(var.getId()),
+                () -> scan(var.getId()));
+        System.out.printf("VarcharScanBenchmarkTest: %d short names, STRING %d pages %.0f tuples/s, "
+                + "VARCHAR %d pages %.0f tuples/s%n",
+                ROWS, fixed.numPages(), fixedRate, var.numPages(), varRate);
+        assertTrue(var.numPages() * 4 < fixed.numPages());
+    }
+
+    private static int scan(int tableId) throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, tableId);
+        int count = 0;
+        scan.open();
+        while (scan.hasNext()) {
+            if (scan.next().getField(1) != null) {
+                count++;
+            }
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return count;
+    }
+}
@@ -0,0 +1,49 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.Vectorizer;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+
+/**
+ * Runs queries over the tables of {@link QueryTest}, cached in the buffer
+ * pool, as the optimizer plans them and vectorized, and compares how fast
+ * each mode returns the same rows.
+ */
+public class VectorizedQueryBenchmarkTest extends SimpleDbTestBase {
+    private static final int IO_COST = 101;
+    private static final int ROUNDS = 5;
+
+    private static final String[] QUERIES = {
+            // the join of QueryTest
+            "SELECT * FROM emp,dept,hobbies,hobby WHERE emp.c1 = dept.c0 AND hobbies.c0 = emp.c2 "
+                    + "AND hobbies.c1 = hobby.c0 AND emp.c3 < 1000;",
+            "SELECT emp.c1, COUNT(emp.c0) FROM emp WHERE emp.c3 < 30000 GROUP BY emp.c1;",
+            "SELECT emp.c1, SUM(hobbies.c1) FROM hobbies, emp WHERE hobbies.c0 = emp.c2 GROUP BY emp.c1;",
+    };
+
+    @Test public void testQueries() throws Exception {
+        Database.resetBufferPool(5000);
+        addTable("emp", SystemTestUtil.createRandomHeapFile(6, 100000, null, new ArrayList<>(), "c"));
+        addTable("dept", SystemTestUtil.createRandomHeapFile(3, 1000, null, new ArrayList<>(), "c"));
+        addTable("hobby", SystemTestUtil.createRandomHeapFile(6, 1000, null, new ArrayList<>(), "c"));
+        addTable("hobbies", SystemTestUtil.createRandomHeapFile(2, 200000, null, new ArrayList<>(), "c"));
+
+        for (String query : QUERIES) {
+            PlanTimes times = timePlans(query, ROUNDS, Vectorizer::vectorize);
+            System.out.printf("VectorizedQueryBenchmarkTest: %d rows, row at a time %.1f ms, "
+                    + "batch at a time %.1f ms: %s%n", times.rows, times.planned, times.transformed, query);
+        }
+    }
+
+    private static void addTable(String name, HeapFile file) {
+        Database.getCatalog().addTable(file, name);
+        TableStats.setTableStats(name, new TableStats(file.getId(), IO_COST));
+    }
+}